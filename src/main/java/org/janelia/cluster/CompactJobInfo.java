@@ -0,0 +1,295 @@
+package org.janelia.cluster;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+
+/**
+ * Memory-compact JobInfo, for keeping track of very large job arrays. The getters and setters behave exactly like
+ * those of JobInfo, but the values are stored in primitive fields: ids, slots, usage and the exit code with
+ * sentinel values standing in for null, the status as a byte, and times as epoch seconds. Strings which tend to
+ * repeat across jobs (names, hosts, queues, etc.) are deduplicated through a shared, bounded StringPool. None of
+ * JobInfo's own storage is allocated.
+ */
+public class CompactJobInfo extends JobInfo {
+
+    // Constants
+    private static final int DEFAULT_POOL_SIZE = 100000;
+    private static final long NULL_LONG = Long.MIN_VALUE;
+    private static final int NULL_INT = Integer.MIN_VALUE;
+    private static final double NULL_DOUBLE = Double.NaN;
+    private static final byte NULL_STATUS = -1;
+    private static final JobStatus[] STATUSES = JobStatus.values();
+    private static final StringPool POOL = new StringPool(DEFAULT_POOL_SIZE);
+
+    // State
+    private long jobId = NULL_LONG;
+    private long arrayIndex = NULL_LONG;
+    private String name;
+    private String fromHost;
+    private String execHost;
+    private byte status = NULL_STATUS;
+    private String queue;
+    private String project;
+    private int reqSlot = NULL_INT;
+    private int allocSlot = NULL_INT;
+    private long submitTime = NULL_LONG;
+    private long startTime = NULL_LONG;
+    private long finishTime = NULL_LONG;
+    private String maxMem;
+    private long maxMemBytes = NULL_LONG;
+    private long avgMemBytes = NULL_LONG;
+    private long swapBytes = NULL_LONG;
+    private double cpuSeconds = NULL_DOUBLE;
+    private int exitCode = NULL_INT;
+    private String exitReason;
+
+    public CompactJobInfo() {
+        super(false);
+    }
+
+    /**
+     * Create a compact copy of the given job info.
+     */
+    public CompactJobInfo(JobInfo other) {
+        super(false);
+        setJobId(other.getJobId());
+        setArrayIndex(other.getArrayIndex());
+        setName(other.getName());
+        setFromHost(other.getFromHost());
+        setExecHost(other.getExecHost());
+        setStatus(other.getStatus());
+        setQueue(other.getQueue());
+        setProject(other.getProject());
+        setReqSlot(other.getReqSlot());
+        setAllocSlot(other.getAllocSlot());
+        setSubmitTime(other.getSubmitTime());
+        setStartTime(other.getStartTime());
+        setFinishTime(other.getFinishTime());
+        setMaxMem(other.getMaxMem());
+        setMaxMemBytes(other.getMaxMemBytes());
+        setAvgMemBytes(other.getAvgMemBytes());
+        setSwapBytes(other.getSwapBytes());
+        setCpuSeconds(other.getCpuSeconds());
+        setExitCode(other.getExitCode());
+        setExitReason(other.getExitReason());
+    }
+
+    /**
+     * Returns the pool used to deduplicate the strings of all compact job infos.
+     */
+    public static StringPool getStringPool() {
+        return POOL;
+    }
+
+    @Override
+    public Long getJobId() {
+        return jobId == NULL_LONG ? null : jobId;
+    }
+
+    @Override
+    public void setJobId(Long jobId) {
+        this.jobId = jobId == null ? NULL_LONG : jobId;
+    }
+
+    @Override
+    public Long getArrayIndex() {
+        return arrayIndex == NULL_LONG ? null : arrayIndex;
+    }
+
+    @Override
+    public void setArrayIndex(Long arrayIndex) {
+        this.arrayIndex = arrayIndex == null ? NULL_LONG : arrayIndex;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public void setName(String name) {
+        this.name = POOL.intern(name);
+    }
+
+    @Override
+    public String getFromHost() {
+        return fromHost;
+    }
+
+    @Override
+    public void setFromHost(String fromHost) {
+        this.fromHost = POOL.intern(fromHost);
+    }
+
+    @Override
+    public String getExecHost() {
+        return execHost;
+    }
+
+    @Override
+    public void setExecHost(String execHost) {
+        this.execHost = POOL.intern(execHost);
+    }
+
+    @Override
+    public JobStatus getStatus() {
+        return status == NULL_STATUS ? null : STATUSES[status];
+    }
+
+    @Override
+    public void setStatus(JobStatus status) {
+        this.status = status == null ? NULL_STATUS : (byte) status.ordinal();
+    }
+
+    @Override
+    public String getQueue() {
+        return queue;
+    }
+
+    @Override
+    public void setQueue(String queue) {
+        this.queue = POOL.intern(queue);
+    }
+
+    @Override
+    public String getProject() {
+        return project;
+    }
+
+    @Override
+    public void setProject(String project) {
+        this.project = POOL.intern(project);
+    }
+
+    @Override
+    public Integer getReqSlot() {
+        return reqSlot == NULL_INT ? null : reqSlot;
+    }
+
+    @Override
+    public void setReqSlot(Integer reqSlot) {
+        this.reqSlot = reqSlot == null ? NULL_INT : reqSlot;
+    }
+
+    @Override
+    public Integer getAllocSlot() {
+        return allocSlot == NULL_INT ? null : allocSlot;
+    }
+
+    @Override
+    public void setAllocSlot(Integer allocSlot) {
+        this.allocSlot = allocSlot == null ? NULL_INT : allocSlot;
+    }
+
+    @Override
+    public LocalDateTime getSubmitTime() {
+        return toDate(submitTime);
+    }
+
+    @Override
+    public void setSubmitTime(LocalDateTime submitTime) {
+        this.submitTime = toSeconds(submitTime);
+    }
+
+    @Override
+    public LocalDateTime getStartTime() {
+        return toDate(startTime);
+    }
+
+    @Override
+    public void setStartTime(LocalDateTime startTime) {
+        this.startTime = toSeconds(startTime);
+    }
+
+    @Override
+    public LocalDateTime getFinishTime() {
+        return toDate(finishTime);
+    }
+
+    @Override
+    public void setFinishTime(LocalDateTime finishTime) {
+        this.finishTime = toSeconds(finishTime);
+    }
+
+    @Override
+    public String getMaxMem() {
+        return maxMem;
+    }
+
+    @Override
+    public void setMaxMem(String maxMem) {
+        this.maxMem = POOL.intern(maxMem);
+    }
+
+    @Override
+    public Long getMaxMemBytes() {
+        return maxMemBytes == NULL_LONG ? null : maxMemBytes;
+    }
+
+    @Override
+    public void setMaxMemBytes(Long maxMemBytes) {
+        this.maxMemBytes = maxMemBytes == null ? NULL_LONG : maxMemBytes;
+    }
+
+    @Override
+    public Long getAvgMemBytes() {
+        return avgMemBytes == NULL_LONG ? null : avgMemBytes;
+    }
+
+    @Override
+    public void setAvgMemBytes(Long avgMemBytes) {
+        this.avgMemBytes = avgMemBytes == null ? NULL_LONG : avgMemBytes;
+    }
+
+    @Override
+    public Long getSwapBytes() {
+        return swapBytes == NULL_LONG ? null : swapBytes;
+    }
+
+    @Override
+    public void setSwapBytes(Long swapBytes) {
+        this.swapBytes = swapBytes == null ? NULL_LONG : swapBytes;
+    }
+
+    @Override
+    public Double getCpuSeconds() {
+        return Double.isNaN(cpuSeconds) ? null : cpuSeconds;
+    }
+
+    @Override
+    public void setCpuSeconds(Double cpuSeconds) {
+        this.cpuSeconds = cpuSeconds == null ? NULL_DOUBLE : cpuSeconds;
+    }
+
+    @Override
+    public Integer getExitCode() {
+        return exitCode == NULL_INT ? null : exitCode;
+    }
+
+    @Override
+    public void setExitCode(Integer exitCode) {
+        this.exitCode = exitCode == null ? NULL_INT : exitCode;
+    }
+
+    @Override
+    public String getExitReason() {
+        return exitReason;
+    }
+
+    @Override
+    public void setExitReason(String exitReason) {
+        this.exitReason = POOL.intern(exitReason);
+    }
+
+    /**
+     * Local times are stored as if they were UTC, which makes the conversion exact in both directions. Cluster
+     * times have a resolution of one second, so nothing is lost by dropping the nanoseconds.
+     */
+    private static long toSeconds(LocalDateTime date) {
+        return date == null ? NULL_LONG : date.toEpochSecond(ZoneOffset.UTC);
+    }
+
+    private static LocalDateTime toDate(long seconds) {
+        return seconds == NULL_LONG ? null : LocalDateTime.ofEpochSecond(seconds, 0, ZoneOffset.UTC);
+    }
+}
@@ -0,0 +1,240 @@
+package org.janelia.cluster;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Function;
+
+/**
+ * Admission queue in front of a JobManager, which holds job templates on the client and only releases them to the
+ * cluster while the number of pending and running jobs in their queue stays under a cap. This keeps huge batches of
+ * work from flooding the scheduler with pending jobs. Held jobs are released in the order they were submitted, as
+ * the manager observes jobs completing. Job arrays count each of their elements, and the capacity taken by an
+ * array is given back element by element as the manager sees them finish, not only once the whole array is done.
+ *
+ * The active job counts come from the JobManager's own state (see JobManager.getActiveJobCounts), so only jobs
+ * monitored by that manager are counted. Jobs for which the queue resolver returns null are counted against the
+ * total number of active jobs in all queues.
+ */
+public class JobAdmissionController {
+
+    private static final Logger log = LoggerFactory.getLogger(JobAdmissionController.class);
+
+    // Configuration
+    private final JobManager jobManager;
+    private final Function<JobTemplate, String> queueResolver;
+    private final int defaultMaxActiveJobs;
+    private final Map<String, Integer> maxActiveJobs = new ConcurrentHashMap<>();
+    private final Executor executor;
+    private final ExecutorService ownedExecutor;
+
+    // State
+    private final Map<String, Deque<HeldJob>> heldJobs = new LinkedHashMap<>();
+    private final AtomicBoolean releaseScheduled = new AtomicBoolean();
+    private final Runnable checkListener = this::scheduleRelease;
+
+    /**
+     * Create an admission controller with a single cap on the total number of active jobs.
+     * @param jobManager manager used to submit and monitor the jobs
+     * @param maxActiveJobs maximum number of pending plus running jobs
+     */
+    public JobAdmissionController(JobManager jobManager, int maxActiveJobs) {
+        this(jobManager, jt -> null, maxActiveJobs, null);
+    }
+
+    /**
+     * Create an admission controller with per-queue caps.
+     * @param jobManager manager used to submit and monitor the jobs
+     * @param queueResolver finds the queue a template will be submitted to, e.g. jt -> LsfUtils.getQueue(jt.getNativeSpecification())
+     * @param defaultMaxActiveJobs maximum number of pending plus running jobs, for queues without a specific cap
+     * @param executor executor used for submitting jobs, or null to use a dedicated thread
+     */
+    public JobAdmissionController(JobManager jobManager, Function<JobTemplate, String> queueResolver,
+                                  int defaultMaxActiveJobs, Executor executor) {
+        this.jobManager = jobManager;
+        this.queueResolver = queueResolver;
+        this.defaultMaxActiveJobs = defaultMaxActiveJobs;
+        if (executor == null) {
+            this.ownedExecutor = Executors.newSingleThreadExecutor(
+                    Utils.newDaemonThreadFactory("JobAdmissionController-submitter"));
+            this.executor = ownedExecutor;
+        }
+        else {
+            this.ownedExecutor = null;
+            this.executor = executor;
+        }
+        jobManager.addCheckListener(checkListener);
+    }
+
+    /**
+     * Stop listening to the manager and shut down the dedicated submission thread, if one was created. Jobs which
+     * are still held are not released.
+     */
+    public void shutdown() {
+        jobManager.removeCheckListener(checkListener);
+        if (ownedExecutor != null) {
+            ownedExecutor.shutdown();
+        }
+    }
+
+    /**
+     * Set the maximum number of pending plus running jobs for the given queue.
+     */
+    public void setMaxActiveJobs(String queue, int max) {
+        maxActiveJobs.put(queue, max);
+    }
+
+    /**
+     * Returns the maximum number of pending plus running jobs for the given queue.
+     */
+    public int getMaxActiveJobs(String queue) {
+        return queue == null ? defaultMaxActiveJobs : maxActiveJobs.getOrDefault(queue, defaultMaxActiveJobs);
+    }
+
+    /**
+     * Queue the job described by the given JobTemplate for submission to the cluster.
+     * @param jt job template
+     * @return a future collection containing the completed JobInfo. Cancelling the future before the job is
+     * released will remove it from the admission queue.
+     */
+    public CompletableFuture<Collection<JobInfo>> submitJob(JobTemplate jt) {
+        return hold(new HeldJob(jt, null, null));
+    }
+
+    /**
+     * Queue the job array described by the given JobTemplate for submission to the cluster. The whole array
+     * is released at once, when there is room for all of its elements (or when its queue is empty).
+     * @param jt job array template
+     * @param start starting array index
+     * @param end ending array index
+     * @return a future collection containing the completed JobInfos
+     */
+    public CompletableFuture<Collection<JobInfo>> submitJob(JobTemplate jt, long start, long end) {
+        return hold(new HeldJob(jt, start, end));
+    }
+
+    private CompletableFuture<Collection<JobInfo>> hold(HeldJob heldJob) {
+        String queue = queueResolver.apply(heldJob.template);
+        synchronized (heldJobs) {
+            heldJobs.computeIfAbsent(queue, k -> new ArrayDeque<>()).add(heldJob);
+        }
+        scheduleRelease();
+        return heldJob.future;
+    }
+
+    /**
+     * Returns the number of jobs (or job arrays) which are being held on the client.
+     */
+    public int getHeldCount() {
+        synchronized (heldJobs) {
+            return heldJobs.values().stream().mapToInt(Deque::size).sum();
+        }
+    }
+
+    /**
+     * Returns the number of jobs (or job arrays) which are being held on the client for the given queue.
+     */
+    public int getHeldCount(String queue) {
+        synchronized (heldJobs) {
+            Deque<HeldJob> deque = heldJobs.get(queue);
+            return deque == null ? 0 : deque.size();
+        }
+    }
+
+    /**
+     * Check whether any held jobs can be released. This happens automatically when jobs are submitted or complete,
+     * but it can also be called periodically, e.g. if jobs were killed or caps were changed.
+     */
+    public void scheduleRelease() {
+        // Coalesce bursts of completions into a single pass over the manager's state
+        if (releaseScheduled.compareAndSet(false, true)) {
+            executor.execute(this::releaseHeldJobs);
+        }
+    }
+
+    private void releaseHeldJobs() {
+
+        releaseScheduled.set(false);
+
+        Map<String, Integer> counts = jobManager.getActiveJobCounts();
+        int total = counts.values().stream().mapToInt(Integer::intValue).sum();
+
+        List<HeldJob> released = new ArrayList<>();
+        synchronized (heldJobs) {
+            for (Map.Entry<String, Deque<HeldJob>> entry : heldJobs.entrySet()) {
+                String queue = entry.getKey();
+                Deque<HeldJob> deque = entry.getValue();
+                int cap = getMaxActiveJobs(queue);
+                while (!deque.isEmpty()) {
+                    HeldJob heldJob = deque.peek();
+                    if (heldJob.future.isDone()) {
+                        // Cancelled while held
+                        deque.poll();
+                        continue;
+                    }
+                    int active = queue == null ? total : counts.getOrDefault(queue, 0);
+                    if (active > 0 && active + heldJob.size > cap) {
+                        log.trace("Queue {} has {} active jobs, holding {} jobs", queue, active, deque.size());
+                        break;
+                    }
+                    deque.poll();
+                    released.add(heldJob);
+                    counts.merge(queue, heldJob.size, Integer::sum);
+                    total += heldJob.size;
+                }
+            }
+        }
+
+        if (!released.isEmpty()) {
+            log.debug("Releasing {} held jobs", released.size());
+        }
+
+        for (HeldJob heldJob : released) {
+            try {
+                JobFuture jobFuture;
+                if (heldJob.start == null) {
+                    jobFuture = jobManager.submitJob(heldJob.template);
+                }
+                else {
+                    jobFuture = jobManager.submitJob(heldJob.template, heldJob.start, heldJob.end);
+                }
+                jobFuture.whenComplete((infos, t) -> {
+                    if (t != null) {
+                        heldJob.future.completeExceptionally(t);
+                    }
+                    else {
+                        heldJob.future.complete(infos);
+                    }
+                    scheduleRelease();
+                });
+            }
+            catch (Exception e) {
+                log.error("Error submitting held job {}", heldJob.template.getJobName(), e);
+                heldJob.future.completeExceptionally(e);
+            }
+        }
+    }
+
+    private static class HeldJob {
+
+        private final JobTemplate template;
+        private final Long start;
+        private final Long end;
+        private final int size;
+        private final CompletableFuture<Collection<JobInfo>> future = new CompletableFuture<>();
+
+        HeldJob(JobTemplate template, Long start, Long end) {
+            this.template = template;
+            this.start = start;
+            this.end = end;
+            this.size = start == null ? 1 : (int) Math.min(Integer.MAX_VALUE, end - start + 1);
+        }
+    }
+}
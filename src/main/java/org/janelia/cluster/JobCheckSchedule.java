@@ -0,0 +1,118 @@
+package org.janelia.cluster;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.Collection;
+import java.util.function.Function;
+
+/**
+ * Decides when each monitored job should next be checked, so that a JobManager only has to query the jobs which
+ * are due (see JobManager.setCheckSchedule). Jobs which have only just been submitted or started are checked
+ * often, and the interval grows in proportion to how long the job has been pending or running, so that a job
+ * which has been running for days is not polled as often as one which may finish any second.
+ *
+ * If a duration predictor is set (e.g. backed by a JobStatsStore), running jobs are instead checked around the
+ * time they are predicted to finish, and then increasingly less often if they overrun. The interval is always
+ * kept between the minimum and maximum, so the maximum bounds how late a completion can be noticed.
+ */
+public class JobCheckSchedule {
+
+    // Constants
+    private static final long DEFAULT_MIN_INTERVAL_MILLIS = 15000;
+    private static final long DEFAULT_MAX_INTERVAL_MILLIS = 600000;
+    private static final double DEFAULT_BACKOFF_FRACTION = 0.1;
+
+    // Configuration
+    private long minIntervalMillis = DEFAULT_MIN_INTERVAL_MILLIS;
+    private long maxIntervalMillis = DEFAULT_MAX_INTERVAL_MILLIS;
+    private double backoffFraction = DEFAULT_BACKOFF_FRACTION;
+    private Function<JobInfo, Long> durationPredictor;
+
+    /**
+     * Returns how long to wait before checking a job again, given its latest infos. For a job array, this is the
+     * shortest delay of any of its unfinished elements.
+     * @param infos latest infos for the job, or null if nothing is known about it yet
+     * @param now current local time
+     * @return delay in milliseconds
+     */
+    public long getDelayMillis(Collection<JobInfo> infos, LocalDateTime now) {
+        if (infos == null || infos.isEmpty()) return minIntervalMillis;
+        long delay = maxIntervalMillis;
+        for (JobInfo info : infos) {
+            if (info.isComplete()) continue;
+            delay = Math.min(delay, getDelayMillis(info, now));
+            if (delay <= minIntervalMillis) break;
+        }
+        return delay;
+    }
+
+    /**
+     * Returns how long to wait before checking the given job or job array element again.
+     * @param info latest info for the job
+     * @param now current local time
+     * @return delay in milliseconds
+     */
+    public long getDelayMillis(JobInfo info, LocalDateTime now) {
+        if (info.getStatus() == JobStatus.RUNNING && info.getStartTime() != null) {
+            long elapsed = Duration.between(info.getStartTime(), now).toMillis();
+            Long predictedSeconds = durationPredictor == null ? null : durationPredictor.apply(info);
+            if (predictedSeconds != null) {
+                long remaining = predictedSeconds * 1000 - elapsed;
+                // Check at the predicted finish, then back off from there if the job overruns
+                return clamp(remaining > 0 ? remaining : (long) (-remaining * backoffFraction));
+            }
+            return clamp((long) (elapsed * backoffFraction));
+        }
+        else if (info.getStatus() == JobStatus.PENDING && info.getSubmitTime() != null) {
+            long elapsed = Duration.between(info.getSubmitTime(), now).toMillis();
+            return clamp((long) (elapsed * backoffFraction));
+        }
+        return minIntervalMillis;
+    }
+
+    private long clamp(long delay) {
+        return Math.max(minIntervalMillis, Math.min(maxIntervalMillis, delay));
+    }
+
+    public long getMinIntervalMillis() {
+        return minIntervalMillis;
+    }
+
+    /**
+     * Sets the shortest interval between checks of the same job. Defaults to 15 seconds.
+     */
+    public void setMinIntervalMillis(long minIntervalMillis) {
+        this.minIntervalMillis = minIntervalMillis;
+    }
+
+    public long getMaxIntervalMillis() {
+        return maxIntervalMillis;
+    }
+
+    /**
+     * Sets the longest interval between checks of the same job. Defaults to 10 minutes.
+     */
+    public void setMaxIntervalMillis(long maxIntervalMillis) {
+        this.maxIntervalMillis = maxIntervalMillis;
+    }
+
+    public double getBackoffFraction() {
+        return backoffFraction;
+    }
+
+    /**
+     * Sets the interval between checks, as a fraction of the time the job has been pending or running
+     * (or has overrun its predicted duration). Defaults to 0.1.
+     */
+    public void setBackoffFraction(double backoffFraction) {
+        this.backoffFraction = backoffFraction;
+    }
+
+    /**
+     * Sets a function which predicts the total run time of a job in seconds, or returns null if it has no
+     * prediction for that job.
+     */
+    public void setDurationPredictor(Function<JobInfo, Long> durationPredictor) {
+        this.durationPredictor = durationPredictor;
+    }
+}
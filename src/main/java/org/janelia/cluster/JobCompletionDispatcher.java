@@ -0,0 +1,205 @@
+package org.janelia.cluster;
+
+import java.util.Collection;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Completes JobFutures on a separate executor, so that callbacks chained to them (e.g. with thenApply or
+ * thenAccept, which run on the completing thread) cannot hold up the thread checking the jobs. Give it to a
+ * JobManager with JobManager.setCompletionDispatcher.
+ *
+ * At most maxPending completions may be waiting or running at once. Beyond that, completions run on the calling
+ * thread, which slows the checks down rather than letting completions pile up without limit. The time each
+ * completion waits to run, and the time its callbacks take, are recorded for monitoring.
+ */
+public class JobCompletionDispatcher {
+
+    private static final Logger log = LoggerFactory.getLogger(JobCompletionDispatcher.class);
+
+    // Constants
+    private static final int DEFAULT_THREADS = 4;
+    private static final int DEFAULT_MAX_PENDING = 10000;
+
+    // Configuration
+    private final Executor executor;
+    private final ExecutorService ownedExecutor;
+    private final int maxPending;
+
+    // State
+    private final Semaphore permits;
+    private final AtomicInteger maxPendingSeen = new AtomicInteger();
+    private final AtomicLong dispatchedCount = new AtomicLong();
+    private final AtomicLong overflowCount = new AtomicLong();
+    // Sub-millisecond latencies are common, and the sketches count values below 1 as zero, so record micros
+    private final QuantileSketch waitMicros = new QuantileSketch();
+    private final QuantileSketch callbackMicros = new QuantileSketch();
+
+    /**
+     * Creates a dispatcher with its own pool of 4 daemon threads, allowing 10000 pending completions.
+     */
+    public JobCompletionDispatcher() {
+        this(DEFAULT_THREADS, DEFAULT_MAX_PENDING);
+    }
+
+    /**
+     * Creates a dispatcher with its own pool of daemon threads.
+     * @param threads number of threads running the completions
+     * @param maxPending number of completions which may be waiting or running at once
+     */
+    public JobCompletionDispatcher(int threads, int maxPending) {
+        this(Executors.newFixedThreadPool(threads,
+                Utils.newDaemonThreadFactory("JobCompletionDispatcher-completer")), maxPending, true);
+    }
+
+    /**
+     * Creates a dispatcher running the completions on the given executor, which is not shut down by shutdown().
+     * @param executor executor running the completions
+     * @param maxPending number of completions which may be waiting or running at once
+     */
+    public JobCompletionDispatcher(Executor executor, int maxPending) {
+        this(executor, maxPending, false);
+    }
+
+    private JobCompletionDispatcher(Executor executor, int maxPending, boolean owned) {
+        if (maxPending < 1) throw new IllegalArgumentException("maxPending must be positive");
+        this.executor = executor;
+        this.ownedExecutor = owned ? (ExecutorService) executor : null;
+        this.maxPending = maxPending;
+        this.permits = new Semaphore(maxPending);
+    }
+
+    /**
+     * Complete the given future with the given infos.
+     */
+    public void complete(CompletableFuture<Collection<JobInfo>> future, Collection<JobInfo> infos) {
+        dispatch(() -> future.complete(infos));
+    }
+
+    /**
+     * Complete the given future with the given exception.
+     */
+    public void completeExceptionally(CompletableFuture<Collection<JobInfo>> future, Throwable t) {
+        dispatch(() -> future.completeExceptionally(t));
+    }
+
+    private void dispatch(Runnable completion) {
+        dispatchedCount.incrementAndGet();
+        long queued = System.nanoTime();
+        if (permits.tryAcquire()) {
+            maxPendingSeen.accumulateAndGet(getPendingCount(), Math::max);
+            try {
+                executor.execute(() -> {
+                    try {
+                        run(completion, queued);
+                    }
+                    finally {
+                        permits.release();
+                    }
+                });
+                return;
+            }
+            catch (RejectedExecutionException e) {
+                permits.release();
+                log.warn("Completion executor rejected a completion, running it on the calling thread");
+            }
+        }
+        else {
+            log.debug("More than {} completions pending, running it on the calling thread", maxPending);
+        }
+        overflowCount.incrementAndGet();
+        run(completion, queued);
+    }
+
+    private void run(Runnable completion, long queued) {
+        long started = System.nanoTime();
+        waitMicros.add((started - queued) / 1e3);
+        try {
+            completion.run();
+        }
+        catch (Throwable t) {
+            log.error("Error completing job future", t);
+        }
+        finally {
+            callbackMicros.add((System.nanoTime() - started) / 1e3);
+        }
+    }
+
+    /**
+     * Stop the dispatcher's own threads, after running any pending completions. Does nothing if the dispatcher
+     * was given an executor.
+     */
+    public void shutdown() {
+        if (ownedExecutor != null) {
+            ownedExecutor.shutdown();
+        }
+    }
+
+    /**
+     * Returns the number of completions currently waiting or running (the queue depth).
+     */
+    public int getPendingCount() {
+        return maxPending - permits.availablePermits();
+    }
+
+    /**
+     * Returns the largest queue depth seen so far.
+     */
+    public int getMaxPendingCount() {
+        return maxPendingSeen.get();
+    }
+
+    /**
+     * Returns the number of completions dispatched so far.
+     */
+    public long getDispatchedCount() {
+        return dispatchedCount.get();
+    }
+
+    /**
+     * Returns the number of completions which had to run on the calling thread, because the queue was full.
+     */
+    public long getOverflowCount() {
+        return overflowCount.get();
+    }
+
+    /**
+     * Returns the distribution of the time completions waited before running, in microseconds.
+     */
+    public QuantileSketch getWaitMicros() {
+        return waitMicros;
+    }
+
+    /**
+     * Returns the distribution of the time taken by completions, including any callbacks which ran as a result,
+     * in microseconds.
+     */
+    public QuantileSketch getCallbackMicros() {
+        return callbackMicros;
+    }
+
+    /**
+     * Returns the given quantile of the time completions waited before running, in milliseconds.
+     * @param q quantile, between 0 and 1
+     */
+    public double getWaitMillis(double q) {
+        return waitMicros.getQuantile(q) / 1e3;
+    }
+
+    /**
+     * Returns the given quantile of the time taken by completions, in milliseconds.
+     * @param q quantile, between 0 and 1
+     */
+    public double getCallbackMillis(double q) {
+        return callbackMicros.getQuantile(q) / 1e3;
+    }
+}
@@ -0,0 +1,23 @@
+package org.janelia.cluster;
+
+/**
+ * Classification of the reason a job failed, used to decide whether it is worth retrying.
+ */
+public enum JobFailureType {
+
+    /** The job was killed for exceeding its memory or swap limit. */
+    MEMORY_LIMIT,
+
+    /** The job was killed for exceeding its run time or CPU time limit. */
+    RUN_LIMIT,
+
+    /** The job was lost or terminated because of a problem with its execution host, or was preempted. */
+    HOST_FAILURE,
+
+    /** The job was killed by its owner or an administrator. */
+    KILLED,
+
+    /** The job itself exited with a non-zero exit code. */
+    APPLICATION_ERROR
+
+}
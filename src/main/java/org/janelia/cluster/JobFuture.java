@@ -1,13 +1,26 @@
 package org.janelia.cluster;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 /**
  * A JobFuture represents the future completion of a single job or job array on the cluster. Either way,
  * the job id can be retrieved.
  * 
  * The future result will be a collection of all the final JobInfo objects for all the jobs in the job array.
+ *
+ * A large job array may have been submitted in chunks, each of which is a separate job array on the cluster
+ * (see JobManager.setMaxArraySize). Its future then stands for all of the chunks, and completes once they have
+ * all completed. The array indexes are the same as if it had been submitted whole, and getJobId(arrayIndex)
+ * gives the id of the chunk running a given element.
  * 
  * @author <a href="mailto:rokickik@janelia.hhmi.org">Konrad Rokicki</a>
  */
@@ -23,21 +36,134 @@ public final class JobFuture extends CompletableFuture<Collection<JobInfo>> {
         return new JobFuture(jobId);
     }
 
+    /**
+     * Returns a new, incomplete future for the same cluster jobs as the given one, including all of its chunks.
+     */
+    static JobFuture withJobIdsOf(JobFuture other) {
+        return new JobFuture(other.jobId, other.chunks);
+    }
+
+    /**
+     * Returns a future which completes with the results of all the given chunks, or exceptionally as soon as
+     * any of them does.
+     * @param chunks the chunks of a job array, in any order
+     */
+    static JobFuture ofChunks(Collection<Chunk> chunks) {
+        NavigableMap<Long, Chunk> byIndex = new TreeMap<>();
+        for (Chunk chunk : chunks) {
+            byIndex.put(chunk.firstIndex, chunk);
+        }
+        JobFuture jf = new JobFuture(byIndex.firstEntry().getValue().future.getJobId(), byIndex);
+        CompletableFuture<?>[] futures = byIndex.values().stream().map(chunk -> chunk.future)
+                .toArray(CompletableFuture<?>[]::new);
+        CompletableFuture.allOf(futures).whenComplete((v, t) -> {
+            if (t != null) {
+                jf.completeExceptionally(t instanceof CompletionException && t.getCause() != null ? t.getCause() : t);
+            }
+            else {
+                List<JobInfo> infos = new ArrayList<>();
+                for (Chunk chunk : byIndex.values()) {
+                    infos.addAll(chunk.future.join());
+                }
+                jf.complete(infos);
+            }
+        });
+        return jf;
+    }
+
     private final Long jobId;
+    private final NavigableMap<Long, Chunk> chunks;
 
     private JobFuture() {
         this(null);
     }
 
     private JobFuture(Long jobId) {
+        this(jobId, null);
+    }
+
+    private JobFuture(Long jobId, NavigableMap<Long, Chunk> chunks) {
         this.jobId = jobId;
+        this.chunks = chunks;
     }
 
     /**
-     * Returns the job id that has a future here.
+     * Returns the job id that has a future here. For a job array submitted in chunks, this is the id of the
+     * first chunk.
      */
     public Long getJobId() {
         return jobId;
     }
 
+    /**
+     * Returns true if this is the future of a job array which was submitted in several chunks.
+     */
+    public boolean isChunked() {
+        return chunks != null;
+    }
+
+    /**
+     * Returns the ids of all the cluster jobs behind this future, i.e. the id of each chunk of a chunked job
+     * array, or otherwise just the job id.
+     */
+    public List<Long> getJobIds() {
+        if (chunks == null) return Collections.singletonList(jobId);
+        List<Long> jobIds = new ArrayList<>();
+        for (Chunk chunk : chunks.values()) {
+            jobIds.add(chunk.future.getJobId());
+        }
+        return jobIds;
+    }
+
+    /**
+     * Returns the id of the cluster job running the given element, i.e. the chunk containing it for a
+     * chunked job array (or null if no chunk contains it), or otherwise just the job id.
+     */
+    public Long getJobId(Long arrayIndex) {
+        if (chunks == null || arrayIndex == null) return jobId;
+        Map.Entry<Long, Chunk> entry = chunks.floorEntry(arrayIndex);
+        return entry == null || !entry.getValue().contains(arrayIndex) ? null : entry.getValue().future.getJobId();
+    }
+
+    /**
+     * A chunk of a job array, which was submitted as a job array of its own.
+     */
+    static final class Chunk {
+
+        private final JobFuture future;
+        private final long firstIndex;
+        private final long lastIndex;
+        // The indexes run by the chunk, in ascending order, or null for every index from first to last
+        private final long[] indexes;
+
+        /**
+         * A chunk running every index from firstIndex to lastIndex.
+         */
+        Chunk(JobFuture future, long firstIndex, long lastIndex) {
+            this.future = future;
+            this.firstIndex = firstIndex;
+            this.lastIndex = lastIndex;
+            this.indexes = null;
+        }
+
+        /**
+         * A chunk running the given indexes, which must be in ascending order.
+         */
+        Chunk(JobFuture future, List<Long> sortedIndexes) {
+            this.future = future;
+            this.firstIndex = sortedIndexes.get(0);
+            this.lastIndex = sortedIndexes.get(sortedIndexes.size() - 1);
+            if (lastIndex - firstIndex + 1 == sortedIndexes.size()) {
+                this.indexes = null;
+            }
+            else {
+                this.indexes = sortedIndexes.stream().mapToLong(Long::longValue).toArray();
+            }
+        }
+
+        boolean contains(long arrayIndex) {
+            if (arrayIndex < firstIndex || arrayIndex > lastIndex) return false;
+            return indexes == null || Arrays.binarySearch(indexes, arrayIndex) >= 0;
+        }
+    }
 }
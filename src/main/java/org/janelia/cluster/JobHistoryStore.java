@@ -0,0 +1,598 @@
+package org.janelia.cluster;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Off-heap history of finished jobs, for querying e.g. the last week of runs by name, status or submit time long
+ * after the JobManager has forgotten them. JobInfos are appended as compact binary records to memory-mapped
+ * segment files in a directory, each followed by a CRC which is checked whenever the record is decoded. A new
+ * segment is started every segmentDuration (or when a segment is full), and whole segments are deleted once they
+ * are older than the retention period.
+ *
+ * Only small secondary indexes are kept on the heap: record offsets by job id, by name and by status, and the
+ * submit time of each record (sorted once a segment is full). Queries are served straight from the mapped segments; the
+ * Record passed to scan() reads its fields from the mapping on demand, and is only decoded into a JobInfo if
+ * asked to. The store is rebuilt from the segment files when it is reopened.
+ */
+public class JobHistoryStore implements Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(JobHistoryStore.class);
+
+    // Constants
+    private static final int DEFAULT_SEGMENT_BYTES = 64 * 1024 * 1024;
+    private static final Duration DEFAULT_SEGMENT_DURATION = Duration.ofDays(1);
+    private static final Duration DEFAULT_RETENTION = Duration.ofDays(7);
+    private static final String SEGMENT_PREFIX = "history-";
+    private static final String SEGMENT_SUFFIX = ".seg";
+    private static final int CRC_BYTES = 4;
+
+    // Configuration
+    private final Path dir;
+    private final int segmentBytes;
+    private final Duration segmentDuration;
+    private final Duration retention;
+
+    // State
+    private final List<Segment> segments = new ArrayList<>();
+    private boolean closed;
+
+    /**
+     * Open the store in the given directory, with default settings: 64 MB segments, a new segment every day,
+     * and a retention period of 7 days.
+     */
+    public JobHistoryStore(Path dir) throws IOException {
+        this(dir, DEFAULT_SEGMENT_BYTES, DEFAULT_SEGMENT_DURATION, DEFAULT_RETENTION);
+    }
+
+    /**
+     * @param dir directory for the segment files, which is created if necessary
+     * @param segmentBytes maximum size of each segment file
+     * @param segmentDuration how long to keep appending to a segment before starting a new one
+     * @param retention how long to keep a segment after it was last appended to
+     * @throws IOException if the existing segments cannot be read
+     */
+    public JobHistoryStore(Path dir, int segmentBytes, Duration segmentDuration, Duration retention) throws IOException {
+        this.dir = dir;
+        this.segmentBytes = segmentBytes;
+        this.segmentDuration = segmentDuration;
+        this.retention = retention;
+        Files.createDirectories(dir);
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, SEGMENT_PREFIX + "*" + SEGMENT_SUFFIX)) {
+            stream.forEach(files::add);
+        }
+        Collections.sort(files);
+        for (Path file : files) {
+            segments.add(Segment.open(file));
+        }
+        if (!segments.isEmpty()) {
+            log.debug("Opened {} history segments in {}", segments.size(), dir);
+        }
+        expire();
+    }
+
+    /**
+     * Append the given jobs to the history.
+     * @param infos final job infos
+     * @throws IOException if a new segment cannot be created
+     */
+    public synchronized void append(Collection<JobInfo> infos) throws IOException {
+        checkOpen();
+        for (JobInfo info : infos) {
+            byte[] record = JobInfoCodec.encode(info);
+            if (record.length + CRC_BYTES > segmentBytes) {
+                throw new IllegalArgumentException("Record of " + record.length + " bytes does not fit in a segment");
+            }
+            Segment segment = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+            if (segment == null || segment.isFull(record.length + CRC_BYTES)
+                    || System.currentTimeMillis() - segment.startMillis > segmentDuration.toMillis()) {
+                if (segment != null) segment.seal();
+                expire();
+                segment = Segment.create(dir, segmentBytes, segments.isEmpty() ? 0 : segments.get(segments.size() - 1).seq + 1);
+                segments.add(segment);
+            }
+            segment.append(record);
+        }
+    }
+
+    public void append(JobInfo info) throws IOException {
+        append(Collections.singletonList(info));
+    }
+
+    /**
+     * Append the jobs of the given future to the history once they complete. Errors are logged.
+     */
+    public void track(JobFuture future) {
+        future.thenAccept(infos -> {
+            try {
+                append(infos);
+            }
+            catch (IOException e) {
+                log.error("Error appending job {} to history", future.getJobId(), e);
+            }
+        });
+    }
+
+    /**
+     * Delete the segments which were last appended to longer ago than the retention period.
+     * This is also done automatically whenever a new segment is started.
+     */
+    public synchronized void expire() throws IOException {
+        long cutoff = System.currentTimeMillis() - retention.toMillis();
+        Iterator<Segment> i = segments.iterator();
+        while (i.hasNext()) {
+            Segment segment = i.next();
+            boolean active = segment == segments.get(segments.size() - 1);
+            if (!active && segment.lastModifiedMillis() < cutoff) {
+                log.debug("Deleting expired history segment {}", segment.file);
+                segment.close();
+                Files.deleteIfExists(segment.file);
+                i.remove();
+            }
+        }
+    }
+
+    /**
+     * Find the jobs matching the given query.
+     * @param query query
+     * @return decoded infos of the matching jobs, in the order in which they were appended
+     */
+    public List<JobInfo> query(Query query) {
+        List<JobInfo> results = new ArrayList<>();
+        scan(query, record -> results.add(record.toJobInfo()));
+        return results;
+    }
+
+    /**
+     * Visit the jobs matching the given query, without decoding them. The same Record instance is reused for
+     * every match, and is only valid during the call to the visitor.
+     * @param query query
+     * @param visitor visitor for the matching records
+     */
+    public synchronized void scan(Query query, Consumer<Record> visitor) {
+        checkOpen();
+        Record record = new Record();
+        int[] remaining = { query.limit };
+        for (Segment segment : segments) {
+            if (remaining[0] <= 0) break;
+            segment.scan(query, record, r -> {
+                if (remaining[0]-- > 0) visitor.accept(r);
+            });
+        }
+    }
+
+    /**
+     * Returns the most recently appended record of the given job, or array element.
+     * @param jobId job id
+     * @param arrayIndex array index, or null for a job which is not part of an array
+     * @return decoded info, or null if the job is not in the history
+     * @throws IllegalStateException if the record is corrupt
+     */
+    public synchronized JobInfo getJob(long jobId, Long arrayIndex) {
+        checkOpen();
+        Record record = new Record();
+        for (int s = segments.size() - 1; s >= 0; s--) {
+            Segment segment = segments.get(s);
+            if (jobId < segment.minJobId || jobId > segment.maxJobId) continue;
+            IntList matches = segment.byJobId.get(jobId);
+            if (matches == null) continue;
+            record.buffer = segment.buffer;
+            for (int i = matches.size() - 1; i >= 0; i--) {
+                record.offset = segment.offsets.get(matches.get(i));
+                if (Objects.equals(record.getArrayIndex(), arrayIndex)) {
+                    return record.toJobInfo();
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the number of records in the store.
+     */
+    public synchronized long size() {
+        long size = 0;
+        for (Segment segment : segments) {
+            size += segment.offsets.size();
+        }
+        return size;
+    }
+
+    /**
+     * Returns the number of segment files in the store.
+     */
+    public synchronized int getSegmentCount() {
+        return segments.size();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) return;
+        closed = true;
+        for (Segment segment : segments) {
+            segment.close();
+        }
+        segments.clear();
+    }
+
+    private void checkOpen() {
+        if (closed) throw new IllegalStateException("History store is closed");
+    }
+
+    /**
+     * Criteria for finding jobs in the history. Unset criteria match everything.
+     */
+    public static class Query {
+
+        private String name;
+        private String queue;
+        private JobStatus status;
+        private long submittedFrom = Long.MIN_VALUE;
+        private long submittedTo = Long.MAX_VALUE;
+        private int limit = Integer.MAX_VALUE;
+
+        /**
+         * Only jobs with the given name.
+         */
+        public Query name(String name) {
+            this.name = name;
+            return this;
+        }
+
+        /**
+         * Only jobs in the given queue.
+         */
+        public Query queue(String queue) {
+            this.queue = queue;
+            return this;
+        }
+
+        /**
+         * Only jobs with the given status.
+         */
+        public Query status(JobStatus status) {
+            this.status = status;
+            return this;
+        }
+
+        /**
+         * Only jobs submitted at or after from, and before to. Either may be null.
+         */
+        public Query submitted(LocalDateTime from, LocalDateTime to) {
+            this.submittedFrom = from == null ? Long.MIN_VALUE : JobInfoCodec.toSeconds(from);
+            this.submittedTo = to == null ? Long.MAX_VALUE : JobInfoCodec.toSeconds(to);
+            return this;
+        }
+
+        /**
+         * Return at most the given number of jobs.
+         */
+        public Query limit(int limit) {
+            this.limit = limit;
+            return this;
+        }
+
+        private boolean hasTimeRange() {
+            return submittedFrom != Long.MIN_VALUE || submittedTo != Long.MAX_VALUE;
+        }
+
+        private boolean matches(Record record) {
+            if (status != null && record.getStatusCode() != status.ordinal()) return false;
+            long submit = record.getSubmitSeconds();
+            if (hasTimeRange() && (submit == JobInfoCodec.NULL_LONG || submit < submittedFrom || submit >= submittedTo)) return false;
+            if (name != null && !name.equals(record.getName())) return false;
+            if (queue != null && !queue.equals(record.getQueue())) return false;
+            return true;
+        }
+    }
+
+    /**
+     * View of a single record in a segment, which decodes fields on demand.
+     */
+    public static class Record {
+
+        private ByteBuffer buffer;
+        private int offset;
+
+        public long getJobId() {
+            return JobInfoCodec.getJobId(buffer, offset);
+        }
+
+        public Long getArrayIndex() {
+            return JobInfoCodec.getArrayIndex(buffer, offset);
+        }
+
+        public JobStatus getStatus() {
+            return JobInfoCodec.getStatus(buffer, offset);
+        }
+
+        public LocalDateTime getSubmitTime() {
+            return JobInfoCodec.toDate(getSubmitSeconds());
+        }
+
+        public LocalDateTime getFinishTime() {
+            return JobInfoCodec.getFinishTime(buffer, offset);
+        }
+
+        public Integer getExitCode() {
+            return JobInfoCodec.getExitCode(buffer, offset);
+        }
+
+        public String getName() {
+            return JobInfoCodec.getString(buffer, offset, JobInfoCodec.NAME);
+        }
+
+        public String getQueue() {
+            return JobInfoCodec.getString(buffer, offset, JobInfoCodec.QUEUE);
+        }
+
+        /**
+         * Decode the whole record.
+         * @throws IllegalStateException if the record does not match its CRC
+         */
+        public JobInfo toJobInfo() {
+            if (!isIntact(buffer, offset, JobInfoCodec.getLength(buffer, offset))) {
+                throw new IllegalStateException("Corrupt history record of job " + getJobId() + " at offset " + offset);
+            }
+            return JobInfoCodec.decode(buffer, offset);
+        }
+
+        private byte getStatusCode() {
+            return JobInfoCodec.getStatusCode(buffer, offset);
+        }
+
+        private long getSubmitSeconds() {
+            return JobInfoCodec.getSubmitSeconds(buffer, offset);
+        }
+    }
+
+    /**
+     * Returns the CRC of the record of the given length at the given offset.
+     */
+    private static int checksum(ByteBuffer buffer, int offset, int length) {
+        ByteBuffer data = buffer.duplicate();
+        data.position(offset);
+        data.limit(offset + length);
+        CRC32 checksum = new CRC32();
+        checksum.update(data);
+        return (int) checksum.getValue();
+    }
+
+    /**
+     * Returns true if the record of the given length at the given offset matches the CRC which follows it.
+     */
+    private static boolean isIntact(ByteBuffer buffer, int offset, int length) {
+        return buffer.getInt(offset + length) == checksum(buffer, offset, length);
+    }
+
+    /**
+     * A single memory-mapped segment file, with its heap indexes.
+     */
+    private static class Segment {
+
+        private final Path file;
+        private final long seq;
+        private final long startMillis;
+        private final FileChannel channel;
+        private final MappedByteBuffer buffer;
+        private final IntList offsets = new IntList();
+        private final LongList submitSeconds = new LongList();
+        private final Map<Long, IntList> byJobId = new HashMap<>();
+        private final Map<String, IntList> byName = new HashMap<>();
+        private final IntList[] byStatus = new IntList[JobInfoCodec.STATUSES.length];
+        private long minJobId = Long.MAX_VALUE;
+        private long maxJobId = Long.MIN_VALUE;
+        private long lastAppendMillis;
+        private int position;
+        // Record numbers in order of submit time, built when the segment is sealed
+        private int[] submitOrder;
+
+        private Segment(Path file, long seq, long startMillis, FileChannel channel, int size) throws IOException {
+            this.file = file;
+            this.seq = seq;
+            this.startMillis = startMillis;
+            this.channel = channel;
+            this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+            for (int i = 0; i < byStatus.length; i++) {
+                byStatus[i] = new IntList();
+            }
+        }
+
+        static Segment create(Path dir, int size, long seq) throws IOException {
+            long now = System.currentTimeMillis();
+            Path file = dir.resolve(String.format("%s%019d-%06d%s", SEGMENT_PREFIX, now, seq, SEGMENT_SUFFIX));
+            FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW,
+                    StandardOpenOption.READ, StandardOpenOption.WRITE);
+            Segment segment = new Segment(file, seq, now, channel, size);
+            segment.lastAppendMillis = now;
+            return segment;
+        }
+
+        static Segment open(Path file) throws IOException {
+            String name = file.getFileName().toString();
+            String[] parts = name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length()).split("-");
+            FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            Segment segment = new Segment(file, Long.parseLong(parts[1]), Long.parseLong(parts[0]),
+                    channel, (int) channel.size());
+            segment.lastAppendMillis = Files.getLastModifiedTime(file).toMillis();
+            // Rebuild the indexes; the unwritten part of the file is zeroed
+            while (segment.position + 4 <= segment.buffer.capacity()) {
+                int length = JobInfoCodec.getLength(segment.buffer, segment.position);
+                if (length < JobInfoCodec.OFF_STRINGS
+                        || segment.position + length + CRC_BYTES > segment.buffer.capacity()) break;
+                if (isIntact(segment.buffer, segment.position, length)) {
+                    segment.index(segment.position);
+                }
+                else {
+                    log.warn("Skipping corrupt history record at offset {} of {}", segment.position, file);
+                }
+                segment.position += length + CRC_BYTES;
+            }
+            segment.seal();
+            return segment;
+        }
+
+        boolean isFull(int length) {
+            return position + length > buffer.capacity();
+        }
+
+        void append(byte[] record) {
+            for (int i = 0; i < record.length; i++) {
+                buffer.put(position + i, record[i]);
+            }
+            buffer.putInt(position + record.length, checksum(buffer, position, record.length));
+            index(position);
+            position += record.length + CRC_BYTES;
+            lastAppendMillis = System.currentTimeMillis();
+            submitOrder = null;
+        }
+
+        private void index(int offset) {
+            int n = offsets.size();
+            offsets.add(offset);
+            submitSeconds.add(JobInfoCodec.getSubmitSeconds(buffer, offset));
+            long jobId = JobInfoCodec.getJobId(buffer, offset);
+            minJobId = Math.min(minJobId, jobId);
+            maxJobId = Math.max(maxJobId, jobId);
+            byJobId.computeIfAbsent(jobId, k -> new IntList()).add(n);
+            byte status = JobInfoCodec.getStatusCode(buffer, offset);
+            if (status >= 0) {
+                byStatus[status].add(n);
+            }
+            String name = JobInfoCodec.getString(buffer, offset, JobInfoCodec.NAME);
+            if (name != null) {
+                byName.computeIfAbsent(name, k -> new IntList()).add(n);
+            }
+        }
+
+        /**
+         * Sort the records by submit time, for range queries.
+         */
+        void seal() {
+            int n = offsets.size();
+            Integer[] order = new Integer[n];
+            for (int i = 0; i < n; i++) {
+                order[i] = i;
+            }
+            Arrays.sort(order, Comparator.comparingLong(submitSeconds::get));
+            submitOrder = new int[n];
+            for (int i = 0; i < n; i++) {
+                submitOrder[i] = order[i];
+            }
+        }
+
+        long lastModifiedMillis() {
+            return lastAppendMillis;
+        }
+
+        void scan(Query query, Record record, Consumer<Record> visitor) {
+            record.buffer = buffer;
+            if (query.name != null) {
+                // Most selective index first
+                IntList matches = byName.get(query.name);
+                if (matches != null) scan(matches, query, record, visitor);
+            }
+            else if (query.status != null) {
+                scan(byStatus[query.status.ordinal()], query, record, visitor);
+            }
+            else if (query.hasTimeRange() && submitOrder != null) {
+                int start = lowerBound(query.submittedFrom);
+                IntList matches = new IntList();
+                for (int i = start; i < submitOrder.length && submitSeconds.get(submitOrder[i]) < query.submittedTo; i++) {
+                    matches.add(submitOrder[i]);
+                }
+                matches.sort();
+                scan(matches, query, record, visitor);
+            }
+            else {
+                for (int n = 0; n < offsets.size(); n++) {
+                    record.offset = offsets.get(n);
+                    if (query.matches(record)) visitor.accept(record);
+                }
+            }
+        }
+
+        private void scan(IntList recordNumbers, Query query, Record record, Consumer<Record> visitor) {
+            for (int i = 0; i < recordNumbers.size(); i++) {
+                record.offset = offsets.get(recordNumbers.get(i));
+                if (query.matches(record)) visitor.accept(record);
+            }
+        }
+
+        private int lowerBound(long seconds) {
+            int lo = 0;
+            int hi = submitOrder.length;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (submitSeconds.get(submitOrder[mid]) < seconds) lo = mid + 1;
+                else hi = mid;
+            }
+            return lo;
+        }
+
+        void close() throws IOException {
+            buffer.force();
+            channel.close();
+        }
+    }
+
+    /**
+     * Growable list of primitive ints.
+     */
+    private static class IntList {
+
+        private int[] values = new int[8];
+        private int size;
+
+        void add(int value) {
+            if (size == values.length) values = Arrays.copyOf(values, size * 2);
+            values[size++] = value;
+        }
+
+        int get(int i) {
+            return values[i];
+        }
+
+        int size() {
+            return size;
+        }
+
+        void sort() {
+            Arrays.sort(values, 0, size);
+        }
+    }
+
+    /**
+     * Growable list of primitive longs.
+     */
+    private static class LongList {
+
+        private long[] values = new long[8];
+        private int size;
+
+        void add(long value) {
+            if (size == values.length) values = Arrays.copyOf(values, size * 2);
+            values[size++] = value;
+        }
+
+        long get(int i) {
+            return values[i];
+        }
+    }
+}
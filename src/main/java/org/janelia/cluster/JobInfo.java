@@ -12,186 +12,255 @@ import java.time.LocalDateTime;
  */
 public class JobInfo {
 
-    private Long jobId;
-    private Long arrayIndex;
-    private String name;
-    private String fromHost;
-    private String execHost;
-    private JobStatus status;
-    private String queue;
-    private String project;
-    private Integer reqSlot;
-    private Integer allocSlot;
-    private LocalDateTime submitTime;
-    private LocalDateTime startTime;
-    private LocalDateTime finishTime;
-    private String maxMem;
-    private Integer exitCode;
-    private String exitReason;
+    // Null for subclasses which store the values themselves
+    private final Values values;
+
+    public JobInfo() {
+        this(true);
+    }
+
+    /**
+     * Create a copy of the given job info.
+     */
+    public JobInfo(JobInfo other) {
+        this(true);
+        values.jobId = other.getJobId();
+        values.arrayIndex = other.getArrayIndex();
+        values.name = other.getName();
+        values.fromHost = other.getFromHost();
+        values.execHost = other.getExecHost();
+        values.status = other.getStatus();
+        values.queue = other.getQueue();
+        values.project = other.getProject();
+        values.reqSlot = other.getReqSlot();
+        values.allocSlot = other.getAllocSlot();
+        values.submitTime = other.getSubmitTime();
+        values.startTime = other.getStartTime();
+        values.finishTime = other.getFinishTime();
+        values.maxMem = other.getMaxMem();
+        values.maxMemBytes = other.getMaxMemBytes();
+        values.avgMemBytes = other.getAvgMemBytes();
+        values.swapBytes = other.getSwapBytes();
+        values.cpuSeconds = other.getCpuSeconds();
+        values.exitCode = other.getExitCode();
+        values.exitReason = other.getExitReason();
+    }
+
+    /**
+     * Constructor for subclasses which keep the values in their own fields instead, and so must override every
+     * getter and setter.
+     */
+    JobInfo(boolean withValues) {
+        this.values = withValues ? new Values() : null;
+    }
     
     /**
      * Job identifier for the job or job array.
      */
     public Long getJobId() {
-        return jobId;
+        return values.jobId;
     }
 
     public void setJobId(Long jobId) {
-        this.jobId = jobId;
+        values.jobId = jobId;
     }
 
     /**
      * Index of the job, if its part of a job array. Null otherwise.
      */
     public Long getArrayIndex() {
-        return arrayIndex;
+        return values.arrayIndex;
     }
 
     public void setArrayIndex(Long arrayIndex) {
-        this.arrayIndex = arrayIndex;
+        values.arrayIndex = arrayIndex;
     }
 
     /**
      * Job name, as defined by the user during job submission.
      */
     public String getName() {
-        return name;
+        return values.name;
     }
 
     public void setName(String name) {
-        this.name = name;
+        values.name = name;
     }
 
     /**
      * Hostname of the submitting host.
      */
     public String getFromHost() {
-        return fromHost;
+        return values.fromHost;
     }
 
     public void setFromHost(String fromHost) {
-        this.fromHost = fromHost;
+        values.fromHost = fromHost;
     }
 
     /**
      * Hostname of the host on which the job is executing.
      */
     public String getExecHost() {
-        return execHost;
+        return values.execHost;
     }
 
     public void setExecHost(String execHost) {
-        this.execHost = execHost;
+        values.execHost = execHost;
     }
 
     /**
      * Last known status of the job.
      */
     public JobStatus getStatus() {
-        return status;
+        return values.status;
     }
 
     public void setStatus(JobStatus status) {
-        this.status = status;
+        values.status = status;
     }
 
     /**
      * Queue where the job will run, or ran.
      */
     public String getQueue() {
-        return queue;
+        return values.queue;
     }
 
     public void setQueue(String queue) {
-        this.queue = queue;
+        values.queue = queue;
     }
 
     /**
      * Project associated with the job.
      */
     public String getProject() {
-        return project;
+        return values.project;
     }
 
     public void setProject(String project) {
-        this.project = project;
+        values.project = project;
     }
 
     /**
      * Number of slots requested for the job.
      */
     public Integer getReqSlot() {
-        return reqSlot;
+        return values.reqSlot;
     }
 
     public void setReqSlot(Integer reqSlot) {
-        this.reqSlot = reqSlot;
+        values.reqSlot = reqSlot;
     }
 
     /**
      * Number of slots that were allocated for the job.
      */
     public Integer getAllocSlot() {
-        return allocSlot;
+        return values.allocSlot;
     }
 
     public void setAllocSlot(Integer allocSlot) {
-        this.allocSlot = allocSlot;
+        values.allocSlot = allocSlot;
     }
 
     /**
      * Local time at which the job was submitted.
      */
     public LocalDateTime getSubmitTime() {
-        return submitTime;
+        return values.submitTime;
     }
 
     public void setSubmitTime(LocalDateTime submitTime) {
-        this.submitTime = submitTime;
+        values.submitTime = submitTime;
     }
 
     /**
      * Local time at which the job started running. Null if the job is pending.
      */
     public LocalDateTime getStartTime() {
-        return startTime;
+        return values.startTime;
     }
 
     public void setStartTime(LocalDateTime startTime) {
-        this.startTime = startTime;
+        values.startTime = startTime;
     }
 
     /**
      * Local time at which the job finished running. Null if the job is pending or running.
      */
     public LocalDateTime getFinishTime() {
-        return finishTime;
+        return values.finishTime;
     }
 
     public void setFinishTime(LocalDateTime finishTime) {
-        this.finishTime = finishTime;
+        values.finishTime = finishTime;
     }
 
     /**
      * Maximum amount of memory used by the job during its execution.
      */
     public String getMaxMem() {
-        return maxMem;
+        return values.maxMem;
     }
 
     public void setMaxMem(String maxMem) {
-        this.maxMem = maxMem;
+        values.maxMem = maxMem;
+    }
+
+    /**
+     * Maximum amount of memory used by the job during its execution, in bytes. Null if not reported.
+     */
+    public Long getMaxMemBytes() {
+        return values.maxMemBytes;
+    }
+
+    public void setMaxMemBytes(Long maxMemBytes) {
+        values.maxMemBytes = maxMemBytes;
+    }
+
+    /**
+     * Average amount of memory used by the job during its execution, in bytes. Null if not reported.
+     */
+    public Long getAvgMemBytes() {
+        return values.avgMemBytes;
+    }
+
+    public void setAvgMemBytes(Long avgMemBytes) {
+        values.avgMemBytes = avgMemBytes;
+    }
+
+    /**
+     * Amount of swap used by the job, in bytes. Null if not reported.
+     */
+    public Long getSwapBytes() {
+        return values.swapBytes;
+    }
+
+    public void setSwapBytes(Long swapBytes) {
+        values.swapBytes = swapBytes;
+    }
+
+    /**
+     * CPU time used by the job so far, in seconds. Null if not reported.
+     */
+    public Double getCpuSeconds() {
+        return values.cpuSeconds;
+    }
+
+    public void setCpuSeconds(Double cpuSeconds) {
+        values.cpuSeconds = cpuSeconds;
     }
 
     /**
      * Final exit code of the job. Null if the job has not finished.
      */
     public Integer getExitCode() {
-        return exitCode;
+        return values.exitCode;
     }
 
     public void setExitCode(Integer exitCode) {
-        this.exitCode = exitCode;
+        values.exitCode = exitCode;
     }
 
     /**
@@ -199,17 +268,18 @@ public class JobInfo {
      * @return
      */
     public String getExitReason() {
-        return exitReason;
+        return values.exitReason;
     }
 
     public void setExitReason(String exitReason) {
-        this.exitReason = exitReason;
+        values.exitReason = exitReason;
     }
 
     /**
      * Returns true if the job has started executing.
      */
     public boolean isStarted() {
+        JobStatus status = getStatus();
         return status!=null && status.isStarted();
     }
     
@@ -217,15 +287,46 @@ public class JobInfo {
      * Returns true if the job is has finished executing.
      */
     public boolean isComplete() {
+        JobStatus status = getStatus();
         return status!=null && status.isDone();
     }
 
     @Override
     public String toString() {
-        return "JobInfo[jobId=" + jobId + ", arrayIndex=" + arrayIndex + ", name=" + name + ", fromHost=" + fromHost
-                + ", execHost=" + execHost + ", status=" + status + ", queue=" + queue + ", project=" + project
-                + ", reqSlot=" + reqSlot + ", allocSlot=" + allocSlot + ", submitTime=" + submitTime
-                + ", startTime=" + startTime + ", finishTime=" + finishTime + ", maxMem=" + maxMem
-                + ", exitCode=" + exitCode + ", exitReason=" + exitReason + "]";
+        return "JobInfo[jobId=" + getJobId() + ", arrayIndex=" + getArrayIndex() + ", name=" + getName()
+                + ", fromHost=" + getFromHost() + ", execHost=" + getExecHost() + ", status=" + getStatus()
+                + ", queue=" + getQueue() + ", project=" + getProject() + ", reqSlot=" + getReqSlot()
+                + ", allocSlot=" + getAllocSlot() + ", submitTime=" + getSubmitTime() + ", startTime=" + getStartTime()
+                + ", finishTime=" + getFinishTime() + ", maxMem=" + getMaxMem() + ", maxMemBytes=" + getMaxMemBytes()
+                + ", avgMemBytes=" + getAvgMemBytes() + ", swapBytes=" + getSwapBytes() + ", cpuSeconds=" + getCpuSeconds()
+                + ", exitCode=" + getExitCode() + ", exitReason=" + getExitReason() + "]";
+    }
+
+    /**
+     * The values of a JobInfo, kept apart so that subclasses with a more compact representation don't carry
+     * JobInfo's fields along.
+     */
+    private static final class Values {
+
+        private Long jobId;
+        private Long arrayIndex;
+        private String name;
+        private String fromHost;
+        private String execHost;
+        private JobStatus status;
+        private String queue;
+        private String project;
+        private Integer reqSlot;
+        private Integer allocSlot;
+        private LocalDateTime submitTime;
+        private LocalDateTime startTime;
+        private LocalDateTime finishTime;
+        private String maxMem;
+        private Long maxMemBytes;
+        private Long avgMemBytes;
+        private Long swapBytes;
+        private Double cpuSeconds;
+        private Integer exitCode;
+        private String exitReason;
     }
 }
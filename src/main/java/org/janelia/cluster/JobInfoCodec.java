@@ -0,0 +1,212 @@
+package org.janelia.cluster;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+
+/**
+ * Compact binary encoding of JobInfos, used for keeping them off-heap (see JobHistoryStore and
+ * SharedSnapshotSyncApi). Each record starts with its length, followed by the numeric fields at fixed offsets,
+ * and then the string fields, each prefixed by its length. Individual fields can therefore be read straight
+ * from a buffer without decoding the whole record. Times are stored as epoch seconds of the local time, and
+ * missing values as sentinels.
+ */
+final class JobInfoCodec {
+
+    static final long NULL_LONG = Long.MIN_VALUE;
+    static final int NULL_INT = Integer.MIN_VALUE;
+    static final byte NULL_STATUS = -1;
+    static final JobStatus[] STATUSES = JobStatus.values();
+
+    // Record layout: length, then the fixed-size fields, then the strings
+    static final int OFF_JOB_ID = 4;
+    static final int OFF_ARRAY_INDEX = 12;
+    static final int OFF_SUBMIT = 20;
+    static final int OFF_START = 28;
+    static final int OFF_FINISH = 36;
+    static final int OFF_MAX_MEM_BYTES = 44;
+    static final int OFF_AVG_MEM_BYTES = 52;
+    static final int OFF_SWAP_BYTES = 60;
+    static final int OFF_CPU_SECONDS = 68;
+    static final int OFF_REQ_SLOT = 76;
+    static final int OFF_ALLOC_SLOT = 80;
+    static final int OFF_EXIT_CODE = 84;
+    static final int OFF_STATUS = 88;
+    static final int OFF_STRINGS = 89;
+
+    // Order of the string fields
+    static final int NAME = 0;
+    static final int QUEUE = 1;
+    private static final int NUM_STRINGS = 7;
+
+    private JobInfoCodec() {
+    }
+
+    /**
+     * Encode the given info as a record.
+     */
+    static byte[] encode(JobInfo info) {
+        byte[][] strings = {
+                toBytes(info.getName()), toBytes(info.getQueue()), toBytes(info.getProject()),
+                toBytes(info.getFromHost()), toBytes(info.getExecHost()), toBytes(info.getMaxMem()),
+                toBytes(info.getExitReason())
+        };
+        int length = OFF_STRINGS;
+        for (byte[] s : strings) {
+            length += 2 + (s == null ? 0 : s.length);
+        }
+        ByteBuffer buf = ByteBuffer.allocate(length);
+        buf.putInt(length);
+        buf.putLong(orNull(info.getJobId()));
+        buf.putLong(orNull(info.getArrayIndex()));
+        buf.putLong(toSeconds(info.getSubmitTime()));
+        buf.putLong(toSeconds(info.getStartTime()));
+        buf.putLong(toSeconds(info.getFinishTime()));
+        buf.putLong(orNull(info.getMaxMemBytes()));
+        buf.putLong(orNull(info.getAvgMemBytes()));
+        buf.putLong(orNull(info.getSwapBytes()));
+        buf.putDouble(info.getCpuSeconds() == null ? Double.NaN : info.getCpuSeconds());
+        buf.putInt(orNull(info.getReqSlot()));
+        buf.putInt(orNull(info.getAllocSlot()));
+        buf.putInt(orNull(info.getExitCode()));
+        buf.put(info.getStatus() == null ? NULL_STATUS : (byte) info.getStatus().ordinal());
+        for (byte[] s : strings) {
+            if (s == null) {
+                buf.putShort((short) -1);
+            }
+            else {
+                buf.putShort((short) s.length);
+                buf.put(s);
+            }
+        }
+        return buf.array();
+    }
+
+    /**
+     * Decode the whole record at the given offset.
+     */
+    static JobInfo decode(ByteBuffer buf, int offset) {
+        JobInfo info = new JobInfo();
+        info.setJobId(getJobId(buf, offset));
+        info.setArrayIndex(getLong(buf, offset + OFF_ARRAY_INDEX));
+        info.setSubmitTime(toDate(buf.getLong(offset + OFF_SUBMIT)));
+        info.setStartTime(toDate(buf.getLong(offset + OFF_START)));
+        info.setFinishTime(toDate(buf.getLong(offset + OFF_FINISH)));
+        info.setMaxMemBytes(getLong(buf, offset + OFF_MAX_MEM_BYTES));
+        info.setAvgMemBytes(getLong(buf, offset + OFF_AVG_MEM_BYTES));
+        info.setSwapBytes(getLong(buf, offset + OFF_SWAP_BYTES));
+        double cpuSeconds = buf.getDouble(offset + OFF_CPU_SECONDS);
+        info.setCpuSeconds(Double.isNaN(cpuSeconds) ? null : cpuSeconds);
+        info.setReqSlot(getInt(buf, offset + OFF_REQ_SLOT));
+        info.setAllocSlot(getInt(buf, offset + OFF_ALLOC_SLOT));
+        info.setExitCode(getInt(buf, offset + OFF_EXIT_CODE));
+        info.setStatus(getStatus(buf, offset));
+        int pos = offset + OFF_STRINGS;
+        String[] strings = new String[NUM_STRINGS];
+        for (int i = 0; i < strings.length; i++) {
+            short length = buf.getShort(pos);
+            pos += 2;
+            if (length >= 0) {
+                strings[i] = decodeString(buf, pos, length);
+                pos += length;
+            }
+        }
+        info.setName(strings[0]);
+        info.setQueue(strings[1]);
+        info.setProject(strings[2]);
+        info.setFromHost(strings[3]);
+        info.setExecHost(strings[4]);
+        info.setMaxMem(strings[5]);
+        info.setExitReason(strings[6]);
+        return info;
+    }
+
+    static int getLength(ByteBuffer buf, int offset) {
+        return buf.getInt(offset);
+    }
+
+    static long getJobId(ByteBuffer buf, int offset) {
+        return buf.getLong(offset + OFF_JOB_ID);
+    }
+
+    static Long getArrayIndex(ByteBuffer buf, int offset) {
+        return getLong(buf, offset + OFF_ARRAY_INDEX);
+    }
+
+    static byte getStatusCode(ByteBuffer buf, int offset) {
+        return buf.get(offset + OFF_STATUS);
+    }
+
+    static JobStatus getStatus(ByteBuffer buf, int offset) {
+        byte code = getStatusCode(buf, offset);
+        return code == NULL_STATUS ? null : STATUSES[code];
+    }
+
+    static long getSubmitSeconds(ByteBuffer buf, int offset) {
+        return buf.getLong(offset + OFF_SUBMIT);
+    }
+
+    static LocalDateTime getFinishTime(ByteBuffer buf, int offset) {
+        return toDate(buf.getLong(offset + OFF_FINISH));
+    }
+
+    static Integer getExitCode(ByteBuffer buf, int offset) {
+        return getInt(buf, offset + OFF_EXIT_CODE);
+    }
+
+    /**
+     * Returns one of the string fields (e.g. NAME) of the record at the given offset.
+     */
+    static String getString(ByteBuffer buf, int offset, int index) {
+        int pos = offset + OFF_STRINGS;
+        for (int i = 0; i < index; i++) {
+            short length = buf.getShort(pos);
+            pos += 2 + Math.max(0, length);
+        }
+        short length = buf.getShort(pos);
+        return length < 0 ? null : decodeString(buf, pos + 2, length);
+    }
+
+    static long toSeconds(LocalDateTime date) {
+        return date == null ? NULL_LONG : date.toEpochSecond(ZoneOffset.UTC);
+    }
+
+    static LocalDateTime toDate(long seconds) {
+        return seconds == NULL_LONG ? null : LocalDateTime.ofEpochSecond(seconds, 0, ZoneOffset.UTC);
+    }
+
+    private static Long getLong(ByteBuffer buf, int pos) {
+        long value = buf.getLong(pos);
+        return value == NULL_LONG ? null : value;
+    }
+
+    private static Integer getInt(ByteBuffer buf, int pos) {
+        int value = buf.getInt(pos);
+        return value == NULL_INT ? null : value;
+    }
+
+    private static String decodeString(ByteBuffer buf, int pos, int length) {
+        byte[] bytes = new byte[length];
+        for (int i = 0; i < length; i++) {
+            bytes[i] = buf.get(pos + i);
+        }
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static byte[] toBytes(String s) {
+        if (s == null) return null;
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        // Lengths are stored as shorts, and -1 is reserved for null
+        return bytes.length > Short.MAX_VALUE ? Arrays.copyOf(bytes, Short.MAX_VALUE) : bytes;
+    }
+
+    private static long orNull(Long value) {
+        return value == null ? NULL_LONG : value;
+    }
+
+    private static int orNull(Integer value) {
+        return value == null ? NULL_INT : value;
+    }
+}
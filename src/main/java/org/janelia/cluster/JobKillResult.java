@@ -0,0 +1,44 @@
+package org.janelia.cluster;
+
+/**
+ * Outcome of a request to kill a job or a job array element.
+ */
+public class JobKillResult {
+
+    private final String jobSpec;
+    private final boolean success;
+    private final String message;
+
+    public JobKillResult(String jobSpec, boolean success, String message) {
+        this.jobSpec = jobSpec;
+        this.success = success;
+        this.message = message;
+    }
+
+    /**
+     * Job identifier, with the array index in brackets if this outcome refers to a job array element,
+     * e.g. "123" or "123[7]".
+     */
+    public String getJobSpec() {
+        return jobSpec;
+    }
+
+    /**
+     * Returns true if the cluster accepted the kill request.
+     */
+    public boolean isSuccess() {
+        return success;
+    }
+
+    /**
+     * Message reported by the cluster for this job, if any.
+     */
+    public String getMessage() {
+        return message;
+    }
+
+    @Override
+    public String toString() {
+        return "JobKillResult[jobSpec=" + jobSpec + ", success=" + success + ", message=" + message + "]";
+    }
+}
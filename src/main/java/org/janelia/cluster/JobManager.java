@@ -4,10 +4,19 @@ import com.google.common.collect.Multimap;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.time.LocalDateTime;
 import java.util.*;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.UnaryOperator;
 import java.util.stream.Collectors;
 
 /**
@@ -25,15 +34,34 @@ public class JobManager {
     // Constants
     private static final int DEFAULT_KEEP_COMPLETED_MINUTES = 10;
     private static final int DEFAULT_KEEP_ZOMBIES_MINUTES = 30;
+    private static final long DEFAULT_MIN_CHECK_GAP_MILLIS = 1000;
+    private static final int DEFAULT_SUBMIT_PARALLELISM = 4;
 
     // Configuration
     private final JobSyncApi jobSyncApi;
     private final int keepCompletedMinutes;
     private final int keepZombiesMinutes;
+    private volatile boolean compactJobInfos;
+    private volatile boolean keepSnapshots;
+    private volatile UnaryOperator<JobTemplate> submitHook = UnaryOperator.identity();
+    private volatile JobCheckSchedule checkSchedule;
+    private volatile long minCheckGapMillis = DEFAULT_MIN_CHECK_GAP_MILLIS;
+    private volatile JobCompletionDispatcher completionDispatcher;
+    private final List<Runnable> checkListeners = new CopyOnWriteArrayList<>();
+    private volatile long maxArraySize;
+    private volatile int submitParallelism = DEFAULT_SUBMIT_PARALLELISM;
 
     // State
     private final AtomicBoolean checkRunning = new AtomicBoolean();
     private final ConcurrentHashMap<Long, JobMetadata> jobMetadataMap = new ConcurrentHashMap<>();
+    private final Set<Long> missingJobIds = ConcurrentHashMap.newKeySet();
+    private volatile JobSnapshot lastSnapshot;
+    private final PriorityQueue<ScheduledCheck> checkQueue = new PriorityQueue<>();
+    private final Map<Long, Long> nextCheckMillis = new ConcurrentHashMap<>();
+    private final Set<Long> requestedJobIds = ConcurrentHashMap.newKeySet();
+    private final AtomicBoolean checkRequested = new AtomicBoolean();
+    private volatile long lastRequestedCheckMillis;
+    private ScheduledExecutorService requestScheduler;
 
     public JobManager(JobSyncApi jobSyncApi) {
         this(jobSyncApi, DEFAULT_KEEP_COMPLETED_MINUTES, DEFAULT_KEEP_ZOMBIES_MINUTES);
@@ -52,9 +80,9 @@ public class JobManager {
      * @throws Exception if there is an error submitting the job
      */
     public JobFuture submitJob(JobTemplate jt) throws Exception {
-        JobInfo info = jobSyncApi.submitJob(jt);
+        JobInfo info = jobSyncApi.submitJob(submitHook.apply(jt));
         log.debug("Submitted job {}", info.getJobId());
-        return recordInfo(info);
+        return recordInfo(info, 1);
     }
 
     /**
@@ -66,14 +94,114 @@ public class JobManager {
      * @throws Exception if there is an error submitting the jobs
      */
     public JobFuture submitJob(JobTemplate jt, long start, long end) throws Exception {
-        JobInfo info = jobSyncApi.submitJobs(jt, start, end);
+        long chunkSize = maxArraySize;
+        if (chunkSize > 0 && end - start + 1 > chunkSize) {
+            JobTemplate hooked = submitHook.apply(jt);
+            List<ArrayChunk> chunks = new ArrayList<>();
+            for (long chunkStart = start; chunkStart <= end; chunkStart += chunkSize) {
+                long first = chunkStart;
+                long last = Math.min(end, chunkStart + chunkSize - 1);
+                chunks.add(new ArrayChunk(first, last, () -> jobSyncApi.submitJobs(hooked, first, last)));
+            }
+            return submitChunks(chunks);
+        }
+        JobInfo info = jobSyncApi.submitJobs(submitHook.apply(jt), start, end);
         log.debug("Submitted job array {} ({}-{})", info.getJobId(), start, end);
-        return recordInfo(info);
+        return recordInfo(info, end - start + 1);
     }
 
-    private JobFuture recordInfo(JobInfo info) {
+    /**
+     * Submit a job array with an arbitrary set of array indexes, e.g. to rerun only some elements of a previous array.
+     * @param jt job array template
+     * @param arrayIndexes indexes of the job array elements to run
+     * @return a future collection containing the completed JobInfos
+     * @throws Exception if there is an error submitting the jobs
+     */
+    public JobFuture submitJob(JobTemplate jt, Collection<Long> arrayIndexes) throws Exception {
+        long chunkSize = maxArraySize;
+        if (chunkSize > 0 && arrayIndexes.size() > chunkSize) {
+            List<Long> sorted = new ArrayList<>(new TreeSet<>(arrayIndexes));
+            if (sorted.size() > chunkSize) {
+                JobTemplate hooked = submitHook.apply(jt);
+                List<ArrayChunk> chunks = new ArrayList<>();
+                for (int i = 0; i < sorted.size(); i += chunkSize) {
+                    List<Long> indexes = new ArrayList<>(sorted.subList(i, (int) Math.min(sorted.size(), i + chunkSize)));
+                    chunks.add(new ArrayChunk(indexes, () -> jobSyncApi.submitJobs(hooked, indexes)));
+                }
+                return submitChunks(chunks);
+            }
+        }
+        JobInfo info = jobSyncApi.submitJobs(submitHook.apply(jt), arrayIndexes);
+        log.debug("Submitted job array {} ({})", info.getJobId(), Utils.formatIndexRanges(arrayIndexes));
+        return recordInfo(info, new HashSet<>(arrayIndexes).size());
+    }
+
+    /**
+     * Submit the given chunks of a job array in parallel, and return a single future for all of them. If any
+     * chunk cannot be submitted, the chunks which were submitted are killed and no longer monitored.
+     */
+    private JobFuture submitChunks(List<ArrayChunk> chunks) throws Exception {
+
+        ExecutorService executor = Executors.newFixedThreadPool(Math.min(submitParallelism, chunks.size()),
+                Utils.newDaemonThreadFactory("JobManager-submitter"));
+
+        List<JobFuture.Chunk> submitted = new ArrayList<>();
+        List<Long> submittedJobIds = new ArrayList<>();
+        Exception error = null;
+        try {
+            List<Future<JobInfo>> results = new ArrayList<>();
+            for (ArrayChunk chunk : chunks) {
+                results.add(executor.submit(chunk.submission));
+            }
+            for (int i = 0; i < chunks.size(); i++) {
+                try {
+                    JobInfo info = results.get(i).get();
+                    submittedJobIds.add(info.getJobId());
+                    submitted.add(chunks.get(i).toChunk(recordInfo(info, chunks.get(i).size())));
+                }
+                catch (ExecutionException e) {
+                    if (error == null) {
+                        error = e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+                    }
+                }
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            error = e;
+        }
+        finally {
+            executor.shutdown();
+        }
+
+        if (error != null) {
+            // Don't leave part of the array running, or being monitored
+            if (!submittedJobIds.isEmpty()) {
+                log.warn("Killing partially submitted job array {}", submittedJobIds);
+                try {
+                    killJobs(submittedJobIds);
+                }
+                catch (Exception e) {
+                    log.error("Error killing partially submitted job array {}", submittedJobIds, e);
+                }
+                for (Long jobId : submittedJobIds) {
+                    JobMetadata metadata = jobMetadataMap.remove(jobId);
+                    if (metadata != null) {
+                        completeExceptionally(metadata.getFuture(), error);
+                    }
+                }
+            }
+            throw error;
+        }
+
+        log.debug("Submitted job array in {} chunks: {}", chunks.size(), submittedJobIds);
+        return JobFuture.ofChunks(submitted);
+    }
+
+    private JobFuture recordInfo(JobInfo info, long arraySize) {
         JobFuture future = JobFuture.withJobId(info.getJobId());
-        JobMetadata metadata = new JobMetadata(false, new Date(), Collections.emptyList(), future);
+        // Keep the submission info until the first update, so that the job's queue is known
+        JobMetadata metadata = new JobMetadata(false, new Date(), Collections.singletonList(info), future, arraySize);
         jobMetadataMap.put(info.getJobId(), metadata);
         return future;
     }
@@ -96,6 +224,52 @@ public class JobManager {
         jobSyncApi.killJobByName(jobName, flags);
     }
 
+    /**
+     * Kill all the jobs with the given ids, using as few cluster calls as possible.
+     * @param jobIds job ids
+     * @return the outcome for each job
+     * @throws Exception
+     */
+    public List<JobKillResult> killJobs(Collection<Long> jobIds, JobCmdFlag... flags) throws Exception {
+        List<String> jobSpecs = jobIds.stream().map(Object::toString).collect(Collectors.toList());
+        return jobSyncApi.killJobs(jobSpecs, flags);
+    }
+
+    /**
+     * Kill every unfinished job being monitored, with as few cluster calls as possible. If the cluster API is
+     * scoped (e.g. LsfSyncApi.setJobGroup or setJobNamePrefix), this instead kills every unfinished job in the
+     * scope with one call, including jobs which this manager is not monitoring, such as jobs submitted directly
+     * through the API or by another process in the same job group.
+     * @return the outcome for each job
+     * @throws Exception
+     */
+    public List<JobKillResult> killAllJobs(JobCmdFlag... flags) throws Exception {
+        return jobSyncApi.killAllJobs(getRunningJobIds(), flags);
+    }
+
+    /**
+     * Kill the given elements of a job array, leaving the rest of the array running.
+     * @param jobId job array id
+     * @param arrayIndexes indexes of the array elements to kill
+     * @return the outcome for each job array element, or an empty list if no indexes were given
+     * @throws Exception
+     */
+    public List<JobKillResult> killJobArrayElements(Long jobId, Collection<Long> arrayIndexes, JobCmdFlag... flags) throws Exception {
+        if (arrayIndexes.isEmpty()) return Collections.emptyList();
+        String jobSpec = jobId + "[" + Utils.formatIndexRanges(arrayIndexes) + "]";
+        return jobSyncApi.killJobs(Collections.singletonList(jobSpec), flags);
+    }
+
+    /**
+     * Kill the given jobs, each identified by its id and optional array index ranges, e.g. "123[1-500,700]".
+     * @param jobSpecs job ids, with optional array index ranges
+     * @return the outcome for each job or job array element
+     * @throws Exception
+     */
+    public List<JobKillResult> killJobsBySpec(Collection<String> jobSpecs, JobCmdFlag... flags) throws Exception {
+        return jobSyncApi.killJobs(jobSpecs, flags);
+    }
+
     /**
      * Returns the job ids of any jobs which were being monitored and are now complete.
      * @return collection of job ids
@@ -118,6 +292,33 @@ public class JobManager {
                 .collect(Collectors.toList());
     }
 
+    /**
+     * Returns the number of monitored jobs which are pending or running in each queue. Job arrays count each of
+     * their unfinished elements. Jobs whose queue is not known yet are counted under the null key.
+     * @return map of queue name to number of active jobs
+     */
+    public Map<String, Integer> getActiveJobCounts() {
+        Map<String, Integer> counts = new HashMap<>();
+        for (JobMetadata metadata : jobMetadataMap.values()) {
+            if (metadata.isDone()) continue;
+            Collection<JobInfo> infos = metadata.getLastInfos();
+            JobInfo first = infos == null || infos.isEmpty() ? null : infos.iterator().next();
+            if (first != null && first.getArrayIndex() != null) {
+                // Job array elements are known individually
+                for (JobInfo info : infos) {
+                    if (!info.isComplete()) {
+                        counts.merge(info.getQueue(), 1, Integer::sum);
+                    }
+                }
+            }
+            else {
+                int count = (int) Math.min(Integer.MAX_VALUE, metadata.getArraySize());
+                counts.merge(first == null ? null : first.getQueue(), count, Integer::sum);
+            }
+        }
+        return counts;
+    }
+
     /**
      * Returns tracking metadata for the given job.
      * @param jobId job id
@@ -140,6 +341,65 @@ public class JobManager {
         return null;
     }
 
+    /**
+     * Returns the latest JobInfos for all the jobs behind the given future, i.e. all the chunks of a chunked
+     * job array.
+     * @param future future returned when the job was submitted
+     * @return collection of the JobInfos, or null if we have no information for any of the jobs
+     */
+    public Collection<JobInfo> getJobInfo(JobFuture future) {
+        List<JobInfo> infos = null;
+        for (Long jobId : future.getJobIds()) {
+            Collection<JobInfo> jobInfos = getJobInfo(jobId);
+            if (jobInfos != null) {
+                if (infos == null) infos = new ArrayList<>();
+                infos.addAll(jobInfos);
+            }
+        }
+        return infos;
+    }
+
+    /**
+     * Returns the latest JobInfo for the given element of a job array, which may have been submitted in chunks.
+     * @param future future returned when the job array was submitted
+     * @param arrayIndex array index
+     * @return JobInfo, or null if we have no information for that element
+     */
+    public JobInfo getJobInfo(JobFuture future, Long arrayIndex) {
+        Long jobId = future.getJobId(arrayIndex);
+        return jobId == null ? null : getJobInfo(jobId, arrayIndex);
+    }
+
+    /**
+     * Returns the number of elements of the given job (or job array, which may have been submitted in chunks)
+     * in each status, according to the latest information. Elements which have not been seen yet are counted
+     * with the status the job had on submission.
+     * @param future future returned when the job was submitted
+     * @return map of status to number of elements
+     */
+    public Map<JobStatus, Long> getStatusCounts(JobFuture future) {
+        Map<JobStatus, Long> counts = new EnumMap<>(JobStatus.class);
+        for (Long jobId : future.getJobIds()) {
+            JobMetadata metadata = jobMetadataMap.get(jobId);
+            if (metadata == null || metadata.getLastInfos() == null) continue;
+            Collection<JobInfo> infos = metadata.getLastInfos();
+            if (infos.size() == 1 && infos.iterator().next().getArrayIndex() == null) {
+                // Only the submission info is known
+                JobStatus status = infos.iterator().next().getStatus();
+                if (status != null) {
+                    counts.merge(status, metadata.getArraySize(), Long::sum);
+                }
+                continue;
+            }
+            for (JobInfo info : infos) {
+                if (info.getStatus() != null) {
+                    counts.merge(info.getStatus(), 1L, Long::sum);
+                }
+            }
+        }
+        return counts;
+    }
+
     public Collection<JobInfo> retrieveJobInfo(Long jobId) {
         List<JobInfo> jobInfoList;
         try {
@@ -181,40 +441,255 @@ public class JobManager {
                 Long jobId = entry.getKey();
                 JobMetadata currMetadata = entry.getValue();
                 Exception e = new Exception("Job "+jobId+" was abandoned");
-                currMetadata.getFuture().completeExceptionally(e);
+                completeExceptionally(currMetadata.getFuture(), e);
             }
 
             jobMetadataMap.clear();
+            missingJobIds.clear();
+            clearCheckQueue();
+        }
+    }
+
+    /**
+     * Merge job information obtained from another source (e.g. LSF accounting records) into the monitored jobs.
+     * The infos may cover only some elements of a job array; they replace the previous infos for the same
+     * elements. A job's future is completed once all of its elements are known to be done. Infos for jobs which
+     * are not being monitored are ignored.
+     * @param infos JobInfos for any number of jobs
+     */
+    public void updateJobs(Collection<JobInfo> infos) {
+
+        Multimap<Long, JobInfo> jobMap = Utils.getJobMap(new ArrayList<>(infos));
+        for (Long jobId : jobMap.keySet()) {
+            while (true) {
+                JobMetadata currMetadata = jobMetadataMap.get(jobId);
+                if (currMetadata == null || currMetadata.isDone()) break;
+
+                Map<Long, JobInfo> merged = new TreeMap<>(Comparator.nullsFirst(Comparator.naturalOrder()));
+                if (currMetadata.getLastInfos() != null) {
+                    for (JobInfo info : currMetadata.getLastInfos()) {
+                        merged.put(info.getArrayIndex(), info);
+                    }
+                }
+                for (JobInfo info : jobMap.get(jobId)) {
+                    merged.put(info.getArrayIndex(), info);
+                }
+                if (merged.size() > 1) {
+                    // Drop the submission info once array elements are known
+                    merged.remove(null);
+                }
+
+                Collection<JobInfo> newInfos = retain(merged.values());
+                boolean allDone = Utils.allDone(newInfos) && newInfos.size() >= currMetadata.getArraySize();
+                JobMetadata newMetadata = new JobMetadata(allDone, new Date(), newInfos, currMetadata.getFuture(),
+                        currMetadata.getArraySize());
+
+                // Retry if the poller updated this job in the meantime
+                if (jobMetadataMap.replace(jobId, currMetadata, newMetadata)) {
+                    if (allDone) {
+                        log.debug("Job {} has completed", jobId);
+                        complete(currMetadata.getFuture(), newInfos);
+                    }
+                    break;
+                }
+            }
+        }
+        fireCheckListeners();
+    }
+
+    /**
+     * Returns the given infos in the form in which they should be kept, converting them to CompactJobInfos if
+     * so configured.
+     */
+    private Collection<JobInfo> retain(Collection<JobInfo> infos) {
+        List<JobInfo> retained = new ArrayList<>(infos.size());
+        for (JobInfo info : infos) {
+            retained.add(compactJobInfos && !(info instanceof CompactJobInfo) ? new CompactJobInfo(info) : info);
+        }
+        return retained;
+    }
+
+    /**
+     * Look up the final state of jobs which have disappeared from the cluster's job list, so that their futures
+     * can be completed right away, instead of waiting for them to be retired as zombies. All of the jobs are
+     * looked up with a single history query. Jobs which cannot be resolved are left to the zombie timeout.
+     * @param jobIds ids of jobs which have just gone missing
+     */
+    private void resolveMissingJobs(Collection<Long> jobIds) {
+        log.debug("Looking up history for missing jobs: {}", jobIds);
+        try {
+            List<JobInfo> history = jobSyncApi.getJobHistory(jobIds).stream()
+                    .filter(info -> jobIds.contains(info.getJobId()) && info.isComplete())
+                    .collect(Collectors.toList());
+            if (!history.isEmpty()) {
+                log.info("Found history for {} missing job infos", history.size());
+                updateJobs(history);
+            }
+        }
+        catch (Throwable t) {
+            log.error("Error getting job history", t);
+        }
+    }
+
+    /**
+     * Check the given jobs as soon as possible, instead of waiting for the next periodic check, e.g. because a
+     * caller is about to block on a job which is expected to finish soon. Requests made at around the same time
+     * are coalesced into a single cluster query, and requested checks are never run closer together than the
+     * minimum gap (see setMinCheckGapMillis), so any number of callers can make requests without overloading
+     * the cluster.
+     * @param jobIds ids of monitored jobs
+     */
+    public void requestCheck(Collection<Long> jobIds) {
+        requestedJobIds.addAll(jobIds);
+        scheduleRequestedCheck();
+    }
+
+    public void requestCheck(Long jobId) {
+        requestCheck(Collections.singletonList(jobId));
+    }
+
+    /**
+     * Request a check of the given job after a delay, e.g. when it is expected to finish.
+     * @param jobId id of a monitored job
+     * @param delay delay before the check is requested
+     * @param unit unit of the delay
+     */
+    public void requestCheck(Long jobId, long delay, TimeUnit unit) {
+        getRequestScheduler().schedule(() -> requestCheck(jobId), delay, unit);
+    }
+
+    private void scheduleRequestedCheck() {
+        if (checkRequested.compareAndSet(false, true)) {
+            long delay = Math.max(0, lastRequestedCheckMillis + minCheckGapMillis - System.currentTimeMillis());
+            getRequestScheduler().schedule(this::runRequestedCheck, delay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void runRequestedCheck() {
+        Set<Long> jobIds = new LinkedHashSet<>();
+        for (Iterator<Long> i = requestedJobIds.iterator(); i.hasNext(); ) {
+            Long jobId = i.next();
+            i.remove();
+            JobMetadata metadata = jobMetadataMap.get(jobId);
+            if (metadata != null && !metadata.isDone()) {
+                jobIds.add(jobId);
+            }
+        }
+        if (!jobIds.isEmpty()) {
+            log.debug("Running requested check of jobs: {}", jobIds);
+            if (!checkJobs(jobIds)) {
+                // Another check is running, so try again after the gap
+                requestedJobIds.addAll(jobIds);
+            }
+            lastRequestedCheckMillis = System.currentTimeMillis();
+        }
+        checkRequested.set(false);
+        // Pick up any requests made during the check
+        if (!requestedJobIds.isEmpty()) {
+            scheduleRequestedCheck();
         }
     }
 
+    /**
+     * Shut down the thread used for requested checks. Any requested checks which have not run yet are dropped,
+     * and left to the next regular check. The thread is started again if another check is requested.
+     */
+    public synchronized void shutdown() {
+        if (requestScheduler != null) {
+            requestScheduler.shutdownNow();
+            requestScheduler = null;
+        }
+        requestedJobIds.clear();
+        checkRequested.set(false);
+    }
+
+    private synchronized ScheduledExecutorService getRequestScheduler() {
+        if (requestScheduler == null) {
+            requestScheduler = Executors.newSingleThreadScheduledExecutor(
+                    Utils.newDaemonThreadFactory("JobManager-checker"));
+        }
+        return requestScheduler;
+    }
+
     /**
      * This method is called periodically if start() is called. You could also manually schedule this method to be
      * called, e.g. if you are running in a manager container with designated timer threads.
      */
     public void checkJobs() {
+        checkJobs(null);
+    }
+
+    /**
+     * Process the result of a cluster query which was made on this manager's behalf, e.g. by a SharedJobPoller,
+     * in the same way as a check of the given jobs which had made the query itself.
+     * @param jobIds ids of the jobs which were queried
+     * @param jobs JobInfos returned by the query, or null if the query failed
+     * @return false if the result was ignored because a check was already running
+     */
+    public boolean checkJobs(Set<Long> jobIds, List<JobInfo> jobs) {
+        return checkJobs(jobIds, true, jobs);
+    }
+
+    private boolean checkJobs(Set<Long> jobIds) {
+        return checkJobs(jobIds, false, null);
+    }
+
+    /**
+     * Check the given jobs, or the jobs which are due according to the check schedule, or all jobs.
+     * @param jobIds jobs to check, or null to check the jobs which are due
+     * @param polled true if the jobs were already queried by someone else
+     * @param polledJobs result of that query, or null if it failed
+     * @return false if the check was skipped because another check was already running
+     */
+    private boolean checkJobs(Set<Long> jobIds, boolean polled, List<JobInfo> polledJobs) {
 
         log.trace("checkJobs");
 
         // Ensure we only run one check at a time
         if (!checkRunning.compareAndSet(false, true)) {
             log.trace("Job check already running");
-            return;
+            return false;
         }
 
         try {
             // Are there any jobs to monitor? 
             if (jobMetadataMap.isEmpty()) {
                 log.debug("No jobs are being monitored");
-                return;
+                return true;
+            }
+
+            // Only query the requested jobs, or with a check schedule, the jobs which are due
+            JobCheckSchedule schedule = checkSchedule;
+            Set<Long> targetJobIds = jobIds;
+            if (targetJobIds == null && schedule != null) {
+                targetJobIds = pollDueJobIds(System.currentTimeMillis());
             }
             
             try {
                 // Query cluster for new job info
                 
                 List<JobInfo> jobs = new ArrayList<>();
+                boolean retrieved = false;
                 try {
-                    jobs = jobSyncApi.getJobInfo();
+                    if (polled) {
+                        // The poller logs its own errors
+                        if (polledJobs != null) {
+                            jobs = polledJobs;
+                            retrieved = true;
+                        }
+                    }
+                    else {
+                        if (targetJobIds == null) {
+                            jobs = jobSyncApi.getJobInfo();
+                            if (keepSnapshots) {
+                                lastSnapshot = JobSnapshot.of(jobs);
+                            }
+                        }
+                        else if (!targetJobIds.isEmpty()) {
+                            jobs = jobSyncApi.getJobInfo(targetJobIds);
+                        }
+                        retrieved = true;
+                    }
                 }
                 catch (Throwable t) {
                     // Catch any exceptions so that the code below can run and jobs can be retired 
@@ -226,8 +701,12 @@ public class JobManager {
                 Date now = new Date();
 
                 Collection<Long> runningJobIds = getRunningJobIds();
+                List<Long> newlyMissingJobIds = new ArrayList<>();
 
-                if (log.isDebugEnabled()) {
+                if (targetJobIds != null) {
+                    log.debug("Checking {} of {} monitored jobs", targetJobIds.size(), runningJobIds.size());
+                }
+                else if (log.isDebugEnabled()) {
                     log.debug("Monitoring jobs: {}", runningJobIds);
                 }
                 else {
@@ -245,21 +724,30 @@ public class JobManager {
                         if (Utils.getDateDiff(currMetadata.getLastUpdated(), now, TimeUnit.MINUTES) > keepCompletedMinutes) {
                             log.debug("Job {} is done and will be removed from monitoring", jobId);
                             jobMetadataMap.remove(jobId);
+                            missingJobIds.remove(jobId);
+                            nextCheckMillis.remove(jobId);
                         }
                     }
+                    else if (targetJobIds != null && !targetJobIds.contains(jobId)) {
+                        log.trace("Job {} is not being checked", jobId);
+                    }
                     else {
                         Collection<JobInfo> newInfos = jobMap.get(jobId);
                         if (newInfos!=null && !newInfos.isEmpty()) {
-                            boolean allDone = Utils.allDone(newInfos);
-                            
-                            // Update the map with new metadata
-                            JobMetadata newMetadata = new JobMetadata(allDone, now, newInfos, currMetadata.getFuture());
-                            jobMetadataMap.put(jobId, newMetadata);
+                            missingJobIds.remove(jobId);
+                            newInfos = retain(newInfos);
+                            boolean allDone = Utils.allDone(newInfos) && newInfos.size() >= currMetadata.getArraySize();
                             
+                            // Update the map with new metadata, unless updateJobs changed it since we read it
+                            JobMetadata newMetadata = new JobMetadata(allDone, now, newInfos, currMetadata.getFuture(),
+                                    currMetadata.getArraySize());
+                            if (!jobMetadataMap.replace(jobId, currMetadata, newMetadata)) {
+                                log.trace("Job {} was updated concurrently, skipping", jobId);
+                            }
                             // Complete the future, if all jobs in the job array are done
-                            if (allDone) {
+                            else if (allDone) {
                                 log.debug("Job {} has completed", jobId);
-                                currMetadata.getFuture().complete(newInfos);
+                                complete(currMetadata.getFuture(), newInfos);
                             }
                             else {
                                 log.trace("Updating running job {}", jobId);
@@ -271,27 +759,275 @@ public class JobManager {
                                 log.warn("Removing zombie job: {}", jobId);
 
                                 // Update the map with new metadata, forcing done=true, so that this zombie can be reaped later
-                                JobMetadata newMetadata = new JobMetadata(true, now, newInfos, currMetadata.getFuture());
-                                jobMetadataMap.put(jobId, newMetadata);
+                                JobMetadata newMetadata = new JobMetadata(true, now, newInfos, currMetadata.getFuture(),
+                                        currMetadata.getArraySize());
+                                if (!jobMetadataMap.replace(jobId, currMetadata, newMetadata)) {
+                                    log.trace("Job {} was updated concurrently, skipping", jobId);
+                                    continue;
+                                }
 
                                 Exception e = new Exception("Job "+jobId+" was identified as a zombie, and force completed.");
-                                currMetadata.getFuture().completeExceptionally(e);
+                                completeExceptionally(currMetadata.getFuture(), e);
                             }
                             else {
                                 log.trace("Detected potential zombie job: {}", jobId);
+                                if (retrieved && missingJobIds.add(jobId)) {
+                                    newlyMissingJobIds.add(jobId);
+                                }
                             }
                         }
                     }
                 }
+
+                if (!newlyMissingJobIds.isEmpty()) {
+                    resolveMissingJobs(newlyMissingJobIds);
+                }
     
                 // TODO: monitor other jobs that were not submitted through this manager
             }
             catch (Throwable e) {
                 log.error("Error checking job status", e);
             }
+
+            if (schedule != null && targetJobIds != null) {
+                rescheduleChecks(schedule, targetJobIds);
+            }
+            fireCheckListeners();
+            return true;
         }
         finally {
             checkRunning.set(false);
         }
     }
+
+    /**
+     * Returns the ids of the jobs whose next check is due, including any unfinished jobs which have never
+     * been scheduled (e.g. because they were just submitted).
+     */
+    private Set<Long> pollDueJobIds(long nowMillis) {
+        Set<Long> due = new LinkedHashSet<>();
+        synchronized (checkQueue) {
+            while (!checkQueue.isEmpty() && checkQueue.peek().dueMillis <= nowMillis) {
+                ScheduledCheck check = checkQueue.poll();
+                // Skip checks which were superseded by a later one
+                Long current = nextCheckMillis.get(check.jobId);
+                if (current != null && current == check.dueMillis) {
+                    due.add(check.jobId);
+                }
+            }
+        }
+        for (Map.Entry<Long, JobMetadata> entry : jobMetadataMap.entrySet()) {
+            if (!entry.getValue().isDone() && !nextCheckMillis.containsKey(entry.getKey())) {
+                due.add(entry.getKey());
+            }
+        }
+        return due;
+    }
+
+    /**
+     * Schedule the next check of each of the given jobs which are still being monitored.
+     */
+    private void rescheduleChecks(JobCheckSchedule schedule, Collection<Long> jobIds) {
+        LocalDateTime now = LocalDateTime.now();
+        long nowMillis = System.currentTimeMillis();
+        synchronized (checkQueue) {
+            for (Long jobId : jobIds) {
+                JobMetadata metadata = jobMetadataMap.get(jobId);
+                if (metadata == null || metadata.isDone()) {
+                    nextCheckMillis.remove(jobId);
+                    continue;
+                }
+                long dueMillis = nowMillis + schedule.getDelayMillis(metadata.getLastInfos(), now);
+                nextCheckMillis.put(jobId, dueMillis);
+                checkQueue.add(new ScheduledCheck(jobId, dueMillis));
+            }
+        }
+    }
+
+    private void clearCheckQueue() {
+        synchronized (checkQueue) {
+            checkQueue.clear();
+            nextCheckMillis.clear();
+        }
+    }
+
+    /**
+     * Sets a schedule which decides when each job should next be checked. Each call to checkJobs() then only
+     * queries the jobs which are due, with a single cluster call, instead of listing every job on each check.
+     * checkJobs() should then be called more often than the schedule's minimum interval (e.g. every few seconds),
+     * since that determines how promptly due checks are made. Snapshots are not kept while a schedule is set.
+     * Pass null to go back to checking every job on every call, which is the default.
+     */
+    public void setCheckSchedule(JobCheckSchedule checkSchedule) {
+        this.checkSchedule = checkSchedule;
+        clearCheckQueue();
+    }
+
+    /**
+     * Sets the minimum time between checks made because of calls to requestCheck(). Defaults to 1 second.
+     */
+    public void setMinCheckGapMillis(long minCheckGapMillis) {
+        this.minCheckGapMillis = minCheckGapMillis;
+    }
+
+    private void fireCheckListeners() {
+        for (Runnable listener : checkListeners) {
+            try {
+                listener.run();
+            }
+            catch (Throwable t) {
+                log.error("Error in check listener", t);
+            }
+        }
+    }
+
+    private void complete(JobFuture future, Collection<JobInfo> infos) {
+        JobCompletionDispatcher dispatcher = completionDispatcher;
+        if (dispatcher == null) {
+            future.complete(infos);
+        }
+        else {
+            dispatcher.complete(future, infos);
+        }
+    }
+
+    private void completeExceptionally(JobFuture future, Throwable t) {
+        JobCompletionDispatcher dispatcher = completionDispatcher;
+        if (dispatcher == null) {
+            future.completeExceptionally(t);
+        }
+        else {
+            dispatcher.completeExceptionally(future, t);
+        }
+    }
+
+    /**
+     * A part of a job array, to be submitted as a job array of its own.
+     */
+    private static class ArrayChunk {
+
+        private final long firstIndex;
+        private final long lastIndex;
+        // Null if the chunk runs every index from first to last
+        private final List<Long> indexes;
+        private final Callable<JobInfo> submission;
+
+        private ArrayChunk(long firstIndex, long lastIndex, Callable<JobInfo> submission) {
+            this.firstIndex = firstIndex;
+            this.lastIndex = lastIndex;
+            this.indexes = null;
+            this.submission = submission;
+        }
+
+        private ArrayChunk(List<Long> sortedIndexes, Callable<JobInfo> submission) {
+            this.firstIndex = sortedIndexes.get(0);
+            this.lastIndex = sortedIndexes.get(sortedIndexes.size() - 1);
+            this.indexes = sortedIndexes;
+            this.submission = submission;
+        }
+
+        private long size() {
+            return indexes == null ? lastIndex - firstIndex + 1 : indexes.size();
+        }
+
+        private JobFuture.Chunk toChunk(JobFuture future) {
+            return indexes == null ? new JobFuture.Chunk(future, firstIndex, lastIndex)
+                    : new JobFuture.Chunk(future, indexes);
+        }
+    }
+
+    /**
+     * A job check which is due at a given time.
+     */
+    private static class ScheduledCheck implements Comparable<ScheduledCheck> {
+
+        private final Long jobId;
+        private final long dueMillis;
+
+        ScheduledCheck(Long jobId, long dueMillis) {
+            this.jobId = jobId;
+            this.dueMillis = dueMillis;
+        }
+
+        @Override
+        public int compareTo(ScheduledCheck o) {
+            return Long.compare(dueMillis, o.dueMillis);
+        }
+    }
+
+    /**
+     * If true, the JobInfos of monitored jobs are kept (and returned by futures) as CompactJobInfos, which use
+     * much less memory when monitoring very large job arrays. Any implementation-specific subclass (e.g. LsfJobInfo)
+     * is lost in the conversion. Defaults to false.
+     */
+    public void setCompactJobInfos(boolean compactJobInfos) {
+        this.compactJobInfos = compactJobInfos;
+    }
+
+    /**
+     * If true, each check builds a JobSnapshot of all the jobs returned by the cluster (not only those being
+     * monitored), which can be retrieved with getLastSnapshot(). No snapshots are taken while a check schedule
+     * is set. Defaults to false.
+     */
+    public void setKeepSnapshots(boolean keepSnapshots) {
+        this.keepSnapshots = keepSnapshots;
+        if (!keepSnapshots) {
+            lastSnapshot = null;
+        }
+    }
+
+    /**
+     * Returns a snapshot of all the jobs found during the latest check, if setKeepSnapshots(true) was called.
+     * @return the latest snapshot, or null if none has been taken
+     */
+    public JobSnapshot getLastSnapshot() {
+        return lastSnapshot;
+    }
+
+    /**
+     * Sets a hook which may adjust every job template before it is submitted, e.g. to right-size its resource
+     * requests. The hook should return a modified copy rather than change the given template.
+     */
+    public void setSubmitHook(UnaryOperator<JobTemplate> submitHook) {
+        this.submitHook = submitHook == null ? UnaryOperator.identity() : submitHook;
+    }
+
+    /**
+     * Sets a dispatcher which completes the job futures on its own threads, so that callbacks chained to the
+     * futures do not run on (and hold up) the thread checking the jobs. The same dispatcher may be shared by
+     * several managers. Pass null to complete the futures on the checking thread, which is the default.
+     */
+    public void setCompletionDispatcher(JobCompletionDispatcher completionDispatcher) {
+        this.completionDispatcher = completionDispatcher;
+    }
+
+    /**
+     * Adds a listener which is run after every check, and after every call to updateJobs, e.g. to react to
+     * job array elements finishing before the whole array is done. Listeners run on the checking thread, so
+     * they should return quickly.
+     */
+    public void addCheckListener(Runnable listener) {
+        checkListeners.add(listener);
+    }
+
+    public void removeCheckListener(Runnable listener) {
+        checkListeners.remove(listener);
+    }
+
+    /**
+     * Sets the largest job array to submit in one piece. Larger arrays are split into chunks of at most this
+     * many elements, which are submitted in parallel as separate job arrays, keeping their original indexes.
+     * The returned JobFuture stands for all of the chunks (see JobFuture.getJobIds). For LSF, this should be no
+     * more than MAX_JOB_ARRAY_SIZE. Defaults to 0, meaning that arrays are never split.
+     */
+    public void setMaxArraySize(long maxArraySize) {
+        this.maxArraySize = maxArraySize;
+    }
+
+    /**
+     * Sets the number of chunks of a job array which may be submitted at the same time. Defaults to 4.
+     */
+    public void setSubmitParallelism(int submitParallelism) {
+        this.submitParallelism = Math.max(1, submitParallelism);
+    }
 }
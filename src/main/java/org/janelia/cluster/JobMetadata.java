@@ -17,12 +17,18 @@ public class JobMetadata {
     private final Date lastUpdated;
     private final Collection<JobInfo> lastInfos;
     private final JobFuture future;
+    private final long arraySize;
 
     JobMetadata(boolean done, Date lastUpdated, Collection<JobInfo> lastInfos, JobFuture future) {
+        this(done, lastUpdated, lastInfos, future, 1);
+    }
+
+    JobMetadata(boolean done, Date lastUpdated, Collection<JobInfo> lastInfos, JobFuture future, long arraySize) {
         this.done = done;
         this.lastUpdated = lastUpdated;
         this.lastInfos = lastInfos;
         this.future = future;
+        this.arraySize = arraySize;
     }
 
     public boolean isDone() {
@@ -40,4 +46,11 @@ public class JobMetadata {
     public JobFuture getFuture() {
         return future;
     }
-}
\ No newline at end of file
+
+    /**
+     * Number of jobs which were submitted, i.e. the number of elements for a job array, or 1 for a single job.
+     */
+    public long getArraySize() {
+        return arraySize;
+    }
+}
@@ -0,0 +1,223 @@
+package org.janelia.cluster;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+/**
+ * Submits jobs through a JobManager and automatically resubmits the ones that fail. For job arrays, only the failed
+ * elements are resubmitted, as a new job array containing just those indexes. Retries are delayed with exponential
+ * backoff, and each failure is classified (see JobFailureType) so that only failures which are worth retrying are
+ * retried. Optionally, the job template can be escalated (e.g. given more memory) before it is resubmitted.
+ *
+ * The future returned on submission only completes once all retries have settled. Its result contains the final
+ * JobInfo for each job or array element, from whichever attempt ran it last.
+ */
+public class JobRetryManager {
+
+    private static final Logger log = LoggerFactory.getLogger(JobRetryManager.class);
+
+    // Constants
+    private static final int DEFAULT_MAX_RETRIES = 3;
+    private static final long DEFAULT_INITIAL_BACKOFF_SECONDS = 30;
+    private static final double DEFAULT_BACKOFF_MULTIPLIER = 2;
+    private static final long DEFAULT_MAX_BACKOFF_SECONDS = 3600;
+
+    // Configuration
+    private final JobManager jobManager;
+    private final Function<JobInfo, JobFailureType> classifier;
+    private int maxRetries = DEFAULT_MAX_RETRIES;
+    private long initialBackoffSeconds = DEFAULT_INITIAL_BACKOFF_SECONDS;
+    private double backoffMultiplier = DEFAULT_BACKOFF_MULTIPLIER;
+    private long maxBackoffSeconds = DEFAULT_MAX_BACKOFF_SECONDS;
+    private Set<JobFailureType> retryableFailures = EnumSet.of(
+            JobFailureType.HOST_FAILURE, JobFailureType.MEMORY_LIMIT, JobFailureType.APPLICATION_ERROR);
+    private BiFunction<JobTemplate, Collection<JobInfo>, JobTemplate> resourceEscalator;
+
+    // State
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(
+            Utils.newDaemonThreadFactory("JobRetryManager-scheduler"));
+
+    /**
+     * @param jobManager manager used to submit and monitor the jobs
+     * @param classifier classifies failed jobs (e.g. LsfUtils::classifyFailure), returning null for jobs which
+     *                   completed successfully
+     */
+    public JobRetryManager(JobManager jobManager, Function<JobInfo, JobFailureType> classifier) {
+        this.jobManager = jobManager;
+        this.classifier = classifier;
+    }
+
+    /**
+     * Submit the job described by the given JobTemplate, retrying it if it fails.
+     * @param jt job template
+     * @return a future collection containing the final JobInfo, which completes once all retries have settled
+     * @throws Exception if there is an error submitting the job
+     */
+    public JobFuture submitJob(JobTemplate jt) throws Exception {
+        JobFuture attemptFuture = jobManager.submitJob(jt);
+        RetryState state = new RetryState(jt, JobFuture.withJobIdsOf(attemptFuture), false);
+        watch(state, attemptFuture);
+        return state.future;
+    }
+
+    /**
+     * Submit the job array described by the given JobTemplate, retrying any elements which fail.
+     * @param jt job array template
+     * @param start starting array index
+     * @param end ending array index
+     * @return a future collection containing the final JobInfos, which completes once all retries have settled
+     * @throws Exception if there is an error submitting the jobs
+     */
+    public JobFuture submitJob(JobTemplate jt, long start, long end) throws Exception {
+        JobFuture attemptFuture = jobManager.submitJob(jt, start, end);
+        RetryState state = new RetryState(jt, JobFuture.withJobIdsOf(attemptFuture), true);
+        watch(state, attemptFuture);
+        return state.future;
+    }
+
+    private void watch(RetryState state, JobFuture attemptFuture) {
+        attemptFuture.whenComplete((infos, t) -> {
+            if (t != null) {
+                log.warn("Attempt {} of job {} could not be tracked", state.attempts, attemptFuture.getJobId());
+                state.future.completeExceptionally(t);
+            }
+            else {
+                attemptCompleted(state, attemptFuture.getJobId(), infos);
+            }
+        });
+    }
+
+    private void attemptCompleted(RetryState state, Long jobId, Collection<JobInfo> infos) {
+
+        List<JobInfo> retryable = new ArrayList<>();
+        List<JobInfo> limited = new ArrayList<>();
+        for (JobInfo info : infos) {
+            state.finalInfos.put(info.getArrayIndex(), info);
+            JobFailureType failureType = classifier.apply(info);
+            if (failureType != null) {
+                log.debug("Job {} (index {}) failed with {}", jobId, info.getArrayIndex(), failureType);
+                if (retryableFailures.contains(failureType)) {
+                    retryable.add(info);
+                    if (failureType == JobFailureType.MEMORY_LIMIT || failureType == JobFailureType.RUN_LIMIT) {
+                        limited.add(info);
+                    }
+                }
+            }
+        }
+
+        if (retryable.isEmpty() || state.attempts >= maxRetries || scheduler.isShutdown()) {
+            if (!retryable.isEmpty()) {
+                log.warn("Job {} still has {} failed jobs after {} retries", state.future.getJobId(),
+                        retryable.size(), state.attempts);
+            }
+            state.future.complete(new ArrayList<>(state.finalInfos.values()));
+            return;
+        }
+
+        if (!limited.isEmpty() && resourceEscalator != null) {
+            state.template = resourceEscalator.apply(state.template, limited);
+        }
+
+        long delay = (long) Math.min(maxBackoffSeconds, initialBackoffSeconds * Math.pow(backoffMultiplier, state.attempts));
+        state.attempts++;
+        log.info("Retrying {} failed jobs of job {} in {} seconds (retry {} of {})", retryable.size(),
+                state.future.getJobId(), delay, state.attempts, maxRetries);
+
+        scheduler.schedule(() -> resubmit(state, retryable), delay, TimeUnit.SECONDS);
+    }
+
+    private void resubmit(RetryState state, List<JobInfo> failedInfos) {
+        try {
+            JobFuture attemptFuture;
+            if (state.isArray) {
+                List<Long> arrayIndexes = new ArrayList<>();
+                for (JobInfo info : failedInfos) {
+                    arrayIndexes.add(info.getArrayIndex());
+                }
+                attemptFuture = jobManager.submitJob(state.template, arrayIndexes);
+            }
+            else {
+                attemptFuture = jobManager.submitJob(state.template);
+            }
+            log.debug("Resubmitted failed jobs of job {} as job {}", state.future.getJobId(), attemptFuture.getJobId());
+            watch(state, attemptFuture);
+        }
+        catch (Exception e) {
+            log.error("Error resubmitting failed jobs of job {}", state.future.getJobId(), e);
+            state.future.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * Stop the retry scheduler. Retries which are already scheduled still run, but attempts which complete after
+     * this call are not retried, and their futures complete with the failed JobInfos.
+     */
+    public void shutdown() {
+        scheduler.shutdown();
+    }
+
+    public int getMaxRetries() {
+        return maxRetries;
+    }
+
+    /**
+     * Sets the maximum number of times that a job or job array element will be resubmitted.
+     */
+    public void setMaxRetries(int maxRetries) {
+        this.maxRetries = maxRetries;
+    }
+
+    /**
+     * Sets the exponential backoff schedule. The nth retry is delayed by initial*multiplier^(n-1) seconds,
+     * up to the given maximum.
+     */
+    public void setBackoff(long initialBackoffSeconds, double backoffMultiplier, long maxBackoffSeconds) {
+        this.initialBackoffSeconds = initialBackoffSeconds;
+        this.backoffMultiplier = backoffMultiplier;
+        this.maxBackoffSeconds = maxBackoffSeconds;
+    }
+
+    public Set<JobFailureType> getRetryableFailures() {
+        return retryableFailures;
+    }
+
+    /**
+     * Sets the types of failure which should be retried. By default, host failures, memory limit failures,
+     * and application errors are retried.
+     */
+    public void setRetryableFailures(Set<JobFailureType> retryableFailures) {
+        this.retryableFailures = EnumSet.copyOf(retryableFailures);
+    }
+
+    /**
+     * Sets a function which is given the current job template and the final JobInfos of the jobs which hit a memory
+     * or run time limit, and returns the template to use for the retry, e.g.
+     * (jt, infos) -> LsfUtils.escalateLimits(jt, infos, 1.5), which raises whichever limits were hit. Set to null
+     * to always retry with the same template.
+     */
+    public void setResourceEscalator(BiFunction<JobTemplate, Collection<JobInfo>, JobTemplate> resourceEscalator) {
+        this.resourceEscalator = resourceEscalator;
+    }
+
+    private static class RetryState {
+
+        private final JobFuture future;
+        private final boolean isArray;
+        private final Map<Long, JobInfo> finalInfos = new TreeMap<>(Comparator.nullsFirst(Comparator.naturalOrder()));
+        private volatile JobTemplate template;
+        private volatile int attempts;
+
+        RetryState(JobTemplate template, JobFuture future, boolean isArray) {
+            this.template = template;
+            this.future = future;
+            this.isArray = isArray;
+        }
+    }
+}
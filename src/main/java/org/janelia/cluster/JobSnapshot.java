@@ -0,0 +1,343 @@
+package org.janelia.cluster;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.util.*;
+
+/**
+ * Immutable, column-oriented snapshot of a set of jobs, for computing aggregates (e.g. job counts by status, or
+ * allocated slots by queue) over very many jobs. Each attribute is stored in a primitive array, and string
+ * attributes are dictionary-encoded, so that the aggregate operations are tight loops over int and long arrays.
+ *
+ * Snapshots are never modified after they are built, so any number of readers can query a snapshot while the
+ * next one is being built. Filtering returns a new snapshot which shares the columns with the original, and
+ * only holds the selected row numbers.
+ */
+public final class JobSnapshot {
+
+    /**
+     * String attributes which can be used for grouping and filtering.
+     */
+    public enum Column {
+        STATUS, QUEUE, PROJECT, EXEC_HOST, FROM_HOST, NAME
+    }
+
+    /**
+     * Numeric attributes which can be summed.
+     */
+    public enum Metric {
+        /** Number of jobs */
+        COUNT,
+        /** Number of slots requested */
+        REQ_SLOT,
+        /** Number of slots allocated */
+        ALLOC_SLOT,
+        /** Seconds spent running, up to the time of the snapshot for jobs which are still running */
+        RUN_SECONDS,
+        /** Maximum memory used, in bytes */
+        MAX_MEM_BYTES,
+        /** CPU time used, in whole seconds */
+        CPU_SECONDS
+    }
+
+    // Code 0 is reserved for null in every dictionary
+    private static final int NULL_CODE = 0;
+    private static final int NUM_COLUMNS = Column.values().length;
+
+    private final LocalDateTime created;
+    private final long[] jobIds;
+    private final long[] arrayIndexes;
+    private final int[][] codes;
+    private final String[][] dictionaries;
+    private final long[] reqSlots;
+    private final long[] allocSlots;
+    private final long[] runSeconds;
+    private final long[] maxMemBytes;
+    private final long[] cpuSeconds;
+    private final int[] rows;
+
+    private JobSnapshot(LocalDateTime created, long[] jobIds, long[] arrayIndexes, int[][] codes,
+                        String[][] dictionaries, long[] reqSlots, long[] allocSlots, long[] runSeconds,
+                        long[] maxMemBytes, long[] cpuSeconds, int[] rows) {
+        this.created = created;
+        this.jobIds = jobIds;
+        this.arrayIndexes = arrayIndexes;
+        this.codes = codes;
+        this.dictionaries = dictionaries;
+        this.reqSlots = reqSlots;
+        this.allocSlots = allocSlots;
+        this.runSeconds = runSeconds;
+        this.maxMemBytes = maxMemBytes;
+        this.cpuSeconds = cpuSeconds;
+        this.rows = rows;
+    }
+
+    /**
+     * Build a snapshot of the given jobs, as of now.
+     * @param infos job infos
+     * @return snapshot
+     */
+    public static JobSnapshot of(Collection<JobInfo> infos) {
+        return of(infos, LocalDateTime.now());
+    }
+
+    /**
+     * Build a snapshot of the given jobs.
+     * @param infos job infos
+     * @param now local time of the snapshot, up to which running jobs are counted as running
+     * @return snapshot
+     */
+    public static JobSnapshot of(Collection<JobInfo> infos, LocalDateTime now) {
+
+        int n = infos.size();
+        long[] jobIds = new long[n];
+        long[] arrayIndexes = new long[n];
+        int[][] codes = new int[NUM_COLUMNS][n];
+        long[] reqSlots = new long[n];
+        long[] allocSlots = new long[n];
+        long[] runSeconds = new long[n];
+        long[] maxMemBytes = new long[n];
+        long[] cpuSeconds = new long[n];
+
+        List<Map<String, Integer>> encoders = new ArrayList<>();
+        for (int c = 0; c < NUM_COLUMNS; c++) {
+            encoders.add(new HashMap<>());
+        }
+
+        long nowSeconds = now.toEpochSecond(ZoneOffset.UTC);
+        int r = 0;
+        for (JobInfo info : infos) {
+            jobIds[r] = info.getJobId() == null ? 0 : info.getJobId();
+            arrayIndexes[r] = info.getArrayIndex() == null ? 0 : info.getArrayIndex();
+            JobStatus status = info.getStatus();
+            codes[Column.STATUS.ordinal()][r] = encode(encoders, Column.STATUS, status == null ? null : status.name());
+            codes[Column.QUEUE.ordinal()][r] = encode(encoders, Column.QUEUE, info.getQueue());
+            codes[Column.PROJECT.ordinal()][r] = encode(encoders, Column.PROJECT, info.getProject());
+            codes[Column.EXEC_HOST.ordinal()][r] = encode(encoders, Column.EXEC_HOST, info.getExecHost());
+            codes[Column.FROM_HOST.ordinal()][r] = encode(encoders, Column.FROM_HOST, info.getFromHost());
+            codes[Column.NAME.ordinal()][r] = encode(encoders, Column.NAME, info.getName());
+            reqSlots[r] = info.getReqSlot() == null ? 0 : info.getReqSlot();
+            allocSlots[r] = info.getAllocSlot() == null ? 0 : info.getAllocSlot();
+            if (info.getStartTime() != null) {
+                long end = info.getFinishTime() == null ? nowSeconds : info.getFinishTime().toEpochSecond(ZoneOffset.UTC);
+                runSeconds[r] = Math.max(0, end - info.getStartTime().toEpochSecond(ZoneOffset.UTC));
+            }
+            maxMemBytes[r] = info.getMaxMemBytes() == null ? 0 : info.getMaxMemBytes();
+            cpuSeconds[r] = info.getCpuSeconds() == null ? 0 : Math.round(info.getCpuSeconds());
+            r++;
+        }
+
+        String[][] dictionaries = new String[NUM_COLUMNS][];
+        for (int c = 0; c < NUM_COLUMNS; c++) {
+            Map<String, Integer> encoder = encoders.get(c);
+            String[] dictionary = new String[encoder.size() + 1];
+            for (Map.Entry<String, Integer> entry : encoder.entrySet()) {
+                dictionary[entry.getValue()] = entry.getKey();
+            }
+            dictionaries[c] = dictionary;
+        }
+
+        return new JobSnapshot(now, jobIds, arrayIndexes, codes, dictionaries, reqSlots, allocSlots, runSeconds,
+                maxMemBytes, cpuSeconds, null);
+    }
+
+    private static int encode(List<Map<String, Integer>> encoders, Column column, String value) {
+        if (value == null) return NULL_CODE;
+        Map<String, Integer> encoder = encoders.get(column.ordinal());
+        return encoder.computeIfAbsent(value, k -> encoder.size() + 1);
+    }
+
+    /**
+     * Returns the local time at which the snapshot was taken.
+     */
+    public LocalDateTime getCreated() {
+        return created;
+    }
+
+    /**
+     * Returns the number of jobs (or job array elements) in the snapshot.
+     */
+    public int size() {
+        return rows == null ? jobIds.length : rows.length;
+    }
+
+    /**
+     * Returns the distinct values of the given column, in no particular order.
+     */
+    public Set<String> getValues(Column column) {
+        return new HashSet<>(groupBy(column, Metric.COUNT).keySet());
+    }
+
+    /**
+     * Count the jobs with each value of the given column.
+     * @param column column to group by
+     * @return number of jobs for each value, including null if some jobs have no value
+     */
+    public Map<String, Long> countBy(Column column) {
+        return groupBy(column, Metric.COUNT);
+    }
+
+    /**
+     * Sum the given metric over the jobs with each value of the given column.
+     * @param column column to group by
+     * @param metric metric to sum
+     * @return sum for each value which occurs in the snapshot, including null if some jobs have no value
+     */
+    public Map<String, Long> groupBy(Column column, Metric metric) {
+
+        int[] columnCodes = codes[column.ordinal()];
+        String[] dictionary = dictionaries[column.ordinal()];
+        long[] sums = new long[dictionary.length];
+        long[] counts = new long[dictionary.length];
+        long[] values = getMetric(metric);
+
+        if (rows == null) {
+            for (int r = 0; r < columnCodes.length; r++) {
+                int code = columnCodes[r];
+                counts[code]++;
+                if (values != null) sums[code] += values[r];
+            }
+        }
+        else {
+            for (int r : rows) {
+                int code = columnCodes[r];
+                counts[code]++;
+                if (values != null) sums[code] += values[r];
+            }
+        }
+
+        Map<String, Long> result = new LinkedHashMap<>();
+        for (int code = 0; code < dictionary.length; code++) {
+            if (counts[code] > 0) {
+                result.put(dictionary[code], values == null ? counts[code] : sums[code]);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Sum the given metric over all of the jobs.
+     */
+    public long sum(Metric metric) {
+        long[] values = getMetric(metric);
+        if (values == null) return size();
+        long sum = 0;
+        if (rows == null) {
+            for (long value : values) {
+                sum += value;
+            }
+        }
+        else {
+            for (int r : rows) {
+                sum += values[r];
+            }
+        }
+        return sum;
+    }
+
+    /**
+     * Returns the values of the given column with the largest sums of the given metric.
+     * @param column column to group by
+     * @param metric metric to sum
+     * @param n maximum number of values to return
+     * @return up to n values and their sums, in descending order of the sums
+     */
+    public List<Map.Entry<String, Long>> topN(Column column, Metric metric, int n) {
+        List<Map.Entry<String, Long>> entries = new ArrayList<>(groupBy(column, metric).entrySet());
+        entries.sort(Map.Entry.<String, Long>comparingByValue().reversed());
+        return entries.size() > n ? new ArrayList<>(entries.subList(0, n)) : entries;
+    }
+
+    /**
+     * Select the jobs with any of the given values in the given column.
+     * @param column column to filter on
+     * @param values values to select, which may include null
+     * @return snapshot containing only the selected jobs
+     */
+    public JobSnapshot filter(Column column, String... values) {
+
+        int[] columnCodes = codes[column.ordinal()];
+        String[] dictionary = dictionaries[column.ordinal()];
+        boolean[] selected = new boolean[dictionary.length];
+        Set<String> valueSet = new HashSet<>(Arrays.asList(values));
+        for (int code = 0; code < dictionary.length; code++) {
+            selected[code] = valueSet.contains(dictionary[code]);
+        }
+
+        int[] matches = new int[size()];
+        int count = 0;
+        if (rows == null) {
+            for (int r = 0; r < columnCodes.length; r++) {
+                if (selected[columnCodes[r]]) matches[count++] = r;
+            }
+        }
+        else {
+            for (int r : rows) {
+                if (selected[columnCodes[r]]) matches[count++] = r;
+            }
+        }
+
+        return new JobSnapshot(created, jobIds, arrayIndexes, codes, dictionaries, reqSlots, allocSlots, runSeconds,
+                maxMemBytes, cpuSeconds, Arrays.copyOf(matches, count));
+    }
+
+    /**
+     * Select the jobs with the given status.
+     */
+    public JobSnapshot filter(JobStatus status) {
+        return filter(Column.STATUS, status.name());
+    }
+
+    /**
+     * Returns the ids of the jobs in the snapshot, with any duplicates from job arrays removed.
+     */
+    public Set<Long> getJobIds() {
+        Set<Long> ids = new LinkedHashSet<>();
+        for (int i = 0; i < size(); i++) {
+            ids.add(jobIds[row(i)]);
+        }
+        return ids;
+    }
+
+    /**
+     * Returns the value of a column for the i-th job in the snapshot.
+     */
+    public String getValue(int i, Column column) {
+        int r = row(i);
+        return dictionaries[column.ordinal()][codes[column.ordinal()][r]];
+    }
+
+    /**
+     * Returns the job id of the i-th job in the snapshot.
+     */
+    public long getJobId(int i) {
+        return jobIds[row(i)];
+    }
+
+    /**
+     * Returns the array index of the i-th job in the snapshot, or null if it is not part of a job array.
+     */
+    public Long getArrayIndex(int i) {
+        long arrayIndex = arrayIndexes[row(i)];
+        return arrayIndex == 0 ? null : arrayIndex;
+    }
+
+    private int row(int i) {
+        if (i < 0 || i >= size()) {
+            throw new IndexOutOfBoundsException("Index: " + i + ", size: " + size());
+        }
+        return rows == null ? i : rows[i];
+    }
+
+    private long[] getMetric(Metric metric) {
+        switch (metric) {
+            case COUNT: return null;
+            case REQ_SLOT: return reqSlots;
+            case ALLOC_SLOT: return allocSlots;
+            case RUN_SECONDS: return runSeconds;
+            case MAX_MEM_BYTES: return maxMemBytes;
+            case CPU_SECONDS: return cpuSeconds;
+            default: throw new IllegalArgumentException("Unknown metric: " + metric);
+        }
+    }
+}
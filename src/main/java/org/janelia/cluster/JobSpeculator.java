@@ -0,0 +1,289 @@
+package org.janelia.cluster;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiFunction;
+
+/**
+ * Speculative re-execution of straggling job array elements. For each job array submitted through the speculator,
+ * the runtimes of its successfully completed elements are computed from their start and finish times. Any element
+ * that has been running for longer than a multiple of a percentile of those runtimes gets a hedged duplicate,
+ * submitted as a single-element job array with the same index (so that '#' paths resolve identically) and
+ * customized to run on a different host. The first copy to succeed completes the element, and the other copy
+ * is killed.
+ *
+ * The future returned on submission completes once the original array and all of its hedges have finished. Its
+ * result contains one JobInfo per array index, taken from the winning copy.
+ *
+ * Call start() to check for stragglers periodically in a background thread, or call checkStragglers() manually.
+ */
+public class JobSpeculator {
+
+    private static final Logger log = LoggerFactory.getLogger(JobSpeculator.class);
+
+    // Constants
+    private static final double DEFAULT_PERCENTILE = 0.9;
+    private static final double DEFAULT_MULTIPLE = 3;
+    private static final double DEFAULT_MIN_COMPLETED_FRACTION = 0.5;
+    private static final int DEFAULT_CHECK_INTERVAL_SECONDS = 60;
+
+    // Configuration
+    private final JobManager jobManager;
+    private final BiFunction<JobTemplate, JobInfo, JobTemplate> hedgeCustomizer;
+    private double percentile = DEFAULT_PERCENTILE;
+    private double multiple = DEFAULT_MULTIPLE;
+    private double minCompletedFraction = DEFAULT_MIN_COMPLETED_FRACTION;
+
+    // State
+    private final Map<Long, SpeculativeArray> arrays = new ConcurrentHashMap<>();
+    private ScheduledExecutorService scheduler;
+    private ScheduledFuture<?> checker;
+
+    /**
+     * @param jobManager manager used to submit and monitor the jobs
+     * @param hedgeCustomizer given the array template and the straggling element's info, returns the template for
+     *                        its duplicate, e.g. LsfUtils::excludeExecHosts
+     */
+    public JobSpeculator(JobManager jobManager, BiFunction<JobTemplate, JobInfo, JobTemplate> hedgeCustomizer) {
+        this.jobManager = jobManager;
+        this.hedgeCustomizer = hedgeCustomizer;
+    }
+
+    /**
+     * Submit the job array described by the given JobTemplate, with speculative re-execution of stragglers.
+     * @param jt job array template
+     * @param start starting array index
+     * @param end ending array index
+     * @return a future collection containing the winning JobInfo for each array index
+     * @throws Exception if there is an error submitting the jobs
+     */
+    public JobFuture submitJob(JobTemplate jt, long start, long end) throws Exception {
+        JobFuture original = jobManager.submitJob(jt, start, end);
+        SpeculativeArray array = new SpeculativeArray(jt, original, end - start + 1);
+        arrays.put(original.getJobId(), array);
+        original.whenComplete((infos, t) -> {
+            if (infos != null) {
+                // Hedges of elements which the original won are still running, and must be killed to settle
+                killBeatenHedges(array, infos);
+            }
+            trySettle(array);
+        });
+        return array.future;
+    }
+
+    /**
+     * Begin checking for stragglers every checkIntervalSeconds. If already started, calling this method does nothing.
+     */
+    public synchronized void start(int checkIntervalSeconds) {
+        if (checker == null) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(
+                    Utils.newDaemonThreadFactory("JobSpeculator-checker"));
+            checker = scheduler.scheduleAtFixedRate(this::checkStragglers,
+                    checkIntervalSeconds, checkIntervalSeconds, TimeUnit.SECONDS);
+        }
+    }
+
+    public void start() {
+        start(DEFAULT_CHECK_INTERVAL_SECONDS);
+    }
+
+    /**
+     * Stop checking for stragglers, and shut down the background thread. The speculator can be started again.
+     */
+    public synchronized void stop() {
+        if (checker != null) {
+            checker.cancel(false);
+            checker = null;
+            scheduler.shutdown();
+            scheduler = null;
+        }
+    }
+
+    /**
+     * Check every monitored job array for stragglers, and for elements where one of the copies has already won.
+     * This method is called periodically if start() is called.
+     */
+    public void checkStragglers() {
+        for (SpeculativeArray array : arrays.values()) {
+            try {
+                checkArray(array);
+            }
+            catch (Throwable e) {
+                log.error("Error checking job {} for stragglers", array.getJobId(), e);
+            }
+        }
+    }
+
+    private void checkArray(SpeculativeArray array) {
+
+        Collection<JobInfo> infos = jobManager.getJobInfo(array.original);
+        if (infos == null) return;
+
+        killBeatenHedges(array, infos);
+        if (array.original.isDone()) return;
+
+        List<Long> runtimes = new ArrayList<>();
+        for (JobInfo info : infos) {
+            if (isSuccess(info) && info.getStartTime() != null && info.getFinishTime() != null) {
+                runtimes.add(ChronoUnit.SECONDS.between(info.getStartTime(), info.getFinishTime()));
+            }
+        }
+        if (runtimes.isEmpty() || runtimes.size() < minCompletedFraction * array.size) return;
+
+        Collections.sort(runtimes);
+        int rank = (int) Math.ceil(percentile * runtimes.size()) - 1;
+        long threshold = (long) (multiple * runtimes.get(Math.max(0, Math.min(rank, runtimes.size() - 1))));
+
+        LocalDateTime now = LocalDateTime.now();
+        for (JobInfo info : infos) {
+            if (info.getStatus() == JobStatus.RUNNING && info.getStartTime() != null
+                    && !array.hedges.containsKey(info.getArrayIndex())
+                    && ChronoUnit.SECONDS.between(info.getStartTime(), now) > threshold) {
+                hedge(array, info);
+            }
+        }
+    }
+
+    private void hedge(SpeculativeArray array, JobInfo straggler) {
+        Long arrayIndex = straggler.getArrayIndex();
+        try {
+            JobTemplate jt = hedgeCustomizer.apply(array.template, straggler);
+            JobFuture hedge = jobManager.submitJob(jt, arrayIndex, arrayIndex);
+            log.info("Job {}[{}] on {} is straggling, submitted duplicate {}", straggler.getJobId(), arrayIndex,
+                    straggler.getExecHost(), hedge.getJobId());
+            array.hedges.put(arrayIndex, hedge.getJobId());
+            array.hedgeFutures.add(hedge);
+            if (!arrays.containsKey(array.getJobId())) {
+                // The original array settled while the duplicate was being submitted
+                kill(() -> jobManager.killJob(hedge.getJobId()));
+                return;
+            }
+            if (array.original.isDone() && !array.original.isCompletedExceptionally()) {
+                // The original array finished while the duplicate was being submitted
+                killBeatenHedges(array, array.original.join());
+            }
+            hedge.whenComplete((infos, t) -> {
+                if (infos != null) {
+                    for (JobInfo info : infos) {
+                        if (isSuccess(info) && array.winners.putIfAbsent(arrayIndex, info) == null) {
+                            // The element may be in any chunk of a chunked array
+                            Long originalJobId = array.original.getJobId(arrayIndex);
+                            log.info("Duplicate {} won, killing original job {}[{}]", hedge.getJobId(),
+                                    originalJobId, arrayIndex);
+                            kill(() -> jobManager.killJobArrayElements(originalJobId, Collections.singletonList(arrayIndex)));
+                        }
+                    }
+                }
+                trySettle(array);
+            });
+        }
+        catch (Exception e) {
+            log.error("Error submitting duplicate of job {}[{}]", straggler.getJobId(), arrayIndex, e);
+        }
+    }
+
+    /**
+     * Kill the hedges of any elements which the original array completed successfully.
+     */
+    private void killBeatenHedges(SpeculativeArray array, Collection<JobInfo> infos) {
+        for (JobInfo info : infos) {
+            Long hedgeJobId = array.hedges.get(info.getArrayIndex());
+            if (hedgeJobId != null && isSuccess(info) && array.winners.putIfAbsent(info.getArrayIndex(), info) == null) {
+                log.info("Original job {}[{}] won, killing duplicate {}", info.getJobId(), info.getArrayIndex(), hedgeJobId);
+                kill(() -> jobManager.killJob(hedgeJobId));
+            }
+        }
+    }
+
+    private void trySettle(SpeculativeArray array) {
+        if (!array.original.isDone()) return;
+        for (JobFuture hedgeFuture : array.hedgeFutures) {
+            if (!hedgeFuture.isDone()) return;
+        }
+        if (!arrays.remove(array.getJobId(), array)) return;
+
+        Collection<JobInfo> originalInfos;
+        try {
+            originalInfos = array.original.join();
+        }
+        catch (Exception e) {
+            array.future.completeExceptionally(e);
+            return;
+        }
+
+        Map<Long, JobInfo> finalInfos = new TreeMap<>(Comparator.nullsFirst(Comparator.naturalOrder()));
+        for (JobInfo info : originalInfos) {
+            finalInfos.put(info.getArrayIndex(), info);
+        }
+        finalInfos.putAll(array.winners);
+        log.debug("Job {} has settled with {} hedged elements", array.getJobId(), array.hedges.size());
+        array.future.complete(new ArrayList<>(finalInfos.values()));
+    }
+
+    private boolean isSuccess(JobInfo info) {
+        return info.getStatus() == JobStatus.DONE && (info.getExitCode() == null || info.getExitCode() == 0);
+    }
+
+    private void kill(KillAction action) {
+        try {
+            action.run();
+        }
+        catch (Exception e) {
+            log.error("Error killing losing job copy", e);
+        }
+    }
+
+    public void setPercentile(double percentile) {
+        this.percentile = percentile;
+    }
+
+    /**
+     * Sets how many times longer than the percentile runtime an element must run before it is hedged.
+     */
+    public void setMultiple(double multiple) {
+        this.multiple = multiple;
+    }
+
+    /**
+     * Sets the fraction of the array which must complete successfully before runtimes are considered meaningful.
+     */
+    public void setMinCompletedFraction(double minCompletedFraction) {
+        this.minCompletedFraction = minCompletedFraction;
+    }
+
+    private interface KillAction {
+        void run() throws Exception;
+    }
+
+    private static class SpeculativeArray {
+
+        private final JobTemplate template;
+        private final JobFuture original;
+        private final JobFuture future;
+        private final long size;
+        private final Map<Long, Long> hedges = new ConcurrentHashMap<>();
+        private final List<JobFuture> hedgeFutures = new CopyOnWriteArrayList<>();
+        private final Map<Long, JobInfo> winners = new ConcurrentHashMap<>();
+
+        SpeculativeArray(JobTemplate template, JobFuture original, long size) {
+            this.template = template;
+            this.original = original;
+            this.future = JobFuture.withJobIdsOf(original);
+            this.size = size;
+        }
+
+        Long getJobId() {
+            return original.getJobId();
+        }
+    }
+}
@@ -0,0 +1,213 @@
+package org.janelia.cluster;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Persistent statistics about the run time and memory usage of completed jobs, keyed by job name and queue.
+ * The distributions are kept as QuantileSketches, so each key takes a few KB at most, however many jobs are
+ * recorded. Only the least recently used keys are dropped once the store reaches its maximum size.
+ *
+ * Every job is also recorded under its name alone (a null queue), for looking up jobs whose queue is not known
+ * in advance, e.g. because they are submitted to the default queue.
+ */
+public class JobStatsStore {
+
+    private static final Logger log = LoggerFactory.getLogger(JobStatsStore.class);
+
+    // Constants
+    private static final int DEFAULT_MAX_KEYS = 10000;
+    private static final int FILE_VERSION = 1;
+
+    // Configuration
+    private final Path file;
+    private final int maxKeys;
+
+    // State
+    private final Map<String, JobStats> stats = new LinkedHashMap<String, JobStats>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, JobStats> eldest) {
+            return size() > maxKeys;
+        }
+    };
+
+    /**
+     * Create an in-memory store.
+     */
+    public JobStatsStore() {
+        this.file = null;
+        this.maxKeys = DEFAULT_MAX_KEYS;
+    }
+
+    /**
+     * Create a store which is saved to the given file, loading any statistics already saved there.
+     * @param file file to load from and save to
+     * @throws IOException if the file exists but cannot be read
+     */
+    public JobStatsStore(Path file) throws IOException {
+        this(file, DEFAULT_MAX_KEYS);
+    }
+
+    /**
+     * @param file file to load from and save to, or null to keep the statistics in memory only
+     * @param maxKeys maximum number of distinct name and queue combinations to keep
+     * @throws IOException if the file exists but cannot be read
+     */
+    public JobStatsStore(Path file, int maxKeys) throws IOException {
+        this.file = file;
+        this.maxKeys = maxKeys;
+        if (file != null && Files.exists(file)) {
+            load();
+        }
+    }
+
+    /**
+     * Record the run time and memory usage of a job. Only jobs which completed successfully are recorded, since
+     * the usage of failed jobs (e.g. jobs killed for exceeding their memory limit) says little about how much
+     * they need.
+     * @param info final info of a job or job array element
+     */
+    public void record(JobInfo info) {
+        if (info.getStatus() != JobStatus.DONE || info.getName() == null) return;
+        double runSeconds = Double.NaN;
+        if (info.getStartTime() != null && info.getFinishTime() != null) {
+            runSeconds = Duration.between(info.getStartTime(), info.getFinishTime()).getSeconds();
+        }
+        double memBytes = info.getMaxMemBytes() == null ? Double.NaN : info.getMaxMemBytes();
+        synchronized (stats) {
+            getOrCreate(info.getName(), info.getQueue()).add(runSeconds, memBytes);
+            if (info.getQueue() != null) {
+                getOrCreate(info.getName(), null).add(runSeconds, memBytes);
+            }
+        }
+    }
+
+    public void record(Collection<JobInfo> infos) {
+        for (JobInfo info : infos) {
+            record(info);
+        }
+    }
+
+    /**
+     * Record the jobs of the given future once they complete.
+     */
+    public void track(JobFuture future) {
+        future.thenAccept(this::record);
+    }
+
+    /**
+     * Returns the statistics for jobs with the given name and queue.
+     * @param name job name
+     * @param queue queue name, or null for jobs with the given name in any queue
+     * @return statistics, or null if no such jobs have been recorded
+     */
+    public JobStats getStats(String name, String queue) {
+        synchronized (stats) {
+            return stats.get(getKey(name, queue));
+        }
+    }
+
+    /**
+     * Returns the number of distinct name and queue combinations in the store.
+     */
+    public int size() {
+        synchronized (stats) {
+            return stats.size();
+        }
+    }
+
+    /**
+     * Save the statistics to the store's file. The file is replaced atomically.
+     * @throws IOException if the file cannot be written
+     */
+    public void save() throws IOException {
+        if (file == null) {
+            throw new IllegalStateException("This store has no file");
+        }
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            synchronized (stats) {
+                out.writeInt(FILE_VERSION);
+                out.writeInt(stats.size());
+                for (Map.Entry<String, JobStats> entry : stats.entrySet()) {
+                    out.writeUTF(entry.getKey());
+                    entry.getValue().runSeconds.write(out);
+                    entry.getValue().memBytes.write(out);
+                }
+            }
+        }
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void load() throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            int version = in.readInt();
+            if (version != FILE_VERSION) {
+                log.warn("Ignoring job statistics with unknown version {} in {}", version, file);
+                return;
+            }
+            int size = in.readInt();
+            synchronized (stats) {
+                for (int i = 0; i < size; i++) {
+                    String key = in.readUTF();
+                    stats.put(key, new JobStats(QuantileSketch.read(in), QuantileSketch.read(in)));
+                }
+            }
+            log.debug("Loaded statistics for {} jobs from {}", size, file);
+        }
+    }
+
+    private JobStats getOrCreate(String name, String queue) {
+        return stats.computeIfAbsent(getKey(name, queue), k -> new JobStats(new QuantileSketch(), new QuantileSketch()));
+    }
+
+    private static String getKey(String name, String queue) {
+        return queue == null ? name : name + '\t' + queue;
+    }
+
+    /**
+     * Run time and memory usage distributions for one kind of job.
+     */
+    public static class JobStats {
+
+        private final QuantileSketch runSeconds;
+        private final QuantileSketch memBytes;
+
+        private JobStats(QuantileSketch runSeconds, QuantileSketch memBytes) {
+            this.runSeconds = runSeconds;
+            this.memBytes = memBytes;
+        }
+
+        private void add(double runSeconds, double memBytes) {
+            this.runSeconds.add(runSeconds);
+            this.memBytes.add(memBytes);
+        }
+
+        /**
+         * Distribution of the run times of the jobs, in seconds.
+         */
+        public QuantileSketch getRunSeconds() {
+            return runSeconds;
+        }
+
+        /**
+         * Distribution of the maximum memory used by the jobs, in bytes.
+         */
+        public QuantileSketch getMemBytes() {
+            return memBytes;
+        }
+    }
+}
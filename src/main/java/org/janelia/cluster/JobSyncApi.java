@@ -1,6 +1,10 @@
 package org.janelia.cluster;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 
 /**
@@ -27,6 +31,23 @@ public interface JobSyncApi {
      * @throws IOException
      */
     JobInfo submitJobs(JobTemplate jt, Long start, Long end) throws IOException;
+
+    /**
+     * Submit the given job array for execution on the cluster, with an arbitrary set of array indexes.
+     * The default implementation only supports contiguous indexes.
+     * @param jt JobTemplate
+     * @param arrayIndexes indexes of the job array elements to run
+     * @return initial JobInfo containing the job array's main id on the cluster
+     * @throws IOException
+     */
+    default JobInfo submitJobs(JobTemplate jt, Collection<Long> arrayIndexes) throws IOException {
+        long start = Collections.min(arrayIndexes);
+        long end = Collections.max(arrayIndexes);
+        if (end - start + 1 != new HashSet<>(arrayIndexes).size()) {
+            throw new UnsupportedOperationException("Non-contiguous job arrays are not supported");
+        }
+        return submitJobs(jt, start, end);
+    }
     
     /**
      * Returns fresh job info for the current user from the cluster.
@@ -51,6 +72,34 @@ public interface JobSyncApi {
      */
     List<JobInfo> getJobInfo(Long jobId) throws IOException;
 
+    /**
+     * Returns fresh job info for the given jobs from the cluster. Jobs which the cluster no longer knows about
+     * are left out. Implementations should look up all of the jobs with a single query where possible. The
+     * default implementation looks them up one at a time.
+     * @param jobIds job ids
+     * @return JobInfos for the jobs or job array elements which were found
+     * @throws IOException
+     */
+    default List<JobInfo> getJobInfo(Collection<Long> jobIds) throws IOException {
+        List<JobInfo> infos = new ArrayList<>();
+        for (Long jobId : jobIds) {
+            infos.addAll(getJobInfo(jobId));
+        }
+        return infos;
+    }
+
+    /**
+     * Returns the final state of the given finished jobs from the cluster's job history, including jobs which are
+     * no longer returned by getJobInfo. All of the jobs should be looked up with a single query where possible.
+     * The default implementation has no access to any history, and returns nothing.
+     * @param jobIds job ids
+     * @return JobInfos for the finished jobs or job array elements which were found
+     * @throws IOException
+     */
+    default List<JobInfo> getJobHistory(Collection<Long> jobIds) throws IOException {
+        return Collections.emptyList();
+    }
+
     /**
      * Kills the given job.
      * @param jobId
@@ -64,4 +113,41 @@ public interface JobSyncApi {
      * @throws IOException
      */
     void killJobByName(String jobName, JobCmdFlag... flags) throws IOException;
+
+    /**
+     * Kills the given jobs. Each job is identified by its id, optionally followed by a list of array index ranges
+     * in brackets, e.g. "123" or "123[1-500,700]". Implementations should batch the requests as much as the
+     * cluster allows. The default implementation kills whole jobs one at a time, and does not support array ranges.
+     * @param jobSpecs job ids, with optional array index ranges
+     * @return the outcome for each job or job array element
+     * @throws IOException
+     */
+    default List<JobKillResult> killJobs(Collection<String> jobSpecs, JobCmdFlag... flags) throws IOException {
+        List<JobKillResult> results = new ArrayList<>();
+        for (String jobSpec : jobSpecs) {
+            try {
+                killJobById(Long.valueOf(jobSpec), flags);
+                results.add(new JobKillResult(jobSpec, true, null));
+            }
+            catch (IOException | NumberFormatException e) {
+                results.add(new JobKillResult(jobSpec, false, e.getMessage()));
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Kills every job submitted through this API, where the cluster allows jobs to be scoped (e.g. by an LSF
+     * job group). The default implementation kills the given jobs.
+     * @param jobIds ids of the jobs known to the caller
+     * @return the outcome for each job or job array element
+     * @throws IOException
+     */
+    default List<JobKillResult> killAllJobs(Collection<Long> jobIds, JobCmdFlag... flags) throws IOException {
+        List<String> jobSpecs = new ArrayList<>();
+        for (Long jobId : jobIds) {
+            jobSpecs.add(jobId.toString());
+        }
+        return killJobs(jobSpecs, flags);
+    }
 }
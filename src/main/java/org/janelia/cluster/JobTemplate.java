@@ -1,5 +1,7 @@
 package org.janelia.cluster;
 
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
@@ -23,6 +25,24 @@ public class JobTemplate {
     private List<String> nativeSpecification;
     private Map<String, String> jobEnvironment;
 
+    public JobTemplate() {
+    }
+
+    /**
+     * Create a copy of the given template, which can then be customized without affecting the original.
+     */
+    public JobTemplate(JobTemplate other) {
+        this.remoteCommand = other.remoteCommand;
+        this.args = other.args == null ? null : new ArrayList<>(other.args);
+        this.workingDir = other.workingDir;
+        this.inputPath = other.inputPath;
+        this.outputPath = other.outputPath;
+        this.errorPath = other.errorPath;
+        this.jobName = other.jobName;
+        this.nativeSpecification = other.nativeSpecification == null ? null : new ArrayList<>(other.nativeSpecification);
+        this.jobEnvironment = other.jobEnvironment == null ? null : new HashMap<>(other.jobEnvironment);
+    }
+
     public String getRemoteCommand() {
         return remoteCommand;
     }
@@ -0,0 +1,445 @@
+package org.janelia.cluster;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * A workflow of jobs whose dependencies form a directed acyclic graph. Once the workflow is started, every job
+ * whose dependencies are satisfied is submitted immediately through the JobManager, so that no cluster slots are
+ * left idle waiting for the client to chain the next stage.
+ *
+ * Dependencies can be resolved in one of two ways. By default, dependent jobs are held on the client and released
+ * the moment all of their parents' futures complete successfully. Alternatively, if a dependency specification
+ * function is given (e.g. LsfUtils::getDependencySpecification), every job is submitted as soon as its parents
+ * have job ids, and the scheduler itself holds the job until its dependencies are done.
+ *
+ * When several jobs are ready at once, the jobs on the longest remaining path through the graph (weighted by
+ * their estimated durations) are submitted first.
+ *
+ * If a job fails, all of its descendants fail as well, and any that were already submitted are killed.
+ */
+public class JobWorkflow {
+
+    private static final Logger log = LoggerFactory.getLogger(JobWorkflow.class);
+
+    // Constants
+    private static final long DEFAULT_ESTIMATED_DURATION = 1;
+
+    // Configuration
+    private final JobManager jobManager;
+    private final Function<Collection<Long>, List<String>> dependencySpecification;
+    private final Executor executor;
+    private final ExecutorService ownedExecutor;
+
+    // State
+    private final Map<String, Node> nodes = new LinkedHashMap<>();
+    private final PriorityBlockingQueue<Node> readyQueue = new PriorityBlockingQueue<>(11,
+            Comparator.comparingLong((Node n) -> n.criticalPath).reversed());
+    private final CompletableFuture<Void> completion = new CompletableFuture<>();
+    private final AtomicInteger submittedCount = new AtomicInteger();
+    private final AtomicInteger completedCount = new AtomicInteger();
+    private final AtomicInteger failedCount = new AtomicInteger();
+    private volatile Throwable firstFailure;
+    private boolean started = false;
+
+    /**
+     * Create a workflow which holds dependent jobs on the client until their parents have completed.
+     */
+    public JobWorkflow(JobManager jobManager) {
+        this(jobManager, null, null);
+    }
+
+    /**
+     * Create a workflow.
+     * @param jobManager manager used to submit and monitor the jobs
+     * @param dependencySpecification converts a set of parent job ids into native specification arguments which
+     *                                make the scheduler wait for them, or null to hold dependent jobs on the client
+     * @param executor executor used for submitting jobs, or null to use a dedicated thread
+     */
+    public JobWorkflow(JobManager jobManager, Function<Collection<Long>, List<String>> dependencySpecification,
+                       Executor executor) {
+        this.jobManager = jobManager;
+        this.dependencySpecification = dependencySpecification;
+        if (executor == null) {
+            this.ownedExecutor = Executors.newSingleThreadExecutor(
+                    Utils.newDaemonThreadFactory("JobWorkflow-submitter"));
+            this.executor = ownedExecutor;
+        }
+        else {
+            this.ownedExecutor = null;
+            this.executor = executor;
+        }
+    }
+
+    /**
+     * Add a job to the workflow.
+     * @param name unique name of the job within the workflow
+     * @param jt job template
+     * @param dependsOn names of the jobs which must complete successfully before this job can run
+     * @return this workflow
+     */
+    public synchronized JobWorkflow addJob(String name, JobTemplate jt, String... dependsOn) {
+        return addNode(new Node(name, jt, null, null, dependsOn));
+    }
+
+    /**
+     * Add a job array to the workflow.
+     * @param name unique name of the job array within the workflow
+     * @param jt job array template
+     * @param start starting array index
+     * @param end ending array index
+     * @param dependsOn names of the jobs which must complete successfully before this job array can run
+     * @return this workflow
+     */
+    public synchronized JobWorkflow addJobArray(String name, JobTemplate jt, long start, long end, String... dependsOn) {
+        return addNode(new Node(name, jt, start, end, dependsOn));
+    }
+
+    private JobWorkflow addNode(Node node) {
+        if (started) {
+            throw new IllegalStateException("Jobs cannot be added after the workflow has started");
+        }
+        if (nodes.containsKey(node.name)) {
+            throw new IllegalArgumentException("Workflow already contains a job named "+node.name);
+        }
+        nodes.put(node.name, node);
+        return this;
+    }
+
+    /**
+     * Set the estimated duration of a job, which is used to find the critical path through the workflow.
+     * Jobs without an estimate are all weighted equally.
+     * @param name name of the job
+     * @param estimatedDuration estimated duration, in any unit as long as it is consistent across the workflow
+     * @return this workflow
+     */
+    public synchronized JobWorkflow setEstimatedDuration(String name, long estimatedDuration) {
+        getNode(name).estimatedDuration = estimatedDuration;
+        return this;
+    }
+
+    /**
+     * Validate the workflow and submit all the jobs which have no dependencies.
+     * @throws IllegalArgumentException if a job depends on a job which is not part of the workflow
+     * @throws IllegalStateException if the workflow has already started, or contains a dependency cycle
+     */
+    public synchronized void start() {
+        if (started) {
+            throw new IllegalStateException("Workflow was already started");
+        }
+
+        for (Node node : nodes.values()) {
+            for (String parentName : node.dependsOn) {
+                Node parent = nodes.get(parentName);
+                if (parent == null) {
+                    throw new IllegalArgumentException("Job "+node.name+" depends on unknown job "+parentName);
+                }
+                node.parents.add(parent);
+                parent.children.add(node);
+            }
+        }
+
+        // Compute critical path lengths, starting from the sinks
+        List<Node> order = getTopologicalOrder();
+        for (int i = order.size() - 1; i >= 0; i--) {
+            Node node = order.get(i);
+            long longestChild = 0;
+            for (Node child : node.children) {
+                longestChild = Math.max(longestChild, child.criticalPath);
+            }
+            node.criticalPath = node.estimatedDuration + longestChild;
+        }
+
+        started = true;
+        log.info("Starting workflow with {} jobs", nodes.size());
+
+        if (nodes.isEmpty()) {
+            finish();
+            return;
+        }
+
+        for (Node node : nodes.values()) {
+            node.waitingOn.set(node.parents.size());
+            if (node.parents.isEmpty()) {
+                readyQueue.add(node);
+            }
+        }
+        executor.execute(this::submitReadyJobs);
+    }
+
+    private List<Node> getTopologicalOrder() {
+        Map<Node, Integer> inDegree = new HashMap<>();
+        Deque<Node> roots = new ArrayDeque<>();
+        for (Node node : nodes.values()) {
+            inDegree.put(node, node.parents.size());
+            if (node.parents.isEmpty()) {
+                roots.add(node);
+            }
+        }
+        List<Node> order = new ArrayList<>();
+        while (!roots.isEmpty()) {
+            Node node = roots.poll();
+            order.add(node);
+            for (Node child : node.children) {
+                if (inDegree.merge(child, -1, Integer::sum) == 0) {
+                    roots.add(child);
+                }
+            }
+        }
+        if (order.size() != nodes.size()) {
+            throw new IllegalStateException("Workflow contains a dependency cycle");
+        }
+        return order;
+    }
+
+    private void submitReadyJobs() {
+        Node node;
+        while ((node = readyQueue.poll()) != null) {
+            submit(node);
+        }
+    }
+
+    private void submit(Node node) {
+
+        if (node.future.isDone()) {
+            // A dependency failed while this job was waiting to be submitted
+            return;
+        }
+
+        JobTemplate jt = node.template;
+        if (dependencySpecification != null && !node.parents.isEmpty()) {
+            List<Long> parentJobIds = new ArrayList<>();
+            for (Node parent : node.parents) {
+                // A job array submitted in chunks has to wait on all of them
+                parentJobIds.addAll(parent.jobIds);
+            }
+            jt = new JobTemplate(jt);
+            List<String> nativeSpec = jt.getNativeSpecification() == null
+                    ? new ArrayList<>() : jt.getNativeSpecification();
+            nativeSpec.addAll(dependencySpecification.apply(parentJobIds));
+            jt.setNativeSpecification(nativeSpec);
+        }
+
+        JobFuture jobFuture;
+        try {
+            if (node.start == null) {
+                jobFuture = jobManager.submitJob(jt);
+            }
+            else {
+                jobFuture = jobManager.submitJob(jt, node.start, node.end);
+            }
+        }
+        catch (Exception e) {
+            log.error("Error submitting workflow job {}", node.name, e);
+            fail(node, e);
+            return;
+        }
+
+        node.jobIds = jobFuture.getJobIds();
+        submittedCount.incrementAndGet();
+        log.debug("Submitted workflow job {} as {}", node.name, node.jobIds);
+
+        if (node.future.isDone()) {
+            // A dependency failed while this job was being submitted
+            killJobs(node.jobIds);
+            return;
+        }
+
+        jobFuture.whenComplete((infos, t) -> completed(node, infos, t));
+
+        if (dependencySpecification != null) {
+            for (Node child : node.children) {
+                release(child);
+            }
+        }
+    }
+
+    private void completed(Node node, Collection<JobInfo> infos, Throwable t) {
+        if (t == null && !hasFailures(infos)) {
+            if (node.future.complete(infos)) {
+                log.debug("Workflow job {} has completed", node.name);
+                completedCount.incrementAndGet();
+                if (dependencySpecification == null) {
+                    for (Node child : node.children) {
+                        release(child);
+                    }
+                }
+                checkFinished();
+            }
+        }
+        else {
+            fail(node, t != null ? t : new Exception("Workflow job "+node.name+" ("+node.jobIds+") failed"));
+        }
+    }
+
+    private boolean hasFailures(Collection<JobInfo> infos) {
+        for (JobInfo info : infos) {
+            if (info.getStatus() == JobStatus.EXIT || (info.getExitCode() != null && info.getExitCode() != 0)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void release(Node child) {
+        if (child.waitingOn.decrementAndGet() == 0) {
+            readyQueue.add(child);
+            executor.execute(this::submitReadyJobs);
+        }
+    }
+
+    private void fail(Node node, Throwable cause) {
+        List<Long> orphanJobIds = new ArrayList<>();
+        fail(node, cause, orphanJobIds);
+        killJobs(orphanJobIds);
+        checkFinished();
+    }
+
+    private void fail(Node node, Throwable cause, List<Long> orphanJobIds) {
+        if (!node.future.completeExceptionally(cause)) {
+            return;
+        }
+        log.warn("Workflow job {} failed", node.name);
+        failedCount.incrementAndGet();
+        if (firstFailure == null) {
+            firstFailure = cause;
+        }
+        for (Node child : node.children) {
+            if (child.jobIds != null && !child.future.isDone()) {
+                orphanJobIds.addAll(child.jobIds);
+            }
+            fail(child, new Exception("Dependency "+node.name+" of workflow job "+child.name+" failed", cause),
+                    orphanJobIds);
+        }
+    }
+
+    private void killJobs(List<Long> jobIds) {
+        if (jobIds.isEmpty()) return;
+        try {
+            log.info("Killing workflow jobs whose dependencies failed: {}", jobIds);
+            jobManager.killJobs(jobIds);
+        }
+        catch (Exception e) {
+            log.error("Error killing jobs {}", jobIds, e);
+        }
+    }
+
+    private void checkFinished() {
+        if (completedCount.get() + failedCount.get() == nodes.size()) {
+            finish();
+        }
+    }
+
+    private void finish() {
+        boolean finished;
+        if (firstFailure != null) {
+            finished = completion.completeExceptionally(firstFailure);
+        }
+        else {
+            finished = completion.complete(null);
+        }
+        if (finished) {
+            log.info("Workflow finished with {} completed and {} failed jobs", completedCount.get(), failedCount.get());
+            if (ownedExecutor != null) {
+                ownedExecutor.shutdown();
+            }
+        }
+    }
+
+    private Node getNode(String name) {
+        Node node = nodes.get(name);
+        if (node == null) {
+            throw new IllegalArgumentException("Workflow has no job named "+name);
+        }
+        return node;
+    }
+
+    /**
+     * Returns a future which completes with the final JobInfos of the given job, or exceptionally if the job
+     * or any of its dependencies failed.
+     */
+    public CompletableFuture<Collection<JobInfo>> getFuture(String name) {
+        return getNode(name).future;
+    }
+
+    /**
+     * Returns the cluster job id of the given job, or null if it has not been submitted yet. For a job array
+     * which was submitted in chunks (see JobManager.setMaxArraySize), this is the id of the first chunk.
+     */
+    public Long getJobId(String name) {
+        List<Long> jobIds = getNode(name).jobIds;
+        return jobIds == null ? null : jobIds.get(0);
+    }
+
+    /**
+     * Returns the cluster job ids of the given job, i.e. one per chunk for a job array which was submitted in
+     * chunks, or null if it has not been submitted yet.
+     */
+    public List<Long> getJobIds(String name) {
+        return getNode(name).jobIds;
+    }
+
+    /**
+     * Returns a future which completes once every job in the workflow has either completed or failed. If any
+     * job failed, the future completes exceptionally with the first failure.
+     */
+    public CompletableFuture<Void> getCompletion() {
+        return completion;
+    }
+
+    /**
+     * Returns the names of all the jobs in the workflow.
+     */
+    public synchronized Collection<String> getJobNames() {
+        return new ArrayList<>(nodes.keySet());
+    }
+
+    public synchronized int getTotalCount() {
+        return nodes.size();
+    }
+
+    public int getSubmittedCount() {
+        return submittedCount.get();
+    }
+
+    public int getCompletedCount() {
+        return completedCount.get();
+    }
+
+    public int getFailedCount() {
+        return failedCount.get();
+    }
+
+    private static class Node {
+
+        private final String name;
+        private final JobTemplate template;
+        private final Long start;
+        private final Long end;
+        private final List<String> dependsOn;
+        private final List<Node> parents = new ArrayList<>();
+        private final List<Node> children = new ArrayList<>();
+        private final CompletableFuture<Collection<JobInfo>> future = new CompletableFuture<>();
+        private final AtomicInteger waitingOn = new AtomicInteger();
+        private long estimatedDuration = DEFAULT_ESTIMATED_DURATION;
+        private long criticalPath;
+        private volatile List<Long> jobIds;
+
+        Node(String name, JobTemplate template, Long start, Long end, String... dependsOn) {
+            this.name = name;
+            this.template = template;
+            this.start = start;
+            this.end = end;
+            this.dependsOn = Arrays.asList(dependsOn);
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package org.janelia.cluster;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Streaming quantile sketch with bounded relative error. Positive values are counted in logarithmically sized
+ * buckets, so that any quantile can be estimated to within the configured relative accuracy (e.g. 2%) using
+ * a few hundred counters at most, however many values are added. Values below 1 are counted as zero.
+ */
+public class QuantileSketch {
+
+    // Constants
+    private static final double DEFAULT_RELATIVE_ACCURACY = 0.02;
+
+    // Configuration
+    private final double relativeAccuracy;
+    private final double gamma;
+    private final double logGamma;
+
+    // State
+    private int offset;
+    private long[] counts = new long[0];
+    private long zeroCount;
+    private long count;
+    private double min = Double.POSITIVE_INFINITY;
+    private double max = Double.NEGATIVE_INFINITY;
+
+    public QuantileSketch() {
+        this(DEFAULT_RELATIVE_ACCURACY);
+    }
+
+    /**
+     * @param relativeAccuracy maximum relative error of the estimated quantiles, e.g. 0.02 for 2%
+     */
+    public QuantileSketch(double relativeAccuracy) {
+        this.relativeAccuracy = relativeAccuracy;
+        this.gamma = (1 + relativeAccuracy) / (1 - relativeAccuracy);
+        this.logGamma = Math.log(gamma);
+    }
+
+    /**
+     * Add a value to the sketch.
+     */
+    public synchronized void add(double value) {
+        if (Double.isNaN(value)) return;
+        count++;
+        min = Math.min(min, value);
+        max = Math.max(max, value);
+        if (value < 1) {
+            zeroCount++;
+            return;
+        }
+        int index = (int) Math.ceil(Math.log(value) / logGamma);
+        if (counts.length == 0) {
+            offset = index;
+            counts = new long[1];
+        }
+        else if (index < offset) {
+            long[] grown = new long[counts.length + offset - index];
+            System.arraycopy(counts, 0, grown, offset - index, counts.length);
+            counts = grown;
+            offset = index;
+        }
+        else if (index >= offset + counts.length) {
+            counts = Arrays.copyOf(counts, index - offset + 1);
+        }
+        counts[index - offset]++;
+    }
+
+    /**
+     * Estimate the given quantile of the values added so far.
+     * @param q quantile between 0 and 1, e.g. 0.95
+     * @return estimated value, or NaN if the sketch is empty
+     */
+    public synchronized double getQuantile(double q) {
+        if (count == 0) return Double.NaN;
+        if (q <= 0) return min;
+        if (q >= 1) return max;
+        long rank = (long) Math.floor(q * (count - 1));
+        long seen = zeroCount;
+        if (rank < seen) {
+            return Math.max(min, 0);
+        }
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (rank < seen) {
+                double value = 2 * Math.pow(gamma, offset + i) / (gamma + 1);
+                return Math.min(max, Math.max(min, value));
+            }
+        }
+        return max;
+    }
+
+    public synchronized long getCount() {
+        return count;
+    }
+
+    public synchronized double getMin() {
+        return count == 0 ? Double.NaN : min;
+    }
+
+    public synchronized double getMax() {
+        return count == 0 ? Double.NaN : max;
+    }
+
+    public double getRelativeAccuracy() {
+        return relativeAccuracy;
+    }
+
+    /**
+     * Write the sketch in a compact binary form, which can be read back with read().
+     */
+    public synchronized void write(DataOutput out) throws IOException {
+        out.writeDouble(relativeAccuracy);
+        out.writeLong(count);
+        out.writeLong(zeroCount);
+        out.writeDouble(min);
+        out.writeDouble(max);
+        out.writeInt(offset);
+        out.writeInt(counts.length);
+        for (long c : counts) {
+            out.writeLong(c);
+        }
+    }
+
+    /**
+     * Read a sketch written by write().
+     */
+    public static QuantileSketch read(DataInput in) throws IOException {
+        QuantileSketch sketch = new QuantileSketch(in.readDouble());
+        sketch.count = in.readLong();
+        sketch.zeroCount = in.readLong();
+        sketch.min = in.readDouble();
+        sketch.max = in.readDouble();
+        sketch.offset = in.readInt();
+        sketch.counts = new long[in.readInt()];
+        for (int i = 0; i < sketch.counts.length; i++) {
+            sketch.counts[i] = in.readLong();
+        }
+        return sketch;
+    }
+}
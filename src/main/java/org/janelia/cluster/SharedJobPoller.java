@@ -0,0 +1,154 @@
+package org.janelia.cluster;
+
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Polls the cluster on behalf of any number of JobManagers in the same JVM, so that the cluster load does not
+ * grow with the number of managers. Each poll makes a single query for the union of the jobs which the
+ * registered managers are monitoring, and hands each manager the results for its own jobs, exactly as if it
+ * had made the query itself (see JobManager.checkJobs(Set, List)). Registered managers should not also be
+ * driven by their own JobMonitor.
+ *
+ * Jobs are queried by id. If there are more than maxJobIdsPerQuery of them, all jobs are listed instead
+ * (i.e. with JobSyncApi.getJobInfo()), which is cheaper for the cluster than a very long list of ids.
+ */
+public class SharedJobPoller {
+
+    private static final Logger log = LoggerFactory.getLogger(SharedJobPoller.class);
+
+    // Constants
+    private static final int DEFAULT_CHECK_INTERVAL_SECONDS = 15;
+    private static final int DEFAULT_MAX_JOB_IDS_PER_QUERY = 500;
+
+    // Configuration
+    private final JobSyncApi jobSyncApi;
+    private volatile int maxJobIdsPerQuery = DEFAULT_MAX_JOB_IDS_PER_QUERY;
+
+    // State
+    private final List<JobManager> managers = new CopyOnWriteArrayList<>();
+    private ScheduledExecutorService scheduler;
+    private ScheduledFuture<?> poller;
+
+    /**
+     * @param jobSyncApi cluster access used for the shared queries
+     */
+    public SharedJobPoller(JobSyncApi jobSyncApi) {
+        this.jobSyncApi = jobSyncApi;
+    }
+
+    /**
+     * Add a manager whose jobs should be polled.
+     */
+    public void register(JobManager jobManager) {
+        if (!managers.contains(jobManager)) {
+            managers.add(jobManager);
+        }
+    }
+
+    /**
+     * Stop polling for the given manager's jobs.
+     */
+    public void unregister(JobManager jobManager) {
+        managers.remove(jobManager);
+    }
+
+    /**
+     * Begin polling every checkIntervalSeconds. If already started, calling this method does nothing.
+     */
+    public synchronized void start(int checkIntervalSeconds) {
+        if (poller == null) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(
+                    Utils.newDaemonThreadFactory("SharedJobPoller-poller"));
+            poller = scheduler.scheduleWithFixedDelay(this::poll,
+                    checkIntervalSeconds, checkIntervalSeconds, TimeUnit.SECONDS);
+        }
+    }
+
+    public void start() {
+        start(DEFAULT_CHECK_INTERVAL_SECONDS);
+    }
+
+    /**
+     * Stop polling.
+     */
+    public synchronized void stop() {
+        if (poller != null) {
+            poller.cancel(false);
+            poller = null;
+            scheduler.shutdown();
+            scheduler = null;
+        }
+    }
+
+    /**
+     * Query the cluster once for the jobs of all the registered managers, and update each manager.
+     * This method is called periodically if start() is called.
+     */
+    public void poll() {
+
+        Map<JobManager, Set<Long>> interest = new LinkedHashMap<>();
+        Set<Long> allJobIds = new LinkedHashSet<>();
+        for (JobManager manager : managers) {
+            Set<Long> jobIds = new LinkedHashSet<>(manager.getRunningJobIds());
+            interest.put(manager, jobIds);
+            allJobIds.addAll(jobIds);
+        }
+
+        List<JobInfo> jobs = null;
+        if (!allJobIds.isEmpty()) {
+            try {
+                if (allJobIds.size() > maxJobIdsPerQuery) {
+                    log.debug("Listing all jobs for {} managers", interest.size());
+                    jobs = jobSyncApi.getJobInfo();
+                }
+                else {
+                    log.debug("Querying {} jobs for {} managers", allJobIds.size(), interest.size());
+                    jobs = jobSyncApi.getJobInfo(allJobIds);
+                }
+            }
+            catch (Throwable t) {
+                // The managers are still updated, so that they can retire zombies
+                log.error("Error getting job information", t);
+            }
+        }
+
+        Map<Long, List<JobInfo>> jobMap = new HashMap<>();
+        if (jobs != null) {
+            for (JobInfo info : jobs) {
+                jobMap.computeIfAbsent(info.getJobId(), k -> new ArrayList<>()).add(info);
+            }
+        }
+
+        for (Map.Entry<JobManager, Set<Long>> entry : interest.entrySet()) {
+            List<JobInfo> managerJobs = null;
+            if (jobs != null) {
+                managerJobs = new ArrayList<>();
+                for (Long jobId : entry.getValue()) {
+                    managerJobs.addAll(jobMap.getOrDefault(jobId, Collections.emptyList()));
+                }
+            }
+            try {
+                entry.getKey().checkJobs(entry.getValue(), managerJobs);
+            }
+            catch (Throwable t) {
+                log.error("Error updating job manager", t);
+            }
+        }
+    }
+
+    /**
+     * Sets the largest number of job ids to query for by id. Above this, all jobs are listed instead.
+     * Defaults to 500.
+     */
+    public void setMaxJobIdsPerQuery(int maxJobIdsPerQuery) {
+        this.maxJobIdsPerQuery = maxJobIdsPerQuery;
+    }
+}
@@ -0,0 +1,332 @@
+package org.janelia.cluster;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * JobSyncApi decorator which shares the job list between all the processes on a host which poll the cluster for
+ * the same user, so that only one of them actually runs the cluster query (e.g. bjobs) at a time. The latest
+ * result is published to a memory-mapped snapshot file. Listing the jobs, or looking them up by id, is served
+ * from that file as long as the snapshot is younger than maxAgeMillis, and is then only a memory read.
+ *
+ * When the snapshot is too old, the processes which need it compete for a lock on a companion lock file. The
+ * winner queries the cluster and publishes the result, while the others wait for it to appear. Since the lock is
+ * only held while refreshing, a process which dies does not leave the others without a writer.
+ *
+ * The snapshot is guarded by a sequence number (odd while a write is in progress) and a CRC of its contents,
+ * and readers retry until they see a consistent snapshot. JobInfos read from the snapshot are plain JobInfos
+ * (e.g. not LsfJobInfos). Submission, killing, history and per-user queries go straight to the delegate.
+ */
+public class SharedSnapshotSyncApi implements JobSyncApi, Closeable {
+
+    private static final Logger log = LoggerFactory.getLogger(SharedSnapshotSyncApi.class);
+
+    // Constants
+    private static final long DEFAULT_MAX_AGE_MILLIS = 10000;
+    private static final long DEFAULT_MAX_WAIT_MILLIS = 30000;
+    private static final long WAIT_INTERVAL_MILLIS = 20;
+    private static final int INITIAL_CAPACITY = 1024 * 1024;
+    private static final int MAX_READ_ATTEMPTS = 1000;
+
+    // Results of a read attempt which should be retried
+    private static final List<JobInfo> WRITE_IN_PROGRESS = Collections.unmodifiableList(new ArrayList<>());
+    private static final List<JobInfo> INCONSISTENT = Collections.unmodifiableList(new ArrayList<>());
+
+    // Snapshot file layout: header, then the encoded JobInfos
+    private static final int OFF_SEQ = 0;
+    private static final int OFF_PUBLISHED = 8;
+    private static final int OFF_CRC = 16;
+    private static final int OFF_COUNT = 24;
+    private static final int OFF_LENGTH = 28;
+    private static final int HEADER_BYTES = 32;
+
+    // Configuration
+    private final JobSyncApi delegate;
+    private final Path snapshotFile;
+    private volatile long maxAgeMillis = DEFAULT_MAX_AGE_MILLIS;
+    private volatile long maxWaitMillis = DEFAULT_MAX_WAIT_MILLIS;
+
+    // State
+    private final FileChannel channel;
+    private final FileChannel lockChannel;
+    private MappedByteBuffer buffer;
+    private long cachedSeq = -1;
+    private List<JobInfo> cachedJobs;
+
+    /**
+     * @param delegate cluster access used to refresh the snapshot, and for all other operations
+     * @param snapshotFile snapshot file, shared by all the processes; a lock file is created next to it
+     * @throws IOException if the files cannot be opened
+     */
+    public SharedSnapshotSyncApi(JobSyncApi delegate, Path snapshotFile) throws IOException {
+        this.delegate = delegate;
+        this.snapshotFile = snapshotFile;
+        this.channel = FileChannel.open(snapshotFile, StandardOpenOption.CREATE,
+                StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.lockChannel = FileChannel.open(Paths.get(snapshotFile + ".lock"), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE);
+        this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.max(INITIAL_CAPACITY, channel.size()));
+    }
+
+    /**
+     * Returns all jobs, from the shared snapshot if it is fresh enough, and otherwise by refreshing the snapshot
+     * (or waiting for another process to refresh it).
+     */
+    @Override
+    public List<JobInfo> getJobInfo() throws IOException {
+        long deadline = System.currentTimeMillis() + maxWaitMillis;
+        while (true) {
+            List<JobInfo> jobs = readFresh();
+            if (jobs != null) return jobs;
+
+            // Compete to refresh the snapshot
+            try (FileLock lock = tryLock()) {
+                if (lock != null) {
+                    // Another process may have just refreshed it
+                    jobs = readFresh();
+                    if (jobs != null) return jobs;
+                    jobs = delegate.getJobInfo();
+                    publish(jobs);
+                    return jobs;
+                }
+            }
+
+            if (System.currentTimeMillis() > deadline) {
+                log.warn("Timed out waiting for shared snapshot {} to be refreshed", snapshotFile);
+                return delegate.getJobInfo();
+            }
+            sleep();
+        }
+    }
+
+    @Override
+    public List<JobInfo> getJobInfo(String user) throws IOException {
+        return delegate.getJobInfo(user);
+    }
+
+    /**
+     * Returns the job's infos from the shared snapshot. See getJobInfo().
+     */
+    @Override
+    public List<JobInfo> getJobInfo(Long jobId) throws IOException {
+        return getJobInfo(Collections.singletonList(jobId));
+    }
+
+    /**
+     * Returns the jobs' infos from the shared snapshot. See getJobInfo().
+     */
+    @Override
+    public List<JobInfo> getJobInfo(Collection<Long> jobIds) throws IOException {
+        Set<Long> ids = new HashSet<>(jobIds);
+        List<JobInfo> jobs = new ArrayList<>();
+        for (JobInfo info : getJobInfo()) {
+            if (ids.contains(info.getJobId())) {
+                jobs.add(info);
+            }
+        }
+        return jobs;
+    }
+
+    @Override
+    public JobInfo submitJob(JobTemplate jt) throws IOException {
+        return delegate.submitJob(jt);
+    }
+
+    @Override
+    public JobInfo submitJobs(JobTemplate jt, Long start, Long end) throws IOException {
+        return delegate.submitJobs(jt, start, end);
+    }
+
+    @Override
+    public JobInfo submitJobs(JobTemplate jt, Collection<Long> arrayIndexes) throws IOException {
+        return delegate.submitJobs(jt, arrayIndexes);
+    }
+
+    @Override
+    public List<JobInfo> getJobHistory(Collection<Long> jobIds) throws IOException {
+        return delegate.getJobHistory(jobIds);
+    }
+
+    @Override
+    public void killJobById(Long jobId, JobCmdFlag... flags) throws IOException {
+        delegate.killJobById(jobId, flags);
+    }
+
+    @Override
+    public void killJobByName(String jobName, JobCmdFlag... flags) throws IOException {
+        delegate.killJobByName(jobName, flags);
+    }
+
+    @Override
+    public List<JobKillResult> killJobs(Collection<String> jobSpecs, JobCmdFlag... flags) throws IOException {
+        return delegate.killJobs(jobSpecs, flags);
+    }
+
+    @Override
+    public List<JobKillResult> killAllJobs(Collection<Long> jobIds, JobCmdFlag... flags) throws IOException {
+        return delegate.killAllJobs(jobIds, flags);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        channel.close();
+        lockChannel.close();
+    }
+
+    /**
+     * Returns the jobs in the snapshot, or null if there is no consistent snapshot younger than maxAgeMillis.
+     */
+    private List<JobInfo> readFresh() throws IOException {
+        for (int attempt = 0; attempt < MAX_READ_ATTEMPTS; attempt++) {
+            List<JobInfo> jobs = tryRead();
+            if (jobs == WRITE_IN_PROGRESS) {
+                // Wait outside of the monitor, so that this instance can still publish
+                sleep();
+            }
+            else if (jobs != INCONSISTENT) {
+                return jobs;
+            }
+        }
+        log.warn("Could not read a consistent snapshot from {}", snapshotFile);
+        return null;
+    }
+
+    /**
+     * Make one attempt at reading the snapshot.
+     * @return the jobs, null if there is no snapshot younger than maxAgeMillis, or WRITE_IN_PROGRESS or
+     * INCONSISTENT if the read should be retried
+     */
+    private synchronized List<JobInfo> tryRead() throws IOException {
+        long seq = buffer.getLong(OFF_SEQ);
+        if (seq == 0) return null; // Never published
+        if ((seq & 1) != 0) return WRITE_IN_PROGRESS;
+        long published = buffer.getLong(OFF_PUBLISHED);
+        if (System.currentTimeMillis() - published > maxAgeMillis) return null;
+        if (seq == cachedSeq) return new ArrayList<>(cachedJobs);
+
+        long crc = buffer.getLong(OFF_CRC);
+        int count = buffer.getInt(OFF_COUNT);
+        int length = buffer.getInt(OFF_LENGTH);
+        if (count < 0 || length < count || HEADER_BYTES + (long) length > channel.size()) return INCONSISTENT;
+        if (HEADER_BYTES + length > buffer.capacity()) {
+            // The writer has grown the file
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size());
+            return INCONSISTENT;
+        }
+
+        CRC32 checksum = new CRC32();
+        ByteBuffer data = buffer.duplicate();
+        data.position(HEADER_BYTES);
+        data.limit(HEADER_BYTES + length);
+        checksum.update(data);
+        if (checksum.getValue() != crc) return INCONSISTENT;
+
+        // The records are decoded straight from the mapping, so a writer may overwrite them while they are read
+        List<JobInfo> jobs = new ArrayList<>(count);
+        try {
+            int offset = HEADER_BYTES;
+            for (int i = 0; i < count; i++) {
+                jobs.add(JobInfoCodec.decode(buffer, offset));
+                offset += JobInfoCodec.getLength(buffer, offset);
+            }
+            if (offset != HEADER_BYTES + length) return INCONSISTENT;
+        }
+        catch (RuntimeException e) {
+            log.trace("Could not decode snapshot, retrying", e);
+            return INCONSISTENT;
+        }
+        // Only trust what was decoded if no write started in the meantime
+        if (buffer.getLong(OFF_SEQ) != seq) return INCONSISTENT;
+
+        cachedSeq = seq;
+        cachedJobs = jobs;
+        return new ArrayList<>(jobs);
+    }
+
+    /**
+     * Write the given jobs to the snapshot. Must be called while holding the file lock.
+     */
+    private synchronized void publish(List<JobInfo> jobs) throws IOException {
+
+        List<byte[]> records = new ArrayList<>(jobs.size());
+        int length = 0;
+        for (JobInfo info : jobs) {
+            byte[] record = JobInfoCodec.encode(info);
+            records.add(record);
+            length += record.length;
+        }
+        if (HEADER_BYTES + length > buffer.capacity()) {
+            int capacity = Math.max(HEADER_BYTES + length, buffer.capacity() * 2);
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+        }
+
+        long seq = buffer.getLong(OFF_SEQ);
+        if ((seq & 1) != 0) seq++; // A previous writer died while writing
+        buffer.putLong(OFF_SEQ, seq + 1);
+
+        CRC32 checksum = new CRC32();
+        int offset = HEADER_BYTES;
+        for (byte[] record : records) {
+            for (int i = 0; i < record.length; i++) {
+                buffer.put(offset + i, record[i]);
+            }
+            checksum.update(record);
+            offset += record.length;
+        }
+        buffer.putLong(OFF_CRC, checksum.getValue());
+        buffer.putInt(OFF_COUNT, records.size());
+        buffer.putInt(OFF_LENGTH, length);
+        buffer.putLong(OFF_PUBLISHED, System.currentTimeMillis());
+        buffer.putLong(OFF_SEQ, seq + 2);
+        log.debug("Published {} jobs to {}", records.size(), snapshotFile);
+    }
+
+    private FileLock tryLock() throws IOException {
+        try {
+            return lockChannel.tryLock();
+        }
+        catch (OverlappingFileLockException e) {
+            // Another instance in this JVM holds the lock
+            return null;
+        }
+    }
+
+    private void sleep() throws IOException {
+        try {
+            Thread.sleep(WAIT_INTERVAL_MILLIS);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for shared snapshot", e);
+        }
+    }
+
+    /**
+     * Sets how old the snapshot may be before it is refreshed. This should be a little shorter than the
+     * interval at which the jobs are checked. Defaults to 10 seconds.
+     */
+    public void setMaxAgeMillis(long maxAgeMillis) {
+        this.maxAgeMillis = maxAgeMillis;
+    }
+
+    /**
+     * Sets how long to wait for another process to refresh the snapshot, before querying the cluster directly.
+     * Defaults to 30 seconds.
+     */
+    public void setMaxWaitMillis(long maxWaitMillis) {
+        this.maxWaitMillis = maxWaitMillis;
+    }
+}
@@ -0,0 +1,52 @@
+package org.janelia.cluster;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Bounded pool for deduplicating strings which are repeated across many jobs, such as queue and host names.
+ * Once the pool is full, new strings are no longer pooled, but are returned as they are, so that a stream of
+ * unique values (e.g. job names with a counter) cannot grow the pool without limit.
+ */
+public class StringPool {
+
+    // Configuration
+    private final int maxSize;
+
+    // State
+    private final ConcurrentHashMap<String, String> pool = new ConcurrentHashMap<>();
+
+    /**
+     * @param maxSize maximum number of distinct strings to keep
+     */
+    public StringPool(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Returns the pooled instance equal to the given string, adding it to the pool if there is room.
+     * @param s string, may be null
+     * @return pooled string, or s itself if the pool is full
+     */
+    public String intern(String s) {
+        if (s == null) return null;
+        String pooled = pool.get(s);
+        if (pooled != null) return pooled;
+        if (pool.size() >= maxSize) return s;
+        pooled = pool.putIfAbsent(s, s);
+        return pooled == null ? s : pooled;
+    }
+
+    /**
+     * Returns the number of strings in the pool.
+     */
+    public int size() {
+        return pool.size();
+    }
+
+    /**
+     * Empty the pool. Strings which were already handed out remain valid.
+     */
+    public void clear() {
+        pool.clear();
+    }
+}
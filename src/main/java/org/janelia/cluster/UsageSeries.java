@@ -0,0 +1,104 @@
+package org.janelia.cluster;
+
+/**
+ * Fixed-size time series of resource usage samples for a single job, kept in primitive ring buffers. Once the
+ * buffer is full, each new sample replaces the oldest one. Samples are indexed from the oldest (0) to the
+ * newest (size()-1). Unknown values are recorded as -1.
+ */
+public class UsageSeries {
+
+    private final long[] timesMillis;
+    private final long[] memBytes;
+    private final long[] swapBytes;
+    private final double[] cpuSeconds;
+    private int start;
+    private int size;
+
+    /**
+     * @param capacity maximum number of samples to keep
+     */
+    public UsageSeries(int capacity) {
+        this.timesMillis = new long[capacity];
+        this.memBytes = new long[capacity];
+        this.swapBytes = new long[capacity];
+        this.cpuSeconds = new double[capacity];
+    }
+
+    /**
+     * Add a sample, replacing the oldest one if the series is full.
+     * @param timeMillis epoch time of the sample
+     * @param memBytes memory in use, in bytes
+     * @param swapBytes swap in use, in bytes
+     * @param cpuSeconds total CPU time used so far, in seconds
+     */
+    public synchronized void add(long timeMillis, long memBytes, long swapBytes, double cpuSeconds) {
+        int i;
+        if (size < timesMillis.length) {
+            i = (start + size++) % timesMillis.length;
+        }
+        else {
+            i = start;
+            start = (start + 1) % timesMillis.length;
+        }
+        this.timesMillis[i] = timeMillis;
+        this.memBytes[i] = memBytes;
+        this.swapBytes[i] = swapBytes;
+        this.cpuSeconds[i] = cpuSeconds;
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    public int getCapacity() {
+        return timesMillis.length;
+    }
+
+    public synchronized long getTimeMillis(int i) {
+        return timesMillis[index(i)];
+    }
+
+    public synchronized long getMemBytes(int i) {
+        return memBytes[index(i)];
+    }
+
+    public synchronized long getSwapBytes(int i) {
+        return swapBytes[index(i)];
+    }
+
+    public synchronized double getCpuSeconds(int i) {
+        return cpuSeconds[index(i)];
+    }
+
+    /**
+     * Returns the largest memory sample in the series, or -1 if there are none.
+     */
+    public synchronized long getPeakMemBytes() {
+        long peak = -1;
+        for (int i = 0; i < size; i++) {
+            peak = Math.max(peak, memBytes[(start + i) % memBytes.length]);
+        }
+        return peak;
+    }
+
+    /**
+     * Returns the average number of cores kept busy by the job over the span of the series, i.e. the CPU time
+     * used between the oldest and newest samples, divided by the time between them. Returns -1 if there are
+     * fewer than two samples with known CPU times.
+     */
+    public synchronized double getCpuRate() {
+        if (size < 2) return -1;
+        int first = start;
+        int last = (start + size - 1) % timesMillis.length;
+        long millis = timesMillis[last] - timesMillis[first];
+        if (millis <= 0 || cpuSeconds[first] < 0 || cpuSeconds[last] < 0) return -1;
+        return (cpuSeconds[last] - cpuSeconds[first]) * 1000 / millis;
+    }
+
+    private int index(int i) {
+        if (i < 0 || i >= size) {
+            throw new IndexOutOfBoundsException("Index: " + i + ", size: " + size);
+        }
+        return (start + i) % timesMillis.length;
+    }
+}
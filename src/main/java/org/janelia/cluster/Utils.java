@@ -1,8 +1,11 @@
 package org.janelia.cluster;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Date;
 import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 
 import com.google.common.collect.ArrayListMultimap;
@@ -33,9 +36,74 @@ public class Utils {
         return true;
     }
 
+    /**
+     * Format the given array indexes as a compact list of ranges, e.g. "1-500,700".
+     * @param indexes array indexes, in any order
+     * @return comma-separated ranges
+     */
+    public static String formatIndexRanges(Collection<Long> indexes) {
+        StringBuilder sb = new StringBuilder();
+        Long rangeStart = null;
+        Long rangeEnd = null;
+        for (Long index : new TreeSet<>(indexes)) {
+            if (rangeEnd != null && index == rangeEnd + 1) {
+                rangeEnd = index;
+                continue;
+            }
+            appendRange(sb, rangeStart, rangeEnd);
+            rangeStart = rangeEnd = index;
+        }
+        appendRange(sb, rangeStart, rangeEnd);
+        return sb.toString();
+    }
+
+    private static void appendRange(StringBuilder sb, Long rangeStart, Long rangeEnd) {
+        if (rangeStart == null) return;
+        if (sb.length() > 0) sb.append(',');
+        sb.append(rangeStart);
+        if (!rangeEnd.equals(rangeStart)) sb.append('-').append(rangeEnd);
+    }
+
+    /**
+     * Parse a list of array index ranges as produced by formatIndexRanges, e.g. "1-500,700".
+     * @param ranges comma-separated ranges
+     * @return list of all the indexes in the ranges
+     */
+    public static List<Long> parseIndexRanges(String ranges) {
+        List<Long> indexes = new ArrayList<>();
+        for (String range : ranges.split(",")) {
+            range = range.trim();
+            if (range.isEmpty()) continue;
+            int dash = range.indexOf('-', 1);
+            if (dash > 0) {
+                long start = Long.parseLong(range.substring(0, dash).trim());
+                long end = Long.parseLong(range.substring(dash + 1).trim());
+                for (long i = start; i <= end; i++) {
+                    indexes.add(i);
+                }
+            }
+            else {
+                indexes.add(Long.parseLong(range));
+            }
+        }
+        return indexes;
+    }
+
     // From https://stackoverflow.com/questions/1555262/calculating-the-difference-between-two-java-date-instances
     public static long getDateDiff(Date date1, Date date2, TimeUnit timeUnit) {
         long diffInMillies = date2.getTime() - date1.getTime();
         return timeUnit.convert(diffInMillies, TimeUnit.MILLISECONDS);
     }
+
+    /**
+     * Returns a factory for daemon threads with the given name, e.g. "JobMonitor-checker", so that background
+     * threads never keep the JVM alive.
+     */
+    public static ThreadFactory newDaemonThreadFactory(String name) {
+        return r -> {
+            Thread thread = new Thread(r, name);
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
 }
@@ -0,0 +1,396 @@
+package org.janelia.cluster.local;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.janelia.cluster.JobCmdFlag;
+import org.janelia.cluster.JobInfo;
+import org.janelia.cluster.JobKillResult;
+import org.janelia.cluster.JobStatus;
+import org.janelia.cluster.JobSyncApi;
+import org.janelia.cluster.JobTemplate;
+import org.janelia.cluster.Utils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Implementation of the synchronous job API which runs jobs as processes on the local machine, using a bounded
+ * pool of workers (by default, one per core). This allows code written against JobManager to be developed and run
+ * on small workloads without access to a cluster.
+ *
+ * Job templates are interpreted the same way as by LSF: the remote command runs in the working directory, with
+ * STDIN read from the input path, STDOUT appended to the output path, and STDERR appended to the error path (or
+ * to the output path, if no error path is given). In job arrays, '#' in these paths is replaced by the array index.
+ * The LSB_JOBID and LSB_JOBINDEX environment variables are set as they would be on the cluster. Native
+ * specifications are ignored.
+ *
+ * Finished jobs are reported for keepFinishedMinutes, after which they are forgotten, like jobs that age out
+ * of bjobs.
+ */
+public class LocalJobSyncApi implements JobSyncApi {
+
+    private static final Logger log = LoggerFactory.getLogger(LocalJobSyncApi.class);
+
+    // Constants
+    private static final String QUEUE_NAME = "local";
+    private static final int DEFAULT_KEEP_FINISHED_MINUTES = 60;
+    private static final int KILLED_EXIT_CODE = 130;
+    private static final int NOT_FOUND_EXIT_CODE = 127;
+    private static final File NULL_FILE = new File(
+            System.getProperty("os.name").startsWith("Windows") ? "NUL" : "/dev/null");
+
+    // Configuration
+    private final int keepFinishedMinutes;
+    private final String hostname;
+
+    // State
+    private final ExecutorService workers;
+    private final AtomicLong nextJobId = new AtomicLong(1);
+    private final Map<Long, List<LocalJob>> jobs = new ConcurrentHashMap<>();
+
+    public LocalJobSyncApi() {
+        this(Runtime.getRuntime().availableProcessors(), DEFAULT_KEEP_FINISHED_MINUTES);
+    }
+
+    /**
+     * @param numWorkers maximum number of jobs to run at once
+     * @param keepFinishedMinutes how long to keep reporting jobs after they finish
+     */
+    public LocalJobSyncApi(int numWorkers, int keepFinishedMinutes) {
+        this.keepFinishedMinutes = keepFinishedMinutes;
+        this.hostname = getHostname();
+        AtomicInteger threadCount = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(numWorkers, r -> {
+            Thread thread = new Thread(r, "LocalJobSyncApi-worker-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    private static String getHostname() {
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        }
+        catch (IOException e) {
+            return "localhost";
+        }
+    }
+
+    @Override
+    public JobInfo submitJob(JobTemplate jt) throws IOException {
+        return submit(jt, Collections.singletonList(null));
+    }
+
+    @Override
+    public JobInfo submitJobs(JobTemplate jt, Long start, Long end) throws IOException {
+        List<Long> arrayIndexes = new ArrayList<>();
+        for (long i = start; i <= end; i++) {
+            arrayIndexes.add(i);
+        }
+        return submit(jt, arrayIndexes);
+    }
+
+    @Override
+    public JobInfo submitJobs(JobTemplate jt, Collection<Long> arrayIndexes) throws IOException {
+        return submit(jt, new TreeSet<>(arrayIndexes));
+    }
+
+    private JobInfo submit(JobTemplate jt, Collection<Long> arrayIndexes) throws IOException {
+        if (jt.getRemoteCommand() == null) {
+            throw new IOException("Job template has no remote command");
+        }
+        Long jobId = nextJobId.getAndIncrement();
+        LocalDateTime now = LocalDateTime.now();
+        List<LocalJob> elements = new ArrayList<>();
+        for (Long arrayIndex : arrayIndexes) {
+            elements.add(new LocalJob(jobId, arrayIndex, new JobTemplate(jt), now));
+        }
+        jobs.put(jobId, elements);
+        for (LocalJob job : elements) {
+            job.future = workers.submit(() -> run(job));
+        }
+        log.debug("Submitted local job {} with {} elements", jobId, elements.size());
+
+        JobInfo info = new JobInfo();
+        info.setJobId(jobId);
+        info.setQueue(QUEUE_NAME);
+        info.setStatus(JobStatus.PENDING);
+        return info;
+    }
+
+    private void run(LocalJob job) {
+
+        JobTemplate jt = job.template;
+        ProcessBuilder processBuilder = new ProcessBuilder();
+        List<String> cmd = new ArrayList<>();
+        cmd.add(jt.getRemoteCommand());
+        if (jt.getArgs() != null) {
+            cmd.addAll(jt.getArgs());
+        }
+        processBuilder.command(cmd);
+
+        if (jt.getWorkingDir() != null) {
+            processBuilder.directory(new File(jt.getWorkingDir()));
+        }
+
+        String inputPath = job.resolvePath(jt.getInputPath());
+        String outputPath = job.resolvePath(jt.getOutputPath());
+        String errorPath = job.resolvePath(jt.getErrorPath());
+        processBuilder.redirectInput(inputPath == null ? NULL_FILE : job.resolveFile(inputPath));
+        processBuilder.redirectOutput(outputPath == null ? ProcessBuilder.Redirect.to(NULL_FILE)
+                : ProcessBuilder.Redirect.appendTo(job.resolveFile(outputPath)));
+        if (errorPath != null) {
+            processBuilder.redirectError(ProcessBuilder.Redirect.appendTo(job.resolveFile(errorPath)));
+        }
+        else if (outputPath != null) {
+            processBuilder.redirectErrorStream(true);
+        }
+        else {
+            processBuilder.redirectError(ProcessBuilder.Redirect.to(NULL_FILE));
+        }
+
+        Map<String, String> env = processBuilder.environment();
+        env.put("LSB_JOBID", job.jobId.toString());
+        env.put("LSB_JOBINDEX", job.arrayIndex == null ? "0" : job.arrayIndex.toString());
+        if (jt.getJobEnvironment() != null) {
+            env.putAll(jt.getJobEnvironment());
+        }
+
+        Process process;
+        synchronized (job) {
+            if (job.status != JobStatus.PENDING) {
+                // Killed before it could start
+                return;
+            }
+            try {
+                log.debug("Running local job {}: {}", job.getJobSpec(), cmd);
+                process = processBuilder.start();
+            }
+            catch (IOException e) {
+                log.warn("Could not start local job {}", job.getJobSpec(), e);
+                job.finish(NOT_FOUND_EXIT_CODE, e.getMessage());
+                return;
+            }
+            job.process = process;
+            job.status = JobStatus.RUNNING;
+            job.startTime = LocalDateTime.now();
+        }
+
+        int exitCode;
+        try {
+            exitCode = process.waitFor();
+        }
+        catch (InterruptedException e) {
+            process.destroyForcibly();
+            exitCode = KILLED_EXIT_CODE;
+        }
+
+        synchronized (job) {
+            job.finish(exitCode, job.killed ? "Killed by owner" : null);
+        }
+        log.debug("Local job {} exited with code {}", job.getJobSpec(), exitCode);
+    }
+
+    @Override
+    public List<JobInfo> getJobInfo() throws IOException {
+        purgeFinishedJobs();
+        List<JobInfo> infos = new ArrayList<>();
+        for (List<LocalJob> elements : jobs.values()) {
+            for (LocalJob job : elements) {
+                infos.add(job.toJobInfo());
+            }
+        }
+        return infos;
+    }
+
+    /**
+     * All local jobs run as the current user, so this returns the same as getJobInfo().
+     */
+    @Override
+    public List<JobInfo> getJobInfo(String user) throws IOException {
+        return getJobInfo();
+    }
+
+    @Override
+    public List<JobInfo> getJobInfo(Long jobId) throws IOException {
+        List<JobInfo> infos = new ArrayList<>();
+        List<LocalJob> elements = jobs.get(jobId);
+        if (elements != null) {
+            for (LocalJob job : elements) {
+                infos.add(job.toJobInfo());
+            }
+        }
+        return infos;
+    }
+
+    private void purgeFinishedJobs() {
+        LocalDateTime cutoff = LocalDateTime.now().minus(keepFinishedMinutes, ChronoUnit.MINUTES);
+        jobs.entrySet().removeIf(entry -> entry.getValue().stream()
+                .allMatch(job -> job.finishTime != null && job.finishTime.isBefore(cutoff)));
+    }
+
+    @Override
+    public void killJobById(Long jobId, JobCmdFlag... flags) throws IOException {
+        List<LocalJob> elements = jobs.get(jobId);
+        if (elements == null) {
+            throw new IOException("No matching job found: " + jobId);
+        }
+        for (LocalJob job : elements) {
+            job.kill();
+        }
+    }
+
+    @Override
+    public void killJobByName(String jobName, JobCmdFlag... flags) throws IOException {
+        for (List<LocalJob> elements : jobs.values()) {
+            for (LocalJob job : elements) {
+                if (jobName.equals(job.template.getJobName())) {
+                    job.kill();
+                }
+            }
+        }
+    }
+
+    @Override
+    public List<JobKillResult> killJobs(Collection<String> jobSpecs, JobCmdFlag... flags) throws IOException {
+        List<JobKillResult> results = new ArrayList<>();
+        for (String jobSpec : jobSpecs) {
+            int b = jobSpec.indexOf('[');
+            Long jobId;
+            try {
+                jobId = Long.valueOf(b > 0 ? jobSpec.substring(0, b) : jobSpec);
+            }
+            catch (NumberFormatException e) {
+                results.add(new JobKillResult(jobSpec, false, "Illegal job ID"));
+                continue;
+            }
+            List<LocalJob> elements = jobs.get(jobId);
+            if (elements == null) {
+                results.add(new JobKillResult(jobSpec, false, "No matching job found"));
+                continue;
+            }
+            Set<Long> arrayIndexes = b > 0
+                    ? new HashSet<>(Utils.parseIndexRanges(jobSpec.substring(b + 1, jobSpec.length() - 1)))
+                    : null;
+            for (LocalJob job : elements) {
+                if (arrayIndexes == null || arrayIndexes.contains(job.arrayIndex)) {
+                    boolean killed = job.kill();
+                    results.add(new JobKillResult(job.getJobSpec(), killed,
+                            killed ? "is being terminated" : "Job has already finished"));
+                }
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Kill all running jobs and stop the worker pool.
+     */
+    public void shutdown() {
+        for (List<LocalJob> elements : jobs.values()) {
+            for (LocalJob job : elements) {
+                job.kill();
+            }
+        }
+        workers.shutdownNow();
+    }
+
+    private class LocalJob {
+
+        private final Long jobId;
+        private final Long arrayIndex;
+        private final JobTemplate template;
+        private final LocalDateTime submitTime;
+        private volatile JobStatus status = JobStatus.PENDING;
+        private volatile LocalDateTime startTime;
+        private volatile LocalDateTime finishTime;
+        private volatile Integer exitCode;
+        private volatile String exitReason;
+        private volatile boolean killed;
+        private Process process;
+        private Future<?> future;
+
+        LocalJob(Long jobId, Long arrayIndex, JobTemplate template, LocalDateTime submitTime) {
+            this.jobId = jobId;
+            this.arrayIndex = arrayIndex;
+            this.template = template;
+            this.submitTime = submitTime;
+        }
+
+        String getJobSpec() {
+            return arrayIndex == null ? jobId.toString() : jobId + "[" + arrayIndex + "]";
+        }
+
+        String resolvePath(String path) {
+            if (path == null || arrayIndex == null) return path;
+            return path.replace("#", arrayIndex.toString());
+        }
+
+        File resolveFile(String path) {
+            File file = new File(path);
+            if (!file.isAbsolute() && template.getWorkingDir() != null) {
+                file = new File(template.getWorkingDir(), path);
+            }
+            return file;
+        }
+
+        void finish(int exitCode, String exitReason) {
+            this.exitCode = exitCode;
+            this.exitReason = exitReason;
+            this.finishTime = LocalDateTime.now();
+            this.status = exitCode == 0 && !killed ? JobStatus.DONE : JobStatus.EXIT;
+        }
+
+        /**
+         * Kill the job if it has not finished yet.
+         * @return true if the job was killed
+         */
+        synchronized boolean kill() {
+            if (status.isDone()) {
+                return false;
+            }
+            killed = true;
+            if (process != null) {
+                process.destroy();
+            }
+            else {
+                if (future != null) {
+                    future.cancel(false);
+                }
+                finish(KILLED_EXIT_CODE, "Killed by owner");
+            }
+            return true;
+        }
+
+        JobInfo toJobInfo() {
+            JobInfo info = new JobInfo();
+            synchronized (this) {
+                info.setJobId(jobId);
+                info.setArrayIndex(arrayIndex);
+                info.setName(template.getJobName());
+                info.setFromHost(hostname);
+                info.setExecHost(startTime == null ? null : hostname);
+                info.setStatus(status);
+                info.setQueue(QUEUE_NAME);
+                info.setReqSlot(1);
+                info.setAllocSlot(startTime == null ? null : 1);
+                info.setSubmitTime(submitTime);
+                info.setStartTime(startTime);
+                info.setFinishTime(finishTime);
+                info.setExitCode(exitCode);
+                info.setExitReason(exitReason);
+            }
+            return info;
+        }
+    }
+}
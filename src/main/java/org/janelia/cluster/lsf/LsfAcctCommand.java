@@ -0,0 +1,256 @@
+package org.janelia.cluster.lsf;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+import org.janelia.cluster.JobInfo;
+import org.janelia.cluster.JobStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Wrapper around the LSF bacct command, which reports the outcome of finished jobs long after they have dropped
+ * out of bjobs. Any number of jobs can be looked up with a single call.
+ */
+public class LsfAcctCommand {
+
+    private static final Logger log = LoggerFactory.getLogger(LsfAcctCommand.class);
+
+    private static final String BACCT_COMMAND = "bacct";
+
+    // Long lines in the bacct output are wrapped, with the continuations indented by this many spaces
+    private static final String CONTINUATION = "                     ";
+
+    private static final Pattern JOB_PATTERN = Pattern.compile("^Job <(\\d+)(?:\\[(\\d+)\\])?>");
+    private static final Pattern JOB_NAME_PATTERN = Pattern.compile("Job Name <([^>]*)>");
+    private static final Pattern QUEUE_PATTERN = Pattern.compile("Queue <([^>]*)>");
+    private static final Pattern PROJECT_PATTERN = Pattern.compile("Project <([^>]*)>");
+    private static final Pattern STATUS_PATTERN = Pattern.compile("Status <(\\w+)>");
+    private static final Pattern EVENT_PATTERN = Pattern.compile("^\\w{3} (\\w{3} +\\d+ \\d+:\\d+:\\d+(?: \\d{4})?): (.*)");
+    private static final Pattern HOST_PATTERN = Pattern.compile("[Hh]ost(?:\\(s\\))? <([^>]*)>");
+    private static final Pattern EXIT_CODE_PATTERN = Pattern.compile("[Ee]xit code (\\d+)");
+    private static final Pattern EXIT_REASON_PATTERN = Pattern.compile("(TERM_\\w+:[^.]*)");
+
+    private String bacctCommand = BACCT_COMMAND;
+    private int maxArgBytes = LsfUtils.DEFAULT_MAX_ARG_BYTES;
+
+    /**
+     * Look up the given jobs in the accounting log, with as few bacct calls as the argument length limit allows.
+     * @param jobIds job ids
+     * @return a JobInfo for each finished job or job array element that was found
+     * @throws IOException if bacct could not be run
+     */
+    public List<JobInfo> execute(Collection<Long> jobIds) throws IOException {
+
+        List<String> baseArgs = Arrays.asList(bacctCommand, "-l");
+        List<String> ids = jobIds.stream().map(Object::toString).collect(Collectors.toList());
+        List<List<String>> batches = LsfUtils.partitionArgs(baseArgs, ids, maxArgBytes);
+        if (batches.size() > 1) {
+            log.debug("Looking up {} jobs with {} bacct calls", ids.size(), batches.size());
+        }
+
+        List<JobInfo> infos = new ArrayList<>();
+        for (List<String> batch : batches) {
+            List<String> cmd = new ArrayList<>(baseArgs);
+            cmd.addAll(batch);
+            infos.addAll(run(cmd));
+        }
+        return infos;
+    }
+
+    private List<JobInfo> run(List<String> cmd) throws IOException {
+
+        log.debug("Running: {}", cmd);
+
+        ProcessBuilder processBuilder = new ProcessBuilder(cmd);
+        processBuilder.redirectErrorStream(true);
+        Process p = processBuilder.start();
+
+        List<String> lines = new ArrayList<>();
+        try (BufferedReader input = new BufferedReader(new InputStreamReader(p.getInputStream()))) {
+            String line;
+            while ((line = input.readLine()) != null) {
+                log.trace(BACCT_COMMAND+" output: {}", line);
+                lines.add(line);
+            }
+        }
+
+        int exitValue = waitUntilDone(p);
+        List<JobInfo> infos = parse(lines);
+        // bacct fails if none of the jobs were found, which is not an error for our purposes
+        if (exitValue != 0 && infos.isEmpty() && lines.stream().noneMatch(l -> l.contains("No matching job"))) {
+            log.warn(BACCT_COMMAND + " failed with exit code {}. Output:\n{}", exitValue, String.join("\n", lines));
+            throw new IOException(BACCT_COMMAND + " exited with code " + exitValue);
+        }
+        return infos;
+    }
+
+    /**
+     * Parse the long format output of bacct.
+     * @param lines output lines
+     * @return a JobInfo for each job or job array element described in the output
+     */
+    public static List<JobInfo> parse(List<String> lines) {
+
+        // Unwrap the lines, and split them up into one record per job
+        List<List<String>> records = new ArrayList<>();
+        List<String> record = null;
+        for (String line : lines) {
+            if (line.startsWith("Job <")) {
+                record = new ArrayList<>();
+                records.add(record);
+                record.add(line);
+            }
+            else if (line.startsWith("---")) {
+                record = null;
+            }
+            else if (record != null) {
+                if (line.startsWith(CONTINUATION) && !record.isEmpty()) {
+                    int last = record.size() - 1;
+                    record.set(last, record.get(last) + line.substring(CONTINUATION.length()));
+                }
+                else {
+                    record.add(line);
+                }
+            }
+        }
+
+        List<JobInfo> infos = new ArrayList<>();
+        for (List<String> r : records) {
+            try {
+                JobInfo info = parseRecord(r);
+                if (info != null) {
+                    infos.add(info);
+                }
+            }
+            catch (Exception e) {
+                log.error("Error parsing record: "+r, e);
+            }
+        }
+        return infos;
+    }
+
+    private static JobInfo parseRecord(List<String> record) {
+
+        String header = record.get(0);
+        Matcher m = JOB_PATTERN.matcher(header);
+        if (!m.find()) return null;
+
+        JobInfo info = new JobInfo();
+        info.setJobId(Long.valueOf(m.group(1)));
+        if (m.group(2) != null) {
+            info.setArrayIndex(Long.valueOf(m.group(2)));
+        }
+
+        String name = find(JOB_NAME_PATTERN, header);
+        if (name != null) {
+            int b = name.indexOf('[');
+            info.setName(b > 0 ? name.substring(0, b) : name);
+        }
+        info.setQueue(find(QUEUE_PATTERN, header));
+        info.setProject(find(PROJECT_PATTERN, header));
+        String status = find(STATUS_PATTERN, header);
+
+        for (String line : record) {
+            Matcher em = EVENT_PATTERN.matcher(line);
+            if (em.find()) {
+                String event = em.group(2);
+                if (event.startsWith("Submitted")) {
+                    info.setSubmitTime(parseDate(em.group(1)));
+                    info.setFromHost(find(HOST_PATTERN, event));
+                }
+                else if (event.startsWith("Dispatched") || event.startsWith("Started")) {
+                    info.setStartTime(parseDate(em.group(1)));
+                    info.setExecHost(find(HOST_PATTERN, event));
+                }
+                else if (event.startsWith("Completed")) {
+                    info.setFinishTime(parseDate(em.group(1)));
+                    if (event.startsWith("Completed <done>")) {
+                        status = "DONE";
+                    }
+                    else if (event.startsWith("Completed <exit>")) {
+                        status = "EXIT";
+                        info.setExitReason(find(EXIT_REASON_PATTERN, event));
+                    }
+                }
+            }
+            String exitCode = find(EXIT_CODE_PATTERN, line);
+            if (exitCode != null) {
+                info.setExitCode(Integer.valueOf(exitCode));
+            }
+        }
+
+        if ("DONE".equals(status)) {
+            info.setStatus(JobStatus.DONE);
+            info.setExitCode(0);
+        }
+        else if ("EXIT".equals(status)) {
+            info.setStatus(JobStatus.EXIT);
+        }
+        else {
+            log.warn("Unexpected status {} for finished job {}", status, info.getJobId());
+            return null;
+        }
+        return info;
+    }
+
+    private static String find(Pattern pattern, String s) {
+        Matcher m = pattern.matcher(s);
+        return m.find() ? m.group(1).trim() : null;
+    }
+
+    private static LocalDateTime parseDate(String str) {
+        try {
+            return LsfUtils.parseDate(str);
+        }
+        catch (DateTimeParseException e) {
+            log.error("Error parsing date: "+str);
+            return null;
+        }
+    }
+
+    private int waitUntilDone(Process p) {
+        try {
+            log.trace("Waiting for exit...");
+            p.waitFor(100, TimeUnit.SECONDS);
+            return p.exitValue();
+        } catch (InterruptedException e) {
+            log.warn("Interrupt while waiting for process to end", e);
+            throw new IllegalStateException(BACCT_COMMAND+" did not exit cleanly", e);
+        }
+    }
+
+    public int getMaxArgBytes() {
+        return maxArgBytes;
+    }
+
+    /**
+     * Sets the maximum total length of the arguments passed to a single bacct invocation. Longer lookups are
+     * split across several invocations.
+     */
+    public void setMaxArgBytes(int maxArgBytes) {
+        this.maxArgBytes = maxArgBytes;
+    }
+
+    public String getBacctCommand() {
+        return bacctCommand;
+    }
+
+    /**
+     * Sets the bacct executable to run, either a name to be found on the PATH (the default) or a full path.
+     */
+    public void setBacctCommand(String bacctCommand) {
+        this.bacctCommand = bacctCommand;
+    }
+}
@@ -0,0 +1,238 @@
+package org.janelia.cluster.lsf;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.function.Predicate;
+
+import org.janelia.cluster.JobInfo;
+import org.janelia.cluster.JobManager;
+import org.janelia.cluster.JobStatus;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Incremental reader for the LSF accounting log (lsb.acct), which records every finished job. Jobs drop out of
+ * bjobs after LSF's CLEAN_PERIOD, but their accounting records remain, so this reader can be used to learn the
+ * outcome of jobs which would otherwise be treated as zombies by the JobManager.
+ *
+ * The file is read incrementally (see LsfLogReader), so only the records appended since the last read are parsed,
+ * and records for jobs which are not of interest are skipped after reading their job id.
+ */
+public class LsfAcctReader {
+
+    private static final Logger log = LoggerFactory.getLogger(LsfAcctReader.class);
+
+    // Constants
+    private static final String JOB_FINISH = "JOB_FINISH";
+    private static final int JOB_STAT_EXIT = 0x20;
+    private static final int JOB_STAT_DONE = 0x40;
+    private static final int RUSAGE_FIELDS = 19;
+    private static final String[] TERM_REASONS = {
+            "TERM_UNKNOWN", "TERM_PREEMPT", "TERM_WINDOW", "TERM_LOAD", "TERM_OTHER", "TERM_RUNLIMIT",
+            "TERM_DEADLINE", "TERM_PROCESSLIMIT", "TERM_FORCE_OWNER", "TERM_FORCE_ADMIN", "TERM_REQUEUE_OWNER",
+            "TERM_REQUEUE_ADMIN", "TERM_CPULIMIT", "TERM_CHKPNT", "TERM_OWNER", "TERM_ADMIN", "TERM_MEMLIMIT",
+            "TERM_EXTERNAL_SIGNAL", "TERM_RMS", "TERM_ZOMBIE", "TERM_SWAP", "TERM_THREADLIMIT", "TERM_SLURM",
+            "TERM_BUCKET_KILL", "TERM_CTRL_PID", "TERM_CWD_NOTEXIST", "TERM_REMOVE_HUNG_JOB", "TERM_ORPHAN_SYSTEM",
+            "TERM_PRE_EXEC_FAIL", "TERM_DATA", "TERM_MC_RECALL", "TERM_RC_RECLAIM"
+    };
+
+    // State
+    private final LsfLogReader reader;
+    private final LsfRecordTokenizer tokenizer = new LsfRecordTokenizer();
+
+    /**
+     * @param acctFile path to lsb.acct, usually $LSB_SHAREDIR/cluster_name/logdir/lsb.acct
+     * @param checkpointFile file in which to persist the read position, or null to start from the beginning
+     *                       of the log every time the reader is created
+     * @throws IOException if the checkpoint file cannot be read
+     */
+    public LsfAcctReader(Path acctFile, Path checkpointFile) throws IOException {
+        this.reader = new LsfLogReader(acctFile, checkpointFile, JOB_FINISH);
+    }
+
+    /**
+     * Read any records appended since the last read, and pass the finished jobs which are being monitored by
+     * the given JobManager to it.
+     * @param jobManager manager to update
+     * @throws IOException if the accounting log cannot be read
+     */
+    public void update(JobManager jobManager) throws IOException {
+        List<JobInfo> infos = readNewRecords(jobId -> jobManager.getJobMetadata(jobId) != null);
+        if (!infos.isEmpty()) {
+            log.debug("Found {} accounting records for monitored jobs", infos.size());
+            jobManager.updateJobs(infos);
+        }
+    }
+
+    /**
+     * Read all records appended since the last read.
+     * @return a JobInfo for each finished job or job array element
+     * @throws IOException if the accounting log cannot be read
+     */
+    public List<JobInfo> readNewRecords() throws IOException {
+        return readNewRecords(jobId -> true);
+    }
+
+    /**
+     * Read the records appended since the last read, only parsing those for jobs accepted by the given filter.
+     * @param jobIdFilter filter on job ids
+     * @return a JobInfo for each finished job or job array element accepted by the filter
+     * @throws IOException if the accounting log cannot be read
+     */
+    public synchronized List<JobInfo> readNewRecords(Predicate<Long> jobIdFilter) throws IOException {
+        List<JobInfo> infos = new ArrayList<>();
+        reader.read((record, length) -> {
+            tokenizer.reset(record, 0, length);
+            JobInfo info = parseJobFinish(tokenizer, jobIdFilter);
+            if (info != null) {
+                infos.add(info);
+            }
+        });
+        return infos;
+    }
+
+    /**
+     * Returns the byte offset up to which the current log has been read.
+     */
+    public long getOffset() {
+        return reader.getOffset();
+    }
+
+    /**
+     * Parse a single JOB_FINISH record from lsb.acct.
+     * @param record line from the accounting log
+     * @return the finished job, or null if the line is not a JOB_FINISH record
+     */
+    public static JobInfo parseRecord(String record) {
+        if (!record.startsWith("\"" + JOB_FINISH + "\" ")) {
+            return null;
+        }
+        byte[] bytes = record.trim().getBytes(StandardCharsets.UTF_8);
+        LsfRecordTokenizer tokenizer = new LsfRecordTokenizer();
+        tokenizer.reset(bytes, 0, bytes.length);
+        return parseJobFinish(tokenizer, jobId -> true);
+    }
+
+    private static JobInfo parseJobFinish(LsfRecordTokenizer t, Predicate<Long> jobIdFilter) {
+
+        t.skip(2); // event type, version
+        long eventTime = t.nextLong();
+        long jobId = t.nextLong();
+        if (!jobIdFilter.test(jobId)) return null;
+
+        t.skip(2); // userId, options
+        int numProcessors = t.nextInt();
+        long submitTime = t.nextLong();
+        t.skip(2); // beginTime, termTime
+        long startTime = t.nextLong();
+        t.skip(1); // userName
+        String queue = t.nextString();
+        t.skip(3); // resReq, dependCond, preExecCmd
+        String fromHost = t.nextString();
+        t.skip(5); // cwd, inFile, outFile, errFile, jobFile
+        t.skip(t.nextInt()); // askedHosts
+        int numExHosts = t.nextInt();
+        List<String> execHosts = new ArrayList<>();
+        for (int i = 0; i < numExHosts; i++) {
+            String host = t.nextString();
+            if (!execHosts.contains(host)) execHosts.add(host);
+        }
+        int jStatus = t.nextInt();
+        t.skip(1); // hostFactor
+        String jobName = t.nextString();
+        t.skip(1); // command
+        double cpuSeconds = t.nextDouble() + t.nextDouble(); // ru_utime, ru_stime
+        t.skip(RUSAGE_FIELDS - 2);
+        t.skip(1); // mailUser
+        String project = t.nextString();
+        int exitStatus = t.nextInt();
+        t.skip(3); // maxNumProcessors, loginShell, timeEvent
+        long arrayIndex = t.nextLong();
+        long maxRMem = t.nextLong();
+        long maxRSwap = t.nextLong();
+        t.skip(5); // inFileSpool, commandSpool, rsvId, sla, exceptMask
+        Integer exitInfo = null;
+        if (t.hasNext()) {
+            t.skip(1); // additionalInfo
+            if (t.hasNext()) exitInfo = t.nextInt();
+        }
+
+        JobInfo info = new JobInfo();
+        info.setJobId(jobId);
+        if (arrayIndex > 0) {
+            info.setArrayIndex(arrayIndex);
+        }
+        int b = jobName.indexOf('[');
+        info.setName(b > 0 ? jobName.substring(0, b) : jobName);
+        info.setFromHost(fromHost);
+        info.setExecHost(execHosts.isEmpty() ? null : String.join(":", execHosts));
+        info.setQueue(queue);
+        info.setProject(project);
+        info.setReqSlot(numProcessors);
+        info.setAllocSlot(numExHosts);
+        info.setSubmitTime(toDate(submitTime));
+        info.setStartTime(toDate(startTime));
+        info.setFinishTime(toDate(eventTime));
+        info.setMaxMem(formatMem(maxRMem));
+        info.setMaxMemBytes(maxRMem > 0 ? maxRMem * 1024 : null);
+        info.setSwapBytes(maxRSwap > 0 ? maxRSwap * 1024 : null);
+        info.setCpuSeconds(cpuSeconds >= 0 ? cpuSeconds : null);
+
+        if ((jStatus & JOB_STAT_DONE) != 0) {
+            info.setStatus(JobStatus.DONE);
+            info.setExitCode(0);
+        }
+        else {
+            if ((jStatus & JOB_STAT_EXIT) == 0) {
+                log.warn("Unexpected status {} for finished job {}", jStatus, jobId);
+            }
+            info.setStatus(JobStatus.EXIT);
+            info.setExitCode(decodeExitCode(exitStatus));
+            info.setExitReason(decodeExitReason(exitInfo));
+        }
+        return info;
+    }
+
+    /**
+     * Decode an exit status from the LSF logs, which is a wait status holding either the exit code or the
+     * terminating signal.
+     */
+    static int decodeExitCode(int exitStatus) {
+        int signal = exitStatus & 0x7f;
+        return signal != 0 ? 128 + signal : exitStatus >> 8;
+    }
+
+    /**
+     * Decode an exit info code from the LSF logs into the name of the termination reason, e.g. TERM_MEMLIMIT.
+     */
+    static String decodeExitReason(Integer exitInfo) {
+        if (exitInfo == null || exitInfo <= 0) return null;
+        return exitInfo < TERM_REASONS.length ? TERM_REASONS[exitInfo] : "TERM_OTHER";
+    }
+
+    static LocalDateTime toDate(long epochSeconds) {
+        if (epochSeconds <= 0) return null;
+        return LocalDateTime.ofInstant(Instant.ofEpochSecond(epochSeconds), ZoneId.systemDefault());
+    }
+
+    static String formatMem(long kb) {
+        if (kb <= 0) return null;
+        if (kb < 1024) return kb + " Kbytes";
+        if (kb < 1024 * 1024) return (kb / 1024) + " Mbytes";
+        return String.format(Locale.US, "%.1f Gbytes", kb / (1024.0 * 1024));
+    }
+
+    /**
+     * Sets the size of the memory-mapped windows used to read the log.
+     */
+    public void setWindowBytes(int windowBytes) {
+        reader.setWindowBytes(windowBytes);
+    }
+}
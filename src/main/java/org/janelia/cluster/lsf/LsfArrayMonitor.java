@@ -0,0 +1,254 @@
+package org.janelia.cluster.lsf;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.janelia.cluster.JobInfo;
+import org.janelia.cluster.JobManager;
+import org.janelia.cluster.JobMetadata;
+import org.janelia.cluster.Utils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Polls a JobManager's jobs in two tiers, so that monitoring huge job arrays does not mean fetching and parsing
+ * a line for every element on every poll. Job arrays are first polled with bjobs -A, which gives a single line
+ * of per-status counts for each array. Element details are then only fetched for arrays whose number of
+ * finished elements changed, and only for the elements which were not yet known to be finished (with bjobs -d).
+ * Those details are merged into the manager with JobManager.updateJobs, which completes an array's future once
+ * all of its elements are known to be finished.
+ *
+ * Single jobs, and arrays which bjobs -A does not report (e.g. because LSF has already cleaned them up), are
+ * looked up by id and given to JobManager.checkJobs(Set, List) as usual, so they are handled exactly as in a
+ * regular check. The manager should not also be driven by its own JobMonitor. While an array is running, the
+ * manager only knows about its finished elements.
+ */
+public class LsfArrayMonitor {
+
+    private static final Logger log = LoggerFactory.getLogger(LsfArrayMonitor.class);
+
+    // Constants
+    private static final int DEFAULT_CHECK_INTERVAL_SECONDS = 15;
+    // A single argument is limited to 128KB on Linux (MAX_ARG_STRLEN)
+    private static final int DEFAULT_MAX_RANGES_LENGTH = 64 * 1024;
+
+    // Configuration
+    private final JobManager jobManager;
+    private final LsfJobsCommand jobsCmd;
+    private int maxRangesLength = DEFAULT_MAX_RANGES_LENGTH;
+
+    // State
+    private final Map<Long, ArrayState> arrayStates = new ConcurrentHashMap<>();
+    private ScheduledExecutorService scheduler;
+    private ScheduledFuture<?> poller;
+
+    /**
+     * @param jobManager manager whose jobs should be polled
+     * @param jobsCmd bjobs wrapper to use
+     */
+    public LsfArrayMonitor(JobManager jobManager, LsfJobsCommand jobsCmd) {
+        this.jobManager = jobManager;
+        this.jobsCmd = jobsCmd;
+    }
+
+    /**
+     * Begin polling every checkIntervalSeconds. If already started, calling this method does nothing.
+     */
+    public synchronized void start(int checkIntervalSeconds) {
+        if (poller == null) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(
+                    Utils.newDaemonThreadFactory("LsfArrayMonitor-poller"));
+            poller = scheduler.scheduleWithFixedDelay(this::poll,
+                    checkIntervalSeconds, checkIntervalSeconds, TimeUnit.SECONDS);
+        }
+    }
+
+    public void start() {
+        start(DEFAULT_CHECK_INTERVAL_SECONDS);
+    }
+
+    /**
+     * Stop polling, and shut down the background thread. The monitor can be started again.
+     */
+    public synchronized void stop() {
+        if (poller != null) {
+            poller.cancel(false);
+            poller = null;
+            scheduler.shutdown();
+            scheduler = null;
+        }
+    }
+
+    /**
+     * Poll the manager's jobs once. This method is called periodically if start() is called.
+     */
+    public synchronized void poll() {
+
+        Set<Long> arrayJobIds = new LinkedHashSet<>();
+        Set<Long> otherJobIds = new LinkedHashSet<>();
+        for (Long jobId : jobManager.getRunningJobIds()) {
+            JobMetadata metadata = jobManager.getJobMetadata(jobId);
+            if (metadata != null && metadata.getArraySize() > 1) {
+                arrayJobIds.add(jobId);
+            }
+            else {
+                otherJobIds.add(jobId);
+            }
+        }
+        arrayStates.keySet().retainAll(arrayJobIds);
+
+        // First tier: one summary line per array
+        Map<Long, LsfArraySummary> summaries = new HashMap<>();
+        try {
+            for (LsfArraySummary summary : jobsCmd.executeArraySummary(arrayJobIds)) {
+                summaries.put(summary.getJobId(), summary);
+            }
+        }
+        catch (Throwable t) {
+            log.error("Error getting job array summaries", t);
+        }
+
+        // Second tier: details of the newly finished elements of arrays which changed
+        for (Long jobId : arrayJobIds) {
+            LsfArraySummary summary = summaries.get(jobId);
+            if (summary == null) {
+                // Fall back on a regular check
+                otherJobIds.add(jobId);
+                continue;
+            }
+            List<long[]> ranges = summary.getArrayIndexRanges();
+            ArrayState state = arrayStates.computeIfAbsent(jobId, k -> new ArrayState(ranges));
+            if (summary.getFinished() == state.getFinishedCount()) {
+                log.trace("Job array {} is unchanged", jobId);
+                continue;
+            }
+            try {
+                // With an unparseable array spec, or too fragmented a set of unfinished elements, all of the
+                // finished elements are fetched instead
+                String unfinished = ranges.isEmpty() ? null : state.getUnfinishedRanges(ranges, maxRangesLength);
+                if (unfinished == null && !ranges.isEmpty()) {
+                    log.debug("Unfinished elements of job array {} are too fragmented, fetching all finished elements",
+                            jobId);
+                }
+                List<JobInfo> infos = jobsCmd.executeFinished(jobId, unfinished);
+                List<JobInfo> newInfos = new ArrayList<>();
+                for (JobInfo info : infos) {
+                    if (state.setFinished(info.getArrayIndex())) {
+                        newInfos.add(info);
+                    }
+                }
+                // If bjobs -d is behind bjobs -A, the counts differ, and the missing elements are fetched next time
+                log.debug("Job array {} has {} newly finished elements, {} of {} known", jobId, newInfos.size(),
+                        state.getFinishedCount(), summary.getFinished());
+                jobManager.updateJobs(newInfos);
+            }
+            catch (Throwable t) {
+                log.error("Error getting finished elements of job array " + jobId, t);
+            }
+        }
+
+        // Everything else is checked as usual, which also retires completed jobs
+        List<JobInfo> jobs = null;
+        try {
+            jobs = jobsCmd.execute(otherJobIds);
+        }
+        catch (Throwable t) {
+            // The manager is still updated, so that it can retire zombies
+            log.error("Error getting job information", t);
+        }
+        jobManager.checkJobs(otherJobIds, jobs);
+    }
+
+    public int getMaxRangesLength() {
+        return maxRangesLength;
+    }
+
+    /**
+     * Sets the longest array index ranges to pass to bjobs when fetching the newly finished elements of an array.
+     * If the unfinished elements need longer ranges, all of the array's finished elements are fetched instead.
+     */
+    public void setMaxRangesLength(int maxRangesLength) {
+        this.maxRangesLength = maxRangesLength;
+    }
+
+    /**
+     * Returns the number of finished elements the monitor knows about for each array it is tracking.
+     */
+    public synchronized Map<Long, Integer> getFinishedCounts() {
+        Map<Long, Integer> counts = new HashMap<>();
+        for (Map.Entry<Long, ArrayState> entry : arrayStates.entrySet()) {
+            counts.put(entry.getKey(), entry.getValue().getFinishedCount());
+        }
+        return counts;
+    }
+
+    /**
+     * What the monitor knows about a job array. Finished elements are kept in a bit set, keyed on their offset
+     * from the array's lowest index, so that huge arrays cost one bit per element.
+     */
+    private static class ArrayState {
+
+        private final long base;
+        private final BitSet finished = new BitSet();
+
+        ArrayState(List<long[]> ranges) {
+            long min = ranges.isEmpty() ? 0 : Long.MAX_VALUE;
+            for (long[] range : ranges) {
+                min = Math.min(min, range[0]);
+            }
+            this.base = min;
+        }
+
+        /**
+         * Record the given element as finished.
+         * @return true if it was not already known to be finished
+         */
+        synchronized boolean setFinished(Long arrayIndex) {
+            if (arrayIndex == null || arrayIndex < base || arrayIndex - base > Integer.MAX_VALUE - 1) {
+                // Outside of the array spec, so pass it along without tracking it
+                return true;
+            }
+            int offset = (int) (arrayIndex - base);
+            if (finished.get(offset)) return false;
+            finished.set(offset);
+            return true;
+        }
+
+        synchronized int getFinishedCount() {
+            return finished.cardinality();
+        }
+
+        /**
+         * Returns the indexes within the given ranges which are not known to be finished, formatted as ranges,
+         * or null if that takes more than maxLength characters.
+         */
+        synchronized String getUnfinishedRanges(List<long[]> ranges, int maxLength) {
+            StringBuilder sb = new StringBuilder();
+            for (long[] range : ranges) {
+                long start = Math.max(range[0], base);
+                while (start <= range[1]) {
+                    start = base + finished.nextClearBit((int) (start - base));
+                    if (start > range[1]) break;
+                    int next = finished.nextSetBit((int) (start - base));
+                    long end = next < 0 ? range[1] : Math.min(range[1], base + next - 1);
+                    if (sb.length() > 0) sb.append(',');
+                    sb.append(start);
+                    if (end > start) sb.append('-').append(end);
+                    if (sb.length() > maxLength) return null;
+                    start = end + 1;
+                }
+            }
+            return sb.toString();
+        }
+    }
+}
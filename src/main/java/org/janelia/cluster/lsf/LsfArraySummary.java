@@ -0,0 +1,160 @@
+package org.janelia.cluster.lsf;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Per-status element counts for one job array, as reported by bjobs -A.
+ */
+public class LsfArraySummary {
+
+    private Long jobId;
+    private String arraySpec;
+    private String owner;
+    private int numJobs;
+    private int pending;
+    private int done;
+    private int running;
+    private int exited;
+    private int suspended;
+
+    public Long getJobId() {
+        return jobId;
+    }
+
+    public void setJobId(Long jobId) {
+        this.jobId = jobId;
+    }
+
+    /**
+     * Returns the array's name and indexes, e.g. "myArray[1-100]".
+     */
+    public String getArraySpec() {
+        return arraySpec;
+    }
+
+    public void setArraySpec(String arraySpec) {
+        this.arraySpec = arraySpec;
+    }
+
+    public String getOwner() {
+        return owner;
+    }
+
+    public void setOwner(String owner) {
+        this.owner = owner;
+    }
+
+    public int getNumJobs() {
+        return numJobs;
+    }
+
+    public void setNumJobs(int numJobs) {
+        this.numJobs = numJobs;
+    }
+
+    public int getPending() {
+        return pending;
+    }
+
+    public void setPending(int pending) {
+        this.pending = pending;
+    }
+
+    public int getDone() {
+        return done;
+    }
+
+    public void setDone(int done) {
+        this.done = done;
+    }
+
+    public int getRunning() {
+        return running;
+    }
+
+    public void setRunning(int running) {
+        this.running = running;
+    }
+
+    public int getExited() {
+        return exited;
+    }
+
+    public void setExited(int exited) {
+        this.exited = exited;
+    }
+
+    /**
+     * Returns the number of suspended elements (SSUSP, USUSP and PSUSP together).
+     */
+    public int getSuspended() {
+        return suspended;
+    }
+
+    public void setSuspended(int suspended) {
+        this.suspended = suspended;
+    }
+
+    /**
+     * Returns the number of elements which have finished, successfully or not.
+     */
+    public int getFinished() {
+        return done + exited;
+    }
+
+    public boolean isComplete() {
+        return getFinished() >= numJobs;
+    }
+
+    /**
+     * Returns the array's indexes, parsed from the array spec, or an empty list if they cannot be parsed.
+     */
+    public List<Long> getArrayIndexes() {
+        List<Long> indexes = new ArrayList<>();
+        for (long[] range : getArrayIndexRanges()) {
+            for (long i = range[0]; i <= range[1]; i++) {
+                indexes.add(i);
+            }
+        }
+        return indexes;
+    }
+
+    /**
+     * Returns the array's index ranges as {start, end} pairs, parsed from the array spec without expanding them,
+     * or an empty list if they cannot be parsed.
+     */
+    public List<long[]> getArrayIndexRanges() {
+        if (arraySpec == null) return Collections.emptyList();
+        int b = arraySpec.lastIndexOf('[');
+        if (b < 0 || !arraySpec.endsWith("]")) return Collections.emptyList();
+        List<long[]> ranges = new ArrayList<>();
+        try {
+            for (String range : arraySpec.substring(b + 1, arraySpec.length() - 1).split(",")) {
+                range = range.trim();
+                if (range.isEmpty()) continue;
+                int dash = range.indexOf('-', 1);
+                if (dash > 0) {
+                    ranges.add(new long[] { Long.parseLong(range.substring(0, dash).trim()),
+                            Long.parseLong(range.substring(dash + 1).trim()) });
+                }
+                else {
+                    long index = Long.parseLong(range);
+                    ranges.add(new long[] { index, index });
+                }
+            }
+        }
+        catch (NumberFormatException e) {
+            return Collections.emptyList();
+        }
+        return ranges;
+    }
+
+    @Override
+    public String toString() {
+        return "LsfArraySummary[jobId=" + jobId + ", arraySpec=" + arraySpec + ", numJobs=" + numJobs
+                + ", pending=" + pending + ", running=" + running + ", done=" + done + ", exited=" + exited
+                + ", suspended=" + suspended + "]";
+    }
+}
@@ -0,0 +1,324 @@
+package org.janelia.cluster.lsf;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.janelia.cluster.JobInfo;
+import org.janelia.cluster.JobManager;
+import org.janelia.cluster.JobMetadata;
+import org.janelia.cluster.JobStatus;
+import org.janelia.cluster.Utils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Event-driven job monitoring, which follows the LSF event log (lsb.events) and pushes every status transition of
+ * the jobs monitored by a JobManager into it as soon as it is logged. This is much faster to react than polling
+ * bjobs, and puts no load on mbatchd. bjobs polling (e.g. a JobMonitor with a long interval) is then only needed
+ * as a slow consistency sweep, for instance to pick up jobs whose events were logged before the follower started.
+ *
+ * The log is read incrementally (see LsfLogReader), so each check only parses the records appended since the
+ * previous one, and the read position can be checkpointed across restarts. JOB_NEW, JOB_START and JOB_STATUS
+ * records are decoded, and records for jobs which are not being monitored are skipped after reading their job id.
+ */
+public class LsfEventsFollower {
+
+    private static final Logger log = LoggerFactory.getLogger(LsfEventsFollower.class);
+
+    // Constants
+    private static final long DEFAULT_CHECK_INTERVAL_MILLIS = 1000;
+    private static final String JOB_NEW = "JOB_NEW";
+    private static final String JOB_START = "JOB_START";
+    private static final String JOB_STATUS = "JOB_STATUS";
+    private static final int JOB_STAT_PEND = 0x01;
+    private static final int JOB_STAT_PSUSP = 0x02;
+    private static final int JOB_STAT_RUN = 0x04;
+    private static final int JOB_STAT_SSUSP = 0x08;
+    private static final int JOB_STAT_USUSP = 0x10;
+    private static final int JOB_STAT_EXIT = 0x20;
+    private static final int JOB_STAT_DONE = 0x40;
+    private static final int RLIMIT_FIELDS = 11;
+    private static final int RUSAGE_FIELDS = 19;
+
+    // Configuration
+    private final JobManager jobManager;
+    private final LsfLogReader reader;
+
+    // State
+    private final LsfRecordTokenizer tokenizer = new LsfRecordTokenizer();
+    private final Map<Long, Map<Long, JobInfo>> jobs = new HashMap<>();
+    private final Set<JobInfo> changed = new LinkedHashSet<>();
+    private ScheduledExecutorService scheduler;
+    private ScheduledFuture<?> follower;
+
+    /**
+     * @param jobManager manager to update
+     * @param eventsFile path to lsb.events, usually $LSB_SHAREDIR/cluster_name/logdir/lsb.events
+     * @param checkpointFile file in which to persist the read position, or null to start from the beginning
+     *                       of the log every time the follower is created
+     * @throws IOException if the checkpoint file cannot be read
+     */
+    public LsfEventsFollower(JobManager jobManager, Path eventsFile, Path checkpointFile) throws IOException {
+        this.jobManager = jobManager;
+        this.reader = new LsfLogReader(eventsFile, checkpointFile, JOB_NEW, JOB_START, JOB_STATUS);
+    }
+
+    /**
+     * Begin following the log, checking it for new events every checkIntervalMillis. If already started, calling
+     * this method does nothing.
+     */
+    public synchronized void start(long checkIntervalMillis) {
+        if (follower == null) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(
+                    Utils.newDaemonThreadFactory("LsfEventsFollower-reader"));
+            follower = scheduler.scheduleWithFixedDelay(this::followEvents,
+                    0, checkIntervalMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    public void start() {
+        start(DEFAULT_CHECK_INTERVAL_MILLIS);
+    }
+
+    /**
+     * Stop following the log.
+     */
+    public synchronized void stop() {
+        if (follower != null) {
+            follower.cancel(false);
+            follower = null;
+            scheduler.shutdown();
+            scheduler = null;
+        }
+    }
+
+    /**
+     * Read any events logged since the last check, and push the resulting job updates into the JobManager.
+     * This method is called periodically if start() is called.
+     */
+    public void followEvents() {
+        List<JobInfo> updates = new ArrayList<>();
+        synchronized (jobs) {
+            try {
+                reader.read(this::handleRecord);
+            }
+            catch (IOException e) {
+                log.error("Error reading LSF events", e);
+            }
+            for (JobInfo info : changed) {
+                updates.add(new JobInfo(info));
+            }
+            changed.clear();
+        }
+
+        if (!updates.isEmpty()) {
+            log.debug("Pushing {} job updates from LSF events", updates.size());
+            jobManager.updateJobs(updates);
+        }
+
+        synchronized (jobs) {
+            // Forget jobs which are no longer being monitored
+            jobs.keySet().removeIf(jobId -> {
+                JobMetadata metadata = jobManager.getJobMetadata(jobId);
+                return metadata == null || metadata.isDone();
+            });
+        }
+    }
+
+    private void handleRecord(byte[] record, int length) {
+
+        LsfRecordTokenizer t = tokenizer;
+        t.reset(record, 0, length);
+        String type = t.nextString();
+        t.skip(1); // version
+        long eventTime = t.nextLong();
+        long jobId = t.nextLong();
+
+        JobMetadata metadata = jobManager.getJobMetadata(jobId);
+        if (metadata == null || metadata.isDone()) return;
+
+        if (JOB_NEW.equals(type)) {
+            handleJobNew(t, jobId);
+        }
+        else if (JOB_START.equals(type)) {
+            handleJobStart(t, jobId, eventTime);
+        }
+        else if (JOB_STATUS.equals(type)) {
+            handleJobStatus(t, jobId, eventTime);
+        }
+    }
+
+    private void handleJobNew(LsfRecordTokenizer t, long jobId) {
+
+        t.skip(3); // userId, options, options2
+        int numProcessors = t.nextInt();
+        long submitTime = t.nextLong();
+        t.skip(5); // beginTime, termTime, sigValue, chkpntPeriod, restartPid
+        t.skip(1); // userName
+        t.skip(RLIMIT_FIELDS);
+        t.skip(3); // hostSpec, hostFactor, umask
+        String queue = t.nextString();
+        t.skip(1); // resReq
+        String fromHost = t.nextString();
+        t.skip(10); // cwd, chkpntDir, inFile, outFile, errFile, inFileSpool, commandSpool, jobSpoolDir, subHomeDir, jobFile
+        t.skip(t.nextInt()); // askedHosts
+        t.skip(2); // dependCond, timeEvent
+        String jobName = t.nextString();
+
+        List<Long> arrayIndexes = new ArrayList<>();
+        int b = jobName.indexOf('[');
+        int e = jobName.lastIndexOf(']');
+        if (b > 0 && e > b) {
+            arrayIndexes.addAll(parseArraySpec(jobName.substring(b + 1, e)));
+            jobName = jobName.substring(0, b);
+        }
+        else {
+            arrayIndexes.add(null);
+        }
+
+        for (Long arrayIndex : arrayIndexes) {
+            JobInfo info = getInfo(jobId, arrayIndex);
+            info.setName(jobName);
+            info.setQueue(queue);
+            info.setFromHost(fromHost);
+            info.setReqSlot(numProcessors);
+            info.setSubmitTime(LsfAcctReader.toDate(submitTime));
+            if (info.getStatus() == null) {
+                info.setStatus(JobStatus.PENDING);
+            }
+            changed.add(info);
+        }
+    }
+
+    private void handleJobStart(LsfRecordTokenizer t, long jobId, long eventTime) {
+
+        t.skip(4); // jStatus, jobPid, jobPGid, hostFactor
+        int numExHosts = t.nextInt();
+        List<String> execHosts = new ArrayList<>();
+        for (int i = 0; i < numExHosts; i++) {
+            String host = t.nextString();
+            if (!execHosts.contains(host)) execHosts.add(host);
+        }
+        t.skip(4); // queuePreCmd, queuePostCmd, jFlags, userGroup
+        Long arrayIndex = toArrayIndex(t.nextLong());
+
+        JobInfo info = getInfo(jobId, arrayIndex);
+        info.setStatus(JobStatus.RUNNING);
+        info.setStartTime(LsfAcctReader.toDate(eventTime));
+        info.setExecHost(String.join(":", execHosts));
+        info.setAllocSlot(numExHosts);
+        changed.add(info);
+    }
+
+    private void handleJobStatus(LsfRecordTokenizer t, long jobId, long eventTime) {
+
+        int jStatus = t.nextInt();
+        t.skip(2); // reason, subreasons
+        double cpuTime = t.nextDouble();
+        long endTime = t.nextLong();
+        if (t.nextInt() != 0) {
+            t.skip(RUSAGE_FIELDS);
+        }
+        t.skip(1); // jFlags
+        int exitStatus = t.nextInt();
+        Long arrayIndex = toArrayIndex(t.nextLong());
+        Integer exitInfo = t.hasNext() ? t.nextInt() : null;
+
+        JobStatus status = getStatus(jStatus);
+        if (status == null) return;
+
+        JobInfo info = getInfo(jobId, arrayIndex);
+        info.setStatus(status);
+        if (cpuTime >= 0) {
+            info.setCpuSeconds(cpuTime);
+        }
+        if (status.isDone()) {
+            info.setFinishTime(LsfAcctReader.toDate(endTime > 0 ? endTime : eventTime));
+            if (status == JobStatus.DONE) {
+                info.setExitCode(0);
+            }
+            else {
+                info.setExitCode(LsfAcctReader.decodeExitCode(exitStatus));
+                info.setExitReason(LsfAcctReader.decodeExitReason(exitInfo));
+            }
+        }
+        changed.add(info);
+    }
+
+    private JobStatus getStatus(int jStatus) {
+        // Post-execution statuses are logged together with the DONE or EXIT bit
+        if ((jStatus & JOB_STAT_EXIT) != 0) return JobStatus.EXIT;
+        if ((jStatus & JOB_STAT_DONE) != 0) return JobStatus.DONE;
+        if ((jStatus & (JOB_STAT_SSUSP | JOB_STAT_USUSP)) != 0) return JobStatus.SUSPENDED;
+        if ((jStatus & JOB_STAT_RUN) != 0) return JobStatus.RUNNING;
+        if ((jStatus & (JOB_STAT_PEND | JOB_STAT_PSUSP)) != 0) return JobStatus.PENDING;
+        return null;
+    }
+
+    /**
+     * Returns the tracked info for the given job or job array element, starting from the manager's latest info
+     * if this is the first event seen for it.
+     */
+    private JobInfo getInfo(long jobId, Long arrayIndex) {
+        Map<Long, JobInfo> elements = jobs.computeIfAbsent(jobId, k -> new HashMap<>());
+        return elements.computeIfAbsent(arrayIndex, k -> {
+            JobInfo info = null;
+            Collection<JobInfo> lastInfos = jobManager.getJobInfo(jobId);
+            if (lastInfos != null) {
+                for (JobInfo lastInfo : lastInfos) {
+                    if (Objects.equals(arrayIndex, lastInfo.getArrayIndex())) {
+                        info = new JobInfo(lastInfo);
+                        break;
+                    }
+                    else if (lastInfo.getArrayIndex() == null) {
+                        // Submission info for a job array
+                        info = new JobInfo(lastInfo);
+                    }
+                }
+            }
+            if (info == null) {
+                info = new JobInfo();
+                info.setJobId(jobId);
+            }
+            info.setArrayIndex(arrayIndex);
+            return info;
+        });
+    }
+
+    private static Long toArrayIndex(long idx) {
+        return idx > 0 ? idx : null;
+    }
+
+    /**
+     * Parse a job array specification, e.g. "1-10:2,15%5".
+     */
+    private static List<Long> parseArraySpec(String spec) {
+        int p = spec.indexOf('%');
+        if (p >= 0) spec = spec.substring(0, p);
+        List<Long> indexes = new ArrayList<>();
+        for (String range : spec.split(",")) {
+            long step = 1;
+            int c = range.indexOf(':');
+            if (c > 0) {
+                step = Long.parseLong(range.substring(c + 1).trim());
+                range = range.substring(0, c);
+            }
+            int d = range.indexOf('-');
+            if (d > 0) {
+                long end = Long.parseLong(range.substring(d + 1).trim());
+                for (long i = Long.parseLong(range.substring(0, d).trim()); i <= end; i += step) {
+                    indexes.add(i);
+                }
+            }
+            else {
+                indexes.add(Long.parseLong(range.trim()));
+            }
+        }
+        return indexes;
+    }
+}
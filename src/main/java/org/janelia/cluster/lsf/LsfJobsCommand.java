@@ -5,11 +5,18 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 import java.time.format.DateTimeParseException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.concurrent.TimeUnit;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
 
 import org.apache.commons.lang3.StringUtils;
 import org.janelia.cluster.JobInfo;
+import org.janelia.cluster.Utils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -28,16 +35,40 @@ public class LsfJobsCommand {
 
     private static final Character BJOBS_DELIMITER = '^';
 
+    private static final Pattern NOT_FOUND_PATTERN = Pattern.compile("Job <[^>]*> is not found");
+
     private static final String FORMAT_SPEC =
             "jobid name from_host exec_host stat queue project "
             + "max_req_proc nalloc_slot submit_time start_time finish_time "
-            + "max_mem exit_code exit_reason delimiter='"+BJOBS_DELIMITER+"'";
+            + "max_mem exit_code exit_reason avg_mem swap cpu_used delimiter='"+BJOBS_DELIMITER+"'";
+
+    private String bjobsCommand = BJOBS_COMMAND;
+    private String jobGroup;
+    private String jobNamePrefix;
+    private int maxArgBytes = LsfUtils.DEFAULT_MAX_ARG_BYTES;
 
     public List<JobInfo> execute() throws IOException {
         return execute(null, null);
     }
     
     public List<JobInfo> execute(String user, Long jobId) throws IOException {
+        return execute(user, jobId == null ? null : Collections.singletonList(jobId), false);
+    }
+
+    /**
+     * Returns the current state of the given jobs, with a single bjobs call, or as few calls as the argument
+     * length limit allows. Jobs which LSF no longer knows about are left out of the result, rather than failing
+     * the whole query.
+     * @param jobIds job ids
+     * @return JobInfos for the jobs, or job array elements, which were found
+     * @throws IOException if bjobs could not be run
+     */
+    public List<JobInfo> execute(Collection<Long> jobIds) throws IOException {
+        if (jobIds.isEmpty()) return Collections.emptyList();
+        return execute(null, jobIds, true);
+    }
+
+    private List<JobInfo> execute(String user, Collection<Long> jobIds, boolean allowNotFound) throws IOException {
 
         List<String> args = new ArrayList<>();
 
@@ -49,91 +80,237 @@ public class LsfJobsCommand {
         args.add("-X"); // bring back expanded hostnames
         args.add("-o"); // format the output
         args.add(FORMAT_SPEC);
-        if (jobId != null) {
-            args.add(jobId.toString());
+        if (jobIds != null) {
+            List<String> baseArgs = new ArrayList<>(args);
+            baseArgs.add(0, bjobsCommand);
+            List<String> ids = jobIds.stream().map(Object::toString).collect(Collectors.toList());
+            List<List<String>> batches = LsfUtils.partitionArgs(baseArgs, ids, maxArgBytes);
+            if (batches.size() > 1) {
+                log.debug("Looking up {} jobs with {} bjobs calls", ids.size(), batches.size());
+            }
+            List<JobInfo> infos = new ArrayList<>();
+            for (List<String> batch : batches) {
+                List<String> batchArgs = new ArrayList<>(args);
+                batchArgs.addAll(batch);
+                infos.addAll(runJobsCommand(batchArgs, allowNotFound, this::parseJobInfo));
+            }
+            return infos;
         }
-        
-        return runJobsCommand(args, (line) -> {
 
-            // Skip blank lines, and the header
-            if (StringUtils.isBlank(line) || line.startsWith("JOBID")) {
+        // Only list the jobs in scope
+        if (jobGroup != null) {
+            args.add("-g");
+            args.add(jobGroup);
+        }
+        if (jobNamePrefix != null) {
+            args.add("-J");
+            args.add(jobNamePrefix + "*");
+        }
+        return runJobsCommand(args, allowNotFound, this::parseJobInfo);
+    }
+
+    /**
+     * Returns the per-status element counts of each of the given job arrays, with a single bjobs -A call, or as
+     * few calls as the argument length limit allows. This is a single line of output per array, however many
+     * elements it has. Jobs which LSF no longer knows about are left out of the result.
+     * @param jobIds job array ids
+     * @return summaries of the arrays which were found
+     * @throws IOException if bjobs could not be run
+     */
+    public List<LsfArraySummary> executeArraySummary(Collection<Long> jobIds) throws IOException {
+        if (jobIds.isEmpty()) return Collections.emptyList();
+
+        List<String> args = new ArrayList<>();
+        args.add("-a");
+        args.add("-A"); // summarize each array on a single line
+
+        List<String> baseArgs = new ArrayList<>(args);
+        baseArgs.add(0, bjobsCommand);
+        List<String> ids = jobIds.stream().map(Object::toString).collect(Collectors.toList());
+        List<LsfArraySummary> summaries = new ArrayList<>();
+        for (List<String> batch : LsfUtils.partitionArgs(baseArgs, ids, maxArgBytes)) {
+            List<String> batchArgs = new ArrayList<>(args);
+            batchArgs.addAll(batch);
+            summaries.addAll(runArraySummary(batchArgs));
+        }
+        return summaries;
+    }
+
+    private List<LsfArraySummary> runArraySummary(List<String> args) throws IOException {
+
+        // The -A output cannot be formatted, so the columns are found from the header
+        Map<String, Integer> columns = new HashMap<>();
+        return runJobsCommand(args, true, (line) -> {
+
+            if (StringUtils.isBlank(line) || line.matches("No .* found") || NOT_FOUND_PATTERN.matcher(line).matches()) {
                 return null;
             }
 
-            if (line.matches("No .* found")) {
+            String[] split = line.trim().split("\\s+");
+            if ("JOBID".equals(split[0])) {
+                for (int i = 0; i < split.length; i++) {
+                    columns.put(split[i], i);
+                }
                 return null;
             }
 
             try {
-                // We have to escape the delimiter, because split takes a regex
-                String[] split = line.split("\\"+BJOBS_DELIMITER);
-                log.trace("Parsed '{}' into {} values", line, split.length);
-
-                int c = 0;
-                String jobIdStr = getValue(split, c++);
-                String name = getValue(split, c++);
-                String fromHost = getValue(split, c++);
-                String execHost = getValue(split, c++);
-                String stat = getValue(split, c++);
-                String queue = getValue(split, c++);
-                String project = getValue(split, c++);
-                String reqSlot = getValue(split, c++);
-                String allocSlot = getValue(split, c++);
-                String submitTime = getValue(split, c++);
-                String startTime = getValue(split, c++);
-                String finishTime = getValue(split, c++);
-                String maxMem = getValue(split, c++);
-                String exitCodeStr = getValue(split, c++);
-                String exitReason = getValue(split, c++);
-
-                LsfJobInfo info = new LsfJobInfo();
-                info.setJobId(LsfUtils.parseLong(jobIdStr));
-                info.setLsfJobName(name);
-                info.setFromHost(fromHost);
-                info.setExecHost(execHost);
-                info.setLsfJobStatus(stat);
-                info.setQueue(queue);
-                info.setProject(project);
-                info.setReqSlot(LsfUtils.parseInt(reqSlot));
-                info.setAllocSlot(LsfUtils.parseInt(allocSlot));
-                info.setMaxMem(maxMem);
-
-                try {
-                    info.setSubmitTime(LsfUtils.parseDate(submitTime));
-                }
-                catch (DateTimeParseException e) {
-                    log.error("Error parsing date: "+submitTime);
-                }
-
-                try {
-                    info.setStartTime(LsfUtils.parseDate(startTime));
-                }
-                catch (DateTimeParseException e) {
-                    log.error("Error parsing date: "+startTime);
-                }
-
-                try {
-                    info.setFinishTime(LsfUtils.parseDate(finishTime));
-                }
-                catch (DateTimeParseException e) {
-                    log.error("Error parsing date: "+finishTime);
-                }
-
-                // LSF does not give an exit code unless it is non-zero
-                Integer exitCode = LsfUtils.parseInt(exitCodeStr);
-                if (exitCode==null && info.getStatus().isDone()) exitCode = 0;
-                info.setExitCode(exitCode);
-                info.setExitReason(exitReason);
-
-                return info;
+                LsfArraySummary summary = new LsfArraySummary();
+                summary.setJobId(LsfUtils.parseLong(getColumn(split, columns, "JOBID")));
+                summary.setArraySpec(getColumn(split, columns, "ARRAY_SPEC"));
+                summary.setOwner(getColumn(split, columns, "OWNER"));
+                summary.setNumJobs(getCount(split, columns, "NJOBS"));
+                summary.setPending(getCount(split, columns, "PEND"));
+                summary.setDone(getCount(split, columns, "DONE"));
+                summary.setRunning(getCount(split, columns, "RUN"));
+                summary.setExited(getCount(split, columns, "EXIT"));
+                summary.setSuspended(getCount(split, columns, "SSUSP") + getCount(split, columns, "USUSP")
+                        + getCount(split, columns, "PSUSP"));
+                return summary;
             } catch (Exception e) {
                 log.error("Error parsing line: "+line, e);
                 return null;
             }
         });
     }
+
+    private static String getColumn(String[] values, Map<String, Integer> columns, String name) {
+        Integer index = columns.get(name);
+        return index == null ? null : getValue(values, index);
+    }
+
+    private static int getCount(String[] values, Map<String, Integer> columns, String name) {
+        Integer count = LsfUtils.parseInt(getColumn(values, columns, name));
+        return count == null ? 0 : count;
+    }
+
+    /**
+     * Returns the finished elements among the given elements of a job array, with a single bjobs -d call.
+     * @param jobId job array id
+     * @param arrayIndexes indexes of the elements to look at, or null for all of them
+     * @return JobInfos for the elements which are done or have exited
+     * @throws IOException if bjobs could not be run
+     */
+    public List<JobInfo> executeFinished(Long jobId, Collection<Long> arrayIndexes) throws IOException {
+        return executeFinished(jobId, arrayIndexes == null ? null : Utils.formatIndexRanges(arrayIndexes));
+    }
+
+    /**
+     * Like executeFinished(Long, Collection), with the array indexes given as ranges, e.g. "1-500,700".
+     * @param jobId job array id
+     * @param arrayIndexRanges ranges of the array indexes to look up, or null for all of them
+     * @return JobInfos for the finished elements
+     * @throws IOException if bjobs could not be run
+     */
+    public List<JobInfo> executeFinished(Long jobId, String arrayIndexRanges) throws IOException {
+        if (arrayIndexRanges != null && arrayIndexRanges.isEmpty()) return Collections.emptyList();
+
+        List<String> args = new ArrayList<>();
+        args.add("-d"); // only finished jobs
+        args.add("-X");
+        args.add("-o");
+        args.add(FORMAT_SPEC);
+        if (arrayIndexRanges == null) {
+            args.add(jobId.toString());
+        }
+        else {
+            args.add(jobId + "[" + arrayIndexRanges + "]");
+        }
+        return runJobsCommand(args, true, this::parseJobInfo);
+    }
+
+    private JobInfo parseJobInfo(String line) {
+
+        // Skip blank lines, and the header
+        if (StringUtils.isBlank(line) || line.startsWith("JOBID")) {
+            return null;
+        }
+
+        if (line.matches("No .* found") || NOT_FOUND_PATTERN.matcher(line).matches()) {
+            return null;
+        }
+
+        try {
+            // We have to escape the delimiter, because split takes a regex
+            String[] split = line.split("\\"+BJOBS_DELIMITER);
+            log.trace("Parsed '{}' into {} values", line, split.length);
+
+            int c = 0;
+            String jobIdStr = getValue(split, c++);
+            String name = getValue(split, c++);
+            String fromHost = getValue(split, c++);
+            String execHost = getValue(split, c++);
+            String stat = getValue(split, c++);
+            String queue = getValue(split, c++);
+            String project = getValue(split, c++);
+            String reqSlot = getValue(split, c++);
+            String allocSlot = getValue(split, c++);
+            String submitTime = getValue(split, c++);
+            String startTime = getValue(split, c++);
+            String finishTime = getValue(split, c++);
+            String maxMem = getValue(split, c++);
+            String exitCodeStr = getValue(split, c++);
+            String exitReason = getValue(split, c++);
+            String avgMem = getValue(split, c++);
+            String swap = getValue(split, c++);
+            String cpuUsed = getValue(split, c++);
+
+            LsfJobInfo info = new LsfJobInfo();
+            info.setJobId(LsfUtils.parseLong(jobIdStr));
+            info.setLsfJobName(name);
+            if (jobNamePrefix != null && info.getName() != null && info.getName().startsWith(jobNamePrefix)) {
+                info.setName(info.getName().substring(jobNamePrefix.length()));
+            }
+            info.setFromHost(fromHost);
+            info.setExecHost(execHost);
+            info.setLsfJobStatus(stat);
+            info.setQueue(queue);
+            info.setProject(project);
+            info.setReqSlot(LsfUtils.parseInt(reqSlot));
+            info.setAllocSlot(LsfUtils.parseInt(allocSlot));
+            info.setMaxMem(maxMem);
+            info.setMaxMemBytes(LsfUtils.parseMemToBytes(maxMem));
+            info.setAvgMemBytes(LsfUtils.parseMemToBytes(avgMem));
+            info.setSwapBytes(LsfUtils.parseMemToBytes(swap));
+            info.setCpuSeconds(LsfUtils.parseCpuSeconds(cpuUsed));
+
+            try {
+                info.setSubmitTime(LsfUtils.parseDate(submitTime));
+            }
+            catch (DateTimeParseException e) {
+                log.error("Error parsing date: "+submitTime);
+            }
+
+            try {
+                info.setStartTime(LsfUtils.parseDate(startTime));
+            }
+            catch (DateTimeParseException e) {
+                log.error("Error parsing date: "+startTime);
+            }
+
+            try {
+                info.setFinishTime(LsfUtils.parseDate(finishTime));
+            }
+            catch (DateTimeParseException e) {
+                log.error("Error parsing date: "+finishTime);
+            }
+
+            // LSF does not give an exit code unless it is non-zero
+            Integer exitCode = LsfUtils.parseInt(exitCodeStr);
+            if (exitCode==null && info.getStatus().isDone()) exitCode = 0;
+            info.setExitCode(exitCode);
+            info.setExitReason(exitReason);
+
+            return info;
+        } catch (Exception e) {
+            log.error("Error parsing line: "+line, e);
+            return null;
+        }
+    }
     
-    private String getValue(String[] values, int index) {
+    static String getValue(String[] values, int index) {
+        // Tolerate output which is missing the trailing fields
+        if (index >= values.length) return null;
         String s = values[index];
         // Interpret missing values as nulls
         if ("-".equals(s)) return null;
@@ -141,10 +318,18 @@ public class LsfJobsCommand {
         return s.trim();
     }
 
-    private List<JobInfo> runJobsCommand(List<String> args, Function<String,JobInfo> parser) throws IOException {
+    <T> List<T> runJobsCommand(List<String> args, Function<String,T> parser) throws IOException {
+        return runJobsCommand(args, false, parser);
+    }
+
+    /**
+     * Run bjobs with the given arguments, and parse each line of its output.
+     * @param allowNotFound if true, bjobs failing because some of the requested jobs were not found is not an error
+     */
+    <T> List<T> runJobsCommand(List<String> args, boolean allowNotFound, Function<String,T> parser) throws IOException {
 
         List<String> cmd = new ArrayList<>();
-        cmd.add(BJOBS_COMMAND);
+        cmd.add(bjobsCommand);
         cmd.addAll(args);
         
         log.debug("Running: {}", cmd);
@@ -154,13 +339,15 @@ public class LsfJobsCommand {
         Process p = processBuilder.start();
 
         StringBuilder output = new StringBuilder();
-        List<JobInfo> statusList = new ArrayList<>();
+        List<T> statusList = new ArrayList<>();
+        boolean notFound = false;
         try (BufferedReader input = new BufferedReader(new InputStreamReader(p.getInputStream()))) {
             String line;
             while ((line = input.readLine()) != null) {
                 output.append(line).append("\n");
                 log.trace(BJOBS_COMMAND+" output: {}", line);
-                JobInfo info = parser.apply(line);
+                notFound |= NOT_FOUND_PATTERN.matcher(line).matches();
+                T info = parser.apply(line);
                 if (info!=null) {
                     statusList.add(info);
                 }
@@ -169,7 +356,7 @@ public class LsfJobsCommand {
 
         int exitValue = waitUntilDone(p);
         log.trace("exitValue: {}", exitValue);
-        if (exitValue != 0) {
+        if (exitValue != 0 && !(allowNotFound && notFound)) {
             log.warn(BJOBS_COMMAND + " failed with exit code {}. Output:\n{}", exitValue, output);
             throw new IOException(BJOBS_COMMAND + " exited with code " + exitValue);
         }
@@ -188,6 +375,53 @@ public class LsfJobsCommand {
 
     }
 
+    public String getJobGroup() {
+        return jobGroup;
+    }
+
+    /**
+     * Only list the jobs in the given LSF job group (and its subgroups). Lookups by job id are not affected.
+     */
+    public void setJobGroup(String jobGroup) {
+        this.jobGroup = jobGroup;
+    }
+
+    public String getJobNamePrefix() {
+        return jobNamePrefix;
+    }
+
+    /**
+     * Only list the jobs whose names start with the given prefix, and remove the prefix from the names in the
+     * returned JobInfos (the full name is still available from LsfJobInfo.getLsfJobName). Lookups by job id
+     * are not affected, but their names are also stripped.
+     */
+    public void setJobNamePrefix(String jobNamePrefix) {
+        this.jobNamePrefix = jobNamePrefix;
+    }
+
+    public int getMaxArgBytes() {
+        return maxArgBytes;
+    }
+
+    /**
+     * Sets the maximum total length of the arguments passed to a single bjobs invocation, when looking up jobs
+     * by id. Longer lookups are split across several invocations.
+     */
+    public void setMaxArgBytes(int maxArgBytes) {
+        this.maxArgBytes = maxArgBytes;
+    }
+
+    public String getBjobsCommand() {
+        return bjobsCommand;
+    }
+
+    /**
+     * Sets the bjobs executable to run, either a name to be found on the PATH (the default) or a full path.
+     */
+    public void setBjobsCommand(String bjobsCommand) {
+        this.bjobsCommand = bjobsCommand;
+    }
+
     public static void main(String[] args) {
         
         LsfJobsCommand commands = new LsfJobsCommand();
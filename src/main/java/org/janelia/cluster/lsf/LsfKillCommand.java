@@ -1,6 +1,7 @@
 package org.janelia.cluster.lsf;
 
 import org.janelia.cluster.JobCmdFlag;
+import org.janelia.cluster.JobKillResult;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -9,14 +10,24 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
 /**
  * Wrapper around the LSF bkill command.
- * 
+ *
  * @author <a href="mailto:rokickik@janelia.hhmi.org">Konrad Rokicki</a>
  */
 public class LsfKillCommand {
@@ -24,6 +35,13 @@ public class LsfKillCommand {
     private static final Logger log = LoggerFactory.getLogger(LsfKillCommand.class);
 
     private static final String BKILL_COMMAND = "bkill";
+    private static final Pattern OUTPUT_PATTERN = Pattern.compile("Job <([^>]+)>:?\\s*(.*)");
+
+    private static final int DEFAULT_PARALLELISM = 4;
+
+    private int maxArgBytes = LsfUtils.DEFAULT_MAX_ARG_BYTES;
+    private int parallelism = DEFAULT_PARALLELISM;
+    private String bkillCommand = BKILL_COMMAND;
 
     public void executeWithJobName(String jobName, JobCmdFlag... flags) throws IOException {
         String[] execArgs = Stream.concat(
@@ -41,41 +59,222 @@ public class LsfKillCommand {
         execute(execArgs);
     }
 
+    /**
+     * Kill every unfinished job in the given LSF job group (and its subgroups) with a single bkill call.
+     * @param jobGroup job group, e.g. "/pipelines/alignment"
+     * @return the outcome for each job mentioned by bkill
+     * @throws IOException if bkill could not be run
+     */
+    public List<JobKillResult> executeWithJobGroup(String jobGroup, JobCmdFlag... flags) throws IOException {
+        return executeWithScope(jobGroup, null, flags);
+    }
+
+    /**
+     * Kill every unfinished job in a job group and/or with a matching name, with a single bkill call.
+     * @param jobGroup job group, e.g. "/pipelines/alignment", or null for any group
+     * @param jobNamePattern job name, which may end with a * wildcard (e.g. "session1_*"), or null for any name
+     * @return the outcome for each job mentioned by bkill
+     * @throws IOException if bkill could not be run
+     */
+    public List<JobKillResult> executeWithScope(String jobGroup, String jobNamePattern, JobCmdFlag... flags)
+            throws IOException {
+
+        if (jobGroup == null && jobNamePattern == null) {
+            // bkill 0 on its own would kill every job of the user
+            throw new IllegalArgumentException("A job group or job name pattern is required");
+        }
+
+        List<String> cmd = new ArrayList<>();
+        cmd.add(bkillCommand);
+        Arrays.stream(flags).flatMap(f -> f.getFlags().stream()).forEach(cmd::add);
+        if (jobGroup != null) {
+            cmd.add("-g");
+            cmd.add(jobGroup);
+        }
+        if (jobNamePattern != null) {
+            cmd.add("-J");
+            cmd.add(jobNamePattern);
+        }
+        cmd.add("0"); // All of the matching jobs
+
+        List<String> output = new ArrayList<>();
+        int exitValue = run(cmd, output);
+        log.trace("exitValue: "+exitValue);
+        return parseOutput(output);
+    }
+
+    /**
+     * Kill many jobs at once. The job specs are packed into as few bkill invocations as the argument length
+     * limit allows, and the invocations are run in parallel. Unlike the other methods, this method does not
+     * throw an exception when bkill fails for some of the jobs. Instead, the outcome for each job is parsed
+     * from the bkill output.
+     * @param jobSpecs job ids, with optional array index ranges, e.g. "123[1-500,700]"
+     * @return the outcome for each job or job array element
+     * @throws IOException if bkill could not be run
+     */
+    public List<JobKillResult> executeWithJobIds(Collection<String> jobSpecs, JobCmdFlag... flags) throws IOException {
+
+        List<String> flagArgs = Arrays.stream(flags).flatMap(f -> f.getFlags().stream()).collect(Collectors.toList());
+        List<String> baseArgs = new ArrayList<>(flagArgs);
+        baseArgs.add(0, bkillCommand);
+        List<List<String>> batches = LsfUtils.partitionArgs(baseArgs, jobSpecs, maxArgBytes);
+        log.debug("Killing {} jobs with {} bkill calls", jobSpecs.size(), batches.size());
+
+        List<JobKillResult> results = new ArrayList<>();
+        if (batches.size() == 1) {
+            results.addAll(killBatch(flagArgs, batches.get(0)));
+        }
+        else if (batches.size() > 1) {
+            ExecutorService executor = Executors.newFixedThreadPool(Math.min(parallelism, batches.size()));
+            try {
+                List<Future<List<JobKillResult>>> futures = new ArrayList<>();
+                for (List<String> batch : batches) {
+                    futures.add(executor.submit(() -> killBatch(flagArgs, batch)));
+                }
+                for (Future<List<JobKillResult>> future : futures) {
+                    results.addAll(future.get());
+                }
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException(BKILL_COMMAND+" was interrupted", e);
+            }
+            catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                }
+                throw new IOException(BKILL_COMMAND+" failed", e.getCause());
+            }
+            finally {
+                executor.shutdownNow();
+            }
+        }
+        return results;
+    }
+
+    private List<JobKillResult> killBatch(List<String> flagArgs, List<String> jobSpecs) throws IOException {
+
+        List<String> cmd = new ArrayList<>();
+        cmd.add(bkillCommand);
+        cmd.addAll(flagArgs);
+        cmd.addAll(jobSpecs);
+
+        List<String> output = new ArrayList<>();
+        int exitValue = run(cmd, output);
+        log.trace("exitValue: "+exitValue);
+
+        List<JobKillResult> results = parseOutput(output);
+
+        // Account for any jobs that bkill did not mention
+        Set<String> reportedIds = new HashSet<>();
+        for (JobKillResult result : results) {
+            reportedIds.add(getJobIdPart(result.getJobSpec()));
+        }
+        for (String jobSpec : jobSpecs) {
+            if (!reportedIds.contains(getJobIdPart(jobSpec))) {
+                results.add(new JobKillResult(jobSpec, false, BKILL_COMMAND+" exited with code "+exitValue));
+            }
+        }
+
+        return results;
+    }
+
+    private static String getJobIdPart(String jobSpec) {
+        int b = jobSpec.indexOf('[');
+        return b > 0 ? jobSpec.substring(0, b) : jobSpec;
+    }
+
+    /**
+     * Parse the outcome for each job from bkill output, e.g. "Job <123[7]> is being terminated" or
+     * "Job <124>: No matching job found".
+     * @param lines bkill output lines
+     * @return the outcome for each job mentioned in the output
+     */
+    public static List<JobKillResult> parseOutput(List<String> lines) {
+        List<JobKillResult> results = new ArrayList<>();
+        for (String line : lines) {
+            Matcher m = OUTPUT_PATTERN.matcher(line.trim());
+            if (m.matches()) {
+                String message = m.group(2).trim();
+                boolean success = message.startsWith("is being") || message.contains("in progress");
+                results.add(new JobKillResult(m.group(1), success, message));
+            }
+        }
+        return results;
+    }
+
     private void execute(String... args) throws IOException {
 
         List<String> cmd = new ArrayList<>();
-        cmd.add(BKILL_COMMAND);
+        cmd.add(bkillCommand);
         Collections.addAll(cmd, args);
+
+        List<String> output = new ArrayList<>();
+        int exitValue = run(cmd, output);
+        log.trace("exitValue: "+exitValue);
+        if (exitValue!=0) {
+            log.warn(BKILL_COMMAND +" failed with exit code {}. Output:\n{}", exitValue, String.join("\n", output));
+            throw new IOException(BKILL_COMMAND +" exited with code "+exitValue);
+        }
+    }
+
+    private int run(List<String> cmd, List<String> output) throws IOException {
+
         log.info("Running: {}", cmd);
-        
+
         ProcessBuilder processBuilder = new ProcessBuilder(cmd);
         processBuilder.redirectErrorStream(true);
 
         Process p = processBuilder.start();
 
-        StringBuilder output = new StringBuilder();
         try (BufferedReader input = new BufferedReader(new InputStreamReader(p.getInputStream()))) {
             String line;
             while ((line = input.readLine()) != null) {
-                output.append(line).append("\n");
+                output.add(line);
                 log.trace(BKILL_COMMAND +" output: {}", line);
             }
         }
 
-        int exitValue;
         try {
             log.trace("Waiting for exit...");
             p.waitFor(30, TimeUnit.SECONDS);
-            exitValue = p.exitValue();
-            log.trace("exitValue: "+exitValue);
-            if (exitValue!=0) {
-                log.warn(BKILL_COMMAND +" failed with exit code {}. Output:\n{}", exitValue, output);
-                throw new IOException(BKILL_COMMAND +" exited with code "+exitValue);
-            }
+            return p.exitValue();
         }
         catch (InterruptedException e) {
             throw new IOException(BKILL_COMMAND +" did not exit cleanly", e);
         }
     }
 
+    public int getMaxArgBytes() {
+        return maxArgBytes;
+    }
+
+    /**
+     * Sets the maximum total length of the arguments passed to a single bkill invocation.
+     */
+    public void setMaxArgBytes(int maxArgBytes) {
+        this.maxArgBytes = maxArgBytes;
+    }
+
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Sets the maximum number of bkill invocations to run at once when killing many jobs.
+     */
+    public void setParallelism(int parallelism) {
+        this.parallelism = parallelism;
+    }
+
+    public String getBkillCommand() {
+        return bkillCommand;
+    }
+
+    /**
+     * Sets the bkill executable to run, either a name to be found on the PATH (the default) or a full path.
+     */
+    public void setBkillCommand(String bkillCommand) {
+        this.bkillCommand = bkillCommand;
+    }
 }
@@ -0,0 +1,191 @@
+package org.janelia.cluster.lsf;
+
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.List;
+import java.util.Objects;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Incremental reader for LSF's append-only logs (lsb.acct and lsb.events). The file is read through memory-mapped
+ * windows, starting from the byte offset reached by the previous read, and only complete records of the requested
+ * types are copied out of the mapping and passed on. The offset is persisted to a checkpoint file (if one is given),
+ * so that a restarted reader does not rescan the file. If the log has been rotated since the last read, the
+ * remainder of the rotated file (e.g. lsb.events.1) is read before starting on the new one.
+ */
+class LsfLogReader {
+
+    private static final Logger log = LoggerFactory.getLogger(LsfLogReader.class);
+
+    // Constants
+    private static final int DEFAULT_WINDOW_BYTES = 64 * 1024 * 1024;
+
+    // Configuration
+    private final Path logFile;
+    private final Path checkpointFile;
+    private final byte[][] recordTypes;
+    private int windowBytes = DEFAULT_WINDOW_BYTES;
+
+    // State
+    private long offset;
+    private String fileKey;
+    private byte[] lineBuffer = new byte[4096];
+
+    /**
+     * @param logFile path to the log
+     * @param checkpointFile file in which to persist the read position, or null to always start from the beginning
+     * @param recordTypes types of record to read, e.g. "JOB_FINISH"
+     * @throws IOException if the checkpoint file cannot be read
+     */
+    LsfLogReader(Path logFile, Path checkpointFile, String... recordTypes) throws IOException {
+        this.logFile = logFile;
+        this.checkpointFile = checkpointFile;
+        this.recordTypes = new byte[recordTypes.length][];
+        for (int i = 0; i < recordTypes.length; i++) {
+            this.recordTypes[i] = ("\"" + recordTypes[i] + "\"").getBytes(StandardCharsets.US_ASCII);
+        }
+        if (checkpointFile != null && Files.exists(checkpointFile)) {
+            List<String> lines = Files.readAllLines(checkpointFile, StandardCharsets.UTF_8);
+            if (lines.size() >= 2) {
+                this.fileKey = lines.get(0).isEmpty() ? null : lines.get(0);
+                this.offset = Long.parseLong(lines.get(1).trim());
+                log.debug("Resuming {} from offset {}", logFile, offset);
+            }
+        }
+    }
+
+    /**
+     * Read the records appended since the last read, passing each one to the given handler.
+     * @param handler handler for the records
+     * @throws IOException if the log cannot be read
+     */
+    synchronized void read(RecordHandler handler) throws IOException {
+
+        if (!Files.exists(logFile)) {
+            return;
+        }
+
+        String currentKey = getFileKey(logFile);
+        if (!Objects.equals(currentKey, fileKey) || Files.size(logFile) < offset) {
+            // The log was rotated, so finish the previous file if it is still around
+            Path rotated = Paths.get(logFile + ".1");
+            if (fileKey != null && Files.exists(rotated) && fileKey.equals(getFileKey(rotated))) {
+                log.info("{} was rotated, reading the rest of {}", logFile, rotated);
+                read(rotated, offset, handler);
+            }
+            fileKey = currentKey;
+            offset = 0;
+        }
+
+        offset = read(logFile, offset, handler);
+        saveCheckpoint();
+    }
+
+    /**
+     * Returns the byte offset up to which the current log has been read.
+     */
+    synchronized long getOffset() {
+        return offset;
+    }
+
+    private long read(Path file, long start, RecordHandler handler) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            long pos = start;
+            int window = windowBytes;
+            while (pos < size) {
+                int length = (int) Math.min(window, size - pos);
+                MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, pos, length);
+                int lineStart = 0;
+                for (int i = 0; i < length; i++) {
+                    if (buffer.get(i) == '\n') {
+                        readLine(buffer, lineStart, i, handler);
+                        lineStart = i + 1;
+                    }
+                }
+                if (lineStart == 0) {
+                    if (pos + length >= size) {
+                        // The last record is still being written
+                        break;
+                    }
+                    // A single record is larger than the window
+                    window *= 2;
+                    continue;
+                }
+                pos += lineStart;
+            }
+            return pos;
+        }
+    }
+
+    private void readLine(MappedByteBuffer buffer, int start, int end, RecordHandler handler) {
+
+        if (end > start && buffer.get(end - 1) == '\r') end--;
+        if (!hasRecordType(buffer, start, end)) return;
+
+        int length = end - start;
+        if (lineBuffer.length < length) {
+            lineBuffer = new byte[Math.max(length, lineBuffer.length * 2)];
+        }
+        for (int i = 0; i < length; i++) {
+            lineBuffer[i] = buffer.get(start + i);
+        }
+
+        try {
+            handler.handle(lineBuffer, length);
+        }
+        catch (RuntimeException e) {
+            log.warn("Could not parse record: {}", new String(lineBuffer, 0, length, StandardCharsets.UTF_8), e);
+        }
+    }
+
+    private boolean hasRecordType(MappedByteBuffer buffer, int start, int end) {
+        outer:
+        for (byte[] recordType : recordTypes) {
+            if (end - start <= recordType.length || buffer.get(start + recordType.length) != ' ') continue;
+            for (int i = 0; i < recordType.length; i++) {
+                if (buffer.get(start + i) != recordType[i]) continue outer;
+            }
+            return true;
+        }
+        return false;
+    }
+
+    private static String getFileKey(Path file) throws IOException {
+        Object key = Files.readAttributes(file, BasicFileAttributes.class).fileKey();
+        return key == null ? null : key.toString();
+    }
+
+    private void saveCheckpoint() throws IOException {
+        if (checkpointFile == null) return;
+        Path temp = checkpointFile.resolveSibling(checkpointFile.getFileName() + ".tmp");
+        String contents = (fileKey == null ? "" : fileKey) + "\n" + offset + "\n";
+        Files.write(temp, contents.getBytes(StandardCharsets.UTF_8));
+        Files.move(temp, checkpointFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Sets the size of the memory-mapped windows used to read the log.
+     */
+    void setWindowBytes(int windowBytes) {
+        this.windowBytes = windowBytes;
+    }
+
+    interface RecordHandler {
+        /**
+         * Handle a record, which occupies the given number of bytes at the start of the buffer. The buffer is
+         * reused for the next record.
+         */
+        void handle(byte[] record, int length);
+    }
+}
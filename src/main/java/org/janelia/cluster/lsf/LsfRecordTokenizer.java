@@ -0,0 +1,120 @@
+package org.janelia.cluster.lsf;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Tokenizer for the records of LSF's event and accounting logs (lsb.events and lsb.acct). Each record is a
+ * line of space-separated fields, in which strings are enclosed in double quotes, with any embedded quotes
+ * doubled. The tokenizer works directly on the bytes of the line, and only decodes the fields that are read,
+ * so that uninteresting fields and records can be skipped cheaply.
+ */
+class LsfRecordTokenizer {
+
+    private byte[] buf;
+    private int pos;
+    private int end;
+
+    /**
+     * Start tokenizing the bytes between start (inclusive) and end (exclusive) of the given buffer.
+     */
+    void reset(byte[] buf, int start, int end) {
+        this.buf = buf;
+        this.pos = start;
+        this.end = end;
+    }
+
+    boolean hasNext() {
+        skipSpaces();
+        return pos < end;
+    }
+
+    /**
+     * Returns the next field as a string. Unquoted fields are returned as they are.
+     */
+    String nextString() {
+        skipSpaces();
+        if (pos >= end) {
+            throw new IllegalStateException("Record ended unexpectedly");
+        }
+        if (buf[pos] != '"') {
+            int start = pos;
+            skipToken();
+            return new String(buf, start, pos - start, StandardCharsets.UTF_8);
+        }
+        int start = ++pos;
+        boolean escaped = false;
+        while (pos < end) {
+            if (buf[pos] == '"') {
+                if (pos + 1 < end && buf[pos + 1] == '"') {
+                    escaped = true;
+                    pos += 2;
+                    continue;
+                }
+                break;
+            }
+            pos++;
+        }
+        String s = new String(buf, start, pos - start, StandardCharsets.UTF_8);
+        pos++; // closing quote
+        return escaped ? s.replace("\"\"", "\"") : s;
+    }
+
+    /**
+     * Returns the next field as a long. Fractional values are truncated.
+     */
+    long nextLong() {
+        skipSpaces();
+        int start = pos;
+        boolean negative = false;
+        if (pos < end && buf[pos] == '-') {
+            negative = true;
+            pos++;
+        }
+        long value = 0;
+        while (pos < end && buf[pos] >= '0' && buf[pos] <= '9') {
+            value = value * 10 + (buf[pos++] - '0');
+        }
+        if (pos < end && buf[pos] != ' ') {
+            // Not a plain integer, e.g. a quoted or fractional number
+            pos = start;
+            return (long) Double.parseDouble(nextString());
+        }
+        return negative ? -value : value;
+    }
+
+    int nextInt() {
+        return (int) nextLong();
+    }
+
+    double nextDouble() {
+        String s = nextString();
+        return s.isEmpty() ? 0 : Double.parseDouble(s);
+    }
+
+    /**
+     * Skip the given number of fields.
+     */
+    void skip(int count) {
+        for (int i = 0; i < count; i++) {
+            skipSpaces();
+            if (pos < end && buf[pos] == '"') {
+                nextString();
+            }
+            else {
+                skipToken();
+            }
+        }
+    }
+
+    private void skipSpaces() {
+        while (pos < end && buf[pos] == ' ') {
+            pos++;
+        }
+    }
+
+    private void skipToken() {
+        while (pos < end && buf[pos] != ' ') {
+            pos++;
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package org.janelia.cluster.lsf;
+
+import org.janelia.cluster.JobStatsStore;
+import org.janelia.cluster.JobTemplate;
+import org.janelia.cluster.QuantileSketch;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+
+/**
+ * Suggests memory (-M and rusage[mem=...]) and run time (-W) limits for LSF jobs, based on the usage of
+ * previous jobs with the same name and queue recorded in a JobStatsStore. The suggestion is a high quantile
+ * of the observed usage (by default the 95th percentile) times a safety margin.
+ *
+ * The apply() method is suitable for use as a JobManager submit hook. It never raises a limit which is already
+ * present in the template, and by default it only tightens such limits, since adding a limit where there was
+ * none can cause jobs to be killed.
+ */
+public class LsfResourceAdvisor {
+
+    private static final Logger log = LoggerFactory.getLogger(LsfResourceAdvisor.class);
+
+    // Constants
+    private static final double DEFAULT_QUANTILE = 0.95;
+    private static final double DEFAULT_MARGIN = 1.25;
+    private static final long DEFAULT_MIN_SAMPLES = 20;
+    private static final long MIN_MEM_BYTES = 64L * 1024 * 1024;
+    private static final long MIN_RUN_LIMIT_MINUTES = 5;
+
+    // Configuration
+    private final JobStatsStore store;
+    private double quantile = DEFAULT_QUANTILE;
+    private double margin = DEFAULT_MARGIN;
+    private long minSamples = DEFAULT_MIN_SAMPLES;
+    private boolean addMissingLimits = false;
+
+    public LsfResourceAdvisor(JobStatsStore store) {
+        this.store = store;
+    }
+
+    /**
+     * Suggest limits for the given job.
+     * @param jt job template
+     * @return suggested limits, or null if too few jobs like this one have been recorded
+     */
+    public Suggestion suggest(JobTemplate jt) {
+        if (jt.getJobName() == null) return null;
+        String queue = LsfUtils.getQueue(jt.getNativeSpecification());
+        JobStatsStore.JobStats stats = store.getStats(jt.getJobName(), queue);
+        if (stats == null) return null;
+
+        Long memBytes = null;
+        QuantileSketch mem = stats.getMemBytes();
+        if (mem.getCount() >= minSamples) {
+            memBytes = Math.max(MIN_MEM_BYTES, (long) Math.ceil(mem.getQuantile(quantile) * margin));
+        }
+
+        Long runLimitMinutes = null;
+        QuantileSketch run = stats.getRunSeconds();
+        if (run.getCount() >= minSamples) {
+            runLimitMinutes = Math.max(MIN_RUN_LIMIT_MINUTES, (long) Math.ceil(run.getQuantile(quantile) * margin / 60));
+        }
+
+        if (memBytes == null && runLimitMinutes == null) return null;
+        return new Suggestion(memBytes, runLimitMinutes, Math.max(mem.getCount(), run.getCount()));
+    }
+
+    /**
+     * Returns a copy of the given template with tighter limits, if there is enough data to suggest any.
+     * @param jt job template
+     * @return template with tighter limits, or the original template if no limits were changed
+     */
+    public JobTemplate apply(JobTemplate jt) {
+        Suggestion suggestion = suggest(jt);
+        if (suggestion == null) return jt;
+
+        List<String> spec = jt.getNativeSpecification();
+        JobTemplate tightened = null;
+
+        Long suggestedMem = suggestion.getMemBytes();
+        if (suggestedMem != null) {
+            Long currentMem = LsfUtils.getMemoryLimit(spec);
+            if (currentMem == null ? shouldAddLimit(LsfUtils.hasMemoryLimit(spec)) : suggestedMem < currentMem) {
+                tightened = new JobTemplate(jt);
+                LsfUtils.setMemoryLimit(tightened, suggestedMem);
+            }
+        }
+
+        Long suggestedRun = suggestion.getRunLimitMinutes();
+        if (suggestedRun != null) {
+            Long currentRun = LsfUtils.getRunLimitMinutes(spec);
+            if (currentRun == null ? shouldAddLimit(LsfUtils.hasRunLimit(spec)) : suggestedRun < currentRun) {
+                if (tightened == null) tightened = new JobTemplate(jt);
+                LsfUtils.setRunLimit(tightened, suggestedRun);
+            }
+        }
+
+        if (tightened == null) return jt;
+        log.debug("Tightened limits of {} based on {} previous jobs: {}", jt.getJobName(),
+                suggestion.getSamples(), tightened.getNativeSpecification());
+        return tightened;
+    }
+
+    /**
+     * Returns true if a limit should be added where none could be read. A limit which is present but could not be
+     * interpreted (e.g. a memory limit without units) is left alone, since it may already be lower than the
+     * suggestion.
+     */
+    private boolean shouldAddLimit(boolean present) {
+        return addMissingLimits && !present;
+    }
+
+    /**
+     * Sets the quantile of the observed usage to base the limits on. Defaults to 0.95.
+     */
+    public void setQuantile(double quantile) {
+        this.quantile = quantile;
+    }
+
+    /**
+     * Sets the factor by which to multiply the observed usage. Defaults to 1.25.
+     */
+    public void setMargin(double margin) {
+        this.margin = margin;
+    }
+
+    /**
+     * Sets the number of previous jobs that must have been recorded before any limits are suggested.
+     * Defaults to 20.
+     */
+    public void setMinSamples(long minSamples) {
+        this.minSamples = minSamples;
+    }
+
+    /**
+     * If true, apply() also adds limits to templates which do not have them. Defaults to false.
+     */
+    public void setAddMissingLimits(boolean addMissingLimits) {
+        this.addMissingLimits = addMissingLimits;
+    }
+
+    /**
+     * Suggested limits for a job.
+     */
+    public static class Suggestion {
+
+        private final Long memBytes;
+        private final Long runLimitMinutes;
+        private final long samples;
+
+        Suggestion(Long memBytes, Long runLimitMinutes, long samples) {
+            this.memBytes = memBytes;
+            this.runLimitMinutes = runLimitMinutes;
+            this.samples = samples;
+        }
+
+        /**
+         * Suggested memory limit in bytes, or null if there is not enough data.
+         */
+        public Long getMemBytes() {
+            return memBytes;
+        }
+
+        /**
+         * Suggested run limit in minutes, or null if there is not enough data.
+         */
+        public Long getRunLimitMinutes() {
+            return runLimitMinutes;
+        }
+
+        /**
+         * Number of previous jobs the suggestion is based on.
+         */
+        public long getSamples() {
+            return samples;
+        }
+
+        @Override
+        public String toString() {
+            return "Suggestion[memBytes=" + memBytes + ", runLimitMinutes=" + runLimitMinutes
+                    + ", samples=" + samples + "]";
+        }
+    }
+}
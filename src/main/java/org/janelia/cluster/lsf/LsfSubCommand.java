@@ -3,6 +3,7 @@ package org.janelia.cluster.lsf;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.*;
@@ -14,6 +15,7 @@ import org.apache.commons.io.FileUtils;
 import org.janelia.cluster.JobInfo;
 import org.janelia.cluster.JobStatus;
 import org.janelia.cluster.JobTemplate;
+import org.janelia.cluster.Utils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -31,15 +33,60 @@ public class LsfSubCommand {
     private static final Pattern SUCCESS_PATTERN = Pattern.compile("Job <(\\d+)> is submitted to (?:\\S+ )?queue <(.+)>.");
 
     private boolean isJobReportMail = false;
+    private LsfSubmitRateLimiter rateLimiter;
+    private String bsubCommand = BSUB_COMMAND;
+    private String jobGroup;
+    private String jobNamePrefix;
 
     public JobInfo execute(JobTemplate jt) throws IOException {
         return execute(jt, null, null);
     }
     
     public JobInfo execute(JobTemplate jt, Long start, Long end) throws IOException {
+        if (start!=null && end!=null) {
+            return execute(jt, String.format("%d-%d", start, end));
+        }
+        return execute(jt, (String) null);
+    }
+
+    /**
+     * Submit a job array with an arbitrary set of array indexes, e.g. "name[1-5,7,10-12]".
+     */
+    public JobInfo execute(JobTemplate jt, Collection<Long> arrayIndexes) throws IOException {
+        return execute(jt, Utils.formatIndexRanges(arrayIndexes));
+    }
+
+    private JobInfo execute(JobTemplate jt, String arrayRanges) throws IOException {
+
+        if (rateLimiter == null) {
+            return submit(jt, arrayRanges);
+        }
+
+        String queue = LsfUtils.getQueue(jt.getNativeSpecification());
+        try {
+            rateLimiter.acquire(queue);
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting to run "+BSUB_COMMAND);
+        }
+
+        long startTime = System.currentTimeMillis();
+        try {
+            JobInfo info = submit(jt, arrayRanges);
+            rateLimiter.recordSuccess(queue, System.currentTimeMillis() - startTime);
+            return info;
+        }
+        catch (IOException e) {
+            rateLimiter.recordFailure(queue, System.currentTimeMillis() - startTime);
+            throw e;
+        }
+    }
+
+    private JobInfo submit(JobTemplate jt, String arrayRanges) throws IOException {
 
         List<String> cmd = new ArrayList<>();
-        cmd.add(BSUB_COMMAND);
+        cmd.add(bsubCommand);
         
         if (jt.getWorkingDir()!=null) {
             cmd.add("-cwd");
@@ -65,10 +112,18 @@ public class LsfSubCommand {
             cmd.addAll(jt.getNativeSpecification());
         }
 
+        if (jobGroup!=null && LsfUtils.getJobGroup(jt.getNativeSpecification())==null) {
+            cmd.add("-g");
+            cmd.add(jobGroup);
+        }
+
         cmd.add("-J");
         String name = jt.getJobName();
-        if (start!=null && end!=null) {
-            cmd.add(String.format("%s[%d-%d]", name, start, end));
+        if (jobNamePrefix!=null) {
+            name = jobNamePrefix + name;
+        }
+        if (arrayRanges!=null) {
+            cmd.add(String.format("%s[%s]", name, arrayRanges));
         }
         else {
             cmd.add(name);
@@ -151,6 +206,53 @@ public class LsfSubCommand {
         this.isJobReportMail = jobReportMail;
     }
 
+    public LsfSubmitRateLimiter getRateLimiter() {
+        return rateLimiter;
+    }
+
+    /**
+     * Throttle submissions through the given rate limiter. Every bsub call will wait for permission from the
+     * limiter, and report its latency and outcome back to it. Set to null to disable throttling.
+     */
+    public void setRateLimiter(LsfSubmitRateLimiter rateLimiter) {
+        this.rateLimiter = rateLimiter;
+    }
+
+    public String getJobGroup() {
+        return jobGroup;
+    }
+
+    /**
+     * Submit every job to the given LSF job group (e.g. "/pipelines/alignment"), unless the job template asks
+     * for a group itself. LSF creates the group if it does not exist.
+     */
+    public void setJobGroup(String jobGroup) {
+        this.jobGroup = jobGroup;
+    }
+
+    public String getJobNamePrefix() {
+        return jobNamePrefix;
+    }
+
+    /**
+     * Prepend the given prefix to the name of every job, e.g. to tell apart the jobs of different sessions
+     * which run under the same account.
+     */
+    public void setJobNamePrefix(String jobNamePrefix) {
+        this.jobNamePrefix = jobNamePrefix;
+    }
+
+    public String getBsubCommand() {
+        return bsubCommand;
+    }
+
+    /**
+     * Sets the bsub executable to run, either a name to be found on the PATH (the default) or a full path.
+     */
+    public void setBsubCommand(String bsubCommand) {
+        this.bsubCommand = bsubCommand;
+    }
+
     public static void main(String[] args) throws IOException {
         
         LsfSubCommand commands = new LsfSubCommand();
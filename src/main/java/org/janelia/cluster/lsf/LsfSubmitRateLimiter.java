@@ -0,0 +1,203 @@
+package org.janelia.cluster.lsf;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Adaptive token bucket rate limiter for bsub submissions. Each queue gets its own bucket, which refills at the
+ * queue's current rate. The rate adapts to the observed behavior of mbatchd: it is cut multiplicatively whenever
+ * bsub fails or the smoothed bsub latency exceeds the target latency, and it recovers additively while submissions
+ * are fast again.
+ *
+ * Submissions which do not specify a queue (using -q in the native specification) share a default bucket.
+ */
+public class LsfSubmitRateLimiter {
+
+    private static final Logger log = LoggerFactory.getLogger(LsfSubmitRateLimiter.class);
+
+    // Constants
+    private static final String DEFAULT_QUEUE = "";
+    private static final double DEFAULT_MAX_RATE = 10;
+    private static final double DEFAULT_MIN_RATE = 0.2;
+    private static final long DEFAULT_TARGET_LATENCY_MILLIS = 2000;
+    private static final double BACKOFF_FACTOR = 0.5;
+    private static final double RECOVERY_FRACTION = 0.05;
+    private static final double LATENCY_SMOOTHING = 0.2;
+
+    // Configuration
+    private final double defaultMaxRate;
+    private final double defaultMinRate;
+    private final long targetLatencyMillis;
+
+    // State
+    private final ConcurrentHashMap<String, Bucket> buckets = new ConcurrentHashMap<>();
+
+    public LsfSubmitRateLimiter() {
+        this(DEFAULT_MAX_RATE, DEFAULT_MIN_RATE, DEFAULT_TARGET_LATENCY_MILLIS);
+    }
+
+    /**
+     * @param maxRate maximum number of submissions per second, for queues without specific limits
+     * @param minRate rate below which the limiter will never back off
+     * @param targetLatencyMillis bsub latency above which the limiter starts backing off
+     */
+    public LsfSubmitRateLimiter(double maxRate, double minRate, long targetLatencyMillis) {
+        if (maxRate <= 0 || minRate <= 0 || minRate > maxRate) {
+            throw new IllegalArgumentException("Rates must be positive, with minRate <= maxRate");
+        }
+        this.defaultMaxRate = maxRate;
+        this.defaultMinRate = minRate;
+        this.targetLatencyMillis = targetLatencyMillis;
+    }
+
+    /**
+     * Configure the limits for a specific queue. The queue's current rate is reset to the new maximum.
+     * @param queue name of the LSF queue
+     * @param maxRate maximum number of submissions per second
+     * @param burst number of submissions which may be made back-to-back after an idle period
+     */
+    public void setQueueLimits(String queue, double maxRate, int burst) {
+        if (maxRate <= 0 || burst < 1) {
+            throw new IllegalArgumentException("maxRate must be positive and burst must be at least 1");
+        }
+        buckets.put(key(queue), new Bucket(maxRate, Math.min(defaultMinRate, maxRate), burst));
+    }
+
+    /**
+     * Block until a submission to the given queue is permitted.
+     * @param queue name of the LSF queue, or null for the default queue
+     * @return the number of milliseconds spent waiting
+     * @throws InterruptedException if the thread is interrupted while waiting
+     */
+    public long acquire(String queue) throws InterruptedException {
+        Bucket bucket = getBucket(queue);
+        long waitNanos = bucket.reserve();
+        if (waitNanos > 0) {
+            log.debug("Delaying submission to queue '{}' by {} ms", queue, TimeUnit.NANOSECONDS.toMillis(waitNanos));
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+        return TimeUnit.NANOSECONDS.toMillis(waitNanos);
+    }
+
+    /**
+     * Record a successful submission, and how long bsub took to return.
+     */
+    public void recordSuccess(String queue, long latencyMillis) {
+        getBucket(queue).adapt(latencyMillis, false);
+    }
+
+    /**
+     * Record a failed submission, and how long bsub took to fail.
+     */
+    public void recordFailure(String queue, long latencyMillis) {
+        getBucket(queue).adapt(latencyMillis, true);
+    }
+
+    /**
+     * Returns the current permitted submission rate for the given queue, in submissions per second.
+     */
+    public double getRate(String queue) {
+        return getBucket(queue).getRate();
+    }
+
+    /**
+     * Returns the smoothed bsub latency observed for the given queue, in milliseconds.
+     */
+    public long getLatencyMillis(String queue) {
+        return (long) getBucket(queue).getLatencyMillis();
+    }
+
+    /**
+     * Returns how long the most recent submission to the given queue had to wait, in milliseconds.
+     */
+    public long getLastWaitMillis(String queue) {
+        return TimeUnit.NANOSECONDS.toMillis(getBucket(queue).getLastWaitNanos());
+    }
+
+    /**
+     * Returns the total time that submissions to the given queue have spent waiting, in milliseconds.
+     */
+    public long getTotalWaitMillis(String queue) {
+        return TimeUnit.NANOSECONDS.toMillis(getBucket(queue).getTotalWaitNanos());
+    }
+
+    private Bucket getBucket(String queue) {
+        return buckets.computeIfAbsent(key(queue), k -> new Bucket(defaultMaxRate, defaultMinRate, 1));
+    }
+
+    private String key(String queue) {
+        return queue == null ? DEFAULT_QUEUE : queue;
+    }
+
+    private class Bucket {
+
+        private final double maxRate;
+        private final double minRate;
+        private final int burst;
+
+        private double rate;
+        private double tokens;
+        private long lastRefill;
+        private double latencyMillis;
+        private long lastWaitNanos;
+        private long totalWaitNanos;
+
+        Bucket(double maxRate, double minRate, int burst) {
+            this.maxRate = maxRate;
+            this.minRate = minRate;
+            this.burst = burst;
+            this.rate = maxRate;
+            this.tokens = burst;
+            this.lastRefill = System.nanoTime();
+        }
+
+        /**
+         * Take a token, going into debt if necessary, and return how long the caller must wait to pay it back.
+         */
+        synchronized long reserve() {
+            long now = System.nanoTime();
+            tokens = Math.min(burst, tokens + (now - lastRefill) * rate / TimeUnit.SECONDS.toNanos(1));
+            lastRefill = now;
+            tokens -= 1;
+            long waitNanos = tokens >= 0 ? 0 : (long) (-tokens / rate * TimeUnit.SECONDS.toNanos(1));
+            lastWaitNanos = waitNanos;
+            totalWaitNanos += waitNanos;
+            return waitNanos;
+        }
+
+        synchronized void adapt(long latency, boolean failed) {
+            latencyMillis = latencyMillis == 0 ? latency
+                    : (1 - LATENCY_SMOOTHING) * latencyMillis + LATENCY_SMOOTHING * latency;
+            double oldRate = rate;
+            if (failed || latencyMillis > targetLatencyMillis) {
+                rate = Math.max(minRate, rate * BACKOFF_FACTOR);
+            }
+            else {
+                rate = Math.min(maxRate, rate + maxRate * RECOVERY_FRACTION);
+            }
+            if (rate != oldRate) {
+                log.trace("Adjusted submission rate from {} to {} (latency={}ms, failed={})",
+                        oldRate, rate, latencyMillis, failed);
+            }
+        }
+
+        synchronized double getRate() {
+            return rate;
+        }
+
+        synchronized double getLatencyMillis() {
+            return latencyMillis;
+        }
+
+        synchronized long getLastWaitNanos() {
+            return lastWaitNanos;
+        }
+
+        synchronized long getTotalWaitNanos() {
+            return totalWaitNanos;
+        }
+    }
+}
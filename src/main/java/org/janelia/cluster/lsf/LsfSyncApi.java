@@ -1,10 +1,13 @@
 package org.janelia.cluster.lsf;
 
 import java.io.IOException;
+import java.util.Collection;
 import java.util.List;
+import java.util.stream.Collectors;
 
 import org.janelia.cluster.JobCmdFlag;
 import org.janelia.cluster.JobInfo;
+import org.janelia.cluster.JobKillResult;
 import org.janelia.cluster.JobSyncApi;
 import org.janelia.cluster.JobTemplate;
 
@@ -20,15 +23,23 @@ public class LsfSyncApi implements JobSyncApi {
     private final LsfSubCommand subCmd;
     private final LsfJobsCommand jobsCmd;
     private final LsfKillCommand killCmd;
+    private final LsfAcctCommand acctCmd;
+    private String jobGroup;
+    private String jobNamePrefix;
 
     public LsfSyncApi() {
         this(new LsfSubCommand(), new LsfJobsCommand(), new LsfKillCommand());
     }
     
     public LsfSyncApi(LsfSubCommand subCmd, LsfJobsCommand jobsCmd, LsfKillCommand killCmd) {
+        this(subCmd, jobsCmd, killCmd, new LsfAcctCommand());
+    }
+
+    public LsfSyncApi(LsfSubCommand subCmd, LsfJobsCommand jobsCmd, LsfKillCommand killCmd, LsfAcctCommand acctCmd) {
         this.subCmd = subCmd;
         this.jobsCmd = jobsCmd;
         this.killCmd = killCmd;
+        this.acctCmd = acctCmd;
     }
 
     @Override
@@ -46,6 +57,16 @@ public class LsfSyncApi implements JobSyncApi {
         return jobsCmd.execute(null, jobId);
     }
 
+    @Override
+    public List<JobInfo> getJobInfo(Collection<Long> jobIds) throws IOException {
+        return jobsCmd.execute(jobIds);
+    }
+
+    @Override
+    public List<JobInfo> getJobHistory(Collection<Long> jobIds) throws IOException {
+        return acctCmd.execute(jobIds);
+    }
+
     @Override
     public JobInfo submitJob(JobTemplate jt) throws IOException {
         return subCmd.execute(jt);
@@ -56,6 +77,11 @@ public class LsfSyncApi implements JobSyncApi {
         return subCmd.execute(jt, start, end);
     }
 
+    @Override
+    public JobInfo submitJobs(JobTemplate jt, Collection<Long> arrayIndexes) throws IOException {
+        return subCmd.execute(jt, arrayIndexes);
+    }
+
     @Override
     public void killJobById(Long jobId, JobCmdFlag... flags) throws IOException {
         killCmd.executeWithJobId(jobId, flags);
@@ -63,6 +89,51 @@ public class LsfSyncApi implements JobSyncApi {
 
     @Override
     public void killJobByName(String jobName, JobCmdFlag... flags) throws IOException {
-        killCmd.executeWithJobName(jobName, flags);
+        // Jobs were submitted with the prefix, so that is their name in LSF
+        killCmd.executeWithJobName(jobNamePrefix == null ? jobName : jobNamePrefix + jobName, flags);
+    }
+
+    @Override
+    public List<JobKillResult> killJobs(Collection<String> jobSpecs, JobCmdFlag... flags) throws IOException {
+        return killCmd.executeWithJobIds(jobSpecs, flags);
+    }
+
+    /**
+     * If this API is scoped by a job group and/or a job name prefix, kills every unfinished job in the scope with
+     * a single bkill call, whether or not it is among the given jobs. Otherwise, the given jobs are killed by id.
+     */
+    @Override
+    public List<JobKillResult> killAllJobs(Collection<Long> jobIds, JobCmdFlag... flags) throws IOException {
+        if (jobGroup != null || jobNamePrefix != null) {
+            return killCmd.executeWithScope(jobGroup, jobNamePrefix == null ? null : jobNamePrefix + "*", flags);
+        }
+        List<String> jobSpecs = jobIds.stream().map(Object::toString).collect(Collectors.toList());
+        return killCmd.executeWithJobIds(jobSpecs, flags);
+    }
+
+    /**
+     * Scope this API to an LSF job group: every job is submitted to the group, only the group's jobs are
+     * listed by getJobInfo(), and killAllJobs kills the whole group. Giving each JobManager its own group
+     * (e.g. "/pipelines/alignment") keeps its polls proportional to its own jobs, even when many workflows
+     * share the same account.
+     * @param jobGroup job group, or null to remove the scope
+     */
+    public void setJobGroup(String jobGroup) {
+        this.jobGroup = jobGroup;
+        subCmd.setJobGroup(jobGroup);
+        jobsCmd.setJobGroup(jobGroup);
+    }
+
+    /**
+     * Scope this API to jobs with names starting with the given prefix, which is prepended to every submitted
+     * job's name, and removed again from the names of listed jobs. Only jobs with the prefix are listed by
+     * getJobInfo(), killJobByName applies the prefix to the given name, and killAllJobs kills every job with
+     * the prefix. A unique prefix per session works much like a job group, without creating any groups.
+     * @param jobNamePrefix job name prefix, or null to remove the scope
+     */
+    public void setJobNamePrefix(String jobNamePrefix) {
+        this.jobNamePrefix = jobNamePrefix;
+        subCmd.setJobNamePrefix(jobNamePrefix);
+        jobsCmd.setJobNamePrefix(jobNamePrefix);
     }
 }
@@ -0,0 +1,201 @@
+package org.janelia.cluster.lsf;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+import org.apache.commons.lang3.StringUtils;
+import org.janelia.cluster.UsageSeries;
+import org.janelia.cluster.Utils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Periodically samples the memory, swap and CPU usage of running jobs with a single, narrow bjobs query
+ * (only running jobs, and only the usage fields), and keeps a short UsageSeries for each job for live capacity
+ * monitoring. The series of a job is dropped once the job is no longer running.
+ */
+public class LsfUsageSampler {
+
+    private static final Logger log = LoggerFactory.getLogger(LsfUsageSampler.class);
+
+    // Constants
+    private static final long DEFAULT_SAMPLE_INTERVAL_SECONDS = 60;
+    private static final int DEFAULT_CAPACITY = 60;
+    private static final Character DELIMITER = '^';
+    private static final String FORMAT_SPEC = "jobid name mem swap cpu_used delimiter='"+DELIMITER+"'";
+
+    // Configuration
+    private final LsfJobsCommand jobsCmd;
+    private final int capacity;
+    private Predicate<Long> jobIdFilter = jobId -> true;
+
+    // State
+    private final Map<String, UsageSeries> series = new ConcurrentHashMap<>();
+    private ScheduledExecutorService scheduler;
+    private ScheduledFuture<?> sampler;
+
+    public LsfUsageSampler() {
+        this(new LsfJobsCommand(), DEFAULT_CAPACITY);
+    }
+
+    /**
+     * @param jobsCmd bjobs wrapper to use
+     * @param capacity number of samples to keep for each job
+     */
+    public LsfUsageSampler(LsfJobsCommand jobsCmd, int capacity) {
+        this.jobsCmd = jobsCmd;
+        this.capacity = capacity;
+    }
+
+    /**
+     * Begin sampling every sampleIntervalSeconds. If already started, calling this method does nothing.
+     */
+    public synchronized void start(long sampleIntervalSeconds) {
+        if (sampler == null) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(
+                    Utils.newDaemonThreadFactory("LsfUsageSampler-sampler"));
+            sampler = scheduler.scheduleWithFixedDelay(this::sample, 0, sampleIntervalSeconds, TimeUnit.SECONDS);
+        }
+    }
+
+    public void start() {
+        start(DEFAULT_SAMPLE_INTERVAL_SECONDS);
+    }
+
+    /**
+     * Stop sampling. The series collected so far are kept.
+     */
+    public synchronized void stop() {
+        if (sampler != null) {
+            sampler.cancel(false);
+            sampler = null;
+            scheduler.shutdown();
+            scheduler = null;
+        }
+    }
+
+    /**
+     * Take one sample of all running jobs. This method is called periodically if start() is called.
+     */
+    public void sample() {
+
+        List<String> args = new ArrayList<>();
+        args.add("-r"); // running jobs only
+        args.add("-o");
+        args.add(FORMAT_SPEC);
+
+        List<Sample> samples;
+        try {
+            samples = jobsCmd.runJobsCommand(args, this::parseLine);
+        }
+        catch (Throwable t) {
+            // Keep the existing series, since we don't know which jobs are still running
+            log.error("Error sampling job usage", t);
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        Set<String> seen = new HashSet<>();
+        for (Sample sample : samples) {
+            if (!jobIdFilter.test(sample.jobId)) continue;
+            String key = getKey(sample.jobId, sample.arrayIndex);
+            seen.add(key);
+            series.computeIfAbsent(key, k -> new UsageSeries(capacity))
+                    .add(now, sample.memBytes, sample.swapBytes, sample.cpuSeconds);
+        }
+        series.keySet().retainAll(seen);
+        log.debug("Sampled usage of {} running jobs", seen.size());
+    }
+
+    private Sample parseLine(String line) {
+
+        if (StringUtils.isBlank(line) || line.startsWith("JOBID") || line.matches("No .* found")) {
+            return null;
+        }
+
+        try {
+            String[] split = line.split("\\"+DELIMITER);
+            int c = 0;
+            Sample sample = new Sample();
+            sample.jobId = LsfUtils.parseLong(LsfJobsCommand.getValue(split, c++));
+            String name = LsfJobsCommand.getValue(split, c++);
+            Long mem = LsfUtils.parseMemToBytes(LsfJobsCommand.getValue(split, c++));
+            Long swap = LsfUtils.parseMemToBytes(LsfJobsCommand.getValue(split, c++));
+            Double cpu = LsfUtils.parseCpuSeconds(LsfJobsCommand.getValue(split, c++));
+
+            if (name != null && name.endsWith("]")) {
+                int b = name.lastIndexOf('[');
+                if (b > 0) {
+                    sample.arrayIndex = LsfUtils.parseLong(name.substring(b + 1, name.length() - 1));
+                }
+            }
+            sample.memBytes = mem == null ? -1 : mem;
+            sample.swapBytes = swap == null ? -1 : swap;
+            sample.cpuSeconds = cpu == null ? -1 : cpu;
+            return sample;
+        }
+        catch (Exception e) {
+            log.error("Error parsing line: "+line, e);
+            return null;
+        }
+    }
+
+    /**
+     * Returns the usage series of the given running job, or null if it was not running at the last sample.
+     * @param jobId job id
+     * @param arrayIndex array index, or null if the job is not part of a job array
+     */
+    public UsageSeries getUsage(Long jobId, Long arrayIndex) {
+        return series.get(getKey(jobId, arrayIndex));
+    }
+
+    /**
+     * Returns the number of jobs currently being tracked.
+     */
+    public int getJobCount() {
+        return series.size();
+    }
+
+    /**
+     * Returns the total memory in use by all of the tracked jobs, as of their latest samples.
+     */
+    public long getTotalMemBytes() {
+        long total = 0;
+        for (UsageSeries s : series.values()) {
+            int size = s.size();
+            if (size > 0) {
+                total += Math.max(0, s.getMemBytes(size - 1));
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Only keep usage for the jobs accepted by the given filter, e.g. jobId -> jobManager.getJobMetadata(jobId)
+     * != null to only track the jobs of a JobManager. By default, all running jobs are tracked.
+     */
+    public void setJobIdFilter(Predicate<Long> jobIdFilter) {
+        this.jobIdFilter = jobIdFilter;
+    }
+
+    private static String getKey(Long jobId, Long arrayIndex) {
+        return arrayIndex == null ? jobId.toString() : jobId + "[" + arrayIndex + "]";
+    }
+
+    private static class Sample {
+        private Long jobId;
+        private Long arrayIndex;
+        private long memBytes;
+        private long swapBytes;
+        private double cpuSeconds;
+    }
+}
@@ -1,5 +1,9 @@
 package org.janelia.cluster.lsf;
 
+import org.janelia.cluster.JobFailureType;
+import org.janelia.cluster.JobInfo;
+import org.janelia.cluster.JobStatus;
+import org.janelia.cluster.JobTemplate;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -7,7 +11,12 @@ import java.time.LocalDateTime;
 import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
 import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Date;
+import java.util.List;
+import java.util.stream.Collectors;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -20,11 +29,23 @@ public class LsfUtils {
 
     private static final Logger log = LoggerFactory.getLogger(LsfUtils.class);
 
+    /**
+     * Default limit on the length of the command lines built by partitionArgs. This stays well under ARG_MAX,
+     * which also has to accommodate the environment.
+     */
+    public static final int DEFAULT_MAX_ARG_BYTES = 128 * 1024;
+
     private static final long KB = 1024;
     private static final long MB = KB * 1024;
     private static final long GB = MB * 1024;
     private static final long TB = GB * 1024;
 
+    private static final Pattern MEM_PATTERN = Pattern.compile("([\\d.]+)\\s*(\\w+)");
+    private static final Pattern CPU_SECONDS_PATTERN = Pattern.compile("([\\d.]+)\\s*second.*");
+    private static final Pattern CPU_TIME_PATTERN = Pattern.compile("(\\d+):(\\d+):([\\d.]+)");
+
+    private static final Pattern RUSAGE_MEM_PATTERN = Pattern.compile("(rusage\\[[^\\]]*\\bmem=)([^:,\\]]+)");
+
     private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("MMM dd HH:mm yyyy");
     private static final DateTimeFormatter DATE_FORMAT_SECS = DateTimeFormatter.ofPattern("MMM dd HH:mm:ss yyyy");
 
@@ -78,6 +99,366 @@ public class LsfUtils {
         return ChronoUnit.SECONDS.between(startTime, finishTime);
     }
 
+    /**
+     * Find the queue requested with -q in the given bsub native specification. The queue name may either be part
+     * of the same argument (e.g. "-q short") or be the following argument.
+     * @param nativeSpecification bsub arguments
+     * @return queue name, or null if no queue is specified
+     */
+    public static String getQueue(List<String> nativeSpecification) {
+        return getOption(nativeSpecification, "-q");
+    }
+
+    /**
+     * Find the job group requested with -g in the given bsub native specification.
+     * @param nativeSpecification bsub arguments
+     * @return job group, or null if none is specified
+     */
+    public static String getJobGroup(List<String> nativeSpecification) {
+        return getOption(nativeSpecification, "-g");
+    }
+
+    /**
+     * Find the memory limit requested with -M in the given bsub native specification.
+     * @param nativeSpecification bsub arguments
+     * @return memory limit in bytes, or null if no limit is specified, or it has no units (in which case its
+     * meaning depends on the cluster's LSF_UNIT_FOR_LIMITS, see hasMemoryLimit)
+     */
+    public static Long getMemoryLimit(List<String> nativeSpecification) {
+        String limit = getOption(nativeSpecification, "-M");
+        if (limit == null) return null;
+        // A trailing ! makes the limit a hard one, and has no bearing on its size
+        if (limit.endsWith("!")) limit = limit.substring(0, limit.length() - 1).trim();
+        if (!limit.matches("[\\d.]+\\s*[A-Za-z]+")) return null;
+        return parseMemToBytes(limit);
+    }
+
+    /**
+     * Returns true if the given bsub native specification has a memory limit (-M), whether or not its value can
+     * be interpreted by getMemoryLimit.
+     * @param nativeSpecification bsub arguments
+     * @return true if -M is specified
+     */
+    public static boolean hasMemoryLimit(List<String> nativeSpecification) {
+        return getOption(nativeSpecification, "-M") != null;
+    }
+
+    /**
+     * Find the run time limit requested with -W in the given bsub native specification.
+     * @param nativeSpecification bsub arguments
+     * @return run limit in minutes, or null if no limit is specified
+     */
+    public static Long getRunLimitMinutes(List<String> nativeSpecification) {
+        String limit = getOption(nativeSpecification, "-W");
+        if (limit == null) return null;
+        // The limit may be qualified by a host name or model, e.g. "10/hostA"
+        int slash = limit.indexOf('/');
+        if (slash > 0) limit = limit.substring(0, slash);
+        try {
+            int colon = limit.indexOf(':');
+            if (colon > 0) {
+                return Long.parseLong(limit.substring(0, colon)) * 60 + Long.parseLong(limit.substring(colon + 1));
+            }
+            return Long.parseLong(limit);
+        }
+        catch (NumberFormatException e) {
+            log.warn("Could not parse run limit: '{}'", limit);
+            return null;
+        }
+    }
+
+    /**
+     * Returns true if the given bsub native specification has a run time limit (-W), whether or not its value can
+     * be interpreted by getRunLimitMinutes.
+     * @param nativeSpecification bsub arguments
+     * @return true if -W is specified
+     */
+    public static boolean hasRunLimit(List<String> nativeSpecification) {
+        return getOption(nativeSpecification, "-W") != null;
+    }
+
+    /**
+     * Set the run time limit (-W) of the given job template.
+     * @param jt job template, which is modified in place
+     * @param minutes new run limit, in minutes
+     */
+    public static void setRunLimit(JobTemplate jt, long minutes) {
+        List<String> nativeSpec = new ArrayList<>();
+        List<String> oldSpec = jt.getNativeSpecification();
+        if (oldSpec != null) {
+            for (int i = 0; i < oldSpec.size(); i++) {
+                String value = getOptionValue(oldSpec.get(i), "-W");
+                if ("".equals(value)) {
+                    i++; // skip the value as well
+                }
+                else if (value == null) {
+                    nativeSpec.add(oldSpec.get(i));
+                }
+            }
+        }
+        nativeSpec.add("-W");
+        nativeSpec.add(String.valueOf(minutes));
+        jt.setNativeSpecification(nativeSpec);
+    }
+
+    /**
+     * Find the value of the given option in a bsub native specification. The value may either be part of the same
+     * argument (e.g. "-q short" or "-M4G") or be the following argument. If the option is given more than once,
+     * the last value is returned.
+     */
+    private static String getOption(List<String> nativeSpecification, String option) {
+        if (nativeSpecification == null) return null;
+        String value = null;
+        for (int i = 0; i < nativeSpecification.size(); i++) {
+            String argValue = getOptionValue(nativeSpecification.get(i), option);
+            if ("".equals(argValue)) {
+                if (i + 1 < nativeSpecification.size() && nativeSpecification.get(i + 1) != null) {
+                    value = nativeSpecification.get(i + 1).trim();
+                }
+            }
+            else if (argValue != null) {
+                value = argValue;
+            }
+        }
+        return value;
+    }
+
+    /**
+     * Returns the value given to the option by a single bsub argument, either separated by a space (e.g. "-M 4G")
+     * or attached to the option (e.g. "-M4G"). Attached values must start with a digit, so that other options which
+     * share a prefix (e.g. -We for -W) are not mistaken for it.
+     * @return the value, the empty string if the argument is the option alone (so the value is the next
+     * argument), or null if the argument is not the option
+     */
+    private static String getOptionValue(String arg, String option) {
+        if (arg == null) return null;
+        arg = arg.trim();
+        if (!arg.startsWith(option)) return null;
+        if (arg.length() == option.length()) return "";
+        char next = arg.charAt(option.length());
+        if (Character.isWhitespace(next)) return arg.substring(option.length()).trim();
+        if (Character.isDigit(next)) return arg.substring(option.length());
+        return null;
+    }
+
+    /**
+     * Split the given arguments into batches which can each be passed to a single invocation of a command,
+     * without its command line exceeding the given length.
+     * @param baseArgs command and arguments which are repeated in every invocation
+     * @param args arguments to split up, e.g. job ids
+     * @param maxArgBytes limit on the length of each command line, counting one separator byte per argument
+     * @return batches of the args, in their original order
+     */
+    public static List<List<String>> partitionArgs(List<String> baseArgs, Collection<String> args, int maxArgBytes) {
+        int baseBytes = 0;
+        for (String baseArg : baseArgs) {
+            baseBytes += baseArg.length() + 1;
+        }
+        List<List<String>> batches = new ArrayList<>();
+        List<String> batch = new ArrayList<>();
+        int batchBytes = baseBytes;
+        for (String arg : args) {
+            int argBytes = arg.length() + 1;
+            if (!batch.isEmpty() && batchBytes + argBytes > maxArgBytes) {
+                batches.add(batch);
+                batch = new ArrayList<>();
+                batchBytes = baseBytes;
+            }
+            batch.add(arg);
+            batchBytes += argBytes;
+        }
+        if (!batch.isEmpty()) {
+            batches.add(batch);
+        }
+        return batches;
+    }
+
+    /**
+     * Build the bsub arguments which make a job wait until all of the given jobs have completed successfully.
+     * @param jobIds ids of the jobs to wait for
+     * @return native specification arguments, e.g. ["-w", "done(123) && done(124)"]
+     */
+    public static List<String> getDependencySpecification(Collection<Long> jobIds) {
+        String expr = jobIds.stream().map(jobId -> "done(" + jobId + ")").collect(Collectors.joining(" && "));
+        return Arrays.asList("-w", expr);
+    }
+
+    /**
+     * Classify the reason that the given job failed, based on its LSF exit reason (e.g. TERM_MEMLIMIT).
+     * @param info job info
+     * @return failure type, or null if the job has not finished or finished successfully
+     */
+    public static JobFailureType classifyFailure(JobInfo info) {
+        if (!info.isComplete()) return null;
+        Integer exitCode = info.getExitCode();
+        if (info.getStatus() == JobStatus.DONE && (exitCode == null || exitCode == 0)) return null;
+
+        String reason = info.getExitReason() == null ? "" : info.getExitReason().toUpperCase();
+        if (reason.contains("TERM_MEMLIMIT") || reason.contains("TERM_SWAP") || reason.contains("MEMORY USAGE LIMIT")) {
+            return JobFailureType.MEMORY_LIMIT;
+        }
+        if (reason.contains("TERM_RUNLIMIT") || reason.contains("TERM_CPULIMIT") || reason.contains("TERM_DEADLINE")
+                || reason.contains("RUN TIME LIMIT")) {
+            return JobFailureType.RUN_LIMIT;
+        }
+        if (reason.contains("TERM_OWNER") || reason.contains("TERM_ADMIN") || reason.contains("TERM_FORCE_OWNER")
+                || reason.contains("TERM_FORCE_ADMIN") || reason.contains("KILLED BY OWNER")) {
+            return JobFailureType.KILLED;
+        }
+        if (reason.contains("TERM_LOAD") || reason.contains("TERM_ZOMBIE") || reason.contains("TERM_REMOVE_HUNG_JOB")
+                || reason.contains("TERM_RMS") || reason.contains("TERM_UNKNOWN") || reason.contains("TERM_PREEMPT")
+                || reason.contains("TERM_REQUEUE_ADMIN") || reason.contains("TERM_CTRL_PID")
+                || info.getStatus() == JobStatus.OTHER) {
+            return JobFailureType.HOST_FAILURE;
+        }
+        return JobFailureType.APPLICATION_ERROR;
+    }
+
+    /**
+     * Set the memory limit (-M) of the given job template, and update any memory reservation (rusage[mem=...])
+     * in its resource requirements to match.
+     * @param jt job template, which is modified in place
+     * @param bytes new memory limit, in bytes
+     */
+    public static void setMemoryLimit(JobTemplate jt, long bytes) {
+        long mb = (bytes + MB - 1) / MB;
+        List<String> nativeSpec = new ArrayList<>();
+        List<String> oldSpec = jt.getNativeSpecification();
+        if (oldSpec != null) {
+            for (int i = 0; i < oldSpec.size(); i++) {
+                String value = getOptionValue(oldSpec.get(i), "-M");
+                if ("".equals(value)) {
+                    i++; // skip the value as well
+                }
+                else if (value == null) {
+                    Matcher m = RUSAGE_MEM_PATTERN.matcher(oldSpec.get(i).trim());
+                    nativeSpec.add(m.find() ? m.replaceAll("$1" + mb + "MB") : oldSpec.get(i));
+                }
+            }
+        }
+        nativeSpec.add("-M");
+        nativeSpec.add(mb + "MB");
+        jt.setNativeSpecification(nativeSpec);
+    }
+
+    /**
+     * Returns a copy of the given template with its memory limit raised to a multiple of the largest amount of
+     * memory used by the given jobs. Suitable for use as a JobRetryManager resource escalator.
+     * @param jt job template
+     * @param failedInfos final infos of the jobs which failed
+     * @param factor multiple of the observed maximum memory to request
+     * @return escalated template, or the original template if no memory usage was reported
+     */
+    public static JobTemplate escalateMemory(JobTemplate jt, Collection<JobInfo> failedInfos, double factor) {
+        return escalateMemory(jt, failedInfos, factor, Long.MAX_VALUE);
+    }
+
+    /**
+     * Like escalateMemory(JobTemplate, Collection, double), but never requests more than the given limit, e.g. the
+     * memory of the largest host in the queue.
+     * @param jt job template
+     * @param failedInfos final infos of the jobs which failed
+     * @param factor multiple of the observed maximum memory to request
+     * @param capBytes largest memory limit to request, in bytes
+     * @return escalated template, or the original template if no memory usage was reported
+     */
+    public static JobTemplate escalateMemory(JobTemplate jt, Collection<JobInfo> failedInfos, double factor,
+                                             long capBytes) {
+        long maxBytes = 0;
+        for (JobInfo info : failedInfos) {
+            Long bytes = info.getMaxMemBytes() != null ? info.getMaxMemBytes() : parseMemToBytes(info.getMaxMem());
+            if (bytes != null) {
+                maxBytes = Math.max(maxBytes, bytes);
+            }
+        }
+        if (maxBytes == 0) return jt;
+        JobTemplate escalated = new JobTemplate(jt);
+        setMemoryLimit(escalated, (long) Math.min(capBytes, maxBytes * factor));
+        return escalated;
+    }
+
+    /**
+     * Returns a copy of the given template with its run time limit (-W) raised to a multiple of its current limit,
+     * or of the longest run time of the given jobs if that is longer (e.g. because there was no limit, and the jobs
+     * hit the queue's run limit instead). Suitable for use as a JobRetryManager resource escalator.
+     * @param jt job template
+     * @param failedInfos final infos of the jobs which failed
+     * @param factor multiple of the current limit or observed run time to request
+     * @return escalated template, or the original template if there is no limit and no run times were reported
+     */
+    public static JobTemplate escalateRunLimit(JobTemplate jt, Collection<JobInfo> failedInfos, double factor) {
+        Long limit = getRunLimitMinutes(jt.getNativeSpecification());
+        long maxMinutes = limit == null ? 0 : limit;
+        for (JobInfo info : failedInfos) {
+            Long secs = getDiffSecs(info.getStartTime(), info.getFinishTime());
+            if (secs != null) {
+                maxMinutes = Math.max(maxMinutes, (secs + 59) / 60);
+            }
+        }
+        if (maxMinutes == 0) return jt;
+        JobTemplate escalated = new JobTemplate(jt);
+        setRunLimit(escalated, (long) Math.ceil(maxMinutes * factor));
+        return escalated;
+    }
+
+    /**
+     * Returns a copy of the given template with whichever limits the given jobs hit raised by the given factor:
+     * the memory limit for jobs which ran out of memory (see escalateMemory), and the run time limit for jobs
+     * which ran out of time (see escalateRunLimit). Suitable for use as a JobRetryManager resource escalator.
+     * @param jt job template
+     * @param failedInfos final infos of the jobs which failed
+     * @param factor multiple of the observed usage to request
+     * @return escalated template, or the original template if there was nothing to escalate
+     */
+    public static JobTemplate escalateLimits(JobTemplate jt, Collection<JobInfo> failedInfos, double factor) {
+        List<JobInfo> memoryFailures = new ArrayList<>();
+        List<JobInfo> runFailures = new ArrayList<>();
+        for (JobInfo info : failedInfos) {
+            JobFailureType failureType = classifyFailure(info);
+            if (failureType == JobFailureType.MEMORY_LIMIT) {
+                memoryFailures.add(info);
+            }
+            else if (failureType == JobFailureType.RUN_LIMIT) {
+                runFailures.add(info);
+            }
+        }
+        JobTemplate escalated = jt;
+        if (!memoryFailures.isEmpty()) {
+            escalated = escalateMemory(escalated, memoryFailures, factor);
+        }
+        if (!runFailures.isEmpty()) {
+            escalated = escalateRunLimit(escalated, runFailures, factor);
+        }
+        return escalated;
+    }
+
+    /**
+     * Returns a copy of the given template which will not run on any of the hosts where the given job ran.
+     * Suitable for use as a JobSpeculator hedge customizer.
+     * @param jt job template
+     * @param info job whose execution hosts should be avoided
+     * @return template with an additional host selection requirement
+     */
+    public static JobTemplate excludeExecHosts(JobTemplate jt, JobInfo info) {
+        if (info.getExecHost() == null) return jt;
+        List<String> conditions = new ArrayList<>();
+        for (String host : info.getExecHost().split(":")) {
+            // Hosts running multiple slots are reported as e.g. "4*h10u01"
+            String hostname = host.substring(host.indexOf('*') + 1).trim();
+            if (!hostname.isEmpty()) {
+                conditions.add("hname!='" + hostname + "'");
+            }
+        }
+        if (conditions.isEmpty()) return jt;
+        JobTemplate hedge = new JobTemplate(jt);
+        List<String> nativeSpec = hedge.getNativeSpecification() == null
+                ? new ArrayList<>() : hedge.getNativeSpecification();
+        nativeSpec.add("-R");
+        nativeSpec.add("select[" + String.join(" && ", conditions) + "]");
+        hedge.setNativeSpecification(nativeSpec);
+        return hedge;
+    }
+
     /**
      * Parse LSF's max_mem field into a normalized number of bytes.
      * @param memLsf
@@ -87,8 +468,7 @@ public class LsfUtils {
         if (memLsf == null) return null;
         Double bytes;
 
-        Pattern p = Pattern.compile("([\\d.]+)\\s+(\\w+)");
-        Matcher m = p.matcher(memLsf.trim());
+        Matcher m = MEM_PATTERN.matcher(memLsf.trim());
         if (m.matches()) {
             double amount = Double.parseDouble(m.group(1));
             String units = m.group(2).toLowerCase();
@@ -118,4 +498,24 @@ public class LsfUtils {
 
         return bytes.longValue();
     }
+
+    /**
+     * Parse LSF's cpu_used field, e.g. "12.3 second(s)" or "00:01:05.20", into a number of seconds.
+     * @param cpuLsf
+     * @return number of seconds
+     */
+    public static Double parseCpuSeconds(String cpuLsf) {
+        if (cpuLsf == null) return null;
+        String str = cpuLsf.trim();
+        Matcher m = CPU_SECONDS_PATTERN.matcher(str);
+        if (m.matches()) {
+            return Double.parseDouble(m.group(1));
+        }
+        m = CPU_TIME_PATTERN.matcher(str);
+        if (m.matches()) {
+            return Long.parseLong(m.group(1)) * 3600 + Long.parseLong(m.group(2)) * 60 + Double.parseDouble(m.group(3));
+        }
+        log.warn("Could not parse cpu used: '{}'", cpuLsf);
+        return null;
+    }
 }
@@ -0,0 +1,472 @@
+package org.janelia.cluster.sim;
+
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.*;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
+
+import org.janelia.cluster.JobCmdFlag;
+import org.janelia.cluster.JobInfo;
+import org.janelia.cluster.JobKillResult;
+import org.janelia.cluster.JobStatus;
+import org.janelia.cluster.JobSyncApi;
+import org.janelia.cluster.JobTemplate;
+import org.janelia.cluster.Utils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * In-memory discrete-event simulation of a cluster, for load testing JobManager and the classes built on it without
+ * a real scheduler. Nothing is executed; jobs occupy one of a fixed number of slots for a runtime drawn from a
+ * configurable distribution, and fail with a configurable probability.
+ *
+ * Time is virtual. It only moves forward when advance() is called (or by the injected delay of each job query),
+ * so simulating hours of cluster activity takes as long as processing the events. All times reported in JobInfos
+ * are on the virtual clock.
+ *
+ * To exercise error handling, job queries can be made to fail, or to randomly omit jobs from their results
+ * (as happens when bjobs loses track of jobs during a master failover).
+ */
+public class SimulatedCluster implements JobSyncApi {
+
+    private static final Logger log = LoggerFactory.getLogger(SimulatedCluster.class);
+
+    // Constants
+    private static final String DEFAULT_QUEUE = "normal";
+    private static final long DEFAULT_RUNTIME_MILLIS = 60 * 1000;
+    private static final int DEFAULT_KEEP_FINISHED_MINUTES = 60;
+    private static final int FAILED_EXIT_CODE = 1;
+    private static final int KILLED_EXIT_CODE = 130;
+
+    // Configuration
+    private final int slots;
+    private final Random random;
+    private final LocalDateTime epoch = LocalDateTime.now().truncatedTo(ChronoUnit.SECONDS);
+    private long queueLatencyMillis = 0;
+    private ToLongFunction<Random> runtimeDistribution = r -> DEFAULT_RUNTIME_MILLIS;
+    private double failureRate = 0;
+    private long jobsCommandDelayMillis = 0;
+    private double jobsCommandFailureRate = 0;
+    private double missingRate = 0;
+    private long keepFinishedMillis = DEFAULT_KEEP_FINISHED_MINUTES * 60 * 1000L;
+    private Function<JobTemplate, String> queueResolver = jt -> DEFAULT_QUEUE;
+
+    // State
+    private long clockMillis = 0;
+    private long nextJobId = 1;
+    private int freeSlots;
+    private final Map<Long, List<SimJob>> jobs = new LinkedHashMap<>();
+    private final Deque<SimJob> pending = new ArrayDeque<>();
+    private final PriorityQueue<SimJob> running = new PriorityQueue<>(Comparator.comparingLong(job -> job.finishMillis));
+    private long jobsCommandCount = 0;
+    private long targetedCommandCount = 0;
+    private long reportedCount = 0;
+
+    /**
+     * @param slots number of jobs which can run at once
+     * @param seed seed for all random draws, so that simulations are repeatable
+     */
+    public SimulatedCluster(int slots, long seed) {
+        this.slots = slots;
+        this.freeSlots = slots;
+        this.random = new Random(seed);
+    }
+
+    /**
+     * Advance the virtual clock, starting and finishing jobs as their times arrive.
+     * @param millis number of milliseconds to advance
+     */
+    public synchronized void advance(long millis) {
+        long target = clockMillis + millis;
+        while (true) {
+            dispatch();
+            long nextEvent = Long.MAX_VALUE;
+            SimJob nextFinish = running.peek();
+            if (nextFinish != null) {
+                nextEvent = nextFinish.finishMillis;
+            }
+            if (freeSlots > 0 && !pending.isEmpty()) {
+                nextEvent = Math.min(nextEvent, pending.peek().eligibleMillis);
+            }
+            if (nextEvent > target) break;
+            clockMillis = Math.max(clockMillis, nextEvent);
+            while (!running.isEmpty() && running.peek().finishMillis <= clockMillis) {
+                SimJob job = running.poll();
+                if (!job.status.isDone()) {
+                    job.finish(job.failed ? FAILED_EXIT_CODE : 0, job.finishMillis);
+                    freeSlots++;
+                }
+            }
+        }
+        clockMillis = target;
+    }
+
+    private void dispatch() {
+        while (freeSlots > 0 && !pending.isEmpty() && pending.peek().eligibleMillis <= clockMillis) {
+            SimJob job = pending.poll();
+            if (job.status.isDone()) {
+                // Killed while pending
+                continue;
+            }
+            job.status = JobStatus.RUNNING;
+            job.startMillis = clockMillis;
+            job.finishMillis = clockMillis + Math.max(0, runtimeDistribution.applyAsLong(random));
+            job.failed = random.nextDouble() < failureRate;
+            running.add(job);
+            freeSlots--;
+        }
+    }
+
+    /**
+     * Returns the current time on the virtual clock.
+     */
+    public synchronized LocalDateTime getCurrentTime() {
+        return toTime(clockMillis);
+    }
+
+    /**
+     * Returns the number of milliseconds elapsed on the virtual clock since the simulation began.
+     */
+    public synchronized long getClockMillis() {
+        return clockMillis;
+    }
+
+    /**
+     * Returns true if there are no pending or running jobs.
+     */
+    public synchronized boolean isIdle() {
+        return freeSlots == slots && pending.stream().allMatch(job -> job.status.isDone());
+    }
+
+    public synchronized int getRunningCount() {
+        return slots - freeSlots;
+    }
+
+    /**
+     * Returns the number of job queries which have been made, including queries for specific jobs.
+     */
+    public synchronized long getJobsCommandCount() {
+        return jobsCommandCount;
+    }
+
+    /**
+     * Returns the number of job queries for specific jobs (i.e. getJobInfo(Collection)) which have been made.
+     */
+    public synchronized long getTargetedCommandCount() {
+        return targetedCommandCount;
+    }
+
+    /**
+     * Returns the total number of JobInfos returned by all job queries.
+     */
+    public synchronized long getReportedCount() {
+        return reportedCount;
+    }
+
+    private LocalDateTime toTime(long millis) {
+        return millis < 0 ? null : epoch.plus(millis, ChronoUnit.MILLIS);
+    }
+
+    @Override
+    public JobInfo submitJob(JobTemplate jt) throws IOException {
+        return submit(jt, Collections.singletonList(null));
+    }
+
+    @Override
+    public JobInfo submitJobs(JobTemplate jt, Long start, Long end) throws IOException {
+        List<Long> arrayIndexes = new ArrayList<>();
+        for (long i = start; i <= end; i++) {
+            arrayIndexes.add(i);
+        }
+        return submit(jt, arrayIndexes);
+    }
+
+    @Override
+    public JobInfo submitJobs(JobTemplate jt, Collection<Long> arrayIndexes) throws IOException {
+        return submit(jt, new TreeSet<>(arrayIndexes));
+    }
+
+    private synchronized JobInfo submit(JobTemplate jt, Collection<Long> arrayIndexes) {
+        Long jobId = nextJobId++;
+        String queue = queueResolver.apply(jt);
+        List<SimJob> elements = new ArrayList<>(arrayIndexes.size());
+        for (Long arrayIndex : arrayIndexes) {
+            SimJob job = new SimJob(jobId, arrayIndex, jt.getJobName(), queue, clockMillis);
+            job.eligibleMillis = clockMillis + queueLatencyMillis;
+            elements.add(job);
+            pending.add(job);
+        }
+        jobs.put(jobId, elements);
+        log.trace("Submitted simulated job {} with {} elements", jobId, elements.size());
+
+        JobInfo info = new JobInfo();
+        info.setJobId(jobId);
+        info.setQueue(queue);
+        info.setStatus(JobStatus.PENDING);
+        return info;
+    }
+
+    @Override
+    public List<JobInfo> getJobInfo() throws IOException {
+        return query(null);
+    }
+
+    /**
+     * Looks up the given jobs with a single query, which is subject to the same delay, failures and missing
+     * jobs as getJobInfo().
+     */
+    @Override
+    public List<JobInfo> getJobInfo(Collection<Long> jobIds) throws IOException {
+        return query(jobIds);
+    }
+
+    /**
+     * Answer a job query, for the given jobs or for all jobs if jobIds is null.
+     */
+    private synchronized List<JobInfo> query(Collection<Long> jobIds) throws IOException {
+        jobsCommandCount++;
+        if (jobIds != null) {
+            targetedCommandCount++;
+        }
+        if (random.nextDouble() < jobsCommandFailureRate) {
+            advance(jobsCommandDelayMillis);
+            throw new IOException("Simulated job query failure");
+        }
+        // Jobs are forgotten some time after they finish; a targeted query only needs to check its own jobs
+        long cutoff = clockMillis - keepFinishedMillis;
+        List<List<SimJob>> matches = new ArrayList<>();
+        if (jobIds == null) {
+            Iterator<List<SimJob>> iterator = jobs.values().iterator();
+            while (iterator.hasNext()) {
+                List<SimJob> elements = iterator.next();
+                if (isForgotten(elements, cutoff)) {
+                    iterator.remove();
+                }
+                else {
+                    matches.add(elements);
+                }
+            }
+        }
+        else {
+            for (Long jobId : new LinkedHashSet<>(jobIds)) {
+                List<SimJob> elements = jobs.get(jobId);
+                if (elements == null) continue;
+                if (isForgotten(elements, cutoff)) {
+                    jobs.remove(jobId);
+                }
+                else {
+                    matches.add(elements);
+                }
+            }
+        }
+        List<JobInfo> infos = new ArrayList<>();
+        for (List<SimJob> elements : matches) {
+            for (SimJob job : elements) {
+                if (missingRate > 0 && random.nextDouble() < missingRate) continue;
+                infos.add(job.toJobInfo());
+            }
+        }
+        reportedCount += infos.size();
+        // The cluster keeps running while the query is being answered
+        advance(jobsCommandDelayMillis);
+        return infos;
+    }
+
+    private static boolean isForgotten(List<SimJob> elements, long cutoff) {
+        return elements.stream().allMatch(job -> job.status.isDone() && job.endMillis < cutoff);
+    }
+
+    /**
+     * All simulated jobs belong to the same user, so this returns the same as getJobInfo().
+     */
+    @Override
+    public List<JobInfo> getJobInfo(String user) throws IOException {
+        return getJobInfo();
+    }
+
+    @Override
+    public synchronized List<JobInfo> getJobInfo(Long jobId) throws IOException {
+        List<JobInfo> infos = new ArrayList<>();
+        List<SimJob> elements = jobs.get(jobId);
+        if (elements != null) {
+            for (SimJob job : elements) {
+                infos.add(job.toJobInfo());
+            }
+        }
+        return infos;
+    }
+
+    @Override
+    public synchronized void killJobById(Long jobId, JobCmdFlag... flags) throws IOException {
+        List<SimJob> elements = jobs.get(jobId);
+        if (elements == null) {
+            throw new IOException("No matching job found: " + jobId);
+        }
+        for (SimJob job : elements) {
+            kill(job);
+        }
+    }
+
+    @Override
+    public synchronized void killJobByName(String jobName, JobCmdFlag... flags) throws IOException {
+        for (List<SimJob> elements : jobs.values()) {
+            for (SimJob job : elements) {
+                if (jobName.equals(job.name)) {
+                    kill(job);
+                }
+            }
+        }
+    }
+
+    @Override
+    public synchronized List<JobKillResult> killJobs(Collection<String> jobSpecs, JobCmdFlag... flags) throws IOException {
+        List<JobKillResult> results = new ArrayList<>();
+        for (String jobSpec : jobSpecs) {
+            int b = jobSpec.indexOf('[');
+            List<SimJob> elements;
+            try {
+                elements = jobs.get(Long.valueOf(b > 0 ? jobSpec.substring(0, b) : jobSpec));
+            }
+            catch (NumberFormatException e) {
+                results.add(new JobKillResult(jobSpec, false, "Illegal job ID"));
+                continue;
+            }
+            if (elements == null) {
+                results.add(new JobKillResult(jobSpec, false, "No matching job found"));
+                continue;
+            }
+            Set<Long> arrayIndexes = b > 0
+                    ? new HashSet<>(Utils.parseIndexRanges(jobSpec.substring(b + 1, jobSpec.length() - 1)))
+                    : null;
+            for (SimJob job : elements) {
+                if (arrayIndexes == null || arrayIndexes.contains(job.arrayIndex)) {
+                    boolean killed = kill(job);
+                    String spec = job.arrayIndex == null ? job.jobId.toString() : job.jobId + "[" + job.arrayIndex + "]";
+                    results.add(new JobKillResult(spec, killed, killed ? "is being terminated" : "Job has already finished"));
+                }
+            }
+        }
+        return results;
+    }
+
+    private boolean kill(SimJob job) {
+        if (job.status.isDone()) {
+            return false;
+        }
+        if (job.status == JobStatus.RUNNING) {
+            // The entry in the running queue is skipped when it comes up
+            freeSlots++;
+        }
+        job.exitReason = "TERM_OWNER: job killed by owner";
+        job.finish(KILLED_EXIT_CODE, clockMillis);
+        return true;
+    }
+
+    /**
+     * Sets the delay between submission and the earliest time a job can be dispatched.
+     */
+    public synchronized void setQueueLatencyMillis(long queueLatencyMillis) {
+        this.queueLatencyMillis = queueLatencyMillis;
+    }
+
+    /**
+     * Sets the distribution of job runtimes, as a function which draws a runtime in milliseconds from the given
+     * random number generator, e.g. r -> (long) (60000 * Math.exp(r.nextGaussian())) for a log-normal distribution.
+     */
+    public synchronized void setRuntimeDistribution(ToLongFunction<Random> runtimeDistribution) {
+        this.runtimeDistribution = runtimeDistribution;
+    }
+
+    /**
+     * Sets the probability that a job exits with a non-zero exit code.
+     */
+    public synchronized void setFailureRate(double failureRate) {
+        this.failureRate = failureRate;
+    }
+
+    /**
+     * Sets the amount of virtual time that passes while a job query is answered. The results reflect the state
+     * at the start of the query, so jobs may change state before the caller sees them.
+     */
+    public synchronized void setJobsCommandDelayMillis(long jobsCommandDelayMillis) {
+        this.jobsCommandDelayMillis = jobsCommandDelayMillis;
+    }
+
+    /**
+     * Sets the probability that a job query fails with an IOException.
+     */
+    public synchronized void setJobsCommandFailureRate(double jobsCommandFailureRate) {
+        this.jobsCommandFailureRate = jobsCommandFailureRate;
+    }
+
+    /**
+     * Sets the probability that any given job is omitted from the results of a job query.
+     */
+    public synchronized void setMissingRate(double missingRate) {
+        this.missingRate = missingRate;
+    }
+
+    /**
+     * Sets how long finished jobs continue to be reported by job queries, in virtual minutes.
+     */
+    public synchronized void setKeepFinishedMinutes(int keepFinishedMinutes) {
+        this.keepFinishedMillis = keepFinishedMinutes * 60 * 1000L;
+    }
+
+    /**
+     * Sets the function used to assign a queue to each submitted job template.
+     */
+    public synchronized void setQueueResolver(Function<JobTemplate, String> queueResolver) {
+        this.queueResolver = queueResolver;
+    }
+
+    private class SimJob {
+
+        private final Long jobId;
+        private final Long arrayIndex;
+        private final String name;
+        private final String queue;
+        private final long submitMillis;
+        private long eligibleMillis;
+        private long startMillis = -1;
+        private long finishMillis = -1;
+        private long endMillis = -1;
+        private boolean failed;
+        private JobStatus status = JobStatus.PENDING;
+        private Integer exitCode;
+        private String exitReason;
+
+        SimJob(Long jobId, Long arrayIndex, String name, String queue, long submitMillis) {
+            this.jobId = jobId;
+            this.arrayIndex = arrayIndex;
+            this.name = name;
+            this.queue = queue;
+            this.submitMillis = submitMillis;
+        }
+
+        void finish(int exitCode, long endMillis) {
+            // finishMillis is the scheduled finish, which orders the running queue and must not change
+            this.exitCode = exitCode;
+            this.endMillis = endMillis;
+            this.status = exitCode == 0 ? JobStatus.DONE : JobStatus.EXIT;
+        }
+
+        JobInfo toJobInfo() {
+            JobInfo info = new JobInfo();
+            info.setJobId(jobId);
+            info.setArrayIndex(arrayIndex);
+            info.setName(name);
+            info.setStatus(status);
+            info.setQueue(queue);
+            info.setReqSlot(1);
+            info.setSubmitTime(toTime(submitMillis));
+            info.setStartTime(toTime(startMillis));
+            info.setFinishTime(toTime(endMillis));
+            info.setExitCode(exitCode);
+            info.setExitReason(exitReason);
+            return info;
+        }
+    }
+}
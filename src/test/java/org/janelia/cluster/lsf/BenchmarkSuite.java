@@ -0,0 +1,13 @@
+package org.janelia.cluster.lsf;
+
+import org.junit.runner.RunWith;
+import org.junit.runners.Suite;
+
+@RunWith(Suite.class)
+@Suite.SuiteClasses({
+  JobManagerBenchmarks.class,
+  LsfSyncApiBenchmarks.class
+})
+public class BenchmarkSuite {
+
+}
@@ -0,0 +1,149 @@
+package org.janelia.cluster.lsf;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Test kit which stands in for an LSF installation. The stand-in bsub, bjobs, bkill and bacct scripts (see src/test/bash/fakelsf)
+ * are copied to a temporary bin directory, where they share a state file recording every job. The LSF command
+ * classes created by the harness run these scripts through the same ProcessBuilder and output parsing code paths
+ * as they would on a real submit host.
+ *
+ * Jobs move one step along (PEND, RUN, DONE) every time all jobs are queried. The size of the bjobs output can be
+ * increased by adding background jobs with addJobs().
+ */
+public class FakeLsfHarness implements Closeable {
+
+    private static final Path SCRIPT_DIR = Paths.get("src/test/bash/fakelsf").toAbsolutePath();
+    private static final String[] COMMANDS = { "bsub", "bjobs", "bkill", "bacct" };
+    private static final long BACKGROUND_JOB_ID = 100000000L;
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("MMM ppd HH:mm:ss yyyy", Locale.US);
+
+    private final Path binDir;
+
+    public FakeLsfHarness() throws IOException {
+        this.binDir = Files.createTempDirectory("fakelsf");
+        for (String command : COMMANDS) {
+            Path script = binDir.resolve(command);
+            Files.copy(SCRIPT_DIR.resolve(command), script);
+            if (!script.toFile().setExecutable(true)) {
+                throw new IOException("Could not make "+script+" executable");
+            }
+        }
+    }
+
+    /**
+     * Returns the directory containing the stand-in executables, e.g. to put on the PATH of a child process.
+     */
+    public Path getBinDir() {
+        return binDir;
+    }
+
+    public LsfSubCommand newSubCommand() {
+        LsfSubCommand subCmd = new LsfSubCommand();
+        subCmd.setBsubCommand(binDir.resolve("bsub").toString());
+        return subCmd;
+    }
+
+    public LsfJobsCommand newJobsCommand() {
+        LsfJobsCommand jobsCmd = new LsfJobsCommand();
+        jobsCmd.setBjobsCommand(binDir.resolve("bjobs").toString());
+        return jobsCmd;
+    }
+
+    public LsfKillCommand newKillCommand() {
+        LsfKillCommand killCmd = new LsfKillCommand();
+        killCmd.setBkillCommand(binDir.resolve("bkill").toString());
+        return killCmd;
+    }
+
+    public LsfAcctCommand newAcctCommand() {
+        LsfAcctCommand acctCmd = new LsfAcctCommand();
+        acctCmd.setBacctCommand(binDir.resolve("bacct").toString());
+        return acctCmd;
+    }
+
+    public LsfSyncApi newSyncApi() {
+        return new LsfSyncApi(newSubCommand(), newJobsCommand(), newKillCommand(), newAcctCommand());
+    }
+
+    /**
+     * Add finished job array elements belonging to nobody in particular, so that bjobs reports more output.
+     * @param count number of jobs to add
+     */
+    public void addJobs(int count) throws IOException {
+        String now = DATE_FORMAT.format(LocalDateTime.now());
+        try (Writer writer = Files.newBufferedWriter(binDir.resolve("jobs"), StandardCharsets.UTF_8,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            for (int i = 0; i < count; i++) {
+                writer.write(String.join("^", String.valueOf(BACKGROUND_JOB_ID + i / 1000), "background",
+                        String.valueOf(i % 1000 + 1),
+                        "DONE", "normal", now, now, now, "-", "-", "-"));
+                writer.write('\n');
+            }
+        }
+    }
+
+    /**
+     * Make every bjobs call take the given number of seconds longer. Set to zero to remove the delay.
+     */
+    public void setJobsDelay(double seconds) throws IOException {
+        Path delayFile = binDir.resolve("bjobs_delay");
+        if (seconds > 0) {
+            FileUtils.write(delayFile.toFile(), String.valueOf(seconds), StandardCharsets.UTF_8);
+        }
+        else {
+            Files.deleteIfExists(delayFile);
+        }
+    }
+
+    /**
+     * Make every bsub call fail, as if the submission was rejected.
+     */
+    public void setSubmitFailure(boolean fail) throws IOException {
+        Path failFile = binDir.resolve("bsub_fail");
+        if (fail) {
+            Files.write(failFile, new byte[0]);
+        }
+        else {
+            Files.deleteIfExists(failFile);
+        }
+    }
+
+    /**
+     * Returns the arguments of every call made so far to the given stand-in command, one line per call, or an
+     * empty list if the command does not record its calls (bsub does not).
+     */
+    public List<String> getCalls(String command) throws IOException {
+        Path calls = binDir.resolve(command + "_calls");
+        return calls.toFile().exists() ? Files.readAllLines(calls, StandardCharsets.UTF_8)
+                : Collections.emptyList();
+    }
+
+    /**
+     * Returns the raw state file, one '^'-delimited line per job or job array element.
+     */
+    public List<String> getState() throws IOException {
+        Path state = binDir.resolve("jobs");
+        return state.toFile().exists() ? Files.readAllLines(state, StandardCharsets.UTF_8)
+                : Collections.emptyList();
+    }
+
+    @Override
+    public void close() throws IOException {
+        FileUtils.deleteDirectory(binDir.toFile());
+    }
+}
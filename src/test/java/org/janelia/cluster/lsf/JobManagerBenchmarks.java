@@ -0,0 +1,177 @@
+package org.janelia.cluster.lsf;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.janelia.cluster.CompactJobInfo;
+import org.janelia.cluster.JobFuture;
+import org.janelia.cluster.JobInfo;
+import org.janelia.cluster.JobManager;
+import org.janelia.cluster.JobStatus;
+import org.janelia.cluster.JobTemplate;
+import org.janelia.cluster.sim.SimulatedCluster;
+import org.junit.Assert;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Drives a JobManager through a simulated cluster and reports the cost of each poll, the latency between jobs
+ * finishing and their futures completing, and the memory used. The number of job array elements can be changed
+ * with -Dbenchmark.jobs=N.
+ */
+public class JobManagerBenchmarks {
+
+    private static final Logger log = LoggerFactory.getLogger(JobManagerBenchmarks.class);
+
+    private static final int NUM_JOBS = Integer.getInteger("benchmark.jobs", 100000);
+    private static final int ARRAY_SIZE = 1000;
+    private static final long POLL_INTERVAL_MILLIS = 60 * 1000;
+
+    @Test
+    public void benchmarkSteadyState() throws Exception {
+        SimulatedCluster cluster = newCluster();
+        run("steady state", cluster);
+    }
+
+    @Test
+    public void benchmarkSlowJobsCommand() throws Exception {
+        SimulatedCluster cluster = newCluster();
+        cluster.setJobsCommandDelayMillis(45 * 1000);
+        cluster.setJobsCommandFailureRate(0.1);
+        run("slow bjobs", cluster);
+    }
+
+    @Test
+    public void benchmarkFlappingStatus() throws Exception {
+        SimulatedCluster cluster = newCluster();
+        cluster.setMissingRate(0.001);
+        cluster.setFailureRate(0.05);
+        run("flapping status", cluster);
+    }
+
+    @Test
+    public void benchmarkJobInfoFootprint() throws Exception {
+
+        long baseMemory = usedMemory();
+        List<JobInfo> infos = new ArrayList<>(NUM_JOBS);
+        for (int i = 0; i < NUM_JOBS; i++) {
+            infos.add(newFinishedInfo(i));
+        }
+        long infoBytes = (usedMemory() - baseMemory) / infos.size();
+        infos = null;
+
+        baseMemory = usedMemory();
+        List<JobInfo> compactInfos = new ArrayList<>(NUM_JOBS);
+        for (int i = 0; i < NUM_JOBS; i++) {
+            compactInfos.add(new CompactJobInfo(newFinishedInfo(i)));
+        }
+        long compactBytes = (usedMemory() - baseMemory) / compactInfos.size();
+
+        log.info("Heap used per finished job with {} jobs:", NUM_JOBS);
+        log.info("  JobInfo: {} bytes, CompactJobInfo: {} bytes", infoBytes, compactBytes);
+        Assert.assertTrue(compactBytes < infoBytes);
+    }
+
+    /**
+     * Returns a job info with every value set, and no objects shared with other infos, as parsed from bjobs.
+     */
+    private JobInfo newFinishedInfo(int i) {
+        LocalDateTime submitTime = LocalDateTime.of(2020, 1, 1, 0, 0).plusSeconds(i);
+        JobInfo info = new JobInfo();
+        info.setJobId(1000000L + i / ARRAY_SIZE);
+        info.setArrayIndex(1L + i % ARRAY_SIZE);
+        info.setName(new String("benchmark"));
+        info.setFromHost(new String("submithost"));
+        info.setExecHost(new String("node" + i % 100));
+        info.setStatus(JobStatus.DONE);
+        info.setQueue(new String("short"));
+        info.setProject(new String("benchmark"));
+        info.setReqSlot(1);
+        info.setAllocSlot(1);
+        info.setSubmitTime(submitTime);
+        info.setStartTime(submitTime.plusSeconds(10));
+        info.setFinishTime(submitTime.plusSeconds(610));
+        info.setMaxMem(new String("20 Mbytes"));
+        info.setMaxMemBytes(20L * 1024 * 1024 + i);
+        info.setAvgMemBytes(10L * 1024 * 1024 + i);
+        info.setSwapBytes(1024L + i);
+        info.setCpuSeconds(600.0 + i);
+        info.setExitCode(0);
+        info.setExitReason(null);
+        return info;
+    }
+
+    private SimulatedCluster newCluster() {
+        SimulatedCluster cluster = new SimulatedCluster(NUM_JOBS / 10, 1);
+        cluster.setQueueLatencyMillis(10 * 1000);
+        // Log-normal runtimes with a median of 10 minutes
+        cluster.setRuntimeDistribution(r -> (long) (600 * 1000 * Math.exp(0.5 * r.nextGaussian())));
+        return cluster;
+    }
+
+    private void run(String name, SimulatedCluster cluster) throws Exception {
+
+        long baseMemory = usedMemory();
+        JobManager mgr = new JobManager(cluster);
+        JobTemplate jt = new JobTemplate();
+        jt.setJobName("benchmark");
+        jt.setRemoteCommand("true");
+
+        List<JobFuture> futures = new ArrayList<>();
+        List<Long> latencies = Collections.synchronizedList(new ArrayList<>());
+        AtomicInteger incomplete = new AtomicInteger();
+        for (int i = 0; i < NUM_JOBS / ARRAY_SIZE; i++) {
+            JobFuture future = mgr.submitJob(jt, 1, ARRAY_SIZE);
+            future.whenComplete((infos, t) -> {
+                if (infos == null) return;
+                if (infos.size() < ARRAY_SIZE) incomplete.incrementAndGet();
+                LocalDateTime lastFinish = infos.stream().map(JobInfo::getFinishTime).max(LocalDateTime::compareTo).get();
+                latencies.add(Duration.between(lastFinish, cluster.getCurrentTime()).toMillis());
+            });
+            futures.add(future);
+        }
+
+        List<Long> pollNanos = new ArrayList<>();
+        long peakMemory = 0;
+        while (!futures.stream().allMatch(JobFuture::isDone)) {
+            cluster.advance(POLL_INTERVAL_MILLIS);
+            long start = System.nanoTime();
+            mgr.checkJobs();
+            pollNanos.add(System.nanoTime() - start);
+            if (pollNanos.size() % 20 == 0) {
+                peakMemory = Math.max(peakMemory, usedMemory() - baseMemory);
+            }
+        }
+
+        Collections.sort(pollNanos);
+        Collections.sort(latencies);
+        log.info("Benchmark '{}' with {} jobs:", name, NUM_JOBS);
+        log.info("  {} polls ({} targeted) over {} virtual minutes, {} JobInfos reported", pollNanos.size(),
+                cluster.getTargetedCommandCount(), cluster.getClockMillis() / 60000, cluster.getReportedCount());
+        log.info("  poll cost: median {} ms, 99th percentile {} ms, max {} ms", percentile(pollNanos, 0.5) / 1000000,
+                percentile(pollNanos, 0.99) / 1000000, pollNanos.get(pollNanos.size() - 1) / 1000000);
+        log.info("  completion latency: median {} s, max {} s", percentile(latencies, 0.5) / 1000,
+                latencies.get(latencies.size() - 1) / 1000);
+        log.info("  peak heap used: {} MB", peakMemory / (1024 * 1024));
+        if (incomplete.get() > 0) {
+            log.info("  {} job arrays completed with missing elements", incomplete.get());
+        }
+
+        Assert.assertEquals(futures.size(), latencies.size());
+    }
+
+    private static long percentile(List<Long> sorted, double p) {
+        return sorted.get(Math.min(sorted.size() - 1, (int) (p * sorted.size())));
+    }
+
+    private static long usedMemory() {
+        Runtime runtime = Runtime.getRuntime();
+        System.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
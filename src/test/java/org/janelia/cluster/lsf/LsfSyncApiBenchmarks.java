@@ -0,0 +1,98 @@
+package org.janelia.cluster.lsf;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.janelia.cluster.JobInfo;
+import org.janelia.cluster.JobKillResult;
+import org.janelia.cluster.JobTemplate;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * End-to-end benchmarks of LsfSyncApi against the stand-in LSF commands of FakeLsfHarness. These measure the
+ * process spawning and output parsing costs of each operation, not the performance of a real scheduler.
+ */
+public class LsfSyncApiBenchmarks {
+
+    private static final Logger log = LoggerFactory.getLogger(LsfSyncApiBenchmarks.class);
+
+    private static final int NUM_SUBMITS = 200;
+    private static final int NUM_POLLS = 10;
+    private static final int[] BJOBS_SIZES = { 1000, 10000, 100000 };
+    private static final int NUM_KILLS = 5000;
+
+    private FakeLsfHarness harness;
+    private LsfSyncApi syncApi;
+
+    @Before
+    public void createHarness() throws Exception {
+        this.harness = new FakeLsfHarness();
+        this.syncApi = harness.newSyncApi();
+    }
+
+    @After
+    public void closeHarness() throws Exception {
+        harness.close();
+    }
+
+    @Test
+    public void benchmarkSubmit() throws Exception {
+        long start = System.nanoTime();
+        for (int i = 0; i < NUM_SUBMITS; i++) {
+            syncApi.submitJob(newTemplate());
+        }
+        long elapsed = System.nanoTime() - start;
+        log.info("Submit: {} bsub calls in {} ms ({} per second)", NUM_SUBMITS, elapsed / 1000000,
+                perSecond(NUM_SUBMITS, elapsed));
+    }
+
+    @Test
+    public void benchmarkPoll() throws Exception {
+        int total = 0;
+        for (int size : BJOBS_SIZES) {
+            harness.addJobs(size - total);
+            total = size;
+            long start = System.nanoTime();
+            for (int i = 0; i < NUM_POLLS; i++) {
+                List<JobInfo> infos = syncApi.getJobInfo();
+                Assert.assertEquals(size, infos.size());
+            }
+            long elapsed = System.nanoTime() - start;
+            log.info("Poll: {} jobs, {} ms per bjobs call ({} jobs parsed per second)", size,
+                    elapsed / NUM_POLLS / 1000000, perSecond((long) size * NUM_POLLS, elapsed));
+        }
+    }
+
+    @Test
+    public void benchmarkKill() throws Exception {
+        JobInfo job = syncApi.submitJobs(newTemplate(), 1L, (long) NUM_KILLS);
+        List<String> jobSpecs = new ArrayList<>();
+        for (int i = 1; i <= NUM_KILLS; i++) {
+            jobSpecs.add(job.getJobId() + "[" + i + "]");
+        }
+        long start = System.nanoTime();
+        List<JobKillResult> results = syncApi.killJobs(jobSpecs);
+        long elapsed = System.nanoTime() - start;
+        Assert.assertEquals(NUM_KILLS, results.size());
+        log.info("Kill: {} array elements in {} ms ({} per second)", NUM_KILLS, elapsed / 1000000,
+                perSecond(NUM_KILLS, elapsed));
+    }
+
+    private static long perSecond(long count, long nanos) {
+        return count * 1000000000L / Math.max(1, nanos);
+    }
+
+    private JobTemplate newTemplate() {
+        JobTemplate jt = new JobTemplate();
+        jt.setJobName("benchmark");
+        jt.setRemoteCommand("echo");
+        jt.setArgs(Arrays.asList("hello"));
+        return jt;
+    }
+}
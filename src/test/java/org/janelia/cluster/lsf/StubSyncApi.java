@@ -0,0 +1,234 @@
+package org.janelia.cluster.lsf;
+
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.janelia.cluster.JobCmdFlag;
+import org.janelia.cluster.JobInfo;
+import org.janelia.cluster.JobKillResult;
+import org.janelia.cluster.JobStatus;
+import org.janelia.cluster.JobSyncApi;
+import org.janelia.cluster.JobTemplate;
+import org.janelia.cluster.Utils;
+
+/**
+ * In-memory JobSyncApi whose jobs only change state when the test tells them to.
+ */
+public class StubSyncApi implements JobSyncApi {
+
+    private final List<JobTemplate> submitted = new ArrayList<>();
+    private final Map<Long, List<JobInfo>> jobs = new LinkedHashMap<>();
+    private final Map<Long, List<JobInfo>> history = new LinkedHashMap<>();
+    private final List<Collection<Long>> lookups = new ArrayList<>();
+    private int listings;
+    private long nextJobId = 1;
+
+    public synchronized List<JobTemplate> getSubmitted() {
+        return new ArrayList<>(submitted);
+    }
+
+    public synchronized List<String> getSubmittedNames() {
+        List<String> names = new ArrayList<>();
+        for (JobTemplate jt : submitted) {
+            names.add(jt.getJobName());
+        }
+        return names;
+    }
+
+    public synchronized List<JobInfo> getJobs(Long jobId) {
+        return jobs.get(jobId);
+    }
+
+    /**
+     * Returns the number of times all jobs were listed with getJobInfo().
+     */
+    public synchronized int getListings() {
+        return listings;
+    }
+
+    /**
+     * Returns the job ids passed to each call of getJobInfo(Collection).
+     */
+    public synchronized List<Collection<Long>> getLookups() {
+        return new ArrayList<>(lookups);
+    }
+
+    /**
+     * Start a job running at the given time.
+     */
+    public synchronized void start(Long jobId, LocalDateTime startTime) {
+        for (JobInfo info : jobs.get(jobId)) {
+            info.setStatus(JobStatus.RUNNING);
+            info.setStartTime(startTime);
+        }
+    }
+
+    /**
+     * Finish every job which has not finished yet.
+     */
+    public synchronized void finishAll(JobStatus status, Integer exitCode) {
+        for (List<JobInfo> infos : jobs.values()) {
+            for (JobInfo info : infos) {
+                if (!info.isComplete()) {
+                    info.setStatus(status);
+                    info.setExitCode(exitCode);
+                }
+            }
+        }
+    }
+
+    /**
+     * Finish a single job or job array element.
+     */
+    public synchronized void finish(Long jobId, Long arrayIndex, JobStatus status, Integer exitCode, String exitReason) {
+        for (JobInfo info : jobs.get(jobId)) {
+            if (arrayIndex == null || arrayIndex.equals(info.getArrayIndex())) {
+                info.setStatus(status);
+                info.setExitCode(exitCode);
+                info.setExitReason(exitReason);
+            }
+        }
+    }
+
+    /**
+     * Drop a job from the job list, as LSF does after its CLEAN_PERIOD. It can still be found in the history.
+     */
+    public synchronized void clean(Long jobId) {
+        history.put(jobId, jobs.remove(jobId));
+    }
+
+    @Override
+    public synchronized JobInfo submitJob(JobTemplate jt) throws IOException {
+        return submit(jt, Collections.singletonList(null));
+    }
+
+    @Override
+    public synchronized JobInfo submitJobs(JobTemplate jt, Long start, Long end) throws IOException {
+        List<Long> arrayIndexes = new ArrayList<>();
+        for (long i = start; i <= end; i++) {
+            arrayIndexes.add(i);
+        }
+        return submit(jt, arrayIndexes);
+    }
+
+    @Override
+    public synchronized JobInfo submitJobs(JobTemplate jt, Collection<Long> arrayIndexes) throws IOException {
+        return submit(jt, arrayIndexes);
+    }
+
+    private JobInfo submit(JobTemplate jt, Collection<Long> arrayIndexes) {
+        submitted.add(jt);
+        Long jobId = nextJobId++;
+        List<JobInfo> infos = new ArrayList<>();
+        for (Long arrayIndex : arrayIndexes) {
+            JobInfo info = TestUtils.newInfo(jobId, JobStatus.PENDING, null, arrayIndex);
+            info.setName(jt.getJobName());
+            info.setQueue(LsfUtils.getQueue(jt.getNativeSpecification()));
+            infos.add(info);
+        }
+        jobs.put(jobId, infos);
+        JobInfo info = TestUtils.newInfo(jobId, JobStatus.PENDING);
+        info.setQueue(LsfUtils.getQueue(jt.getNativeSpecification()));
+        return info;
+    }
+
+    @Override
+    public synchronized List<JobInfo> getJobInfo() throws IOException {
+        listings++;
+        List<JobInfo> all = new ArrayList<>();
+        for (List<JobInfo> infos : jobs.values()) {
+            all.addAll(copy(infos));
+        }
+        return all;
+    }
+
+    @Override
+    public List<JobInfo> getJobInfo(String user) throws IOException {
+        return getJobInfo();
+    }
+
+    @Override
+    public synchronized List<JobInfo> getJobInfo(Long jobId) throws IOException {
+        List<JobInfo> infos = jobs.get(jobId);
+        return infos == null ? Collections.emptyList() : copy(infos);
+    }
+
+    @Override
+    public synchronized List<JobInfo> getJobInfo(Collection<Long> jobIds) throws IOException {
+        lookups.add(new ArrayList<>(jobIds));
+        List<JobInfo> found = new ArrayList<>();
+        for (Long jobId : jobIds) {
+            List<JobInfo> infos = jobs.get(jobId);
+            if (infos != null) {
+                found.addAll(copy(infos));
+            }
+        }
+        return found;
+    }
+
+    @Override
+    public synchronized List<JobInfo> getJobHistory(Collection<Long> jobIds) throws IOException {
+        List<JobInfo> found = new ArrayList<>();
+        for (Long jobId : jobIds) {
+            List<JobInfo> infos = history.get(jobId);
+            if (infos != null) {
+                found.addAll(copy(infos));
+            }
+        }
+        return found;
+    }
+
+    private List<JobInfo> copy(List<JobInfo> infos) {
+        List<JobInfo> copies = new ArrayList<>();
+        for (JobInfo info : infos) {
+            JobInfo copy = TestUtils.newInfo(info.getJobId(), info.getStatus(), info.getExitCode(), info.getArrayIndex());
+            copy.setName(info.getName());
+            copy.setQueue(info.getQueue());
+            copy.setExitReason(info.getExitReason());
+            copy.setSubmitTime(info.getSubmitTime());
+            copy.setStartTime(info.getStartTime());
+            copy.setFinishTime(info.getFinishTime());
+            copies.add(copy);
+        }
+        return copies;
+    }
+
+    @Override
+    public synchronized void killJobById(Long jobId, JobCmdFlag... flags) throws IOException {
+        finish(jobId, null, JobStatus.EXIT, 130, "TERM_OWNER: job killed by owner");
+    }
+
+    @Override
+    public synchronized List<JobKillResult> killJobs(Collection<String> jobSpecs, JobCmdFlag... flags) throws IOException {
+        List<JobKillResult> results = new ArrayList<>();
+        for (String jobSpec : jobSpecs) {
+            int b = jobSpec.indexOf('[');
+            Long jobId = Long.valueOf(b < 0 ? jobSpec : jobSpec.substring(0, b));
+            if (!jobs.containsKey(jobId)) {
+                results.add(new JobKillResult(jobSpec, false, "No matching job found"));
+            }
+            else if (b < 0) {
+                killJobById(jobId);
+                results.add(new JobKillResult(jobSpec, true, null));
+            }
+            else {
+                for (Long arrayIndex : Utils.parseIndexRanges(jobSpec.substring(b + 1, jobSpec.length() - 1))) {
+                    finish(jobId, arrayIndex, JobStatus.EXIT, 130, "TERM_OWNER: job killed by owner");
+                    results.add(new JobKillResult(jobId + "[" + arrayIndex + "]", true, null));
+                }
+            }
+        }
+        return results;
+    }
+
+    @Override
+    public void killJobByName(String jobName, JobCmdFlag... flags) throws IOException {
+        throw new UnsupportedOperationException();
+    }
+}
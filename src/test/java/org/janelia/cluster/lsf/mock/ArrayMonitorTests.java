@@ -0,0 +1,204 @@
+package org.janelia.cluster.lsf.mock;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.janelia.cluster.JobFuture;
+import org.janelia.cluster.JobInfo;
+import org.janelia.cluster.JobManager;
+import org.janelia.cluster.JobStatus;
+import org.janelia.cluster.JobTemplate;
+import org.janelia.cluster.lsf.FakeLsfHarness;
+import org.janelia.cluster.lsf.LsfArrayMonitor;
+import org.janelia.cluster.lsf.LsfArraySummary;
+import org.janelia.cluster.lsf.LsfJobsCommand;
+import org.janelia.cluster.lsf.LsfSyncApi;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ArrayMonitorTests {
+
+    private FakeLsfHarness harness;
+    private LsfSyncApi syncApi;
+    private RecordingJobsCommand jobsCmd;
+
+    @Before
+    public void createHarness() throws Exception {
+        this.harness = new FakeLsfHarness();
+        this.syncApi = harness.newSyncApi();
+        this.jobsCmd = new RecordingJobsCommand();
+        jobsCmd.setBjobsCommand(harness.newJobsCommand().getBjobsCommand());
+    }
+
+    @After
+    public void closeHarness() throws Exception {
+        harness.close();
+    }
+
+    @Test
+    public void testArraySummary() throws Exception {
+
+        JobInfo array = syncApi.submitJobs(newTemplate(), 1L, 5L);
+        syncApi.killJobs(Arrays.asList(array.getJobId() + "[2]"));
+
+        List<LsfArraySummary> summaries = jobsCmd.executeArraySummary(Arrays.asList(array.getJobId(), 999L));
+        Assert.assertEquals(1, summaries.size());
+        LsfArraySummary summary = summaries.get(0);
+        Assert.assertEquals(array.getJobId(), summary.getJobId());
+        Assert.assertEquals(5, summary.getNumJobs());
+        Assert.assertEquals(4, summary.getPending());
+        Assert.assertEquals(1, summary.getExited());
+        Assert.assertEquals(Arrays.asList(1L, 2L, 3L, 4L, 5L), summary.getArrayIndexes());
+
+        // Split across calls, with the same result
+        JobInfo other = syncApi.submitJobs(newTemplate(), 1L, 2L);
+        jobsCmd.setMaxArgBytes(1);
+        summaries = jobsCmd.executeArraySummary(Arrays.asList(array.getJobId(), 999L, other.getJobId()));
+        Assert.assertEquals(2, summaries.size());
+        Assert.assertEquals(5, summaries.get(0).getNumJobs());
+        Assert.assertEquals(other.getJobId(), summaries.get(1).getJobId());
+        Assert.assertEquals(2, summaries.get(1).getNumJobs());
+        Assert.assertEquals(4, harness.getCalls("bjobs").size());
+    }
+
+    @Test
+    public void testDetailsOnlyForNewlyFinished() throws Exception {
+
+        harness.addJobs(200);
+        JobManager mgr = new JobManager(syncApi);
+        JobFuture array = mgr.submitJob(newTemplate(), 1, 5);
+        JobFuture single = mgr.submitJob(newTemplate());
+        LsfArrayMonitor monitor = new LsfArrayMonitor(mgr, jobsCmd);
+
+        // Nothing has finished, so no details are fetched
+        monitor.poll();
+        Assert.assertTrue(jobsCmd.finished.isEmpty());
+
+        syncApi.killJobs(Arrays.asList(array.getJobId() + "[2-3]"));
+        monitor.poll();
+        Assert.assertEquals(1, jobsCmd.finished.size());
+        Assert.assertEquals(2, jobsCmd.finished.get(0).size());
+        monitor.poll();
+        Assert.assertEquals(1, jobsCmd.finished.size());
+        Assert.assertFalse(array.isDone());
+
+        // Listing all jobs moves the rest along to DONE, and only those elements are fetched
+        syncApi.getJobInfo();
+        syncApi.getJobInfo();
+        monitor.poll();
+        Assert.assertEquals(2, jobsCmd.finished.size());
+        Assert.assertEquals(3, jobsCmd.finished.get(1).size());
+
+        Collection<JobInfo> infos = array.get(1, TimeUnit.SECONDS);
+        Assert.assertEquals(5, infos.size());
+        long exited = infos.stream().filter(info -> info.getStatus() == JobStatus.EXIT).count();
+        Assert.assertEquals(2, exited);
+        Assert.assertEquals(JobStatus.DONE, single.get(1, TimeUnit.SECONDS).iterator().next().getStatus());
+    }
+
+    @Test
+    public void testMissingDetailsAreFetchedAgain() throws Exception {
+
+        JobManager mgr = new JobManager(syncApi);
+        JobFuture array = mgr.submitJob(newTemplate(), 1, 10);
+        LsfArrayMonitor monitor = new LsfArrayMonitor(mgr, jobsCmd);
+
+        syncApi.killJobs(Arrays.asList(array.getJobId() + "[2-4,7]"));
+        jobsCmd.dropNext = 1;
+        monitor.poll();
+        Assert.assertEquals("1-10", jobsCmd.ranges.get(0));
+        Assert.assertEquals(3, jobsCmd.finished.get(0).size());
+        Assert.assertEquals(Integer.valueOf(3), monitor.getFinishedCounts().get(array.getJobId()));
+
+        // The summary has not changed, but the element which was missed is looked up again
+        monitor.poll();
+        Assert.assertEquals(2, jobsCmd.ranges.size());
+        Assert.assertEquals("1,5-10", jobsCmd.ranges.get(1));
+        Assert.assertEquals(1, jobsCmd.finished.get(1).size());
+        Assert.assertEquals(Integer.valueOf(4), monitor.getFinishedCounts().get(array.getJobId()));
+
+        // Now that the counts agree, nothing more is fetched
+        monitor.poll();
+        Assert.assertEquals(2, jobsCmd.ranges.size());
+        Assert.assertFalse(array.isDone());
+    }
+
+    @Test
+    public void testFragmentedRangesFallBack() throws Exception {
+
+        JobManager mgr = new JobManager(syncApi);
+        JobFuture array = mgr.submitJob(newTemplate(), 1, 20);
+        LsfArrayMonitor monitor = new LsfArrayMonitor(mgr, jobsCmd);
+        monitor.setMaxRangesLength(20);
+
+        // Every other element finishes, and one of them is missed
+        syncApi.killJobs(Arrays.asList(array.getJobId() + "[1,3,5,7,9,11,13,15,17,19]"));
+        jobsCmd.dropNext = 1;
+        monitor.poll();
+        Assert.assertEquals("1-20", jobsCmd.ranges.get(0));
+        Assert.assertEquals(9, jobsCmd.finished.get(0).size());
+
+        // The unfinished elements would need "2,4,6,8,10,12,14,16,18-20", so all finished elements are fetched
+        monitor.poll();
+        Assert.assertEquals(2, jobsCmd.ranges.size());
+        Assert.assertNull(jobsCmd.ranges.get(1));
+        Assert.assertEquals(10, jobsCmd.finished.get(1).size());
+        Assert.assertEquals(Integer.valueOf(10), monitor.getFinishedCounts().get(array.getJobId()));
+        Assert.assertEquals(10, mgr.getJobInfo(array.getJobId()).size());
+    }
+
+    @Test
+    public void testArrayIndexRanges() throws Exception {
+
+        LsfArraySummary summary = new LsfArraySummary();
+        summary.setArraySpec("name[1-3,7,10-11]");
+        List<long[]> ranges = summary.getArrayIndexRanges();
+        Assert.assertEquals(3, ranges.size());
+        Assert.assertArrayEquals(new long[] { 1, 3 }, ranges.get(0));
+        Assert.assertArrayEquals(new long[] { 7, 7 }, ranges.get(1));
+        Assert.assertArrayEquals(new long[] { 10, 11 }, ranges.get(2));
+        Assert.assertEquals(Arrays.asList(1L, 2L, 3L, 7L, 10L, 11L), summary.getArrayIndexes());
+
+        summary.setArraySpec("name[1-100:2]");
+        Assert.assertEquals(Collections.emptyList(), summary.getArrayIndexRanges());
+    }
+
+    private JobTemplate newTemplate() {
+        JobTemplate jt = new JobTemplate();
+        jt.setJobName("arrayTest");
+        jt.setRemoteCommand("echo");
+        jt.setArgs(Arrays.asList("hello"));
+        jt.setOutputPath("/tmp/out.#");
+        jt.setNativeSpecification(Arrays.asList("-q", "short"));
+        return jt;
+    }
+
+    /**
+     * Records the result of each fetch of finished elements.
+     */
+    private static class RecordingJobsCommand extends LsfJobsCommand {
+
+        private final List<String> ranges = new ArrayList<>();
+        private final List<List<JobInfo>> finished = new ArrayList<>();
+        private int dropNext;
+
+        @Override
+        public List<JobInfo> executeFinished(Long jobId, String arrayIndexRanges) throws IOException {
+            List<JobInfo> infos = super.executeFinished(jobId, arrayIndexRanges);
+            // Simulate bjobs -d lagging behind bjobs -A
+            for (; dropNext > 0 && !infos.isEmpty(); dropNext--) {
+                infos.remove(infos.size() - 1);
+            }
+            ranges.add(arrayIndexRanges);
+            finished.add(infos);
+            return infos;
+        }
+    }
+}
@@ -0,0 +1,142 @@
+package org.janelia.cluster.lsf.mock;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+
+import org.janelia.cluster.JobFuture;
+import org.janelia.cluster.JobInfo;
+import org.janelia.cluster.JobManager;
+import org.janelia.cluster.JobStatus;
+import org.janelia.cluster.JobTemplate;
+import org.janelia.cluster.lsf.StubSyncApi;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ChunkedSubmitTests {
+
+    @Test
+    public void testChunkedRange() throws Exception {
+
+        StubSyncApi syncApi = new StubSyncApi();
+        JobManager mgr = new JobManager(syncApi);
+        mgr.setMaxArraySize(1000);
+        JobFuture future = mgr.submitJob(newTemplate(), 1, 2500);
+
+        Assert.assertTrue(future.isChunked());
+        Assert.assertEquals(3, syncApi.getSubmitted().size());
+        List<Long> jobIds = future.getJobIds();
+        Assert.assertEquals(3, jobIds.size());
+        Assert.assertEquals(jobIds.get(0), future.getJobId());
+        Assert.assertEquals(jobIds.get(1), future.getJobId(1000L + 500));
+        Assert.assertEquals(jobIds.get(2), future.getJobId(2500L));
+        Assert.assertNull(future.getJobId(0L));
+        Assert.assertNull(future.getJobId(2501L));
+
+        // Elements are counted across all the chunks
+        Map<JobStatus, Long> counts = mgr.getStatusCounts(future);
+        Assert.assertEquals(new Long(2500), counts.get(JobStatus.PENDING));
+
+        syncApi.finish(jobIds.get(1), 1500L, JobStatus.EXIT, 1, null);
+        mgr.checkJobs();
+        Assert.assertFalse(future.isDone());
+        Assert.assertEquals(JobStatus.EXIT, mgr.getJobInfo(future, 1500L).getStatus());
+        Assert.assertEquals(JobStatus.PENDING, mgr.getJobInfo(future, 2001L).getStatus());
+        counts = mgr.getStatusCounts(future);
+        Assert.assertEquals(new Long(1), counts.get(JobStatus.EXIT));
+        Assert.assertEquals(new Long(2499), counts.get(JobStatus.PENDING));
+
+        // The future completes with every element, under its original index
+        syncApi.finishAll(JobStatus.DONE, 0);
+        mgr.checkJobs();
+        Collection<JobInfo> infos = future.get(1, TimeUnit.SECONDS);
+        Assert.assertEquals(2500, infos.size());
+        TreeSet<Long> indexes = new TreeSet<>();
+        for (JobInfo info : infos) {
+            indexes.add(info.getArrayIndex());
+        }
+        Assert.assertEquals(2500, indexes.size());
+        Assert.assertEquals(new Long(1), indexes.first());
+        Assert.assertEquals(new Long(2500), indexes.last());
+        Assert.assertEquals(2500, mgr.getJobInfo(future).size());
+    }
+
+    @Test
+    public void testChunkedIndexes() throws Exception {
+
+        StubSyncApi syncApi = new StubSyncApi();
+        JobManager mgr = new JobManager(syncApi);
+        mgr.setMaxArraySize(10);
+        List<Long> arrayIndexes = new ArrayList<>();
+        for (long i = 25; i >= 1; i--) {
+            arrayIndexes.add(i * 2);
+        }
+        JobFuture future = mgr.submitJob(newTemplate(), arrayIndexes);
+
+        Assert.assertEquals(3, future.getJobIds().size());
+        Assert.assertEquals(future.getJobIds().get(0), future.getJobId(20L));
+        Assert.assertEquals(future.getJobIds().get(1), future.getJobId(22L));
+        Assert.assertEquals(future.getJobIds().get(2), future.getJobId(50L));
+        // Odd indexes fall between the elements of a chunk, but were never submitted
+        Assert.assertNull(future.getJobId(21L));
+        Assert.assertNull(future.getJobId(51L));
+        Assert.assertNull(mgr.getJobInfo(future, 21L));
+
+        syncApi.finishAll(JobStatus.DONE, 0);
+        mgr.checkJobs();
+        Assert.assertEquals(25, future.get(1, TimeUnit.SECONDS).size());
+    }
+
+    @Test
+    public void testFailedChunkIsNotMonitored() throws Exception {
+
+        // The second chunk is rejected
+        StubSyncApi syncApi = new StubSyncApi() {
+            @Override
+            public synchronized JobInfo submitJobs(JobTemplate jt, Long start, Long end) throws IOException {
+                if (start == 11) throw new IOException("Rejected");
+                return super.submitJobs(jt, start, end);
+            }
+        };
+        JobManager mgr = new JobManager(syncApi);
+        mgr.setMaxArraySize(10);
+        try {
+            mgr.submitJob(newTemplate(), 1, 30);
+            Assert.fail("Submission should have failed");
+        }
+        catch (IOException e) {
+            Assert.assertEquals("Rejected", e.getMessage());
+        }
+
+        // The chunks which were submitted are killed, and forgotten
+        Assert.assertEquals(2, syncApi.getSubmitted().size());
+        Assert.assertTrue(mgr.getRunningJobIds().isEmpty());
+        for (JobInfo info : syncApi.getJobInfo()) {
+            Assert.assertEquals(JobStatus.EXIT, info.getStatus());
+        }
+    }
+
+    @Test
+    public void testSmallArrayIsNotChunked() throws Exception {
+
+        StubSyncApi syncApi = new StubSyncApi();
+        JobManager mgr = new JobManager(syncApi);
+        mgr.setMaxArraySize(1000);
+        JobFuture future = mgr.submitJob(newTemplate(), 1, 1000);
+
+        Assert.assertFalse(future.isChunked());
+        Assert.assertEquals(1, syncApi.getSubmitted().size());
+        Assert.assertEquals(future.getJobId(), future.getJobId(500L));
+    }
+
+    private JobTemplate newTemplate() {
+        JobTemplate jt = new JobTemplate();
+        jt.setJobName("chunked");
+        jt.setRemoteCommand("true");
+        return jt;
+    }
+}
@@ -0,0 +1,167 @@
+package org.janelia.cluster.lsf.mock;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.time.LocalDateTime;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.Set;
+
+import org.janelia.cluster.CompactJobInfo;
+import org.janelia.cluster.JobFuture;
+import org.janelia.cluster.JobInfo;
+import org.janelia.cluster.JobManager;
+import org.janelia.cluster.JobStatus;
+import org.janelia.cluster.JobTemplate;
+import org.janelia.cluster.StringPool;
+import org.janelia.cluster.lsf.StubSyncApi;
+import org.junit.Assert;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class CompactJobInfoTests {
+
+    private static final Logger log = LoggerFactory.getLogger(CompactJobInfoTests.class);
+
+    @Test
+    public void testCopy() {
+
+        JobInfo info = newFinishedInfo();
+        CompactJobInfo compact = new CompactJobInfo(info);
+        Assert.assertEquals(info.toString(), compact.toString());
+        Assert.assertTrue(compact.isStarted());
+        Assert.assertTrue(compact.isComplete());
+
+        // Repeated strings are shared
+        CompactJobInfo other = new CompactJobInfo(info);
+        Assert.assertSame(compact.getQueue(), other.getQueue());
+        Assert.assertSame(compact.getName(), other.getName());
+    }
+
+    private JobInfo newFinishedInfo() {
+        JobInfo info = new JobInfo();
+        info.setJobId(1234L);
+        info.setArrayIndex(7L);
+        info.setName("myjob");
+        info.setFromHost("submithost");
+        info.setExecHost("exechost1:exechost2");
+        info.setStatus(JobStatus.EXIT);
+        info.setQueue("short");
+        info.setProject("myproject");
+        info.setReqSlot(4);
+        info.setAllocSlot(2);
+        info.setSubmitTime(LocalDateTime.of(2020, 3, 8, 2, 30, 0));
+        info.setStartTime(LocalDateTime.of(2020, 3, 8, 3, 0, 1));
+        info.setFinishTime(LocalDateTime.of(2020, 3, 8, 3, 10, 59));
+        info.setMaxMem("20 Mbytes");
+        info.setMaxMemBytes(20L * 1024 * 1024);
+        info.setSwapBytes(0L);
+        info.setCpuSeconds(12.5);
+        info.setExitCode(-1);
+        info.setExitReason("TERM_MEMLIMIT");
+        return info;
+    }
+
+    @Test
+    public void testCpuSecondsPrecision() {
+        JobInfo info = new JobInfo();
+        info.setCpuSeconds(86400.0 * 365 + 0.123);
+        Assert.assertEquals(info.getCpuSeconds(), new CompactJobInfo(info).getCpuSeconds());
+    }
+
+    @Test
+    public void testFootprint() throws Exception {
+        JobInfo info = newFinishedInfo();
+        CompactJobInfo compact = new CompactJobInfo(info);
+        // Strings are left out, since both forms keep the same ones
+        long size = retainedSize(info);
+        long compactSize = retainedSize(compact);
+        log.info("Retained size without strings: JobInfo {} bytes, CompactJobInfo {} bytes", size, compactSize);
+        Assert.assertTrue(compactSize <= 136);
+        Assert.assertTrue(compactSize * 3 < size);
+    }
+
+    @Test
+    public void testNulls() {
+        CompactJobInfo compact = new CompactJobInfo(new JobInfo());
+        Assert.assertEquals(new JobInfo().toString(), compact.toString());
+        Assert.assertFalse(compact.isStarted());
+        Assert.assertFalse(compact.isComplete());
+    }
+
+    @Test
+    public void testBoundedPool() {
+        StringPool pool = new StringPool(2);
+        String a = pool.intern(new String("a"));
+        Assert.assertSame(a, pool.intern(new String("a")));
+        pool.intern("b");
+        String c = new String("c");
+        Assert.assertSame(c, pool.intern(c));
+        Assert.assertNotSame(c, pool.intern(new String("c")));
+        Assert.assertEquals(2, pool.size());
+    }
+
+    @Test
+    public void testManager() throws Exception {
+
+        StubSyncApi api = new StubSyncApi();
+        JobManager mgr = new JobManager(api);
+        mgr.setCompactJobInfos(true);
+        JobTemplate jt = new JobTemplate();
+        jt.setJobName("compact");
+        JobFuture future = mgr.submitJob(jt, 1, 3);
+
+        mgr.checkJobs();
+        Assert.assertTrue(mgr.getJobInfo(future.getJobId(), 2L) instanceof CompactJobInfo);
+
+        api.finishAll(JobStatus.DONE, 0);
+        mgr.checkJobs();
+        Collection<JobInfo> infos = future.get();
+        Assert.assertEquals(3, infos.size());
+        for (JobInfo info : infos) {
+            Assert.assertTrue(info instanceof CompactJobInfo);
+            Assert.assertEquals("compact", info.getName());
+            Assert.assertEquals(new Integer(0), info.getExitCode());
+        }
+    }
+
+    /**
+     * Estimates the heap used by the given object and everything it references, apart from strings and enum
+     * constants, assuming a 64-bit HotSpot JVM with compressed references: 12 byte object headers, 4 byte
+     * references and 8 byte alignment.
+     */
+    private static long retainedSize(Object root) throws IllegalAccessException {
+        Set<Object> seen = Collections.newSetFromMap(new IdentityHashMap<>());
+        Deque<Object> stack = new ArrayDeque<>();
+        stack.push(root);
+        long size = 0;
+        while (!stack.isEmpty()) {
+            Object obj = stack.pop();
+            if (!seen.add(obj)) continue;
+            long objSize = 12;
+            for (Class<?> c = obj.getClass(); c != null; c = c.getSuperclass()) {
+                for (Field field : c.getDeclaredFields()) {
+                    if (Modifier.isStatic(field.getModifiers())) continue;
+                    Class<?> type = field.getType();
+                    objSize += type == long.class || type == double.class ? 8
+                            : type == int.class || type == float.class ? 4
+                            : type == short.class || type == char.class ? 2
+                            : type == byte.class || type == boolean.class ? 1 : 4;
+                    if (!type.isPrimitive()) {
+                        field.setAccessible(true);
+                        Object value = field.get(obj);
+                        if (value != null && !(value instanceof String) && !(value instanceof Enum)) {
+                            stack.push(value);
+                        }
+                    }
+                }
+            }
+            size += (objSize + 7) / 8 * 8;
+        }
+        return size;
+    }
+}
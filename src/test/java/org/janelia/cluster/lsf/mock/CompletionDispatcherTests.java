@@ -0,0 +1,103 @@
+package org.janelia.cluster.lsf.mock;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.janelia.cluster.JobCompletionDispatcher;
+import org.janelia.cluster.JobFuture;
+import org.janelia.cluster.JobManager;
+import org.janelia.cluster.JobStatus;
+import org.janelia.cluster.JobTemplate;
+import org.janelia.cluster.lsf.StubSyncApi;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class CompletionDispatcherTests {
+
+    @Test
+    public void testSlowCallbackDoesNotBlockCheck() throws Exception {
+
+        StubSyncApi syncApi = new StubSyncApi();
+        JobManager mgr = new JobManager(syncApi);
+        JobCompletionDispatcher dispatcher = new JobCompletionDispatcher(2, 100);
+        mgr.setCompletionDispatcher(dispatcher);
+
+        CountDownLatch release = new CountDownLatch(1);
+        JobFuture slow = mgr.submitJob(newTemplate());
+        JobFuture fast = mgr.submitJob(newTemplate());
+        Thread checker = Thread.currentThread();
+        CompletableFuture<Void> callback = slow.thenAccept(infos -> {
+            Assert.assertNotSame(checker, Thread.currentThread());
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+
+        // The check returns while the slow callback is still running
+        syncApi.finish(slow.getJobId(), null, JobStatus.DONE, 0, null);
+        mgr.checkJobs();
+        syncApi.finish(fast.getJobId(), null, JobStatus.DONE, 0, null);
+        mgr.checkJobs();
+        fast.get(5, TimeUnit.SECONDS);
+        Assert.assertTrue(dispatcher.getPendingCount() >= 1);
+
+        release.countDown();
+        callback.get(5, TimeUnit.SECONDS);
+        while (dispatcher.getPendingCount() > 0) {
+            Thread.sleep(10);
+        }
+        dispatcher.shutdown();
+
+        Assert.assertEquals(2, dispatcher.getDispatchedCount());
+        Assert.assertEquals(0, dispatcher.getOverflowCount());
+        Assert.assertEquals(2, dispatcher.getCallbackMicros().getCount());
+        // The slow callback was blocked for at least as long as it took to complete the fast future
+        Assert.assertTrue(dispatcher.getCallbackMicros().getMax() >= 1);
+        Assert.assertTrue(dispatcher.getCallbackMillis(1) > 0);
+        Assert.assertTrue(dispatcher.getMaxPendingCount() >= 1);
+    }
+
+    @Test
+    public void testFullQueueRunsOnCaller() throws Exception {
+
+        StubSyncApi syncApi = new StubSyncApi();
+        JobManager mgr = new JobManager(syncApi);
+        JobCompletionDispatcher dispatcher = new JobCompletionDispatcher(1, 1);
+        mgr.setCompletionDispatcher(dispatcher);
+
+        CountDownLatch release = new CountDownLatch(1);
+        JobFuture blocker = mgr.submitJob(newTemplate());
+        blocker.thenRun(() -> {
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            }
+            catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        syncApi.finish(blocker.getJobId(), null, JobStatus.DONE, 0, null);
+        mgr.checkJobs();
+
+        // With the only slot taken, the next completion runs during the check itself
+        JobFuture overflow = mgr.submitJob(newTemplate());
+        syncApi.finish(overflow.getJobId(), null, JobStatus.DONE, 0, null);
+        mgr.checkJobs();
+        Assert.assertTrue(overflow.isDone());
+        Assert.assertEquals(1, dispatcher.getOverflowCount());
+
+        release.countDown();
+        blocker.get(5, TimeUnit.SECONDS);
+        dispatcher.shutdown();
+    }
+
+    private JobTemplate newTemplate() {
+        JobTemplate jt = new JobTemplate();
+        jt.setJobName("dispatched");
+        jt.setRemoteCommand("true");
+        return jt;
+    }
+}
@@ -0,0 +1,325 @@
+package org.janelia.cluster.lsf.mock;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.janelia.cluster.JobFuture;
+import org.janelia.cluster.JobInfo;
+import org.janelia.cluster.JobKillResult;
+import org.janelia.cluster.JobManager;
+import org.janelia.cluster.JobStatus;
+import org.janelia.cluster.JobTemplate;
+import org.janelia.cluster.UsageSeries;
+import org.janelia.cluster.lsf.FakeLsfHarness;
+import org.janelia.cluster.lsf.LsfAcctCommand;
+import org.janelia.cluster.lsf.LsfJobsCommand;
+import org.janelia.cluster.lsf.LsfKillCommand;
+import org.janelia.cluster.lsf.LsfSyncApi;
+import org.janelia.cluster.lsf.LsfUsageSampler;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class FakeLsfTests {
+
+    private FakeLsfHarness harness;
+    private LsfSyncApi syncApi;
+
+    @Before
+    public void createHarness() throws Exception {
+        this.harness = new FakeLsfHarness();
+        this.syncApi = harness.newSyncApi();
+    }
+
+    @After
+    public void closeHarness() throws Exception {
+        harness.close();
+    }
+
+    @Test
+    public void testSubmitAndPoll() throws Exception {
+
+        harness.addJobs(50);
+        JobManager mgr = new JobManager(syncApi);
+        JobFuture future = mgr.submitJob(newTemplate(), 1, 3);
+
+        for (int i = 0; i < 5 && !future.isDone(); i++) {
+            mgr.checkJobs();
+        }
+
+        Collection<JobInfo> infos = future.get(1, TimeUnit.SECONDS);
+        Assert.assertEquals(3, infos.size());
+        for (JobInfo info : infos) {
+            Assert.assertEquals("fakeTest", info.getName());
+            Assert.assertEquals("short", info.getQueue());
+            Assert.assertEquals(JobStatus.DONE, info.getStatus());
+            Assert.assertEquals(new Integer(0), info.getExitCode());
+            Assert.assertNotNull(info.getFinishTime());
+            Assert.assertEquals(new Long(24 * 1024 * 1024), info.getMaxMemBytes());
+            Assert.assertEquals(new Long(12 * 1024 * 1024), info.getAvgMemBytes());
+            Assert.assertNull(info.getSwapBytes());
+            Assert.assertEquals(1.5, info.getCpuSeconds(), 0.001);
+        }
+        Assert.assertEquals(53, syncApi.getJobInfo().size());
+    }
+
+    @Test
+    public void testUsageSampler() throws Exception {
+
+        JobManager mgr = new JobManager(syncApi);
+        JobFuture future = mgr.submitJob(newTemplate(), 1, 3);
+        LsfUsageSampler sampler = new LsfUsageSampler(harness.newJobsCommand(), 10);
+        sampler.setJobIdFilter(jobId -> mgr.getJobMetadata(jobId) != null);
+
+        // Nothing is running yet
+        sampler.sample();
+        Assert.assertEquals(0, sampler.getJobCount());
+
+        harness.addJobs(5);
+        mgr.checkJobs();
+        sampler.sample();
+        sampler.sample();
+        Assert.assertEquals(3, sampler.getJobCount());
+        Assert.assertEquals(3 * 24 * 1024 * 1024, sampler.getTotalMemBytes());
+        UsageSeries usage = sampler.getUsage(future.getJobId(), 2L);
+        Assert.assertEquals(2, usage.size());
+        Assert.assertEquals(24 * 1024 * 1024, usage.getPeakMemBytes());
+        Assert.assertEquals(1.5, usage.getCpuSeconds(1), 0.001);
+
+        // Finished jobs are no longer tracked
+        mgr.checkJobs();
+        sampler.sample();
+        Assert.assertEquals(0, sampler.getJobCount());
+        Assert.assertNull(sampler.getUsage(future.getJobId(), 2L));
+    }
+
+    @Test
+    public void testKill() throws Exception {
+
+        JobInfo job = syncApi.submitJobs(newTemplate(), 1L, 5L);
+        List<JobKillResult> results = syncApi.killJobs(Arrays.asList(job.getJobId() + "[2-3]", "999"));
+
+        Assert.assertEquals(3, results.size());
+        Assert.assertTrue(results.get(0).isSuccess());
+        Assert.assertTrue(results.get(1).isSuccess());
+        Assert.assertEquals("999", results.get(2).getJobSpec());
+        Assert.assertFalse(results.get(2).isSuccess());
+
+        long killed = syncApi.getJobInfo(job.getJobId()).stream()
+                .filter(info -> info.getStatus() == JobStatus.EXIT && info.getExitCode() == 130)
+                .count();
+        Assert.assertEquals(2, killed);
+    }
+
+    @Test
+    public void testKillNoElements() throws Exception {
+
+        JobManager mgr = new JobManager(syncApi);
+        JobFuture future = mgr.submitJob(newTemplate(), 1, 5);
+        Assert.assertTrue(mgr.killJobArrayElements(future.getJobId(), Collections.emptyList()).isEmpty());
+
+        // bkill was never called, so nothing was killed
+        Assert.assertTrue(harness.getCalls("bkill").isEmpty());
+        Assert.assertTrue(syncApi.getJobInfo(future.getJobId()).stream()
+                .noneMatch(info -> info.getStatus() == JobStatus.EXIT));
+    }
+
+    @Test
+    public void testPartitionedKill() throws Exception {
+
+        JobInfo array = syncApi.submitJobs(newTemplate(), 1L, 5L);
+        JobInfo single = syncApi.submitJob(newTemplate());
+
+        // With a tiny limit, every job spec needs its own bkill call
+        LsfKillCommand killCmd = harness.newKillCommand();
+        killCmd.setMaxArgBytes(1);
+        List<JobKillResult> results = killCmd.executeWithJobIds(Arrays.asList(array.getJobId() + "[1-2]",
+                array.getJobId() + "[4]", single.getJobId().toString(), "999"));
+        Assert.assertEquals(4, harness.getCalls("bkill").size());
+
+        // The results are merged in order
+        Assert.assertEquals(5, results.size());
+        Assert.assertEquals(array.getJobId() + "[1]", results.get(0).getJobSpec());
+        Assert.assertEquals(array.getJobId() + "[4]", results.get(2).getJobSpec());
+        Assert.assertEquals(single.getJobId().toString(), results.get(3).getJobSpec());
+        Assert.assertTrue(results.subList(0, 4).stream().allMatch(JobKillResult::isSuccess));
+        Assert.assertFalse(results.get(4).isSuccess());
+        long killed = harness.getState().stream().filter(line -> line.contains("^EXIT^")).count();
+        Assert.assertEquals(4, killed);
+
+        // The default limit fits them all in one call
+        harness.newKillCommand().executeWithJobIds(Arrays.asList(array.getJobId() + "[5]", "998"));
+        Assert.assertEquals(5, harness.getCalls("bkill").size());
+    }
+
+    @Test
+    public void testKillUnreportedSpecs() throws Exception {
+
+        // A bkill which only reports on the first job it is given, and then fails
+        Path bkill = harness.getBinDir().resolve("bkill_partial");
+        Files.write(bkill, Arrays.asList("#!/bin/bash", "echo \"Job <$1> is being terminated\"", "exit 255"));
+        Assert.assertTrue(bkill.toFile().setExecutable(true));
+
+        LsfKillCommand killCmd = new LsfKillCommand();
+        killCmd.setBkillCommand(bkill.toString());
+        List<JobKillResult> results = killCmd.executeWithJobIds(Arrays.asList("123", "124[1-3]", "125"));
+
+        // The jobs which bkill never mentions are reported as failed
+        Assert.assertEquals(3, results.size());
+        Assert.assertEquals("123", results.get(0).getJobSpec());
+        Assert.assertTrue(results.get(0).isSuccess());
+        Assert.assertEquals("124[1-3]", results.get(1).getJobSpec());
+        Assert.assertFalse(results.get(1).isSuccess());
+        Assert.assertEquals("bkill exited with code 255", results.get(1).getMessage());
+        Assert.assertEquals("125", results.get(2).getJobSpec());
+        Assert.assertFalse(results.get(2).isSuccess());
+    }
+
+    @Test
+    public void testBatchedLookup() throws Exception {
+
+        JobInfo first = syncApi.submitJob(newTemplate());
+        JobInfo array = syncApi.submitJobs(newTemplate(), 1L, 3L);
+
+        // Unknown jobs are left out, rather than failing the whole lookup
+        List<JobInfo> infos = syncApi.getJobInfo(Arrays.asList(first.getJobId(), array.getJobId(), 999L));
+        Assert.assertEquals(4, infos.size());
+        Assert.assertTrue(syncApi.getJobInfo(Arrays.asList(999L)).isEmpty());
+    }
+
+    @Test
+    public void testPartitionedLookup() throws Exception {
+
+        JobInfo first = syncApi.submitJob(newTemplate());
+        JobInfo array = syncApi.submitJobs(newTemplate(), 1L, 3L);
+        JobInfo last = syncApi.submitJob(newTemplate());
+
+        // With a tiny limit, every job id needs its own bjobs call
+        LsfJobsCommand jobsCmd = harness.newJobsCommand();
+        jobsCmd.setMaxArgBytes(1);
+        List<JobInfo> infos = jobsCmd.execute(Arrays.asList(first.getJobId(), array.getJobId(), 999L, last.getJobId()));
+        Assert.assertEquals(5, infos.size());
+        Assert.assertEquals(first.getJobId(), infos.get(0).getJobId());
+        Assert.assertEquals(last.getJobId(), infos.get(4).getJobId());
+        Assert.assertEquals(4, harness.getCalls("bjobs").size());
+
+        // The default limit fits them all in one call
+        harness.newJobsCommand().execute(Arrays.asList(first.getJobId(), array.getJobId(), 999L, last.getJobId()));
+        Assert.assertEquals(5, harness.getCalls("bjobs").size());
+    }
+
+    @Test
+    public void testPartitionedHistory() throws Exception {
+
+        JobInfo first = syncApi.submitJob(newTemplate());
+        JobInfo array = syncApi.submitJobs(newTemplate(), 1L, 3L);
+        JobInfo last = syncApi.submitJob(newTemplate());
+        // Each listing moves the jobs one step along
+        syncApi.getJobInfo();
+        syncApi.getJobInfo();
+
+        LsfAcctCommand acctCmd = harness.newAcctCommand();
+        acctCmd.setMaxArgBytes(1);
+        List<JobInfo> infos = acctCmd.execute(Arrays.asList(first.getJobId(), array.getJobId(), 999L, last.getJobId()));
+        Assert.assertEquals(5, infos.size());
+        Assert.assertEquals(first.getJobId(), infos.get(0).getJobId());
+        Assert.assertEquals(JobStatus.DONE, infos.get(0).getStatus());
+        Assert.assertEquals(new Long(3), infos.get(3).getArrayIndex());
+        Assert.assertEquals(last.getJobId(), infos.get(4).getJobId());
+        Assert.assertEquals(4, harness.getCalls("bacct").size());
+
+        // The default limit fits them all in one call
+        Assert.assertEquals(5, syncApi.getJobHistory(Arrays.asList(first.getJobId(), array.getJobId(), 999L,
+                last.getJobId())).size());
+        Assert.assertEquals(5, harness.getCalls("bacct").size());
+    }
+
+    @Test
+    public void testScopedSession() throws Exception {
+
+        harness.addJobs(20);
+        JobInfo other = syncApi.submitJob(newTemplate());
+
+        LsfSyncApi scoped = harness.newSyncApi();
+        scoped.setJobGroup("/sessions/s1");
+        scoped.setJobNamePrefix("s1_");
+        JobManager mgr = new JobManager(scoped);
+        JobFuture future = mgr.submitJob(newTemplate(), 1, 3);
+        JobInfo single = scoped.submitJob(newTemplate());
+
+        // Only this session's jobs are listed, with their original names
+        List<JobInfo> infos = scoped.getJobInfo();
+        Assert.assertEquals(4, infos.size());
+        for (JobInfo info : infos) {
+            Assert.assertEquals("fakeTest", info.getName());
+            Assert.assertNotEquals(other.getJobId(), info.getJobId());
+        }
+
+        // The whole group is killed at once, leaving the other jobs alone
+        List<JobKillResult> results = mgr.killAllJobs();
+        Assert.assertEquals(4, results.size());
+        Assert.assertTrue(results.stream().allMatch(JobKillResult::isSuccess));
+        mgr.checkJobs();
+        Assert.assertTrue(future.isDone());
+        Assert.assertEquals(JobStatus.EXIT, scoped.getJobInfo(single.getJobId()).get(0).getStatus());
+        Assert.assertNotEquals(JobStatus.EXIT, syncApi.getJobInfo(other.getJobId()).get(0).getStatus());
+    }
+
+    @Test
+    public void testPrefixScopedSession() throws Exception {
+
+        JobInfo other = syncApi.submitJob(newTemplate());
+
+        LsfSyncApi scoped = harness.newSyncApi();
+        scoped.setJobNamePrefix("s2_");
+        JobManager mgr = new JobManager(scoped);
+        JobFuture future = mgr.submitJob(newTemplate(), 1, 3);
+        JobInfo single = scoped.submitJob(newTemplate());
+
+        // Every job with the prefix is killed at once, leaving the other jobs alone
+        List<JobKillResult> results = mgr.killAllJobs();
+        Assert.assertEquals(4, results.size());
+        Assert.assertTrue(results.stream().allMatch(JobKillResult::isSuccess));
+        mgr.checkJobs();
+        Assert.assertTrue(future.isDone());
+        Assert.assertEquals(JobStatus.EXIT, scoped.getJobInfo(single.getJobId()).get(0).getStatus());
+        Assert.assertNotEquals(JobStatus.EXIT, syncApi.getJobInfo(other.getJobId()).get(0).getStatus());
+    }
+
+    @Test
+    public void testKillByNameWithPrefix() throws Exception {
+
+        JobInfo other = syncApi.submitJob(newTemplate());
+
+        LsfSyncApi scoped = harness.newSyncApi();
+        scoped.setJobNamePrefix("s3_");
+        JobInfo single = scoped.submitJob(newTemplate());
+
+        // The name is given as it was submitted, without the prefix
+        scoped.killJobByName("fakeTest");
+        Assert.assertEquals(JobStatus.EXIT, scoped.getJobInfo(single.getJobId()).get(0).getStatus());
+        Assert.assertNotEquals(JobStatus.EXIT, syncApi.getJobInfo(other.getJobId()).get(0).getStatus());
+    }
+
+    @Test(expected = java.io.IOException.class)
+    public void testSubmitFailure() throws Exception {
+        harness.setSubmitFailure(true);
+        syncApi.submitJob(newTemplate());
+    }
+
+    private JobTemplate newTemplate() {
+        JobTemplate jt = new JobTemplate();
+        jt.setJobName("fakeTest");
+        jt.setRemoteCommand("echo");
+        jt.setArgs(Arrays.asList("hello"));
+        jt.setOutputPath("/tmp/out.#");
+        jt.setNativeSpecification(Arrays.asList("-q", "short", "-W 1"));
+        return jt;
+    }
+}
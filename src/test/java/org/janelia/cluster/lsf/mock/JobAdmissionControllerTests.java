@@ -0,0 +1,113 @@
+package org.janelia.cluster.lsf.mock;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.janelia.cluster.JobAdmissionController;
+import org.janelia.cluster.JobInfo;
+import org.janelia.cluster.JobManager;
+import org.janelia.cluster.JobStatus;
+import org.janelia.cluster.JobTemplate;
+import org.janelia.cluster.lsf.LsfUtils;
+import org.janelia.cluster.lsf.StubSyncApi;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class JobAdmissionControllerTests {
+
+    @Test
+    public void testCapAndRefill() throws Exception {
+
+        StubSyncApi syncApi = new StubSyncApi();
+        JobManager mgr = new JobManager(syncApi);
+        JobAdmissionController controller = new JobAdmissionController(mgr, jt -> null, 2, Runnable::run);
+
+        CompletableFuture<Collection<JobInfo>> first = controller.submitJob(newTemplate("short"));
+        CompletableFuture<Collection<JobInfo>> second = controller.submitJob(newTemplate("short"));
+        CompletableFuture<Collection<JobInfo>> third = controller.submitJob(newTemplate("short"));
+        Assert.assertEquals(2, syncApi.getSubmitted().size());
+        Assert.assertEquals(1, controller.getHeldCount());
+
+        // A finished job makes room for the held one
+        syncApi.finish(1L, null, JobStatus.DONE, 0, null);
+        mgr.checkJobs();
+        Assert.assertTrue(first.isDone());
+        Assert.assertEquals(3, syncApi.getSubmitted().size());
+        Assert.assertEquals(0, controller.getHeldCount());
+
+        syncApi.finishAll(JobStatus.DONE, 0);
+        mgr.checkJobs();
+        second.get(1, TimeUnit.SECONDS);
+        third.get(1, TimeUnit.SECONDS);
+    }
+
+    @Test
+    public void testPerQueueCaps() throws Exception {
+
+        StubSyncApi syncApi = new StubSyncApi();
+        JobManager mgr = new JobManager(syncApi);
+        JobAdmissionController controller = new JobAdmissionController(mgr,
+                jt -> LsfUtils.getQueue(jt.getNativeSpecification()), 1, Runnable::run);
+        controller.setMaxActiveJobs("long", 2);
+
+        controller.submitJob(newTemplate("short"));
+        controller.submitJob(newTemplate("short"));
+        controller.submitJob(newTemplate("long"));
+        controller.submitJob(newTemplate("long"));
+        controller.submitJob(newTemplate("long"));
+
+        // Each queue is held back by its own cap
+        Assert.assertEquals(3, syncApi.getSubmitted().size());
+        Assert.assertEquals(1, controller.getHeldCount("short"));
+        Assert.assertEquals(1, controller.getHeldCount("long"));
+        Assert.assertEquals(2, controller.getMaxActiveJobs("long"));
+        Assert.assertEquals(1, controller.getMaxActiveJobs("short"));
+    }
+
+    @Test
+    public void testArrayReleasesCapacityPerElement() throws Exception {
+
+        StubSyncApi syncApi = new StubSyncApi();
+        JobManager mgr = new JobManager(syncApi);
+        JobAdmissionController controller = new JobAdmissionController(mgr, jt -> null, 4, Runnable::run);
+
+        CompletableFuture<Collection<JobInfo>> array = controller.submitJob(newTemplate("short"), 1, 4);
+        controller.submitJob(newTemplate("short"));
+        Assert.assertEquals(1, syncApi.getSubmitted().size());
+        Assert.assertEquals(1, controller.getHeldCount());
+
+        // One finished element is enough to release the held job, while the array is still running
+        syncApi.finish(1L, 1L, JobStatus.DONE, 0, null);
+        mgr.checkJobs();
+        Assert.assertFalse(array.isDone());
+        Assert.assertEquals(2, syncApi.getSubmitted().size());
+        Assert.assertEquals(0, controller.getHeldCount());
+    }
+
+    @Test
+    public void testCancelWhileHeld() throws Exception {
+
+        StubSyncApi syncApi = new StubSyncApi();
+        JobManager mgr = new JobManager(syncApi);
+        JobAdmissionController controller = new JobAdmissionController(mgr, jt -> null, 1, Runnable::run);
+
+        controller.submitJob(newTemplate("short"));
+        CompletableFuture<Collection<JobInfo>> held = controller.submitJob(newTemplate("short"));
+        held.cancel(false);
+
+        syncApi.finishAll(JobStatus.DONE, 0);
+        mgr.checkJobs();
+        Assert.assertEquals(1, syncApi.getSubmitted().size());
+        Assert.assertEquals(0, controller.getHeldCount());
+    }
+
+    private JobTemplate newTemplate(String queue) {
+        JobTemplate jt = new JobTemplate();
+        jt.setJobName("admitted");
+        jt.setRemoteCommand("true");
+        jt.setNativeSpecification(Arrays.asList("-q", queue));
+        return jt;
+    }
+}
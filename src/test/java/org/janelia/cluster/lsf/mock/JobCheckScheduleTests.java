@@ -0,0 +1,100 @@
+package org.janelia.cluster.lsf.mock;
+
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.janelia.cluster.JobCheckSchedule;
+import org.janelia.cluster.JobFuture;
+import org.janelia.cluster.JobInfo;
+import org.janelia.cluster.JobManager;
+import org.janelia.cluster.JobStatus;
+import org.janelia.cluster.JobTemplate;
+import org.janelia.cluster.lsf.StubSyncApi;
+import org.janelia.cluster.lsf.TestUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class JobCheckScheduleTests {
+
+    private static final LocalDateTime NOW = LocalDateTime.of(2018, 3, 1, 12, 0);
+
+    @Test
+    public void testDelays() {
+
+        JobCheckSchedule schedule = new JobCheckSchedule();
+        schedule.setDurationPredictor(info -> "align".equals(info.getName()) ? 3600L : null);
+
+        // Unknown and newly started jobs are checked as often as allowed
+        Assert.assertEquals(15000, schedule.getDelayMillis((List<JobInfo>) null, NOW));
+        Assert.assertEquals(15000, schedule.getDelayMillis(running("other", NOW.minusSeconds(30)), NOW));
+
+        // The interval grows with the time spent running, up to the maximum
+        Assert.assertEquals(60000, schedule.getDelayMillis(running("other", NOW.minusMinutes(10)), NOW));
+        Assert.assertEquals(600000, schedule.getDelayMillis(running("other", NOW.minusDays(3)), NOW));
+
+        // Predicted jobs are checked when they should finish, then back off if they overrun
+        Assert.assertEquals(300000, schedule.getDelayMillis(running("align", NOW.minusMinutes(55)), NOW));
+        Assert.assertEquals(15000, schedule.getDelayMillis(running("align", NOW.minusMinutes(61)), NOW));
+        Assert.assertEquals(180000, schedule.getDelayMillis(running("align", NOW.minusMinutes(90)), NOW));
+
+        // Pending jobs back off from their submit time
+        JobInfo pending = TestUtils.newInfo(1L, JobStatus.PENDING);
+        pending.setSubmitTime(NOW.minusMinutes(20));
+        Assert.assertEquals(120000, schedule.getDelayMillis(pending, NOW));
+
+        // Arrays are checked as often as their most urgent unfinished element
+        JobInfo done = running("other", NOW.minusSeconds(1));
+        done.setStatus(JobStatus.DONE);
+        Assert.assertEquals(60000, schedule.getDelayMillis(
+                Arrays.asList(done, running("other", NOW.minusMinutes(10)), running("other", NOW.minusDays(1))), NOW));
+    }
+
+    @Test
+    public void testOnlyDueJobsAreQueried() throws Exception {
+
+        StubSyncApi syncApi = new StubSyncApi();
+        JobManager mgr = new JobManager(syncApi);
+        JobCheckSchedule schedule = new JobCheckSchedule();
+        schedule.setMinIntervalMillis(0);
+        schedule.setDurationPredictor(info -> "long".equals(info.getName()) ? 86400L : null);
+        mgr.setCheckSchedule(schedule);
+
+        JobFuture shortJob = mgr.submitJob(newTemplate("short"));
+        JobFuture longJob = mgr.submitJob(newTemplate("long"));
+        syncApi.start(longJob.getJobId(), LocalDateTime.now().minusMinutes(1));
+
+        // Both jobs are new, so they are both checked, with a single lookup
+        mgr.checkJobs();
+        Assert.assertEquals(Arrays.asList(shortJob.getJobId(), longJob.getJobId()), syncApi.getLookups().get(0));
+
+        // The long job is not due again for a while
+        mgr.checkJobs();
+        Assert.assertEquals(Collections.singletonList(shortJob.getJobId()), syncApi.getLookups().get(1));
+
+        syncApi.finish(shortJob.getJobId(), null, JobStatus.DONE, 0, null);
+        mgr.checkJobs();
+        Assert.assertTrue(shortJob.isDone());
+        Assert.assertFalse(longJob.isDone());
+
+        // Nothing is due, so the cluster is not queried at all
+        mgr.checkJobs();
+        Assert.assertEquals(3, syncApi.getLookups().size());
+        Assert.assertEquals(0, syncApi.getListings());
+    }
+
+    private JobInfo running(String name, LocalDateTime startTime) {
+        JobInfo info = TestUtils.newInfo(1L, JobStatus.RUNNING);
+        info.setName(name);
+        info.setStartTime(startTime);
+        return info;
+    }
+
+    private JobTemplate newTemplate(String name) {
+        JobTemplate jt = new JobTemplate();
+        jt.setJobName(name);
+        jt.setRemoteCommand("true");
+        return jt;
+    }
+}
@@ -0,0 +1,202 @@
+package org.janelia.cluster.lsf.mock;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.janelia.cluster.JobHistoryStore;
+import org.janelia.cluster.JobInfo;
+import org.janelia.cluster.JobStatus;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class JobHistoryStoreTests {
+
+    private static final LocalDateTime BASE_TIME = LocalDateTime.of(2018, 3, 1, 12, 0);
+
+    private File dir;
+
+    @Before
+    public void createDir() throws Exception {
+        this.dir = Files.createTempDirectory("JobHistoryStoreTests").toFile();
+    }
+
+    @After
+    public void deleteDir() throws Exception {
+        FileUtils.deleteDirectory(dir);
+    }
+
+    @Test
+    public void testQueries() throws Exception {
+
+        try (JobHistoryStore store = new JobHistoryStore(dir.toPath(), 4096, Duration.ofDays(1), Duration.ofDays(7))) {
+            List<JobInfo> infos = new ArrayList<>();
+            for (int i = 0; i < 100; i++) {
+                infos.add(newInfo(i, i % 2 == 0 ? "align" : "render", i % 10 == 0 ? JobStatus.EXIT : JobStatus.DONE));
+            }
+            store.append(infos);
+
+            // Small segments force several of them to be created
+            Assert.assertTrue(store.getSegmentCount() > 1);
+            Assert.assertEquals(100, store.size());
+
+            List<JobInfo> aligns = store.query(new JobHistoryStore.Query().name("align"));
+            Assert.assertEquals(50, aligns.size());
+            Assert.assertEquals(0, aligns.get(0).getJobId().longValue());
+            Assert.assertEquals(98, aligns.get(49).getJobId().longValue());
+
+            Assert.assertEquals(10, store.query(new JobHistoryStore.Query().status(JobStatus.EXIT)).size());
+            Assert.assertEquals(5, store.query(new JobHistoryStore.Query().name("render").status(JobStatus.DONE).limit(5)).size());
+
+            List<JobInfo> range = store.query(new JobHistoryStore.Query()
+                    .submitted(BASE_TIME.plusMinutes(20), BASE_TIME.plusMinutes(30)));
+            Assert.assertEquals(10, range.size());
+            Assert.assertEquals(20, range.get(0).getJobId().longValue());
+
+            int[] count = { 0 };
+            store.scan(new JobHistoryStore.Query().queue("short"), record -> count[0]++);
+            Assert.assertEquals(100, count[0]);
+
+            JobInfo info = store.getJob(42, null);
+            Assert.assertEquals("align", info.getName());
+            Assert.assertEquals(JobStatus.DONE, info.getStatus());
+            Assert.assertEquals(BASE_TIME.plusMinutes(42), info.getSubmitTime());
+            Assert.assertEquals(BASE_TIME.plusMinutes(43), info.getFinishTime());
+            Assert.assertEquals(42 * 1024L, info.getMaxMemBytes().longValue());
+            Assert.assertEquals(1.5, info.getCpuSeconds(), 0);
+            Assert.assertNull(info.getArrayIndex());
+            Assert.assertNull(info.getExecHost());
+            Assert.assertNull(store.getJob(1000, null));
+        }
+    }
+
+    @Test
+    public void testReopen() throws Exception {
+
+        try (JobHistoryStore store = new JobHistoryStore(dir.toPath(), 4096, Duration.ofDays(1), Duration.ofDays(7))) {
+            for (int i = 0; i < 60; i++) {
+                store.append(newInfo(i, "align", JobStatus.DONE));
+            }
+        }
+
+        try (JobHistoryStore store = new JobHistoryStore(dir.toPath(), 4096, Duration.ofDays(1), Duration.ofDays(7))) {
+            Assert.assertEquals(60, store.size());
+            store.append(newInfo(60, "align", JobStatus.EXIT));
+            Assert.assertEquals(61, store.query(new JobHistoryStore.Query().name("align")).size());
+            Assert.assertEquals(JobStatus.EXIT, store.getJob(60, null).getStatus());
+            Assert.assertEquals(5, store.query(new JobHistoryStore.Query()
+                    .submitted(BASE_TIME.plusMinutes(50), BASE_TIME.plusMinutes(55))).size());
+        }
+    }
+
+    @Test
+    public void testExpiry() throws Exception {
+
+        try (JobHistoryStore store = new JobHistoryStore(dir.toPath(), 4096, Duration.ofDays(1), Duration.ZERO)) {
+            for (int i = 0; i < 100; i++) {
+                store.append(newInfo(i, "align", JobStatus.DONE));
+                Thread.sleep(1);
+            }
+            store.expire();
+            // Only the segment being appended to is kept
+            Assert.assertEquals(1, store.getSegmentCount());
+            Assert.assertTrue(store.size() < 100);
+            Assert.assertEquals(99, store.getJob(99, null).getJobId().longValue());
+            Assert.assertNull(store.getJob(0, null));
+            Assert.assertEquals(1, dir.list().length);
+        }
+    }
+
+    @Test
+    public void testGetArrayElements() throws Exception {
+
+        try (JobHistoryStore store = new JobHistoryStore(dir.toPath(), 4096, Duration.ofDays(1), Duration.ofDays(7))) {
+            for (long i = 1; i <= 30; i++) {
+                JobInfo info = newInfo(7, "array", JobStatus.DONE);
+                info.setArrayIndex(i);
+                store.append(info);
+                store.append(newInfo(100 + i, "single", JobStatus.DONE));
+            }
+            // A later record of the same element, in a later segment
+            JobInfo retried = newInfo(7, "array", JobStatus.EXIT);
+            retried.setArrayIndex(2L);
+            store.append(retried);
+            Assert.assertTrue(store.getSegmentCount() > 1);
+
+            Assert.assertEquals(JobStatus.EXIT, store.getJob(7, 2L).getStatus());
+            Assert.assertEquals(JobStatus.DONE, store.getJob(7, 1L).getStatus());
+            Assert.assertEquals(30, store.getJob(7, 30L).getArrayIndex().longValue());
+            Assert.assertNull(store.getJob(7, 31L));
+            Assert.assertNull(store.getJob(7, null));
+            Assert.assertEquals("single", store.getJob(115, null).getName());
+        }
+    }
+
+    @Test
+    public void testCorruptRecords() throws Exception {
+
+        try (JobHistoryStore store = new JobHistoryStore(dir.toPath(), 64 * 1024, Duration.ofDays(1), Duration.ofDays(7))) {
+            for (int i = 0; i < 3; i++) {
+                store.append(newInfo(i, "align", JobStatus.DONE));
+            }
+        }
+
+        // Flip a byte in the max mem field of the first record
+        File segment = dir.listFiles()[0];
+        int recordLength;
+        try (RandomAccessFile raf = new RandomAccessFile(segment, "r")) {
+            recordLength = raf.readInt();
+        }
+        flipByte(segment, 50);
+
+        try (JobHistoryStore store = new JobHistoryStore(dir.toPath(), 64 * 1024, Duration.ofDays(1), Duration.ofDays(7))) {
+            // The corrupt record is skipped when the indexes are rebuilt
+            Assert.assertEquals(2, store.size());
+            Assert.assertNull(store.getJob(0, null));
+            Assert.assertEquals(1, store.getJob(1, null).getJobId().longValue());
+
+            // Records corrupted after they were indexed are caught when they are decoded
+            // The records all have the same length, and are each followed by a 4 byte CRC
+            flipByte(segment, 2 * (recordLength + 4) + 50);
+            try {
+                store.getJob(2, null);
+                Assert.fail("Corrupt record was decoded");
+            }
+            catch (IllegalStateException e) {
+                // Expected
+            }
+        }
+    }
+
+    private static void flipByte(File file, long offset) throws Exception {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.seek(offset);
+            int b = raf.read();
+            raf.seek(offset);
+            raf.write(b ^ 0xff);
+        }
+    }
+
+    private JobInfo newInfo(long jobId, String name, JobStatus status) {
+        JobInfo info = new JobInfo();
+        info.setJobId(jobId);
+        info.setName(name);
+        info.setQueue("short");
+        info.setFromHost("submitter");
+        info.setStatus(status);
+        info.setSubmitTime(BASE_TIME.plusMinutes(jobId));
+        info.setStartTime(BASE_TIME.plusMinutes(jobId));
+        info.setFinishTime(BASE_TIME.plusMinutes(jobId + 1));
+        info.setMaxMemBytes(jobId * 1024);
+        info.setCpuSeconds(1.5);
+        info.setExitCode(status == JobStatus.DONE ? 0 : 1);
+        return info;
+    }
+}
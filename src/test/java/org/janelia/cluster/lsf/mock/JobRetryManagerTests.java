@@ -0,0 +1,138 @@
+package org.janelia.cluster.lsf.mock;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.janelia.cluster.JobFuture;
+import org.janelia.cluster.JobInfo;
+import org.janelia.cluster.JobManager;
+import org.janelia.cluster.JobRetryManager;
+import org.janelia.cluster.JobStatus;
+import org.janelia.cluster.JobTemplate;
+import org.janelia.cluster.lsf.LsfUtils;
+import org.janelia.cluster.lsf.StubSyncApi;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class JobRetryManagerTests {
+
+    private StubSyncApi syncApi;
+    private JobManager mgr;
+    private JobRetryManager retryManager;
+
+    @Before
+    public void createManager() {
+        this.syncApi = new StubSyncApi();
+        this.mgr = new JobManager(syncApi);
+        this.retryManager = new JobRetryManager(mgr, LsfUtils::classifyFailure);
+        retryManager.setBackoff(0, 2, 0);
+    }
+
+    @Test
+    public void testRetryFailedElements() throws Exception {
+
+        List<Long> escalatedIndexes = new ArrayList<>();
+        retryManager.setResourceEscalator((jt, infos) -> {
+            for (JobInfo info : infos) {
+                escalatedIndexes.add(info.getArrayIndex());
+            }
+            JobTemplate escalated = new JobTemplate(jt);
+            LsfUtils.setMemoryLimit(escalated, 2L * 1024 * 1024 * 1024);
+            return escalated;
+        });
+
+        JobFuture future = retryManager.submitJob(newTemplate(), 1, 5);
+        Long jobId = future.getJobId();
+
+        syncApi.finishAll(JobStatus.DONE, 0);
+        syncApi.finish(jobId, 2L, JobStatus.EXIT, 130, "TERM_MEMLIMIT: job killed after reaching LSF memory usage limit");
+        syncApi.finish(jobId, 4L, JobStatus.EXIT, 1, null);
+        mgr.checkJobs();
+
+        // Only the failed elements are resubmitted, with escalated resources
+        waitForSubmissions(2);
+        JobTemplate retry = syncApi.getSubmitted().get(1);
+        Assert.assertTrue(retry.getNativeSpecification().contains("2048MB"));
+        // Only the element which hit its limit is given to the escalator
+        Assert.assertEquals(Collections.singletonList(2L), escalatedIndexes);
+        Assert.assertFalse(future.isDone());
+
+        List<Long> retriedIndexes = new ArrayList<>();
+        for (JobInfo info : syncApi.getJobs(jobId + 1)) {
+            retriedIndexes.add(info.getArrayIndex());
+        }
+        Assert.assertEquals(Arrays.asList(2L, 4L), retriedIndexes);
+
+        syncApi.finishAll(JobStatus.DONE, 0);
+        mgr.checkJobs();
+
+        Collection<JobInfo> infos = future.get(10, TimeUnit.SECONDS);
+        Assert.assertEquals(5, infos.size());
+        for (JobInfo info : infos) {
+            Assert.assertEquals(JobStatus.DONE, info.getStatus());
+        }
+    }
+
+    @Test
+    public void testNoRetryWhenKilled() throws Exception {
+
+        JobFuture future = retryManager.submitJob(newTemplate());
+        syncApi.killJobById(future.getJobId());
+        mgr.checkJobs();
+
+        Collection<JobInfo> infos = future.get(10, TimeUnit.SECONDS);
+        Assert.assertEquals(1, syncApi.getSubmitted().size());
+        Assert.assertEquals(JobStatus.EXIT, infos.iterator().next().getStatus());
+    }
+
+    @Test
+    public void testMaxRetries() throws Exception {
+
+        retryManager.setMaxRetries(2);
+        JobFuture future = retryManager.submitJob(newTemplate());
+
+        for (int i = 1; i <= 3; i++) {
+            waitForSubmissions(i);
+            syncApi.finishAll(JobStatus.EXIT, 1);
+            mgr.checkJobs();
+        }
+
+        Collection<JobInfo> infos = future.get(10, TimeUnit.SECONDS);
+        Assert.assertEquals(3, syncApi.getSubmitted().size());
+        Assert.assertEquals(Integer.valueOf(1), infos.iterator().next().getExitCode());
+    }
+
+    @Test
+    public void testNoRetryAfterShutdown() throws Exception {
+
+        JobFuture future = retryManager.submitJob(newTemplate());
+        retryManager.shutdown();
+        syncApi.finishAll(JobStatus.EXIT, 1);
+        mgr.checkJobs();
+
+        Collection<JobInfo> infos = future.get(10, TimeUnit.SECONDS);
+        Assert.assertEquals(1, syncApi.getSubmitted().size());
+        Assert.assertEquals(Integer.valueOf(1), infos.iterator().next().getExitCode());
+    }
+
+    private void waitForSubmissions(int count) throws InterruptedException {
+        for (int i = 0; i < 100 && syncApi.getSubmitted().size() < count; i++) {
+            Thread.sleep(50);
+        }
+        Assert.assertEquals(count, syncApi.getSubmitted().size());
+    }
+
+    private JobTemplate newTemplate() {
+        JobTemplate jt = new JobTemplate();
+        jt.setRemoteCommand("true");
+        jt.setArgs(Collections.emptyList());
+        jt.setJobName("retry");
+        jt.setNativeSpecification(Arrays.asList("-M", "1GB", "-R rusage[mem=1024]"));
+        return jt;
+    }
+}
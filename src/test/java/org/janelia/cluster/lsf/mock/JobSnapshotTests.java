@@ -0,0 +1,92 @@
+package org.janelia.cluster.lsf.mock;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.janelia.cluster.JobInfo;
+import org.janelia.cluster.JobManager;
+import org.janelia.cluster.JobSnapshot;
+import org.janelia.cluster.JobSnapshot.Column;
+import org.janelia.cluster.JobSnapshot.Metric;
+import org.janelia.cluster.JobStatus;
+import org.janelia.cluster.JobTemplate;
+import org.janelia.cluster.lsf.StubSyncApi;
+import org.janelia.cluster.lsf.TestUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class JobSnapshotTests {
+
+    private static final LocalDateTime NOW = LocalDateTime.of(2020, 1, 1, 12, 0, 0);
+
+    @Test
+    public void testAggregates() {
+
+        List<JobInfo> infos = new ArrayList<>();
+        infos.add(newInfo(1, JobStatus.RUNNING, "short", "host1", 2, 60));
+        infos.add(newInfo(2, JobStatus.RUNNING, "short", "host2", 4, 120));
+        infos.add(newInfo(3, JobStatus.RUNNING, "long", "host1", 8, 30));
+        infos.add(newInfo(4, JobStatus.PENDING, "long", null, 0, 0));
+        infos.add(newInfo(5, JobStatus.DONE, null, "host2", 1, 10));
+
+        JobSnapshot snapshot = JobSnapshot.of(infos, NOW);
+        Assert.assertEquals(5, snapshot.size());
+        Assert.assertEquals(15, snapshot.sum(Metric.ALLOC_SLOT));
+
+        Map<String, Long> byStatus = snapshot.countBy(Column.STATUS);
+        Assert.assertEquals(new Long(3), byStatus.get("RUNNING"));
+        Assert.assertEquals(new Long(1), byStatus.get("PENDING"));
+        Assert.assertNull(byStatus.get("EXIT"));
+
+        Map<String, Long> slotsByQueue = snapshot.groupBy(Column.QUEUE, Metric.ALLOC_SLOT);
+        Assert.assertEquals(new Long(6), slotsByQueue.get("short"));
+        Assert.assertEquals(new Long(8), slotsByQueue.get("long"));
+        Assert.assertEquals(new Long(1), slotsByQueue.get(null));
+
+        List<Map.Entry<String, Long>> top = snapshot.topN(Column.EXEC_HOST, Metric.RUN_SECONDS, 1);
+        Assert.assertEquals(1, top.size());
+        Assert.assertEquals("host2", top.get(0).getKey());
+        Assert.assertEquals(new Long(130), top.get(0).getValue());
+
+        JobSnapshot running = snapshot.filter(JobStatus.RUNNING);
+        Assert.assertEquals(3, running.size());
+        JobSnapshot runningOnHost1 = running.filter(Column.EXEC_HOST, "host1");
+        Assert.assertEquals(2, runningOnHost1.size());
+        Assert.assertEquals(3, runningOnHost1.getJobId(1));
+        Assert.assertEquals("long", runningOnHost1.getValue(1, Column.QUEUE));
+        Assert.assertEquals(new Long(10), runningOnHost1.groupBy(Column.QUEUE, Metric.ALLOC_SLOT).values().stream()
+                .reduce(0L, Long::sum));
+        Assert.assertEquals(0, snapshot.filter(Column.QUEUE, "missing").size());
+    }
+
+    @Test
+    public void testManagerSnapshot() throws Exception {
+        StubSyncApi api = new StubSyncApi();
+        JobManager mgr = new JobManager(api);
+        mgr.submitJob(new JobTemplate(), 1, 10);
+        mgr.checkJobs();
+        Assert.assertNull(mgr.getLastSnapshot());
+
+        mgr.setKeepSnapshots(true);
+        mgr.checkJobs();
+        JobSnapshot snapshot = mgr.getLastSnapshot();
+        Assert.assertEquals(10, snapshot.size());
+        Assert.assertEquals(new Long(10), snapshot.countBy(Column.STATUS).get("PENDING"));
+    }
+
+    private static JobInfo newInfo(long jobId, JobStatus status, String queue, String execHost, int slots,
+                                   int runSeconds) {
+        JobInfo info = TestUtils.newInfo(jobId, status);
+        info.setQueue(queue);
+        info.setExecHost(execHost);
+        info.setAllocSlot(slots);
+        if (status.isStarted()) {
+            LocalDateTime end = status.isDone() ? NOW.minusSeconds(100) : null;
+            info.setFinishTime(end);
+            info.setStartTime((end == null ? NOW : end).minusSeconds(runSeconds));
+        }
+        return info;
+    }
+}
@@ -0,0 +1,172 @@
+package org.janelia.cluster.lsf.mock;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.janelia.cluster.JobFuture;
+import org.janelia.cluster.JobInfo;
+import org.janelia.cluster.JobManager;
+import org.janelia.cluster.JobSpeculator;
+import org.janelia.cluster.JobStatus;
+import org.janelia.cluster.JobTemplate;
+import org.janelia.cluster.lsf.StubSyncApi;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class JobSpeculatorTests {
+
+    private StubSyncApi syncApi;
+    private JobManager mgr;
+    private JobSpeculator speculator;
+
+    @Before
+    public void createManager() {
+        this.syncApi = new StubSyncApi();
+        this.mgr = new JobManager(syncApi);
+        this.speculator = new JobSpeculator(mgr, (jt, info) -> jt);
+    }
+
+    @Test
+    public void testOriginalWins() throws Exception {
+
+        JobFuture future = speculator.submitJob(newTemplate(), 1, 4);
+        Long jobId = future.getJobId();
+        Long hedgeJobId = submitHedge(jobId);
+
+        // The straggler finishes before its duplicate, completing the whole original array
+        syncApi.finish(jobId, 4L, JobStatus.DONE, 0, null);
+        mgr.checkJobs();
+        Assert.assertEquals(JobStatus.EXIT, syncApi.getJobs(hedgeJobId).get(0).getStatus());
+        Assert.assertFalse(future.isDone());
+
+        // The killed duplicate is picked up by the next check, and the array settles
+        mgr.checkJobs();
+        Collection<JobInfo> infos = future.get(1, TimeUnit.SECONDS);
+        Assert.assertEquals(4, infos.size());
+        for (JobInfo info : infos) {
+            Assert.assertEquals(jobId, info.getJobId());
+            Assert.assertEquals(JobStatus.DONE, info.getStatus());
+        }
+    }
+
+    @Test
+    public void testDuplicateWins() throws Exception {
+
+        JobFuture future = speculator.submitJob(newTemplate(), 1, 4);
+        Long jobId = future.getJobId();
+        Long hedgeJobId = submitHedge(jobId);
+
+        // The duplicate finishes first, so the original element is killed
+        syncApi.finish(hedgeJobId, 4L, JobStatus.DONE, 0, null);
+        mgr.checkJobs();
+        Assert.assertEquals(JobStatus.EXIT, syncApi.getJobs(jobId).get(3).getStatus());
+
+        mgr.checkJobs();
+        List<JobInfo> infos = new ArrayList<>(future.get(1, TimeUnit.SECONDS));
+        Assert.assertEquals(4, infos.size());
+        Assert.assertEquals(hedgeJobId, infos.get(3).getJobId());
+        Assert.assertEquals(JobStatus.DONE, infos.get(3).getStatus());
+    }
+
+    @Test
+    public void testChunkedArray() throws Exception {
+
+        mgr.setMaxArraySize(2);
+        JobFuture future = speculator.submitJob(newTemplate(), 1, 4);
+        LocalDateTime now = LocalDateTime.now();
+        Long firstChunk = future.getJobIds().get(0);
+        Long secondChunk = future.getJobIds().get(1);
+        syncApi.start(firstChunk, now.minusSeconds(1000));
+        syncApi.start(secondChunk, now.minusSeconds(1000));
+        finishAt(firstChunk, 1L, now.minusSeconds(990));
+        finishAt(firstChunk, 2L, now.minusSeconds(990));
+        finishAt(secondChunk, 3L, now.minusSeconds(990));
+        mgr.checkJobs();
+
+        // Runtimes are gathered from every chunk, so the straggler in the second chunk is hedged
+        speculator.checkStragglers();
+        Assert.assertEquals(3, syncApi.getSubmitted().size());
+        Long hedgeJobId = Math.max(firstChunk, secondChunk) + 1;
+        Assert.assertEquals(Collections.singletonList(4L), getArrayIndexes(hedgeJobId));
+
+        // The losing element is killed in the chunk which is running it
+        syncApi.finish(hedgeJobId, 4L, JobStatus.DONE, 0, null);
+        mgr.checkJobs();
+        Assert.assertEquals(JobStatus.EXIT, syncApi.getJobs(secondChunk).get(1).getStatus());
+
+        mgr.checkJobs();
+        List<JobInfo> infos = new ArrayList<>(future.get(1, TimeUnit.SECONDS));
+        Assert.assertEquals(4, infos.size());
+        Assert.assertEquals(hedgeJobId, infos.get(3).getJobId());
+    }
+
+    @Test
+    public void testNoHedgeBeforeEnoughComplete() throws Exception {
+
+        JobFuture future = speculator.submitJob(newTemplate(), 1, 4);
+        Long jobId = future.getJobId();
+        LocalDateTime now = LocalDateTime.now();
+        syncApi.start(jobId, now.minusSeconds(1000));
+        finishAt(jobId, 1L, now.minusSeconds(990));
+        mgr.checkJobs();
+
+        speculator.checkStragglers();
+        Assert.assertEquals(1, syncApi.getSubmitted().size());
+
+        syncApi.finishAll(JobStatus.DONE, 0);
+        mgr.checkJobs();
+        Assert.assertEquals(4, future.get(1, TimeUnit.SECONDS).size());
+    }
+
+    /**
+     * Run elements 1-3 of the given array for 10 seconds, and leave element 4 straggling, so that it is hedged.
+     * @return the job id of the duplicate
+     */
+    private Long submitHedge(Long jobId) {
+        LocalDateTime now = LocalDateTime.now();
+        syncApi.start(jobId, now.minusSeconds(1000));
+        for (long i = 1; i <= 3; i++) {
+            finishAt(jobId, i, now.minusSeconds(990));
+        }
+        mgr.checkJobs();
+
+        speculator.checkStragglers();
+        Assert.assertEquals(2, syncApi.getSubmitted().size());
+        Long hedgeJobId = jobId + 1;
+        Assert.assertEquals(Collections.singletonList(4L), getArrayIndexes(hedgeJobId));
+
+        syncApi.start(hedgeJobId, now);
+        mgr.checkJobs();
+        return hedgeJobId;
+    }
+
+    private void finishAt(Long jobId, Long arrayIndex, LocalDateTime finishTime) {
+        syncApi.finish(jobId, arrayIndex, JobStatus.DONE, 0, null);
+        for (JobInfo info : syncApi.getJobs(jobId)) {
+            if (arrayIndex.equals(info.getArrayIndex())) {
+                info.setFinishTime(finishTime);
+            }
+        }
+    }
+
+    private List<Long> getArrayIndexes(Long jobId) {
+        List<Long> arrayIndexes = new ArrayList<>();
+        for (JobInfo info : syncApi.getJobs(jobId)) {
+            arrayIndexes.add(info.getArrayIndex());
+        }
+        return arrayIndexes;
+    }
+
+    private JobTemplate newTemplate() {
+        JobTemplate jt = new JobTemplate();
+        jt.setRemoteCommand("true");
+        jt.setArgs(Collections.emptyList());
+        jt.setJobName("speculative");
+        return jt;
+    }
+}
@@ -0,0 +1,186 @@
+package org.janelia.cluster.lsf.mock;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.janelia.cluster.JobInfo;
+import org.janelia.cluster.JobManager;
+import org.janelia.cluster.JobStatsStore;
+import org.janelia.cluster.JobStatus;
+import org.janelia.cluster.JobTemplate;
+import org.janelia.cluster.QuantileSketch;
+import org.janelia.cluster.lsf.LsfResourceAdvisor;
+import org.janelia.cluster.lsf.LsfUtils;
+import org.janelia.cluster.lsf.StubSyncApi;
+import org.janelia.cluster.lsf.TestUtils;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class JobStatsStoreTests {
+
+    private static final long MB = 1024 * 1024;
+
+    private File dir;
+
+    @Before
+    public void createDir() throws Exception {
+        this.dir = Files.createTempDirectory("JobStatsStoreTests").toFile();
+    }
+
+    @After
+    public void deleteDir() throws Exception {
+        FileUtils.deleteDirectory(dir);
+    }
+
+    @Test
+    public void testSketchAccuracy() {
+        QuantileSketch sketch = new QuantileSketch(0.01);
+        for (int i = 1; i <= 100000; i++) {
+            sketch.add(i);
+        }
+        Assert.assertEquals(100000, sketch.getCount());
+        Assert.assertEquals(95000, sketch.getQuantile(0.95), 95000 * 0.01);
+        Assert.assertEquals(50000, sketch.getQuantile(0.5), 50000 * 0.01);
+        Assert.assertEquals(100000, sketch.getQuantile(1), 0);
+        Assert.assertEquals(1, sketch.getQuantile(0), 0);
+    }
+
+    @Test
+    public void testPersistence() throws Exception {
+
+        Path file = dir.toPath().resolve("stats");
+        JobStatsStore store = new JobStatsStore(file);
+        for (int i = 1; i <= 50; i++) {
+            store.record(newInfo("align", "short", i * 60, i * MB));
+        }
+        // Failed jobs are not recorded
+        JobInfo failed = newInfo("align", "short", 100000, 100000 * MB);
+        failed.setStatus(JobStatus.EXIT);
+        store.record(failed);
+        store.save();
+
+        JobStatsStore loaded = new JobStatsStore(file);
+        Assert.assertEquals(2, loaded.size());
+        JobStatsStore.JobStats stats = loaded.getStats("align", "short");
+        Assert.assertEquals(50, stats.getRunSeconds().getCount());
+        Assert.assertEquals(50 * 60, stats.getRunSeconds().getMax(), 0);
+        Assert.assertEquals(45 * MB, stats.getMemBytes().getQuantile(0.9), 45 * MB * 0.03);
+        Assert.assertEquals(50, loaded.getStats("align", null).getMemBytes().getCount());
+        Assert.assertNull(loaded.getStats("align", "long"));
+    }
+
+    @Test
+    public void testEviction() throws Exception {
+        JobStatsStore store = new JobStatsStore(null, 2);
+        store.record(newInfo("a", null, 60, MB));
+        store.record(newInfo("b", null, 60, MB));
+        store.getStats("a", null);
+        store.record(newInfo("c", null, 60, MB));
+        Assert.assertEquals(2, store.size());
+        Assert.assertNotNull(store.getStats("a", null));
+        Assert.assertNull(store.getStats("b", null));
+    }
+
+    @Test
+    public void testAdvisor() throws Exception {
+
+        JobStatsStore store = new JobStatsStore();
+        for (int i = 1; i <= 100; i++) {
+            store.record(newInfo("align", "short", 600, 1000 * MB));
+        }
+        LsfResourceAdvisor advisor = new LsfResourceAdvisor(store);
+
+        JobTemplate jt = new JobTemplate();
+        jt.setJobName("align");
+        jt.setNativeSpecification(Arrays.asList("-q", "short", "-M 16GB", "-R", "rusage[mem=16GB]", "-W", "4:00"));
+
+        LsfResourceAdvisor.Suggestion suggestion = advisor.suggest(jt);
+        Assert.assertEquals(1250 * MB, suggestion.getMemBytes(), 1250 * MB * 0.03);
+        Assert.assertEquals(new Long(13), suggestion.getRunLimitMinutes());
+
+        JobTemplate tightened = advisor.apply(jt);
+        Assert.assertNotSame(jt, tightened);
+        List<String> spec = tightened.getNativeSpecification();
+        Assert.assertEquals(suggestion.getMemBytes(), LsfUtils.getMemoryLimit(spec), MB);
+        Assert.assertEquals(new Long(13), LsfUtils.getRunLimitMinutes(spec));
+        Assert.assertTrue(spec.contains("rusage[mem=" + LsfUtils.getMemoryLimit(spec) / MB + "MB]"));
+        Assert.assertEquals(new Long(240), LsfUtils.getRunLimitMinutes(jt.getNativeSpecification()));
+
+        // Limits are not added where there were none, unless asked to
+        JobTemplate unlimited = new JobTemplate();
+        unlimited.setJobName("align");
+        Assert.assertSame(unlimited, advisor.apply(unlimited));
+        advisor.setAddMissingLimits(true);
+        Assert.assertNotNull(LsfUtils.getMemoryLimit(advisor.apply(unlimited).getNativeSpecification()));
+
+        // Unknown jobs are left alone
+        jt.setJobName("unknown");
+        Assert.assertNull(advisor.suggest(jt));
+        Assert.assertSame(jt, advisor.apply(jt));
+    }
+
+    @Test
+    public void testAdvisorNeverRaisesLimits() throws Exception {
+
+        JobStatsStore store = new JobStatsStore();
+        for (int i = 1; i <= 100; i++) {
+            store.record(newInfo("align", null, 600, 1000 * MB));
+        }
+        LsfResourceAdvisor advisor = new LsfResourceAdvisor(store);
+        advisor.setAddMissingLimits(true);
+
+        // Limits without units are in the cluster's LSF_UNIT_FOR_LIMITS, and may already be lower
+        JobTemplate jt = new JobTemplate();
+        jt.setJobName("align");
+        jt.setNativeSpecification(Arrays.asList("-M", "512", "-W", "5"));
+        Assert.assertSame(jt, advisor.apply(jt));
+
+        // Limits attached to their options are recognized, and not raised
+        jt.setNativeSpecification(Arrays.asList("-M512MB", "-W5"));
+        Assert.assertSame(jt, advisor.apply(jt));
+
+        // But they are tightened
+        jt.setNativeSpecification(Arrays.asList("-M16G", "-W240"));
+        List<String> spec = advisor.apply(jt).getNativeSpecification();
+        Assert.assertEquals(Arrays.asList("-M", "1250MB", "-W", "13"), spec.subList(0, 4));
+    }
+
+    @Test
+    public void testSubmitHook() throws Exception {
+
+        JobStatsStore store = new JobStatsStore();
+        LsfResourceAdvisor advisor = new LsfResourceAdvisor(store);
+        advisor.setMinSamples(1);
+        StubSyncApi api = new StubSyncApi();
+        JobManager mgr = new JobManager(api);
+        mgr.setSubmitHook(advisor::apply);
+
+        store.record(newInfo("hooked", null, 60, 100 * MB));
+        JobTemplate jt = new JobTemplate();
+        jt.setJobName("hooked");
+        jt.setNativeSpecification(Arrays.asList("-M", "8GB"));
+        store.track(mgr.submitJob(jt));
+
+        Assert.assertEquals("8GB", jt.getNativeSpecification().get(1));
+        Assert.assertEquals(125 * MB, LsfUtils.getMemoryLimit(api.getSubmitted().get(0).getNativeSpecification()),
+                125 * MB * 0.03);
+    }
+
+    private static JobInfo newInfo(String name, String queue, int runSeconds, long memBytes) {
+        JobInfo info = TestUtils.newInfo(1L, JobStatus.DONE, 0);
+        info.setName(name);
+        info.setQueue(queue);
+        LocalDateTime start = LocalDateTime.of(2020, 1, 1, 0, 0);
+        info.setStartTime(start);
+        info.setFinishTime(start.plusSeconds(runSeconds));
+        info.setMaxMemBytes(memBytes);
+        return info;
+    }
+}
@@ -0,0 +1,147 @@
+package org.janelia.cluster.lsf.mock;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.janelia.cluster.JobManager;
+import org.janelia.cluster.JobStatus;
+import org.janelia.cluster.JobTemplate;
+import org.janelia.cluster.JobWorkflow;
+import org.janelia.cluster.lsf.LsfUtils;
+import org.janelia.cluster.lsf.StubSyncApi;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class JobWorkflowTests {
+
+    private StubSyncApi syncApi;
+    private JobManager mgr;
+
+    @Before
+    public void createManager() {
+        this.syncApi = new StubSyncApi();
+        this.mgr = new JobManager(syncApi);
+    }
+
+    @Test
+    public void testClientDependencies() throws Exception {
+
+        JobWorkflow workflow = new JobWorkflow(mgr, null, Runnable::run);
+        workflow.addJob("short", newTemplate("short"));
+        workflow.addJob("long", newTemplate("long"));
+        workflow.addJob("merge", newTemplate("merge"), "short", "long");
+        workflow.setEstimatedDuration("long", 10);
+        workflow.start();
+
+        // Both roots are submitted immediately, with the critical path first
+        Assert.assertEquals(Arrays.asList("long", "short"), syncApi.getSubmittedNames());
+        Assert.assertEquals(2, workflow.getSubmittedCount());
+
+        syncApi.finishAll(JobStatus.DONE, 0);
+        mgr.checkJobs();
+        Assert.assertEquals(Arrays.asList("long", "short", "merge"), syncApi.getSubmittedNames());
+        Assert.assertEquals(2, workflow.getCompletedCount());
+        Assert.assertFalse(workflow.getCompletion().isDone());
+
+        syncApi.finishAll(JobStatus.DONE, 0);
+        mgr.checkJobs();
+        Assert.assertEquals(3, workflow.getCompletedCount());
+        Assert.assertTrue(workflow.getFuture("merge").isDone());
+        Assert.assertNull(workflow.getCompletion().get());
+    }
+
+    @Test
+    public void testFailureCascade() throws Exception {
+
+        JobWorkflow workflow = new JobWorkflow(mgr, null, Runnable::run);
+        workflow.addJob("first", newTemplate("first"));
+        workflow.addJob("second", newTemplate("second"), "first");
+        workflow.addJob("third", newTemplate("third"), "second");
+        workflow.start();
+
+        syncApi.finishAll(JobStatus.EXIT, 1);
+        mgr.checkJobs();
+
+        Assert.assertEquals(Collections.singletonList("first"), syncApi.getSubmittedNames());
+        Assert.assertEquals(3, workflow.getFailedCount());
+        Assert.assertTrue(workflow.getFuture("third").isCompletedExceptionally());
+        Assert.assertTrue(workflow.getCompletion().isCompletedExceptionally());
+    }
+
+    @Test
+    public void testSchedulerDependencies() throws Exception {
+
+        JobWorkflow workflow = new JobWorkflow(mgr, LsfUtils::getDependencySpecification, Runnable::run);
+        workflow.addJob("a", newTemplate("a"));
+        workflow.addJob("b", newTemplate("b"));
+        workflow.addJob("c", newTemplate("c"), "a", "b");
+        workflow.start();
+
+        // Everything is submitted up front, and the scheduler enforces the dependencies
+        Assert.assertEquals(3, syncApi.getSubmittedNames().size());
+        JobTemplate merged = syncApi.getSubmitted().get(2);
+        Assert.assertEquals("c", merged.getJobName());
+        Assert.assertTrue(merged.getNativeSpecification().contains("-w"));
+        Long jobIdA = workflow.getJobId("a");
+        Long jobIdB = workflow.getJobId("b");
+        Assert.assertTrue(merged.getNativeSpecification().contains("done("+jobIdA+") && done("+jobIdB+")")
+                || merged.getNativeSpecification().contains("done("+jobIdB+") && done("+jobIdA+")"));
+
+        syncApi.finishAll(JobStatus.DONE, 0);
+        mgr.checkJobs();
+        Assert.assertEquals(3, workflow.getCompletedCount());
+        Assert.assertNull(workflow.getCompletion().get());
+    }
+
+    @Test
+    public void testChunkedArrayDependencies() throws Exception {
+
+        mgr.setMaxArraySize(2);
+        JobWorkflow workflow = new JobWorkflow(mgr, LsfUtils::getDependencySpecification, Runnable::run);
+        workflow.addJobArray("a", newTemplate("a"), 1, 4);
+        workflow.addJobArray("b", newTemplate("b"), 1, 4, "a");
+        workflow.start();
+
+        // The dependent array waits on every chunk of its parent
+        List<Long> jobIdsA = workflow.getJobIds("a");
+        Assert.assertEquals(2, jobIdsA.size());
+        Assert.assertEquals(jobIdsA.get(0), workflow.getJobId("a"));
+        JobTemplate dependent = syncApi.getSubmitted().get(2);
+        Assert.assertEquals("b", dependent.getJobName());
+        Assert.assertTrue(dependent.getNativeSpecification()
+                .contains("done("+jobIdsA.get(0)+") && done("+jobIdsA.get(1)+")"));
+
+        // When the parent fails, every chunk of the dependent array is killed
+        List<Long> jobIdsB = workflow.getJobIds("b");
+        Assert.assertEquals(2, jobIdsB.size());
+        syncApi.finish(jobIdsA.get(1), 4L, JobStatus.EXIT, 1, null);
+        syncApi.finishAll(JobStatus.DONE, 0);
+        for (Long jobId : jobIdsB) {
+            // The scheduler would still be holding these
+            syncApi.finish(jobId, null, JobStatus.PENDING, null, null);
+        }
+        mgr.checkJobs();
+        Assert.assertTrue(workflow.getFuture("b").isCompletedExceptionally());
+        for (Long jobId : jobIdsB) {
+            Assert.assertEquals(JobStatus.EXIT, syncApi.getJobs(jobId).get(0).getStatus());
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testCycle() throws Exception {
+        JobWorkflow workflow = new JobWorkflow(mgr, null, Runnable::run);
+        workflow.addJob("a", newTemplate("a"), "b");
+        workflow.addJob("b", newTemplate("b"), "a");
+        workflow.start();
+    }
+
+    private JobTemplate newTemplate(String name) {
+        JobTemplate jt = new JobTemplate();
+        jt.setRemoteCommand("true");
+        jt.setArgs(Collections.emptyList());
+        jt.setJobName(name);
+        return jt;
+    }
+}
@@ -0,0 +1,116 @@
+package org.janelia.cluster.lsf.mock;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.janelia.cluster.JobFuture;
+import org.janelia.cluster.JobInfo;
+import org.janelia.cluster.JobManager;
+import org.janelia.cluster.JobStatus;
+import org.janelia.cluster.JobTemplate;
+import org.janelia.cluster.local.LocalJobSyncApi;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class LocalJobSyncApiTests {
+
+    private LocalJobSyncApi syncApi;
+    private JobManager mgr;
+    private File outputDir;
+
+    @Before
+    public void createManager() throws Exception {
+        this.syncApi = new LocalJobSyncApi(2, 60);
+        this.mgr = new JobManager(syncApi);
+        this.outputDir = Files.createTempDirectory("LocalJobSyncApiTests").toFile();
+    }
+
+    @After
+    public void shutdown() throws Exception {
+        syncApi.shutdown();
+        FileUtils.deleteDirectory(outputDir);
+    }
+
+    @Test
+    public void testJobArray() throws Exception {
+
+        JobTemplate jt = new JobTemplate();
+        jt.setJobName("localTest");
+        jt.setRemoteCommand("sh");
+        jt.setArgs(Arrays.asList("-c", "echo \"index $LSB_JOBINDEX $GREETING\"; cat; echo err >&2"));
+        jt.setWorkingDir(outputDir.getAbsolutePath());
+        jt.setInputPath("input.#");
+        jt.setOutputPath("out.#");
+        jt.setErrorPath("err.#");
+        jt.setJobEnvironment(Collections.singletonMap("GREETING", "hello"));
+        for (int i = 1; i <= 3; i++) {
+            FileUtils.write(new File(outputDir, "input." + i), "INPUT" + i + "\n", StandardCharsets.UTF_8);
+        }
+
+        JobFuture future = mgr.submitJob(jt, 1, 3);
+        Collection<JobInfo> infos = waitFor(future);
+
+        Assert.assertEquals(3, infos.size());
+        for (JobInfo info : infos) {
+            Assert.assertEquals(JobStatus.DONE, info.getStatus());
+            Assert.assertEquals(new Integer(0), info.getExitCode());
+            Assert.assertNotNull(info.getStartTime());
+            Assert.assertNotNull(info.getFinishTime());
+            Assert.assertFalse(info.getFinishTime().isBefore(info.getStartTime()));
+            long i = info.getArrayIndex();
+            String out = FileUtils.readFileToString(new File(outputDir, "out." + i), StandardCharsets.UTF_8);
+            Assert.assertEquals("index " + i + " hello\nINPUT" + i + "\n", out);
+            String err = FileUtils.readFileToString(new File(outputDir, "err." + i), StandardCharsets.UTF_8);
+            Assert.assertEquals("err\n", err);
+        }
+    }
+
+    @Test
+    public void testFailure() throws Exception {
+
+        JobTemplate jt = new JobTemplate();
+        jt.setRemoteCommand("sh");
+        jt.setArgs(Arrays.asList("-c", "exit 3"));
+
+        Collection<JobInfo> infos = waitFor(mgr.submitJob(jt));
+
+        JobInfo info = infos.iterator().next();
+        Assert.assertEquals(JobStatus.EXIT, info.getStatus());
+        Assert.assertEquals(new Integer(3), info.getExitCode());
+    }
+
+    @Test
+    public void testKill() throws Exception {
+
+        JobTemplate jt = new JobTemplate();
+        jt.setJobName("localKillTest");
+        jt.setRemoteCommand("sleep");
+        jt.setArgs(Collections.singletonList("60"));
+
+        // With two workers, the third element stays pending until it is killed
+        JobFuture future = mgr.submitJob(jt, 1, 3);
+        mgr.killJob(future.getJobId());
+        Collection<JobInfo> infos = waitFor(future);
+
+        Assert.assertEquals(3, infos.size());
+        for (JobInfo info : infos) {
+            Assert.assertEquals(JobStatus.EXIT, info.getStatus());
+        }
+    }
+
+    private Collection<JobInfo> waitFor(JobFuture future) throws Exception {
+        for (int i = 0; i < 100 && !future.isDone(); i++) {
+            mgr.checkJobs();
+            Thread.sleep(100);
+        }
+        return future.get(1, TimeUnit.SECONDS);
+    }
+}
@@ -0,0 +1,132 @@
+package org.janelia.cluster.lsf.mock;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.janelia.cluster.JobFuture;
+import org.janelia.cluster.JobInfo;
+import org.janelia.cluster.JobManager;
+import org.janelia.cluster.JobStatus;
+import org.janelia.cluster.JobTemplate;
+import org.janelia.cluster.lsf.LsfAcctReader;
+import org.janelia.cluster.lsf.StubSyncApi;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class LsfAcctReaderTests {
+
+    private File dir;
+    private Path acctFile;
+    private Path checkpointFile;
+
+    @Before
+    public void createDir() throws Exception {
+        this.dir = Files.createTempDirectory("LsfAcctReaderTests").toFile();
+        this.acctFile = dir.toPath().resolve("lsb.acct");
+        this.checkpointFile = dir.toPath().resolve("lsb.acct.checkpoint");
+    }
+
+    @After
+    public void deleteDir() throws Exception {
+        FileUtils.deleteDirectory(dir);
+    }
+
+    @Test
+    public void testParseRecord() {
+
+        JobInfo info = LsfAcctReader.parseRecord(record(1234, 3, "myjob[1-10]", 32, 2 << 8, 16));
+
+        Assert.assertEquals(new Long(1234), info.getJobId());
+        Assert.assertEquals(new Long(3), info.getArrayIndex());
+        Assert.assertEquals("myjob", info.getName());
+        Assert.assertEquals("submithost", info.getFromHost());
+        Assert.assertEquals("exechost1:exechost2", info.getExecHost());
+        Assert.assertEquals("short", info.getQueue());
+        Assert.assertEquals("my \"project\"", info.getProject());
+        Assert.assertEquals(new Integer(3), info.getAllocSlot());
+        Assert.assertEquals(JobStatus.EXIT, info.getStatus());
+        Assert.assertEquals(new Integer(2), info.getExitCode());
+        Assert.assertEquals("TERM_MEMLIMIT", info.getExitReason());
+        Assert.assertEquals("20 Mbytes", info.getMaxMem());
+        Assert.assertEquals(new Long(20 * 1024 * 1024), info.getMaxMemBytes());
+        Assert.assertEquals(1.0, info.getCpuSeconds(), 0.001);
+        Assert.assertEquals(10, Duration.between(info.getStartTime(), info.getFinishTime()).getSeconds());
+
+        Assert.assertNull(LsfAcctReader.parseRecord("\"JOB_RESIZE\" \"10.108\" 1600000100 1234"));
+    }
+
+    @Test
+    public void testIncrementalRead() throws Exception {
+
+        append(record(1, 0, "a", 64, 0, 0) + "\n" + "\"JOB_RESIZE\" \"10.108\" 1600000100 1\n");
+        LsfAcctReader reader = new LsfAcctReader(acctFile, checkpointFile);
+        List<JobInfo> infos = reader.readNewRecords();
+        Assert.assertEquals(1, infos.size());
+        Assert.assertEquals(JobStatus.DONE, infos.get(0).getStatus());
+        Assert.assertEquals(new Integer(0), infos.get(0).getExitCode());
+
+        // A partially written record is left for the next read
+        String second = record(2, 0, "b", 64, 0, 0);
+        append(second.substring(0, 40));
+        Assert.assertTrue(reader.readNewRecords().isEmpty());
+        append(second.substring(40) + "\n");
+        infos = reader.readNewRecords();
+        Assert.assertEquals(1, infos.size());
+        Assert.assertEquals(new Long(2), infos.get(0).getJobId());
+
+        // A new reader resumes from the checkpoint
+        append(record(3, 0, "c", 64, 0, 0) + "\n");
+        reader = new LsfAcctReader(acctFile, checkpointFile);
+        infos = reader.readNewRecords();
+        Assert.assertEquals(1, infos.size());
+        Assert.assertEquals(new Long(3), infos.get(0).getJobId());
+        Assert.assertEquals(Files.size(acctFile), reader.getOffset());
+    }
+
+    @Test
+    public void testUpdateManager() throws Exception {
+
+        JobManager mgr = new JobManager(new StubSyncApi());
+        JobTemplate jt = new JobTemplate();
+        jt.setJobName("acct");
+        JobFuture future = mgr.submitJob(jt, 1, 2);
+        Long jobId = future.getJobId();
+
+        LsfAcctReader reader = new LsfAcctReader(acctFile, null);
+        append(record(jobId, 1, "acct[1-2]", 64, 0, 0) + "\n" + record(999, 0, "other", 64, 0, 0) + "\n");
+        reader.update(mgr);
+        Assert.assertFalse(future.isDone());
+
+        append(record(jobId, 2, "acct[1-2]", 32, 1 << 8, 0) + "\n");
+        reader.update(mgr);
+        Assert.assertTrue(future.isDone());
+        Collection<JobInfo> infos = future.get();
+        Assert.assertEquals(2, infos.size());
+        Assert.assertEquals(1, infos.stream().filter(info -> info.getStatus() == JobStatus.EXIT).count());
+    }
+
+    private void append(String text) throws Exception {
+        FileUtils.write(acctFile.toFile(), text, StandardCharsets.UTF_8, true);
+    }
+
+    private static String record(long jobId, long arrayIndex, String jobName, int jStatus, int exitStatus, int exitInfo) {
+        StringBuilder rusage = new StringBuilder();
+        for (int i = 0; i < 19; i++) {
+            rusage.append(i == 2 ? "20480" : "0.5").append(' ');
+        }
+        return "\"JOB_FINISH\" \"10.108\" 1600000100 " + jobId + " 5001 33554450 3 1600000000 0 0 1600000090 "
+                + "\"user\" \"short\" \"select[mem>1]\" \"\" \"\" \"submithost\" \"/home/user\" \"\" \"/tmp/out\" \"\" "
+                + "\"1600000000.1234\" 0 3 \"exechost1\" \"exechost1\" \"exechost2\" " + jStatus + " 100.0 "
+                + "\"" + jobName + "\" \"sleep 10\" " + rusage
+                + "\"\" \"my \"\"project\"\"\" " + exitStatus + " 3 \"\" 0 " + arrayIndex + " 20480 0 "
+                + "\"\" \"\" \"\" \"\" 0 \"\" " + exitInfo + " \"\" -1 \"\" \"\" 0";
+    }
+}
@@ -0,0 +1,112 @@
+package org.janelia.cluster.lsf.mock;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collection;
+
+import org.apache.commons.io.FileUtils;
+import org.janelia.cluster.JobFuture;
+import org.janelia.cluster.JobInfo;
+import org.janelia.cluster.JobManager;
+import org.janelia.cluster.JobStatus;
+import org.janelia.cluster.JobTemplate;
+import org.janelia.cluster.lsf.LsfEventsFollower;
+import org.janelia.cluster.lsf.StubSyncApi;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class LsfEventsFollowerTests {
+
+    private File dir;
+    private Path eventsFile;
+
+    @Before
+    public void createDir() throws Exception {
+        this.dir = Files.createTempDirectory("LsfEventsFollowerTests").toFile();
+        this.eventsFile = dir.toPath().resolve("lsb.events");
+    }
+
+    @After
+    public void deleteDir() throws Exception {
+        FileUtils.deleteDirectory(dir);
+    }
+
+    @Test
+    public void testFollowArray() throws Exception {
+
+        JobManager mgr = new JobManager(new StubSyncApi());
+        JobTemplate jt = new JobTemplate();
+        jt.setJobName("events");
+        JobFuture future = mgr.submitJob(jt, 1, 2);
+        Long jobId = future.getJobId();
+
+        LsfEventsFollower follower = new LsfEventsFollower(mgr, eventsFile, null);
+        append(jobNew(jobId, "events[1-2]"), jobNew(999, "other"));
+        follower.followEvents();
+        Assert.assertEquals(JobStatus.PENDING, mgr.getJobInfo(jobId, 1L).getStatus());
+        Assert.assertEquals("short", mgr.getJobInfo(jobId, 2L).getQueue());
+
+        append(jobStart(jobId, 1), jobStatus(jobId, 1, 0x04, 0, 0), jobStart(jobId, 2));
+        follower.followEvents();
+        Assert.assertEquals(JobStatus.RUNNING, mgr.getJobInfo(jobId, 1L).getStatus());
+        Assert.assertEquals("exechost1", mgr.getJobInfo(jobId, 1L).getExecHost());
+        Assert.assertFalse(future.isDone());
+
+        append(jobStatus(jobId, 1, 0x40, 0, 0), jobStatus(jobId, 2, 0x20, 2 << 8, 16));
+        follower.followEvents();
+        Assert.assertTrue(future.isDone());
+        Collection<JobInfo> infos = future.get();
+        Assert.assertEquals(2, infos.size());
+        JobInfo failed = mgr.getJobInfo(jobId, 2L);
+        Assert.assertEquals(JobStatus.EXIT, failed.getStatus());
+        Assert.assertEquals(new Integer(2), failed.getExitCode());
+        Assert.assertEquals("TERM_MEMLIMIT", failed.getExitReason());
+        Assert.assertEquals("exechost1", failed.getExecHost());
+    }
+
+    @Test
+    public void testRotation() throws Exception {
+
+        JobManager mgr = new JobManager(new StubSyncApi());
+        JobFuture future = mgr.submitJob(new JobTemplate());
+        Long jobId = future.getJobId();
+
+        LsfEventsFollower follower = new LsfEventsFollower(mgr, eventsFile, dir.toPath().resolve("checkpoint"));
+        append(jobStart(jobId, 0));
+        follower.followEvents();
+        Assert.assertEquals(JobStatus.RUNNING, mgr.getJobInfo(jobId).iterator().next().getStatus());
+
+        // The final record is written to the old log just before it is rotated
+        append(jobStatus(jobId, 0, 0x20, 1 << 8, 0));
+        Files.move(eventsFile, dir.toPath().resolve("lsb.events.1"));
+        append("#1");
+        follower.followEvents();
+        Assert.assertTrue(future.isDone());
+        Assert.assertEquals(new Integer(1), mgr.getJobInfo(jobId).iterator().next().getExitCode());
+    }
+
+    private void append(String... records) throws Exception {
+        FileUtils.write(eventsFile.toFile(), String.join("\n", records) + "\n", StandardCharsets.UTF_8, true);
+    }
+
+    private static String jobNew(long jobId, String jobName) {
+        return "\"JOB_NEW\" \"10.108\" 1600000000 " + jobId + " 5001 33554450 0 1 1600000000 0 0 65535 -1 0 "
+                + "\"user\" -1 -1 -1 -1 -1 -1 -1 -1 -1 -1 -1 \"\" 100.0 18 \"short\" \"select[mem>1]\" \"submithost\" "
+                + "\"/home/user\" \"\" \"\" \"/tmp/out\" \"\" \"\" \"\" \"\" \"/home/user\" \"1600000000.1\" 0 \"\" \"\" "
+                + "\"" + jobName + "\" \"sleep 10\"";
+    }
+
+    private static String jobStart(long jobId, long arrayIndex) {
+        return "\"JOB_START\" \"10.108\" 1600000010 " + jobId + " 4 0 0 100.0 2 \"exechost1\" \"exechost1\" "
+                + "\"\" \"\" 0 \"\" " + arrayIndex + " \"\" 0";
+    }
+
+    private static String jobStatus(long jobId, long arrayIndex, int jStatus, int exitStatus, int exitInfo) {
+        return "\"JOB_STATUS\" \"10.108\" 1600000020 " + jobId + " " + jStatus + " 0 0 1.5 1600000020 0 0 "
+                + exitStatus + " " + arrayIndex + " " + exitInfo;
+    }
+}
@@ -0,0 +1,65 @@
+package org.janelia.cluster.lsf.mock;
+
+import java.util.Arrays;
+
+import org.janelia.cluster.lsf.LsfSubmitRateLimiter;
+import org.janelia.cluster.lsf.LsfUtils;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class LsfSubmitRateLimiterTests {
+
+    @Test
+    public void testBackoffAndRecovery() throws Exception {
+        LsfSubmitRateLimiter limiter = new LsfSubmitRateLimiter(10, 0.5, 100);
+        Assert.assertEquals(10, limiter.getRate("short"), 0.001);
+
+        // Slow submissions should cut the rate
+        for (int i = 0; i < 3; i++) {
+            limiter.recordSuccess("short", 1000);
+        }
+        double slowRate = limiter.getRate("short");
+        Assert.assertTrue(slowRate < 10);
+
+        // Failures should cut it further, but never below the minimum
+        for (int i = 0; i < 20; i++) {
+            limiter.recordFailure("short", 1000);
+        }
+        Assert.assertEquals(0.5, limiter.getRate("short"), 0.001);
+
+        // Other queues are not affected
+        Assert.assertEquals(10, limiter.getRate("normal"), 0.001);
+
+        // Fast submissions should let the rate recover
+        for (int i = 0; i < 100; i++) {
+            limiter.recordSuccess("short", 1);
+        }
+        Assert.assertEquals(10, limiter.getRate("short"), 0.001);
+    }
+
+    @Test
+    public void testQueueLimits() throws Exception {
+        LsfSubmitRateLimiter limiter = new LsfSubmitRateLimiter();
+        limiter.setQueueLimits("short", 2, 3);
+        Assert.assertEquals(2, limiter.getRate("short"), 0.001);
+
+        // The burst should be available immediately
+        for (int i = 0; i < 3; i++) {
+            Assert.assertEquals(0, limiter.acquire("short"));
+        }
+
+        // The next submission has to wait for a token
+        long waited = limiter.acquire("short");
+        Assert.assertTrue(waited > 0);
+        Assert.assertEquals(waited, limiter.getLastWaitMillis("short"));
+        Assert.assertEquals(waited, limiter.getTotalWaitMillis("short"));
+    }
+
+    @Test
+    public void testGetQueue() throws Exception {
+        Assert.assertEquals("short", LsfUtils.getQueue(Arrays.asList("-W 1", "-q short")));
+        Assert.assertEquals("short", LsfUtils.getQueue(Arrays.asList("-n", "2", "-q", "short")));
+        Assert.assertNull(LsfUtils.getQueue(Arrays.asList("-W 1", "-n 2")));
+        Assert.assertNull(LsfUtils.getQueue(null));
+    }
+}
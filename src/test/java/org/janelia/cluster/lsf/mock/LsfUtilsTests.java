@@ -1,8 +1,16 @@
 package org.janelia.cluster.lsf.mock;
 
 import java.time.LocalDateTime;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
 
+import org.janelia.cluster.JobFailureType;
+import org.janelia.cluster.JobInfo;
+import org.janelia.cluster.JobStatus;
+import org.janelia.cluster.JobTemplate;
 import org.janelia.cluster.lsf.LsfUtils;
+import org.janelia.cluster.lsf.TestUtils;
 import org.junit.Assert;
 import org.junit.Test;
 
@@ -61,6 +69,173 @@ public class LsfUtilsTests {
     public void testParseMemMb() throws Exception {
         Long expected = 8283750L;
         Assert.assertEquals(expected, LsfUtils.parseMemToBytes("7.9 Mbytes"));
+        Assert.assertEquals(expected, LsfUtils.parseMemToBytes("7.9M"));
     }
 
+    @Test
+    public void testParseCpuSeconds() throws Exception {
+        Assert.assertEquals(12.3, LsfUtils.parseCpuSeconds("12.3 second(s)"), 0.001);
+        Assert.assertEquals(3725.5, LsfUtils.parseCpuSeconds("01:02:05.50"), 0.001);
+        Assert.assertNull(LsfUtils.parseCpuSeconds(null));
+    }
+
+    @Test
+    public void testClassifyFailure() throws Exception {
+        Assert.assertNull(LsfUtils.classifyFailure(TestUtils.newInfo(1L, JobStatus.RUNNING)));
+        Assert.assertNull(LsfUtils.classifyFailure(TestUtils.newInfo(1L, JobStatus.DONE, 0)));
+        Assert.assertEquals(JobFailureType.APPLICATION_ERROR,
+                LsfUtils.classifyFailure(TestUtils.newInfo(1L, JobStatus.EXIT, 1)));
+        Assert.assertEquals(JobFailureType.HOST_FAILURE,
+                LsfUtils.classifyFailure(TestUtils.newInfo(1L, JobStatus.OTHER)));
+
+        JobInfo info = TestUtils.newInfo(1L, JobStatus.EXIT, 130);
+        info.setExitReason("TERM_MEMLIMIT: job killed after reaching LSF memory usage limit");
+        Assert.assertEquals(JobFailureType.MEMORY_LIMIT, LsfUtils.classifyFailure(info));
+        info.setExitReason("TERM_RUNLIMIT: job killed after reaching LSF run time limit");
+        Assert.assertEquals(JobFailureType.RUN_LIMIT, LsfUtils.classifyFailure(info));
+        info.setExitReason("TERM_OWNER: job killed by owner");
+        Assert.assertEquals(JobFailureType.KILLED, LsfUtils.classifyFailure(info));
+    }
+
+    @Test
+    public void testSetMemoryLimit() throws Exception {
+        JobTemplate jt = new JobTemplate();
+        jt.setNativeSpecification(Arrays.asList("-n 2", "-M 1024", "-R", "select[avx2] rusage[mem=1024]"));
+        LsfUtils.setMemoryLimit(jt, 3L * 1024 * 1024 * 1024);
+        Assert.assertEquals(Arrays.asList("-n 2", "-R", "select[avx2] rusage[mem=3072MB]", "-M", "3072MB"),
+                jt.getNativeSpecification());
+    }
+
+    @Test
+    public void testAttachedOptionValues() throws Exception {
+        List<String> spec = Arrays.asList("-n", "2", "-M4G", "-W1:30", "-We 10");
+        Assert.assertEquals(new Long(4L * 1024 * 1024 * 1024), LsfUtils.getMemoryLimit(spec));
+        Assert.assertEquals(new Long(90), LsfUtils.getRunLimitMinutes(spec));
+
+        // Options which share a prefix are not mistaken for the limits
+        spec = Arrays.asList("-We 10", "-Mp", "4");
+        Assert.assertFalse(LsfUtils.hasRunLimit(spec));
+        Assert.assertFalse(LsfUtils.hasMemoryLimit(spec));
+
+        // Limits are replaced in whichever form they were given
+        JobTemplate jt = new JobTemplate();
+        jt.setNativeSpecification(Arrays.asList("-M4G", "-W1:30", "-We 10"));
+        LsfUtils.setMemoryLimit(jt, 2L * 1024 * 1024 * 1024);
+        LsfUtils.setRunLimit(jt, 60);
+        Assert.assertEquals(Arrays.asList("-We 10", "-M", "2048MB", "-W", "60"), jt.getNativeSpecification());
+    }
+
+    @Test
+    public void testMemoryLimitWithoutUnits() throws Exception {
+        List<String> spec = Arrays.asList("-M", "4096");
+        Assert.assertNull(LsfUtils.getMemoryLimit(spec));
+        Assert.assertTrue(LsfUtils.hasMemoryLimit(spec));
+        Assert.assertFalse(LsfUtils.hasMemoryLimit(Arrays.asList("-n", "2")));
+
+        // A hard limit is still a limit
+        Assert.assertEquals(new Long(4L * 1024 * 1024 * 1024), LsfUtils.getMemoryLimit(Arrays.asList("-M", "4G!")));
+    }
+
+    @Test
+    public void testEscalateMemory() throws Exception {
+        JobTemplate jt = new JobTemplate();
+        jt.setNativeSpecification(Arrays.asList("-n 2", "-M 1024"));
+
+        JobInfo info1 = TestUtils.newInfo(1L, JobStatus.EXIT, 130);
+        info1.setMaxMem("900 Mbytes");
+        JobInfo info2 = TestUtils.newInfo(2L, JobStatus.EXIT, 130);
+        info2.setMaxMem("1.5 Gbytes");
+
+        JobTemplate escalated = LsfUtils.escalateMemory(jt, Arrays.asList(info1, info2), 2);
+        Assert.assertEquals(Arrays.asList("-n 2", "-M", "3072MB"), escalated.getNativeSpecification());
+        // The original template is not modified
+        Assert.assertEquals(Arrays.asList("-n 2", "-M 1024"), jt.getNativeSpecification());
+
+        // Reported bytes take precedence over the formatted value
+        info1.setMaxMemBytes(2048L * 1024 * 1024);
+        escalated = LsfUtils.escalateMemory(jt, Collections.singletonList(info1), 1.5);
+        Assert.assertEquals(Arrays.asList("-n 2", "-M", "3072MB"), escalated.getNativeSpecification());
+    }
+
+    @Test
+    public void testEscalateMemoryCap() throws Exception {
+        JobTemplate jt = new JobTemplate();
+        JobInfo info = TestUtils.newInfo(1L, JobStatus.EXIT, 130);
+        info.setMaxMem("10 Gbytes");
+
+        JobTemplate escalated = LsfUtils.escalateMemory(jt, Collections.singletonList(info), 2, 16L * 1024 * 1024 * 1024);
+        Assert.assertEquals(Arrays.asList("-M", "16384MB"), escalated.getNativeSpecification());
+    }
+
+    @Test
+    public void testEscalateMemoryWithoutUsage() throws Exception {
+        JobTemplate jt = new JobTemplate();
+        JobInfo info = TestUtils.newInfo(1L, JobStatus.EXIT, 130);
+        info.setMaxMem("unknown");
+        Assert.assertSame(jt, LsfUtils.escalateMemory(jt, Collections.singletonList(info), 2));
+    }
+
+    @Test
+    public void testEscalateRunLimit() throws Exception {
+        JobTemplate jt = new JobTemplate();
+        jt.setNativeSpecification(Arrays.asList("-n 2", "-W 60"));
+
+        LocalDateTime start = LocalDateTime.of(2019, 1, 2, 14, 0);
+        JobInfo info = TestUtils.newInfo(1L, JobStatus.EXIT, 140);
+        info.setStartTime(start);
+        info.setFinishTime(start.plusMinutes(45));
+
+        // The current limit is longer than the observed run time
+        JobTemplate escalated = LsfUtils.escalateRunLimit(jt, Collections.singletonList(info), 2);
+        Assert.assertEquals(new Long(120), LsfUtils.getRunLimitMinutes(escalated.getNativeSpecification()));
+        Assert.assertEquals(Arrays.asList("-n 2", "-W 60"), jt.getNativeSpecification());
+
+        // Without a limit, the job hit the queue's limit, so the observed run time is used
+        jt.setNativeSpecification(Arrays.asList("-n 2"));
+        info.setFinishTime(start.plusMinutes(90).plusSeconds(10));
+        escalated = LsfUtils.escalateRunLimit(jt, Collections.singletonList(info), 1.5);
+        Assert.assertEquals(new Long(137), LsfUtils.getRunLimitMinutes(escalated.getNativeSpecification()));
+
+        // Nothing to go on
+        info.setStartTime(null);
+        Assert.assertSame(jt, LsfUtils.escalateRunLimit(jt, Collections.singletonList(info), 2));
+    }
+
+    @Test
+    public void testEscalateLimits() throws Exception {
+        JobTemplate jt = new JobTemplate();
+        jt.setNativeSpecification(Arrays.asList("-M 1024MB", "-W 60"));
+
+        JobInfo memInfo = TestUtils.newInfo(1L, JobStatus.EXIT, 130);
+        memInfo.setExitReason("TERM_MEMLIMIT: job killed after reaching LSF memory usage limit");
+        memInfo.setMaxMem("1 Gbytes");
+        JobInfo runInfo = TestUtils.newInfo(2L, JobStatus.EXIT, 140);
+        runInfo.setExitReason("TERM_RUNLIMIT: job killed after reaching LSF run time limit");
+
+        // Only the limit which was hit is raised
+        JobTemplate escalated = LsfUtils.escalateLimits(jt, Collections.singletonList(runInfo), 2);
+        Assert.assertEquals(new Long(120), LsfUtils.getRunLimitMinutes(escalated.getNativeSpecification()));
+        Assert.assertEquals(new Long(1024L * 1024 * 1024), LsfUtils.getMemoryLimit(escalated.getNativeSpecification()));
+
+        escalated = LsfUtils.escalateLimits(jt, Arrays.asList(memInfo, runInfo), 2);
+        Assert.assertEquals(new Long(120), LsfUtils.getRunLimitMinutes(escalated.getNativeSpecification()));
+        Assert.assertEquals(new Long(2048L * 1024 * 1024), LsfUtils.getMemoryLimit(escalated.getNativeSpecification()));
+
+        // Other failures are not escalated
+        JobInfo otherInfo = TestUtils.newInfo(3L, JobStatus.EXIT, 1);
+        Assert.assertSame(jt, LsfUtils.escalateLimits(jt, Collections.singletonList(otherInfo), 2));
+    }
+
+    @Test
+    public void testPartitionArgs() throws Exception {
+        // "cmd -x " is 7 bytes, and each id adds 4 more
+        Assert.assertEquals(Arrays.asList(Arrays.asList("123", "456"), Arrays.asList("789")),
+                LsfUtils.partitionArgs(Arrays.asList("cmd", "-x"), Arrays.asList("123", "456", "789"), 15));
+        Assert.assertEquals(Collections.singletonList(Arrays.asList("123", "456", "789")),
+                LsfUtils.partitionArgs(Arrays.asList("cmd", "-x"), Arrays.asList("123", "456", "789"), 19));
+        // An argument which does not fit on its own still gets a batch
+        Assert.assertEquals(Arrays.asList(Arrays.asList("123"), Arrays.asList("456")),
+                LsfUtils.partitionArgs(Arrays.asList("cmd", "-x"), Arrays.asList("123", "456"), 1));
+        Assert.assertTrue(LsfUtils.partitionArgs(Arrays.asList("cmd"), Collections.emptyList(), 10).isEmpty());
+    }
 }
@@ -8,7 +8,29 @@ import org.junit.runners.Suite;
   MockJobManagerTests.class,
   MockLsfTests.class,
   ParseTests.class,
-  LsfUtilsTests.class
+  LsfUtilsTests.class,
+  LsfSubmitRateLimiterTests.class,
+  JobWorkflowTests.class,
+  JobRetryManagerTests.class,
+  LocalJobSyncApiTests.class,
+  SimulatedClusterTests.class,
+  FakeLsfTests.class,
+  LsfAcctReaderTests.class,
+  LsfEventsFollowerTests.class,
+  CompactJobInfoTests.class,
+  JobSnapshotTests.class,
+  JobStatsStoreTests.class,
+  JobHistoryStoreTests.class,
+  JobCheckScheduleTests.class,
+  RequestCheckTests.class,
+  SharedJobPollerTests.class,
+  SharedSnapshotSyncApiTests.class,
+  CompletionDispatcherTests.class,
+  ArrayMonitorTests.class,
+  ChunkedSubmitTests.class,
+  JobAdmissionControllerTests.class,
+  StubJobManagerTests.class,
+  JobSpeculatorTests.class
 })
 public class MockTestSuite {
 
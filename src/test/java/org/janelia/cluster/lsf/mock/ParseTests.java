@@ -1,5 +1,11 @@
 package org.janelia.cluster.lsf.mock;
 
+import org.janelia.cluster.JobInfo;
+import org.janelia.cluster.JobKillResult;
+import org.janelia.cluster.JobStatus;
+import org.janelia.cluster.Utils;
+import org.janelia.cluster.lsf.LsfAcctCommand;
+import org.janelia.cluster.lsf.LsfKillCommand;
 import org.janelia.cluster.lsf.LsfUtils;
 import org.junit.Assert;
 import org.junit.Test;
@@ -7,6 +13,8 @@ import org.junit.Test;
 import java.text.ParseException;
 import java.time.LocalDateTime;
 import java.time.Month;
+import java.util.Arrays;
+import java.util.List;
 
 public class ParseTests {
 
@@ -66,4 +74,75 @@ public class ParseTests {
         Assert.assertEquals(new Long(9999999999L), LsfUtils.parseLong("9999999999"));
     }
 
+    @Test
+    public void testIndexRanges() throws ParseException {
+        Assert.assertEquals("1-3,7,9-10", Utils.formatIndexRanges(Arrays.asList(10L, 9L, 1L, 2L, 3L, 7L, 2L)));
+        Assert.assertEquals("", Utils.formatIndexRanges(Arrays.asList()));
+        Assert.assertEquals(Arrays.asList(1L, 2L, 3L, 7L, 9L, 10L), Utils.parseIndexRanges("1-3,7,9-10"));
+    }
+
+    @Test
+    public void testKillOutput() throws ParseException {
+        List<JobKillResult> results = LsfKillCommand.parseOutput(Arrays.asList(
+                "Job <123[1]> is being terminated",
+                "Job <123[2]> is being terminated",
+                "Job <124>: No matching job found",
+                "Job <125>: Job has already finished"));
+        Assert.assertEquals(4, results.size());
+        Assert.assertEquals("123[1]", results.get(0).getJobSpec());
+        Assert.assertTrue(results.get(0).isSuccess());
+        Assert.assertTrue(results.get(1).isSuccess());
+        Assert.assertEquals("124", results.get(2).getJobSpec());
+        Assert.assertFalse(results.get(2).isSuccess());
+        Assert.assertEquals("No matching job found", results.get(2).getMessage());
+        Assert.assertFalse(results.get(3).isSuccess());
+    }
+
+    @Test
+    public void testAcctParser() {
+        List<String> lines = Arrays.asList(
+                "Accounting information about jobs that are: ",
+                "  - submitted by all users.",
+                "------------------------------------------------------------------------------",
+                "",
+                "Job <1234[3]>, Job Name <myjob[1-10]>, User <user>, Project <myproject>, Status <EXIT>",
+                "                     , Queue <short>, Command <sleep 10>",
+                "Mon Sep 14 10:00:00: Submitted from host <submithost>, CWD </home/user>;",
+                "Mon Sep 14 10:00:01: Dispatched 1 Task(s) on Host(s) <exechost1>, Allocated 1",
+                "                     Slot(s) on Host(s) <exechost1>;",
+                "Mon Sep 14 10:00:11: Completed <exit>; TERM_MEMLIMIT: job killed after reaching",
+                "                      LSF memory usage limit.",
+                "                     Exited with exit code 2.",
+                "",
+                "------------------------------------------------------------------------------",
+                "",
+                "Job <1235>, User <user>, Project <default>, Status <DONE>, Queue <short>, Command",
+                "                     <true>",
+                "Mon Sep 14 10:00:00: Submitted from host <submithost>, CWD </home/user>;",
+                "Mon Sep 14 10:00:05: Completed <done>.",
+                "",
+                "SUMMARY:      ( time unit: second ) ");
+
+        List<JobInfo> infos = LsfAcctCommand.parse(lines);
+        Assert.assertEquals(2, infos.size());
+
+        JobInfo failed = infos.get(0);
+        Assert.assertEquals(new Long(1234), failed.getJobId());
+        Assert.assertEquals(new Long(3), failed.getArrayIndex());
+        Assert.assertEquals("myjob", failed.getName());
+        Assert.assertEquals("short", failed.getQueue());
+        Assert.assertEquals("myproject", failed.getProject());
+        Assert.assertEquals("submithost", failed.getFromHost());
+        Assert.assertEquals("exechost1", failed.getExecHost());
+        Assert.assertEquals(JobStatus.EXIT, failed.getStatus());
+        Assert.assertEquals(new Integer(2), failed.getExitCode());
+        Assert.assertTrue(failed.getExitReason().startsWith("TERM_MEMLIMIT"));
+        Assert.assertEquals(11, failed.getFinishTime().getSecond());
+
+        JobInfo done = infos.get(1);
+        Assert.assertEquals(new Long(1235), done.getJobId());
+        Assert.assertNull(done.getArrayIndex());
+        Assert.assertEquals(JobStatus.DONE, done.getStatus());
+        Assert.assertEquals(new Integer(0), done.getExitCode());
+    }
 }
@@ -0,0 +1,111 @@
+package org.janelia.cluster.lsf.mock;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.janelia.cluster.JobFuture;
+import org.janelia.cluster.JobManager;
+import org.janelia.cluster.JobStatus;
+import org.janelia.cluster.JobTemplate;
+import org.janelia.cluster.lsf.StubSyncApi;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class RequestCheckTests {
+
+    @Test
+    public void testRequestedCheck() throws Exception {
+
+        StubSyncApi syncApi = new StubSyncApi();
+        JobManager mgr = new JobManager(syncApi);
+        JobFuture future = mgr.submitJob(newTemplate());
+
+        syncApi.finish(future.getJobId(), null, JobStatus.DONE, 0, null);
+        mgr.requestCheck(future.getJobId());
+        Assert.assertEquals(JobStatus.DONE, future.get(5, TimeUnit.SECONDS).iterator().next().getStatus());
+        Assert.assertEquals(0, syncApi.getListings());
+    }
+
+    @Test
+    public void testConcurrentRequestsAreCoalesced() throws Exception {
+
+        StubSyncApi syncApi = new StubSyncApi();
+        JobManager mgr = new JobManager(syncApi);
+        mgr.setMinCheckGapMillis(500);
+        JobFuture first = mgr.submitJob(newTemplate());
+        JobFuture second = mgr.submitJob(newTemplate());
+        JobFuture third = mgr.submitJob(newTemplate());
+
+        // The first request is served right away
+        syncApi.finish(first.getJobId(), null, JobStatus.DONE, 0, null);
+        long start = System.currentTimeMillis();
+        mgr.requestCheck(first.getJobId());
+        first.get(5, TimeUnit.SECONDS);
+
+        // Requests made within the gap are all served by a single lookup once it has passed
+        syncApi.finish(second.getJobId(), null, JobStatus.DONE, 0, null);
+        syncApi.finish(third.getJobId(), null, JobStatus.EXIT, 1, null);
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 10; i++) {
+            Long jobId = i % 2 == 0 ? second.getJobId() : third.getJobId();
+            Thread thread = new Thread(() -> mgr.requestCheck(jobId));
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        second.get(5, TimeUnit.SECONDS);
+        third.get(5, TimeUnit.SECONDS);
+
+        Assert.assertTrue(System.currentTimeMillis() - start >= 500);
+        Assert.assertEquals(2, syncApi.getLookups().size());
+        Assert.assertEquals(new HashSet<>(Arrays.asList(second.getJobId(), third.getJobId())),
+                new HashSet<>(syncApi.getLookups().get(1)));
+    }
+
+    @Test
+    public void testDelayedRequest() throws Exception {
+
+        StubSyncApi syncApi = new StubSyncApi();
+        JobManager mgr = new JobManager(syncApi);
+        JobFuture future = mgr.submitJob(newTemplate());
+
+        // A hint that the job should be done shortly
+        mgr.requestCheck(future.getJobId(), 200, TimeUnit.MILLISECONDS);
+        syncApi.finish(future.getJobId(), null, JobStatus.DONE, 0, null);
+        future.get(5, TimeUnit.SECONDS);
+        Assert.assertEquals(1, syncApi.getLookups().size());
+    }
+
+    @Test
+    public void testShutdown() throws Exception {
+
+        StubSyncApi syncApi = new StubSyncApi();
+        JobManager mgr = new JobManager(syncApi);
+        JobFuture future = mgr.submitJob(newTemplate());
+
+        // Delayed requests are dropped on shutdown
+        mgr.requestCheck(future.getJobId(), 200, TimeUnit.MILLISECONDS);
+        mgr.shutdown();
+        syncApi.finish(future.getJobId(), null, JobStatus.DONE, 0, null);
+        Thread.sleep(400);
+        Assert.assertFalse(future.isDone());
+        Assert.assertEquals(0, syncApi.getLookups().size());
+
+        // A new request starts the checker again
+        mgr.requestCheck(future.getJobId());
+        future.get(5, TimeUnit.SECONDS);
+        mgr.shutdown();
+    }
+
+    private JobTemplate newTemplate() {
+        JobTemplate jt = new JobTemplate();
+        jt.setJobName("requested");
+        jt.setRemoteCommand("true");
+        return jt;
+    }
+}
@@ -0,0 +1,84 @@
+package org.janelia.cluster.lsf.mock;
+
+import java.util.Arrays;
+
+import org.janelia.cluster.JobFuture;
+import org.janelia.cluster.JobManager;
+import org.janelia.cluster.JobStatus;
+import org.janelia.cluster.JobTemplate;
+import org.janelia.cluster.SharedJobPoller;
+import org.janelia.cluster.lsf.StubSyncApi;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SharedJobPollerTests {
+
+    private StubSyncApi syncApi;
+    private JobManager mgr1;
+    private JobManager mgr2;
+    private SharedJobPoller poller;
+
+    @Before
+    public void setup() {
+        this.syncApi = new StubSyncApi();
+        this.mgr1 = new JobManager(syncApi);
+        this.mgr2 = new JobManager(syncApi);
+        this.poller = new SharedJobPoller(syncApi);
+        poller.register(mgr1);
+        poller.register(mgr2);
+    }
+
+    @Test
+    public void testSingleQueryForAllManagers() throws Exception {
+
+        JobFuture a = mgr1.submitJob(newTemplate());
+        JobFuture b = mgr1.submitJob(newTemplate(), 1, 3);
+        JobFuture c = mgr2.submitJob(newTemplate());
+
+        poller.poll();
+        Assert.assertEquals(1, syncApi.getLookups().size());
+        Assert.assertEquals(Arrays.asList(a.getJobId(), b.getJobId(), c.getJobId()), syncApi.getLookups().get(0));
+        Assert.assertEquals(3, mgr1.getJobInfo(b.getJobId()).size());
+        Assert.assertNull(mgr2.getJobInfo(a.getJobId()));
+
+        syncApi.finishAll(JobStatus.DONE, 0);
+        poller.poll();
+        Assert.assertTrue(a.isDone());
+        Assert.assertTrue(b.isDone());
+        Assert.assertTrue(c.isDone());
+        Assert.assertEquals(3, b.get().size());
+
+        // Nothing left to query
+        poller.poll();
+        Assert.assertEquals(2, syncApi.getLookups().size());
+        Assert.assertEquals(0, syncApi.getListings());
+    }
+
+    @Test
+    public void testListingForManyJobs() throws Exception {
+
+        poller.setMaxJobIdsPerQuery(1);
+        JobFuture a = mgr1.submitJob(newTemplate());
+        JobFuture b = mgr2.submitJob(newTemplate());
+        syncApi.finishAll(JobStatus.EXIT, 1);
+
+        poller.poll();
+        Assert.assertTrue(a.isDone());
+        Assert.assertTrue(b.isDone());
+        Assert.assertEquals(1, syncApi.getListings());
+        Assert.assertTrue(syncApi.getLookups().isEmpty());
+
+        poller.unregister(mgr2);
+        mgr2.submitJob(newTemplate());
+        poller.poll();
+        Assert.assertEquals(1, syncApi.getListings());
+    }
+
+    private JobTemplate newTemplate() {
+        JobTemplate jt = new JobTemplate();
+        jt.setJobName("shared");
+        jt.setRemoteCommand("true");
+        return jt;
+    }
+}
@@ -0,0 +1,127 @@
+package org.janelia.cluster.lsf.mock;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import org.apache.commons.io.FileUtils;
+import org.janelia.cluster.JobInfo;
+import org.janelia.cluster.JobStatus;
+import org.janelia.cluster.JobTemplate;
+import org.janelia.cluster.SharedSnapshotSyncApi;
+import org.janelia.cluster.lsf.StubSyncApi;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SharedSnapshotSyncApiTests {
+
+    private File dir;
+    private Path file;
+    private StubSyncApi stub;
+    private SharedSnapshotSyncApi api1;
+    private SharedSnapshotSyncApi api2;
+
+    @Before
+    public void setup() throws Exception {
+        this.dir = Files.createTempDirectory("SharedSnapshotSyncApiTests").toFile();
+        this.file = dir.toPath().resolve("snapshot");
+        this.stub = new StubSyncApi();
+        // Two instances on the same file stand in for two processes
+        this.api1 = new SharedSnapshotSyncApi(stub, file);
+        this.api2 = new SharedSnapshotSyncApi(stub, file);
+    }
+
+    @After
+    public void teardown() throws Exception {
+        api1.close();
+        api2.close();
+        FileUtils.deleteDirectory(dir);
+    }
+
+    @Test
+    public void testSharedSnapshot() throws Exception {
+
+        JobInfo job = api1.submitJob(newTemplate("first"));
+        JobInfo array = api1.submitJobs(newTemplate("second"), 1L, 3L);
+
+        List<JobInfo> jobs1 = api1.getJobInfo();
+        Assert.assertEquals(4, jobs1.size());
+        Assert.assertEquals(1, stub.getListings());
+
+        // The second instance reads the snapshot instead of querying the cluster
+        List<JobInfo> jobs2 = api2.getJobInfo();
+        Assert.assertEquals(1, stub.getListings());
+        Assert.assertEquals(4, jobs2.size());
+        Assert.assertEquals("first", jobs2.get(0).getName());
+        Assert.assertEquals(JobStatus.PENDING, jobs2.get(0).getStatus());
+        Assert.assertEquals(3, jobs2.get(3).getArrayIndex().longValue());
+        Assert.assertEquals(3, api2.getJobInfo(array.getJobId()).size());
+        Assert.assertEquals(4, api2.getJobInfo(Arrays.asList(job.getJobId(), array.getJobId(), 999L)).size());
+        Assert.assertEquals(1, stub.getListings());
+
+        // Once the snapshot is stale, whichever instance needs it first refreshes it
+        api1.setMaxAgeMillis(50);
+        api2.setMaxAgeMillis(50);
+        stub.finishAll(JobStatus.DONE, 0);
+        Thread.sleep(100);
+        Assert.assertEquals(JobStatus.DONE, api2.getJobInfo(job.getJobId()).get(0).getStatus());
+        Assert.assertEquals(2, stub.getListings());
+        Assert.assertEquals(JobStatus.DONE, api1.getJobInfo().get(3).getStatus());
+        Assert.assertEquals(2, stub.getListings());
+    }
+
+    @Test
+    public void testLargeSnapshot() throws Exception {
+
+        // Enough jobs to outgrow the initial mapping
+        api1.submitJobs(newTemplate("large"), 1L, 20000L);
+        Assert.assertEquals(20000, api1.getJobInfo().size());
+        List<JobInfo> jobs = api2.getJobInfo();
+        Assert.assertEquals(20000, jobs.size());
+        Assert.assertEquals(20000, jobs.get(19999).getArrayIndex().longValue());
+        Assert.assertEquals(1, stub.getListings());
+    }
+
+    @Test
+    public void testUndecodableSnapshot() throws Exception {
+
+        api1.submitJobs(newTemplate("array"), 1L, 3L);
+
+        // A fresh snapshot with a matching CRC, whose records do not decode to the advertised length
+        byte[] records = new byte[64];
+        Arrays.fill(records, (byte) 0x7f);
+        CRC32 crc = new CRC32();
+        crc.update(records);
+        ByteBuffer header = ByteBuffer.allocate(32);
+        header.putLong(0, 2);
+        header.putLong(8, System.currentTimeMillis());
+        header.putLong(16, crc.getValue());
+        header.putInt(24, 2);
+        header.putInt(28, records.length);
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.write(header, 0);
+            channel.write(ByteBuffer.wrap(records), 32);
+        }
+
+        // The reader gives up on it, and refreshes from the cluster instead
+        Assert.assertEquals(3, api2.getJobInfo().size());
+        Assert.assertEquals(1, stub.getListings());
+        Assert.assertEquals(3, api1.getJobInfo().size());
+        Assert.assertEquals(1, stub.getListings());
+    }
+
+    private JobTemplate newTemplate(String name) {
+        JobTemplate jt = new JobTemplate();
+        jt.setJobName(name);
+        jt.setRemoteCommand("true");
+        return jt;
+    }
+}
@@ -0,0 +1,143 @@
+package org.janelia.cluster.lsf.mock;
+
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.janelia.cluster.JobCheckSchedule;
+import org.janelia.cluster.JobFuture;
+import org.janelia.cluster.JobInfo;
+import org.janelia.cluster.JobManager;
+import org.janelia.cluster.JobStatus;
+import org.janelia.cluster.JobTemplate;
+import org.janelia.cluster.sim.SimulatedCluster;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class SimulatedClusterTests {
+
+    @Test
+    public void testSlotsAndLatency() throws Exception {
+
+        SimulatedCluster cluster = new SimulatedCluster(10, 1);
+        cluster.setQueueLatencyMillis(5000);
+        JobManager mgr = new JobManager(cluster);
+
+        JobFuture future = mgr.submitJob(newTemplate(), 1, 25);
+
+        cluster.advance(4999);
+        Assert.assertEquals(0, cluster.getRunningCount());
+        cluster.advance(1);
+        Assert.assertEquals(10, cluster.getRunningCount());
+
+        Collection<JobInfo> infos = run(cluster, mgr, future);
+
+        // Three waves of one minute each, after the queue latency
+        Assert.assertEquals(25, infos.size());
+        long lastStart = 0;
+        for (JobInfo info : infos) {
+            Assert.assertEquals(JobStatus.DONE, info.getStatus());
+            long start = Duration.between(info.getSubmitTime(), info.getStartTime()).getSeconds();
+            lastStart = Math.max(lastStart, start);
+        }
+        Assert.assertEquals(125, lastStart);
+        Assert.assertTrue(cluster.isIdle());
+    }
+
+    @Test
+    public void testFailures() throws Exception {
+
+        SimulatedCluster cluster = new SimulatedCluster(100, 42);
+        cluster.setRuntimeDistribution(r -> 1000 + r.nextInt(60000));
+        cluster.setFailureRate(0.3);
+        cluster.setJobsCommandFailureRate(0.2);
+        cluster.setJobsCommandDelayMillis(2000);
+        JobManager mgr = new JobManager(cluster);
+
+        JobFuture future = mgr.submitJob(newTemplate(), 1, 500);
+        Collection<JobInfo> infos = run(cluster, mgr, future);
+
+        Assert.assertEquals(500, infos.size());
+        long failed = infos.stream().filter(info -> info.getStatus() == JobStatus.EXIT).count();
+        Assert.assertTrue(failed > 100 && failed < 200);
+    }
+
+    @Test
+    public void testKill() throws Exception {
+
+        SimulatedCluster cluster = new SimulatedCluster(2, 1);
+        JobManager mgr = new JobManager(cluster);
+
+        JobFuture future = mgr.submitJob(newTemplate(), 1, 5);
+        cluster.advance(1000);
+        mgr.killJobArrayElements(future.getJobId(), Arrays.asList(1L, 5L));
+        Assert.assertEquals(1, cluster.getRunningCount());
+        cluster.advance(0);
+        Assert.assertEquals(2, cluster.getRunningCount());
+
+        Collection<JobInfo> infos = run(cluster, mgr, future);
+        long killed = infos.stream().filter(info -> info.getStatus() == JobStatus.EXIT).count();
+        Assert.assertEquals(2, killed);
+    }
+
+    @Test
+    public void testTargetedQueries() throws Exception {
+
+        SimulatedCluster cluster = new SimulatedCluster(10, 1);
+        cluster.setKeepFinishedMinutes(1);
+        JobInfo job1 = cluster.submitJobs(newTemplate(), 1L, 3L);
+        JobInfo job2 = cluster.submitJob(newTemplate());
+        JobInfo job3 = cluster.submitJob(newTemplate());
+
+        // Only the requested jobs are reported, by a single query
+        List<JobInfo> infos = cluster.getJobInfo(Arrays.asList(job1.getJobId(), job3.getJobId(), 999L));
+        Assert.assertEquals(4, infos.size());
+        Assert.assertFalse(infos.stream().anyMatch(info -> info.getJobId().equals(job2.getJobId())));
+        Assert.assertEquals(1, cluster.getJobsCommandCount());
+        Assert.assertEquals(1, cluster.getTargetedCommandCount());
+        Assert.assertEquals(4, cluster.getReportedCount());
+
+        // Finished jobs are forgotten in the same way as by a full listing
+        cluster.advance(3 * 60 * 1000);
+        Assert.assertTrue(cluster.getJobInfo(Collections.singletonList(job1.getJobId())).isEmpty());
+        Assert.assertTrue(cluster.getJobInfo().isEmpty());
+        Assert.assertEquals(3, cluster.getJobsCommandCount());
+        Assert.assertEquals(2, cluster.getTargetedCommandCount());
+    }
+
+    @Test
+    public void testScheduledChecks() throws Exception {
+
+        SimulatedCluster cluster = new SimulatedCluster(10, 1);
+        JobManager mgr = new JobManager(cluster);
+        JobCheckSchedule schedule = new JobCheckSchedule();
+        schedule.setMinIntervalMillis(0);
+        schedule.setMaxIntervalMillis(0);
+        mgr.setCheckSchedule(schedule);
+
+        JobFuture future = mgr.submitJob(newTemplate(), 1, 5);
+        Assert.assertEquals(5, run(cluster, mgr, future).size());
+
+        // Every check was a targeted query
+        Assert.assertTrue(cluster.getTargetedCommandCount() > 0);
+        Assert.assertEquals(cluster.getJobsCommandCount(), cluster.getTargetedCommandCount());
+    }
+
+    private Collection<JobInfo> run(SimulatedCluster cluster, JobManager mgr, JobFuture future) throws Exception {
+        for (int i = 0; i < 10000 && !future.isDone(); i++) {
+            cluster.advance(5000);
+            mgr.checkJobs();
+        }
+        return future.get(1, TimeUnit.SECONDS);
+    }
+
+    private JobTemplate newTemplate() {
+        JobTemplate jt = new JobTemplate();
+        jt.setJobName("simTest");
+        jt.setRemoteCommand("true");
+        return jt;
+    }
+}
@@ -0,0 +1,101 @@
+package org.janelia.cluster.lsf.mock;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import org.janelia.cluster.JobFuture;
+import org.janelia.cluster.JobInfo;
+import org.janelia.cluster.JobManager;
+import org.janelia.cluster.JobStatus;
+import org.janelia.cluster.JobTemplate;
+import org.janelia.cluster.lsf.StubSyncApi;
+import org.junit.Assert;
+import org.junit.Test;
+
+/**
+ * JobManager tests which run against the in-memory StubSyncApi.
+ */
+public class StubJobManagerTests {
+
+    @Test
+    public void testSubmissionInfoBeforeFirstCheck() throws Exception {
+
+        StubSyncApi syncApi = new StubSyncApi();
+        JobManager mgr = new JobManager(syncApi);
+        JobFuture future = mgr.submitJob(newTemplate(), 1, 3);
+
+        // Until the first check, the job is known by the info returned on submission
+        Collection<JobInfo> infos = mgr.getJobInfo(future.getJobId());
+        Assert.assertEquals(1, infos.size());
+        JobInfo info = infos.iterator().next();
+        Assert.assertEquals(JobStatus.PENDING, info.getStatus());
+        Assert.assertNull(info.getArrayIndex());
+        Assert.assertEquals("short", info.getQueue());
+        Assert.assertEquals(new Integer(3), mgr.getActiveJobCounts().get("short"));
+
+        // After it, the elements replace the submission info
+        mgr.checkJobs();
+        infos = mgr.getJobInfo(future.getJobId());
+        Assert.assertEquals(3, infos.size());
+        for (JobInfo element : infos) {
+            Assert.assertNotNull(element.getArrayIndex());
+        }
+    }
+
+    @Test
+    public void testMissingJobResolvedFromHistory() throws Exception {
+
+        StubSyncApi syncApi = new StubSyncApi();
+        JobManager mgr = new JobManager(syncApi);
+        JobFuture future = mgr.submitJob(newTemplate(), 1, 2);
+        JobFuture other = mgr.submitJob(newTemplate());
+        mgr.checkJobs();
+
+        // Both jobs finish and drop out of the job list before the next check
+        syncApi.finish(future.getJobId(), 1L, JobStatus.DONE, 0, null);
+        syncApi.finish(future.getJobId(), 2L, JobStatus.EXIT, 2, "TERM_MEMLIMIT");
+        syncApi.finish(other.getJobId(), null, JobStatus.DONE, 0, null);
+        syncApi.clean(future.getJobId());
+        syncApi.clean(other.getJobId());
+        mgr.checkJobs();
+
+        Assert.assertTrue(future.isDone());
+        Assert.assertTrue(other.isDone());
+        List<JobInfo> infos = new ArrayList<>(future.get());
+        Assert.assertEquals(2, infos.size());
+        Assert.assertEquals(new Integer(2), infos.get(1).getExitCode());
+        Assert.assertEquals("TERM_MEMLIMIT", infos.get(1).getExitReason());
+    }
+
+    @Test
+    public void testPartialArrayListingDoesNotComplete() throws Exception {
+
+        StubSyncApi syncApi = new StubSyncApi();
+        JobManager mgr = new JobManager(syncApi);
+        JobFuture future = mgr.submitJob(newTemplate(), 1, 3);
+        mgr.checkJobs();
+
+        // All elements finish, but one of them has already been cleaned from the job list
+        syncApi.finishAll(JobStatus.DONE, 0);
+        JobInfo cleaned = syncApi.getJobs(future.getJobId()).remove(2);
+        mgr.checkJobs();
+        Assert.assertFalse(future.isDone());
+        Assert.assertEquals(2, mgr.getJobInfo(future.getJobId()).size());
+
+        // Its info arrives from another source
+        mgr.updateJobs(Collections.singletonList(cleaned));
+        Assert.assertTrue(future.isDone());
+        Assert.assertEquals(3, future.get().size());
+    }
+
+    private JobTemplate newTemplate() {
+        JobTemplate jt = new JobTemplate();
+        jt.setJobName("stubbed");
+        jt.setRemoteCommand("true");
+        jt.setNativeSpecification(Arrays.asList("-q", "short"));
+        return jt;
+    }
+}